@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.benchmark;
+
+import aeron.prometheus.collector.AeronCollector;
+import aeron.prometheus.collector.CncFileReader;
+import io.prometheus.client.Collector;
+import org.agrona.concurrent.status.CountersReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per scrape latency of the simpleclient collector path, reading cnc.dat on every scrape.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CollectorBenchmark {
+    private static final String[] LABELS = {
+            "Bytes sent",
+            "Failed offers to ReceiverProxy",
+            "Heartbeats received",
+            "Retransmitted bytes",
+            "NAKs sent",
+            "Loss gap fills",
+            "Client liveness timeouts",
+            "Conductor max cycle time doing its work in ns"
+    };
+
+    @Param({"100", "1000", "10000", "100000"})
+    int counters;
+
+    SyntheticCncFile cncFile;
+    CncFileReader cncFileReader;
+    AeronCollector collector;
+    int labelIndex;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cncFile = new SyntheticCncFile(counters);
+        cncFileReader = new CncFileReader(cncFile.aeronDir());
+        collector = new AeronCollector(cncFileReader);
+    }
+
+    @Setup(Level.Iteration)
+    public void advance() {
+        cncFile.advance(1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cncFileReader.close();
+        cncFile.close();
+    }
+
+    @Benchmark
+    public List<Collector.MetricFamilySamples> collect() {
+        return collector.collect();
+    }
+
+    @Benchmark
+    public CountersReader getCountersReader() throws IOException {
+        return cncFileReader.getCountersReader();
+    }
+
+    @Benchmark
+    public String formatLabels() {
+        labelIndex = (labelIndex + 1) & (LABELS.length - 1);
+        return collector.formatLabels(LABELS[labelIndex]);
+    }
+}
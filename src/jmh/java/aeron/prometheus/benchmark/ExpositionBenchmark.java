@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.benchmark;
+
+import aeron.prometheus.collector.CncFileReader;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterSnapshot;
+import aeron.prometheus.collector.CounterSnapshotter;
+import aeron.prometheus.exposition.TextExpositionWriter;
+import org.agrona.ExpandableDirectByteBuffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end throughput of the streaming exposition: read cnc.dat into a snapshot and write it in the text format,
+ * plus the write alone from a snapshot already taken, as served by the background sampler.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ExpositionBenchmark {
+    @Param({"100", "1000", "10000", "100000"})
+    int counters;
+
+    SyntheticCncFile cncFile;
+    CncFileReader cncFileReader;
+    CounterSnapshotter snapshotter;
+    TextExpositionWriter writer;
+    ExpandableDirectByteBuffer buffer;
+    CounterSnapshot scrapeSnapshot;
+    CounterSnapshot heldSnapshot;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cncFile = new SyntheticCncFile(counters);
+        cncFileReader = new CncFileReader(cncFile.aeronDir());
+        CounterRegistry counterRegistry = CounterRegistry.driverCounters();
+        snapshotter = new CounterSnapshotter(cncFileReader, counterRegistry);
+        writer = new TextExpositionWriter(counterRegistry);
+        buffer = new ExpandableDirectByteBuffer(64 * 1024);
+        scrapeSnapshot = new CounterSnapshot();
+        heldSnapshot = new CounterSnapshot();
+    }
+
+    @Setup(Level.Iteration)
+    public void takeSnapshot() {
+        cncFile.advance(1024);
+        snapshotter.fill(heldSnapshot);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        snapshotter.close();
+        cncFile.close();
+    }
+
+    @Benchmark
+    public int scrape() {
+        snapshotter.fill(scrapeSnapshot);
+        return writer.writeCounters(scrapeSnapshot, buffer, 0);
+    }
+
+    @Benchmark
+    public int writeSnapshot() {
+        return writer.writeCounters(heldSnapshot, buffer, 0);
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package aeron.prometheus.benchmark;
+
+import aeron.prometheus.collector.CncFileReader;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterSnapshotter;
+import aeron.prometheus.collector.DriverGroup;
+import aeron.prometheus.collector.SynchronousSnapshotSource;
+import aeron.prometheus.exposition.MetricsHandler;
+import aeron.prometheus.exposition.SelectorHttpServer;
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.CollectorRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scrape latency over a kept alive connection, through the com.sun.net.httpserver provider (jetty on the benchmark classpath)
+ * and through the single threaded {@link SelectorHttpServer}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class HttpServerBenchmark {
+    @Param({"provider", "selector"})
+    String server;
+
+    @Param({"1000", "10000"})
+    int counters;
+
+    SyntheticCncFile cncFile;
+    CncFileReader cncFileReader;
+    HttpServer providerServer;
+    ExecutorService providerExecutor;
+    SelectorHttpServer selectorServer;
+    HttpClient client;
+    HttpRequest request;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cncFile = new SyntheticCncFile(counters);
+        cncFileReader = new CncFileReader(cncFile.aeronDir());
+        DriverGroup driverGroup = DriverGroup.single(new SynchronousSnapshotSource(
+                new CounterSnapshotter(cncFileReader, CounterRegistry.driverCounters())));
+
+        int port;
+        if ("selector".equals(server)) {
+            selectorServer = new SelectorHttpServer(new InetSocketAddress("localhost", 0), driverGroup, new CollectorRegistry());
+            selectorServer.start();
+            port = selectorServer.address().getPort();
+        } else {
+            providerServer = HttpServer.create(new InetSocketAddress("localhost", 0), 3);
+            providerServer.createContext("/metrics", new MetricsHandler(driverGroup, new CollectorRegistry()));
+            providerExecutor = Executors.newFixedThreadPool(5);
+            providerServer.setExecutor(providerExecutor);
+            providerServer.start();
+            port = providerServer.getAddress().getPort();
+        }
+
+        client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        request = HttpRequest.newBuilder(URI.create("http://localhost:" + port + "/metrics")).GET().build();
+    }
+
+    @Setup(Level.Iteration)
+    public void advance() {
+        cncFile.advance(1024);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        if (selectorServer != null) {
+            selectorServer.close();
+        }
+        if (providerServer != null) {
+            providerServer.stop(0);
+            providerExecutor.shutdown();
+        }
+        cncFileReader.close();
+        cncFile.close();
+    }
+
+    @Benchmark
+    public byte[] scrape() throws IOException, InterruptedException {
+        return client.send(request, HttpResponse.BodyHandlers.ofByteArray()).body();
+    }
+}
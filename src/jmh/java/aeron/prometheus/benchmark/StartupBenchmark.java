@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package aeron.prometheus.benchmark;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time from launching an exporter process to its first answered scrape, and the resident set size of the process right after,
+ * with the com.sun.net.httpserver provider (jetty) and with the single threaded selector server.
+ * <p>
+ * Extra JVM options of the exporter, e.g. an AppCDS archive, are taken from the EXPORTER_JVM_OPTIONS environment variable, as in
+ * EXPORTER_JVM_OPTIONS=-XX:SharedArchiveFile=exporter.jsa ./gradlew jmh -Pjmh.includes=StartupBenchmark. The RSS is only measured on Linux.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class StartupBenchmark {
+    private static final byte[] SCRAPE = "GET /metrics HTTP/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    @Param({"provider", "selector"})
+    String server;
+
+    SyntheticCncFile cncFile;
+    Process process;
+
+    /**
+     * Resident set size of the exporter after its first scrape.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Footprint {
+        public long rssKb;
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        cncFile = new SyntheticCncFile(1000);
+    }
+
+    @TearDown(Level.Invocation)
+    public void stopExporter() throws InterruptedException {
+        if (process != null) {
+            process.destroy();
+            process.waitFor();
+            process = null;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cncFile.close();
+    }
+
+    @Benchmark
+    public int startToFirstScrape(Footprint footprint) throws IOException, InterruptedException {
+        int port = freePort();
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        String jvmOptions = System.getenv("EXPORTER_JVM_OPTIONS");
+        if (jvmOptions != null && !jvmOptions.isBlank()) {
+            command.addAll(List.of(jvmOptions.trim().split("\\s+")));
+        }
+        command.addAll(List.of(
+                "-cp", System.getProperty("java.class.path"),
+                "-Dport=" + port,
+                "-Daeron.dir=" + cncFile.aeronDir(),
+                "-Dexporter.http.server=" + server,
+                "aeron.prometheus.WebServer"));
+        ProcessBuilder builder = new ProcessBuilder(command);
+        builder.redirectErrorStream(true).redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        process = builder.start();
+
+        int length;
+        while ((length = scrape(port)) < 0) {
+            if (!process.isAlive()) {
+                throw new IllegalStateException("Exporter exited with " + process.exitValue());
+            }
+            Thread.sleep(1);
+        }
+
+        footprint.rssKb = rssKb(process.pid());
+        return length;
+    }
+
+    /**
+     * @return length of the response, -1 when the exporter is not listening yet.
+     */
+    private static int scrape(int port) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(SCRAPE);
+            out.flush();
+            InputStream in = socket.getInputStream();
+            return in.readAllBytes().length;
+        } catch (ConnectException e) {
+            return -1;
+        }
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static long rssKb(long pid) throws IOException {
+        Path status = Paths.get("/proc", Long.toString(pid), "status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        return -1;
+    }
+}
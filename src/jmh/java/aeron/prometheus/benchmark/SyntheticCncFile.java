@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.benchmark;
+
+import aeron.prometheus.collector.CounterTypes;
+import io.aeron.CncFileDescriptor;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.broadcast.BroadcastBufferDescriptor;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+import org.agrona.concurrent.status.CountersManager;
+import org.agrona.concurrent.status.CountersReader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.agrona.BitUtil.SIZE_OF_INT;
+import static org.agrona.BitUtil.SIZE_OF_LONG;
+
+/**
+ * A cnc.dat file written without a media driver, holding a given number of counters shaped like the ones of a busy driver:
+ * the system counters, then per stream publisher, sender, receiver and subscriber positions spread over a few channels,
+ * and a heartbeat per client.
+ */
+final class SyntheticCncFile implements AutoCloseable {
+    private static final int SYSTEM_COUNTERS = 30;
+    private static final int CHANNELS = 16;
+    private static final int CLIENTS = 8;
+    private static final int BUFFER_LENGTH = 64 * 1024;
+    private static final int[] STREAM_TYPES = {
+            CounterTypes.PUBLISHER_LIMIT,
+            CounterTypes.PUBLISHER_POSITION,
+            CounterTypes.SENDER_POSITION,
+            CounterTypes.SENDER_LIMIT,
+            CounterTypes.RECEIVER_HWM,
+            CounterTypes.RECEIVER_POSITION,
+            CounterTypes.SUBSCRIBER_POSITION
+    };
+
+    private final Path aeronDir;
+    private final MappedByteBuffer cncByteBuffer;
+    private final CountersManager countersManager;
+    private final int counters;
+
+    /**
+     * @param counters number of counters to allocate.
+     * @throws IOException when the file could not be created.
+     */
+    SyntheticCncFile(int counters) throws IOException {
+        this.counters = counters;
+        this.aeronDir = Files.createTempDirectory("aeron-exporter-jmh");
+
+        int toDriverBufferLength = BUFFER_LENGTH + RingBufferDescriptor.TRAILER_LENGTH;
+        int toClientsBufferLength = BUFFER_LENGTH + BroadcastBufferDescriptor.TRAILER_LENGTH;
+        int metaDataLength = counters * CountersReader.METADATA_LENGTH;
+        int valuesLength = counters * CountersReader.COUNTER_LENGTH;
+        int errorLogLength = BUFFER_LENGTH;
+        int cncFileLength = CncFileDescriptor.computeCncFileLength(
+                toDriverBufferLength + toClientsBufferLength + metaDataLength + valuesLength + errorLogLength, 4096);
+
+        File cncFile = aeronDir.resolve(CncFileDescriptor.CNC_FILE).toFile();
+        cncByteBuffer = IoUtil.mapNewFile(cncFile, cncFileLength);
+
+        UnsafeBuffer metaData = CncFileDescriptor.createMetaDataBuffer(cncByteBuffer);
+        CncFileDescriptor.fillMetaData(metaData, toDriverBufferLength, toClientsBufferLength, metaDataLength, valuesLength,
+                TimeUnit.SECONDS.toNanos(10), errorLogLength, System.currentTimeMillis(), ProcessHandle.current().pid());
+
+        countersManager = new CountersManager(
+                CncFileDescriptor.createCountersMetaDataBuffer(cncByteBuffer, metaData),
+                CncFileDescriptor.createCountersValuesBuffer(cncByteBuffer, metaData),
+                StandardCharsets.US_ASCII);
+        allocateCounters();
+
+        CncFileDescriptor.signalCncReady(metaData);
+    }
+
+    /**
+     * @return aeron directory holding cnc.dat.
+     */
+    Path aeronDir() {
+        return aeronDir;
+    }
+
+    /**
+     * Moves every counter forward, as a busy driver would between two scrapes.
+     *
+     * @param delta added to every counter value.
+     */
+    void advance(long delta) {
+        for (int id = 0; id < counters; id++) {
+            countersManager.setCounterValue(id, countersManager.getCounterValue(id) + delta);
+        }
+    }
+
+    @Override
+    public void close() {
+        IoUtil.unmap(cncByteBuffer);
+        IoUtil.delete(aeronDir.toFile(), true);
+    }
+
+    private void allocateCounters() {
+        int id = 0;
+        for (; id < Math.min(SYSTEM_COUNTERS, counters); id++) {
+            countersManager.allocate("System counter " + id, CounterTypes.SYSTEM);
+        }
+        for (int client = 0; client < CLIENTS && id < counters; client++, id++) {
+            final long clientId = client;
+            countersManager.allocate("client-heartbeat: " + clientId, CounterTypes.CLIENT_HEARTBEAT,
+                    keyBuffer -> keyBuffer.putLong(0, clientId));
+        }
+
+        for (int stream = 0; id < counters; stream++) {
+            final int sessionId = stream;
+            final int streamId = stream % 100;
+            final String channel = "aeron:udp?endpoint=10.0.0." + (stream % CHANNELS) + ":40456";
+            for (int typeId : STREAM_TYPES) {
+                if (id == counters) {
+                    break;
+                }
+                final long registrationId = id++;
+                countersManager.allocate(
+                        "pos: " + registrationId + " " + sessionId + " " + streamId + " " + channel,
+                        typeId,
+                        keyBuffer -> {
+                            keyBuffer.putLong(0, registrationId);
+                            keyBuffer.putInt(SIZE_OF_LONG, sessionId);
+                            keyBuffer.putInt(SIZE_OF_LONG + SIZE_OF_INT, streamId);
+                            keyBuffer.putStringAscii(SIZE_OF_LONG + 2 * SIZE_OF_INT, channel);
+                        });
+            }
+        }
+    }
+}
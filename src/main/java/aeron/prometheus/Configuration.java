@@ -0,0 +1,558 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus;
+
+import aeron.prometheus.collector.CounterFilter;
+import aeron.prometheus.collector.CounterProfile;
+import aeron.prometheus.recorder.CounterDeltaDecoder;
+import org.agrona.concurrent.BackoffIdleStrategy;
+import org.agrona.concurrent.BusySpinIdleStrategy;
+import org.agrona.concurrent.IdleStrategy;
+import org.agrona.concurrent.SleepingMillisIdleStrategy;
+import org.agrona.concurrent.YieldingIdleStrategy;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static java.lang.System.getProperty;
+
+/**
+ * Exporter configuration read from system properties.
+ */
+public final class Configuration {
+    /**
+     * Interval between background samples of the counters in milliseconds, 0 reads cnc.dat on every scrape instead.
+     */
+    public static final String SAMPLER_INTERVAL_MS_PROP_NAME = "exporter.sampler.interval.ms";
+
+    /**
+     * Idle strategy of the sampler thread: "sleep" (default), "backoff", "yield" or "spin".
+     */
+    public static final String SAMPLER_IDLE_STRATEGY_PROP_NAME = "exporter.sampler.idle.strategy";
+
+    /**
+     * How the counters are exposed: "streaming" (default) writes them straight into the response,
+     * "simpleclient" goes through the simpleclient collector registry and HTTPServer.
+     */
+    public static final String EXPOSITION_PROP_NAME = "exporter.exposition";
+
+    /**
+     * HTTP server of the streaming exposition: "provider" (default) uses the com.sun.net.httpserver provider, jetty when on the classpath,
+     * "selector" a single threaded NIO server, see aeron.prometheus.exposition.SelectorHttpServer.
+     */
+    public static final String HTTP_SERVER_PROP_NAME = "exporter.http.server";
+
+    /**
+     * When true, renders every exposition format a few times at startup and exits, to record the classes of the scrape path
+     * into an AppCDS archive. Defaults to false.
+     */
+    public static final String TRAINING_RUN_PROP_NAME = "exporter.training.run";
+
+    /**
+     * Interval per second rates of the monotonic counters are computed over in milliseconds, 0 (default) disables rates.
+     * Rates shorter than the scrape interval need the background sampler running at a higher frequency.
+     */
+    public static final String RATE_INTERVAL_MS_PROP_NAME = "exporter.rate.interval.ms";
+
+    /**
+     * Window the peak rates are taken over in milliseconds, typically the scrape interval. Defaults to 15000.
+     */
+    public static final String RATE_WINDOW_MS_PROP_NAME = "exporter.rate.window.ms";
+
+    /**
+     * Comma separated counter profiles of the components running on the media drivers: "driver" (default), "archive" and "cluster".
+     * Counters of a component without a profile are exported under the generic "aeron_counter" family.
+     */
+    public static final String COUNTER_PROFILES_PROP_NAME = "exporter.counter.profiles";
+
+    /**
+     * Comma separated aeron directories of the media drivers to export, the last path segment may be a glob, e.g. "/dev/shm/aeron-*".
+     * Unset (default) exports the single media driver in "aeron.dir".
+     */
+    public static final String AERON_DIRS_PROP_NAME = "exporter.aeron.dirs";
+
+    /**
+     * Directory whose subdirectories holding a cnc.dat file are exported as media drivers, e.g. "/dev/shm".
+     */
+    public static final String AERON_DIRS_PARENT_PROP_NAME = "exporter.aeron.dirs.parent";
+
+    /**
+     * Interval between two discoveries of the media driver directories in milliseconds. Defaults to 5000.
+     */
+    public static final String DISCOVERY_INTERVAL_MS_PROP_NAME = "exporter.discovery.interval.ms";
+
+    /**
+     * URL the counters are pushed to with timestamps, e.g. a VictoriaMetrics "/api/v1/import/prometheus" endpoint.
+     * Unset (default) disables pushing.
+     */
+    public static final String PUSH_URL_PROP_NAME = "exporter.push.url";
+
+    /**
+     * Interval between two pushes in milliseconds. Defaults to 10000.
+     */
+    public static final String PUSH_INTERVAL_MS_PROP_NAME = "exporter.push.interval.ms";
+
+    /**
+     * Maximum number of renders waiting to be pushed, the oldest are dropped beyond. Defaults to 64.
+     */
+    public static final String PUSH_QUEUE_CAPACITY_PROP_NAME = "exporter.push.queue.capacity";
+
+    /**
+     * Maximum number of renders pushed in one request. Defaults to 8.
+     */
+    public static final String PUSH_BATCH_SIZE_PROP_NAME = "exporter.push.batch.size";
+
+    /**
+     * Directory the counters are recorded into at a high rate for post-mortems, see aeron.prometheus.recorder.RecordingTool.
+     * Unset (default) disables recording.
+     */
+    public static final String RECORDER_DIR_PROP_NAME = "exporter.recorder.dir";
+
+    /**
+     * Interval between two recorded samples in microseconds. Defaults to 1000.
+     */
+    public static final String RECORDER_INTERVAL_US_PROP_NAME = "exporter.recorder.interval.us";
+
+    /**
+     * Length of a recording segment file in bytes. Defaults to 64MB.
+     */
+    public static final String RECORDER_SEGMENT_LENGTH_PROP_NAME = "exporter.recorder.segment.length";
+
+    /**
+     * Total length of the recording segments kept in bytes, the oldest are deleted beyond. Defaults to 1GB.
+     */
+    public static final String RECORDER_RETENTION_BYTES_PROP_NAME = "exporter.recorder.retention.bytes";
+
+    /**
+     * Idle strategy of the recorder thread, see {@link #SAMPLER_IDLE_STRATEGY_PROP_NAME}. Defaults to "backoff".
+     */
+    public static final String RECORDER_IDLE_STRATEGY_PROP_NAME = "exporter.recorder.idle.strategy";
+
+    /**
+     * Comma separated type ids of the counters to export, unset (default) exports all types.
+     */
+    public static final String FILTER_INCLUDE_TYPES_PROP_NAME = "exporter.filter.include.types";
+
+    /**
+     * Comma separated type ids of the counters not to export.
+     */
+    public static final String FILTER_EXCLUDE_TYPES_PROP_NAME = "exporter.filter.exclude.types";
+
+    /**
+     * Regular expression found in the labels of the counters to export, as stored in cnc.dat.
+     */
+    public static final String FILTER_INCLUDE_LABEL_PROP_NAME = "exporter.filter.include.label";
+
+    /**
+     * Regular expression found in the labels of the counters not to export, as stored in cnc.dat.
+     */
+    public static final String FILTER_EXCLUDE_LABEL_PROP_NAME = "exporter.filter.exclude.label";
+
+    /**
+     * Regular expression found in the channels of the stream and channel counters to export.
+     */
+    public static final String FILTER_INCLUDE_CHANNEL_PROP_NAME = "exporter.filter.include.channel";
+
+    /**
+     * Regular expression found in the channels of the stream and channel counters not to export.
+     */
+    public static final String FILTER_EXCLUDE_CHANNEL_PROP_NAME = "exporter.filter.exclude.channel";
+
+    /**
+     * Maximum number of series exported per family and media driver, the series with the lowest values are dropped beyond.
+     * Defaults to 0, no limit.
+     */
+    public static final String SERIES_LIMIT_PROP_NAME = "exporter.series.limit";
+
+    /**
+     * Port the gateway listens on for agents, e.g. 9441. When set, the process exports the counters pushed by the agents
+     * of many hosts, labelled with their "host", instead of reading a local cnc.dat.
+     */
+    public static final String GATEWAY_PORT_PROP_NAME = "exporter.gateway.port";
+
+    /**
+     * Address of the gateway as "host:port". When set, the process runs as an agent pushing the counters of the media driver
+     * in "aeron.dir" to the gateway and serves no HTTP endpoint.
+     */
+    public static final String GATEWAY_ADDRESS_PROP_NAME = "exporter.gateway.address";
+
+    /**
+     * Name of the host an agent pushes the counters of, exported as the "host" label. Defaults to the local host name.
+     */
+    public static final String GATEWAY_HOST_PROP_NAME = "exporter.gateway.host";
+
+    /**
+     * Interval between two samples pushed by an agent in milliseconds. Defaults to 1000.
+     */
+    public static final String GATEWAY_INTERVAL_MS_PROP_NAME = "exporter.gateway.interval.ms";
+
+    /**
+     * Bytes an agent lets wait to be sent before merging samples into the next one. Defaults to 1048576.
+     */
+    public static final String GATEWAY_BATCH_LENGTH_PROP_NAME = "exporter.gateway.batch.length";
+
+    /**
+     * Idle strategy of the agent thread: "sleep" (default), "backoff", "yield" or "spin".
+     */
+    public static final String GATEWAY_IDLE_STRATEGY_PROP_NAME = "exporter.gateway.idle.strategy";
+
+    /**
+     * Number of shards the hosts are spread over by the gateway. Defaults to 16.
+     */
+    public static final String GATEWAY_SHARDS_PROP_NAME = "exporter.gateway.shards";
+
+    /**
+     * Time the gateway keeps exporting the last counters of a disconnected host in milliseconds. Defaults to 300000.
+     */
+    public static final String GATEWAY_EXPIRY_MS_PROP_NAME = "exporter.gateway.expiry.ms";
+
+    /**
+     * Maximum number of counters the gateway accepts from a host, bounding the memory a host can take. Defaults to 65536.
+     */
+    public static final String GATEWAY_MAX_COUNTERS_PROP_NAME = "exporter.gateway.max.counters";
+
+    private Configuration() {
+    }
+
+    /**
+     * @return interval between background samples in milliseconds, 0 when sampling is disabled.
+     */
+    public static long samplerIntervalMs() {
+        return Long.getLong(SAMPLER_INTERVAL_MS_PROP_NAME, 0);
+    }
+
+    /**
+     * @return new idle strategy instance for the sampler thread.
+     */
+    public static IdleStrategy samplerIdleStrategy() {
+        return idleStrategy(getProperty(SAMPLER_IDLE_STRATEGY_PROP_NAME, "sleep"));
+    }
+
+    /**
+     * @return interval rates are computed over in milliseconds, 0 when rates are disabled.
+     */
+    public static long rateIntervalMs() {
+        return Long.getLong(RATE_INTERVAL_MS_PROP_NAME, 0);
+    }
+
+    /**
+     * @return window peak rates are taken over in milliseconds.
+     */
+    public static long rateWindowMs() {
+        return Long.getLong(RATE_WINDOW_MS_PROP_NAME, 15_000);
+    }
+
+    /**
+     * @return true when the counters are written straight into the response instead of through simpleclient.
+     */
+    public static boolean streamingExposition() {
+        String exposition = getProperty(EXPOSITION_PROP_NAME, "streaming");
+        switch (exposition) {
+            case "streaming":
+                return true;
+            case "simpleclient":
+                return false;
+            default:
+                throw new IllegalStateException("Unknown exposition: " + exposition);
+        }
+    }
+
+    /**
+     * @return true when the streaming exposition is served by the single threaded NIO server.
+     */
+    public static boolean selectorHttpServer() {
+        String server = getProperty(HTTP_SERVER_PROP_NAME, "provider");
+        switch (server) {
+            case "provider":
+                return false;
+            case "selector":
+                return true;
+            default:
+                throw new IllegalStateException("Unknown HTTP server: " + server);
+        }
+    }
+
+    /**
+     * @return true when the process only warms up the scrape path and exits.
+     */
+    public static boolean trainingRun() {
+        return Boolean.getBoolean(TRAINING_RUN_PROP_NAME);
+    }
+
+    /**
+     * @return counter profiles to export dedicated families for.
+     */
+    public static Set<CounterProfile> counterProfiles() {
+        Set<CounterProfile> profiles = EnumSet.noneOf(CounterProfile.class);
+        for (String profile : getProperty(COUNTER_PROFILES_PROP_NAME, "driver").split(",")) {
+            if (!profile.isBlank()) {
+                try {
+                    profiles.add(CounterProfile.valueOf(profile.trim().toUpperCase(Locale.ROOT)));
+                } catch (IllegalArgumentException e) {
+                    throw new IllegalStateException("Unknown counter profile: " + profile);
+                }
+            }
+        }
+        return profiles;
+    }
+
+    /**
+     * @return true when several media drivers are exported, see {@link #AERON_DIRS_PROP_NAME} and {@link #AERON_DIRS_PARENT_PROP_NAME}.
+     */
+    public static boolean multipleDrivers() {
+        return getProperty(AERON_DIRS_PROP_NAME) != null || getProperty(AERON_DIRS_PARENT_PROP_NAME) != null;
+    }
+
+    /**
+     * @return aeron directories or globs of the media drivers to export, empty when unset.
+     */
+    public static List<String> aeronDirs() {
+        List<String> dirs = new ArrayList<>();
+        for (String dir : getProperty(AERON_DIRS_PROP_NAME, "").split(",")) {
+            if (!dir.isBlank()) {
+                dirs.add(dir.trim());
+            }
+        }
+        return dirs;
+    }
+
+    /**
+     * @return directory the media drivers are discovered in, null when unset.
+     */
+    public static Path aeronDirsParent() {
+        String parent = getProperty(AERON_DIRS_PARENT_PROP_NAME);
+        return parent == null ? null : Paths.get(parent);
+    }
+
+    /**
+     * @return interval between two discoveries of the media driver directories in milliseconds.
+     */
+    public static long discoveryIntervalMs() {
+        return Long.getLong(DISCOVERY_INTERVAL_MS_PROP_NAME, 5_000);
+    }
+
+    /**
+     * @return URL the counters are pushed to, null when pushing is disabled.
+     */
+    public static URI pushUrl() {
+        String url = getProperty(PUSH_URL_PROP_NAME);
+        return url == null || url.isBlank() ? null : URI.create(url.trim());
+    }
+
+    /**
+     * @return interval between two pushes in milliseconds.
+     */
+    public static long pushIntervalMs() {
+        return Long.getLong(PUSH_INTERVAL_MS_PROP_NAME, 10_000);
+    }
+
+    /**
+     * @return maximum number of renders waiting to be pushed.
+     */
+    public static int pushQueueCapacity() {
+        return Integer.getInteger(PUSH_QUEUE_CAPACITY_PROP_NAME, 64);
+    }
+
+    /**
+     * @return maximum number of renders pushed in one request.
+     */
+    public static int pushBatchSize() {
+        return Integer.getInteger(PUSH_BATCH_SIZE_PROP_NAME, 8);
+    }
+
+    /**
+     * @return directory the counters are recorded into, null when recording is disabled.
+     */
+    public static Path recorderDir() {
+        String dir = getProperty(RECORDER_DIR_PROP_NAME);
+        return dir == null || dir.isBlank() ? null : Paths.get(dir.trim());
+    }
+
+    /**
+     * @return interval between two recorded samples in microseconds.
+     */
+    public static long recorderIntervalUs() {
+        return Long.getLong(RECORDER_INTERVAL_US_PROP_NAME, 1_000);
+    }
+
+    /**
+     * @return length of a recording segment file in bytes.
+     */
+    public static int recorderSegmentLength() {
+        return Integer.getInteger(RECORDER_SEGMENT_LENGTH_PROP_NAME, 64 * 1024 * 1024);
+    }
+
+    /**
+     * @return total length of the recording segments kept in bytes.
+     */
+    public static long recorderRetentionBytes() {
+        return Long.getLong(RECORDER_RETENTION_BYTES_PROP_NAME, 1024L * 1024 * 1024);
+    }
+
+    /**
+     * @return new idle strategy instance for the recorder thread.
+     */
+    public static IdleStrategy recorderIdleStrategy() {
+        return idleStrategy(getProperty(RECORDER_IDLE_STRATEGY_PROP_NAME, "backoff"));
+    }
+
+    /**
+     * @return filter compiled from the include and exclude rules.
+     */
+    public static CounterFilter counterFilter() {
+        return new CounterFilter(
+                typeIds(FILTER_INCLUDE_TYPES_PROP_NAME),
+                typeIds(FILTER_EXCLUDE_TYPES_PROP_NAME),
+                pattern(FILTER_INCLUDE_LABEL_PROP_NAME),
+                pattern(FILTER_EXCLUDE_LABEL_PROP_NAME),
+                pattern(FILTER_INCLUDE_CHANNEL_PROP_NAME),
+                pattern(FILTER_EXCLUDE_CHANNEL_PROP_NAME));
+    }
+
+    /**
+     * @return maximum number of series exported per family, 0 for no limit.
+     */
+    public static int seriesLimit() {
+        return Integer.getInteger(SERIES_LIMIT_PROP_NAME, 0);
+    }
+
+    /**
+     * @return port the gateway listens on for agents, 0 when the process is not a gateway.
+     */
+    public static int gatewayPort() {
+        return Integer.getInteger(GATEWAY_PORT_PROP_NAME, 0);
+    }
+
+    /**
+     * @return address of the gateway the counters are pushed to, null when the process is not an agent.
+     */
+    public static InetSocketAddress gatewayAddress() {
+        String address = getProperty(GATEWAY_ADDRESS_PROP_NAME);
+        if (address == null || address.isBlank()) {
+            return null;
+        }
+
+        int separator = address.lastIndexOf(':');
+        try {
+            return new InetSocketAddress(address.substring(0, separator).trim(), Integer.parseInt(address.substring(separator + 1).trim()));
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Wrong format for gateway address, expected host:port: " + address);
+        }
+    }
+
+    /**
+     * @return name of the host the counters are pushed for.
+     */
+    public static String gatewayHost() {
+        String host = getProperty(GATEWAY_HOST_PROP_NAME);
+        if (host != null && !host.isBlank()) {
+            return host.trim();
+        }
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException("Could not resolve the local host name, set " + GATEWAY_HOST_PROP_NAME, e);
+        }
+    }
+
+    /**
+     * @return interval between two samples pushed by an agent in milliseconds.
+     */
+    public static long gatewayIntervalMs() {
+        return Long.getLong(GATEWAY_INTERVAL_MS_PROP_NAME, 1_000);
+    }
+
+    /**
+     * @return bytes an agent lets wait to be sent before merging samples.
+     */
+    public static int gatewayBatchLength() {
+        return Integer.getInteger(GATEWAY_BATCH_LENGTH_PROP_NAME, 1024 * 1024);
+    }
+
+    /**
+     * @return new idle strategy instance for the agent thread.
+     */
+    public static IdleStrategy gatewayIdleStrategy() {
+        return idleStrategy(getProperty(GATEWAY_IDLE_STRATEGY_PROP_NAME, "sleep"));
+    }
+
+    /**
+     * @return number of shards the hosts are spread over by the gateway.
+     */
+    public static int gatewayShards() {
+        return Integer.getInteger(GATEWAY_SHARDS_PROP_NAME, 16);
+    }
+
+    /**
+     * @return time the gateway keeps a disconnected host in milliseconds.
+     */
+    public static long gatewayExpiryMs() {
+        return Long.getLong(GATEWAY_EXPIRY_MS_PROP_NAME, 300_000);
+    }
+
+    /**
+     * @return maximum number of counters the gateway accepts from a host.
+     */
+    public static int gatewayMaxCounters() {
+        return Integer.getInteger(GATEWAY_MAX_COUNTERS_PROP_NAME, CounterDeltaDecoder.DEFAULT_MAX_COUNTERS);
+    }
+
+    private static Set<Integer> typeIds(String propName) {
+        Set<Integer> typeIds = new HashSet<>();
+        for (String typeId : getProperty(propName, "").split(",")) {
+            if (!typeId.isBlank()) {
+                try {
+                    typeIds.add(Integer.parseInt(typeId.trim()));
+                } catch (NumberFormatException e) {
+                    throw new IllegalStateException("Wrong format for type id in " + propName + ": " + typeId);
+                }
+            }
+        }
+        return typeIds;
+    }
+
+    private static Pattern pattern(String propName) {
+        String regex = getProperty(propName);
+        return regex == null || regex.isEmpty() ? null : Pattern.compile(regex);
+    }
+
+    static IdleStrategy idleStrategy(String name) {
+        switch (name) {
+            case "sleep":
+                return new SleepingMillisIdleStrategy(1);
+            case "backoff":
+                return new BackoffIdleStrategy();
+            case "yield":
+                return new YieldingIdleStrategy();
+            case "spin":
+                return new BusySpinIdleStrategy();
+            default:
+                throw new IllegalStateException("Unknown idle strategy: " + name);
+        }
+    }
+}
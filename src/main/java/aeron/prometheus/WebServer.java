@@ -17,41 +17,246 @@ package aeron.prometheus;
 
 import aeron.prometheus.collector.AeronCollector;
 import aeron.prometheus.collector.CncFileReader;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterSampler;
+import aeron.prometheus.collector.CounterSnapshotter;
+import aeron.prometheus.collector.Driver;
+import aeron.prometheus.collector.DriverDirectories;
+import aeron.prometheus.collector.DriverGroup;
+import aeron.prometheus.collector.ExporterMetrics;
+import aeron.prometheus.collector.RateEngine;
+import aeron.prometheus.collector.SynchronousSnapshotSource;
+import aeron.prometheus.exposition.ExpositionFormat;
+import aeron.prometheus.exposition.ExpositionRenderer;
+import aeron.prometheus.exposition.MetricsHandler;
+import aeron.prometheus.exposition.SelectorHttpServer;
+import aeron.prometheus.gateway.GatewayAgent;
+import aeron.prometheus.gateway.GatewayServer;
+import aeron.prometheus.gateway.GatewayStore;
+import aeron.prometheus.push.MetricsPusher;
+import aeron.prometheus.recorder.CounterRecorder;
+import aeron.prometheus.recorder.RecordingWriter;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
 import io.prometheus.client.CollectorRegistry;
 import io.prometheus.client.exporter.HTTPServer;
+import io.prometheus.client.hotspot.GarbageCollectorExports;
+import io.prometheus.client.hotspot.StandardExports;
+import org.agrona.CloseHelper;
+import org.agrona.concurrent.AgentRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Exports aeron cnc.data counters as an HTTP endpoint for Prometheus to poll.
  * <p>
  * Expects port number for the web server in "port" property.
+ * Counters are read on every scrape unless background sampling is enabled, see {@link Configuration#SAMPLER_INTERVAL_MS_PROP_NAME}.
+ * By default the counters are written straight into the response by a {@link MetricsHandler},
+ * the simpleclient {@link HTTPServer} can be used instead, see {@link Configuration#EXPOSITION_PROP_NAME}.
+ * Several media drivers can be exported by one process, see {@link Configuration#AERON_DIRS_PROP_NAME}.
+ * The counters can also be pushed to a remote endpoint, see {@link Configuration#PUSH_URL_PROP_NAME},
+ * and recorded at a high rate for post-mortems, see {@link Configuration#RECORDER_DIR_PROP_NAME}.
+ * A single threaded HTTP server can replace the com.sun.net.httpserver provider, see {@link Configuration#HTTP_SERVER_PROP_NAME}.
+ * Many hosts can be exported through one gateway, receiving the counters pushed by agents running next to the media drivers,
+ * see {@link Configuration#GATEWAY_PORT_PROP_NAME} and {@link Configuration#GATEWAY_ADDRESS_PROP_NAME}.
  */
 public class WebServer {
     private static final Logger LOGGER = LoggerFactory.getLogger(WebServer.class);
 
     private static final String PORT_PROPERTY = "port";
+    private static final int HTTP_THREADS = 5;
+    private static final Duration PUSH_TIMEOUT = Duration.ofSeconds(10);
+    private static final int TRAINING_RENDERS = 100;
 
     public static void main(String[] args) throws IOException {
         LOGGER.info("Starting Aeron Exporter");
 
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> LOGGER.info("Aeron Exporter is shutting down")));
+        InetSocketAddress gatewayAddress = Configuration.gatewayAddress();
+        if (gatewayAddress != null) {
+            startGatewayAgent(gatewayAddress);
+            return;
+        }
+
+        // the cost of exporting on the host of the media driver: scrape latency and allocations, GC pauses and CPU time
+        ExporterMetrics.register(CollectorRegistry.defaultRegistry);
+        new StandardExports().register();
+        new GarbageCollectorExports().register();
 
-        new AeronCollector(new CncFileReader()).register();
+        CounterRegistry counterRegistry = CounterRegistry.of(Configuration.counterProfiles());
+        DriverGroup driverGroup;
+        GatewayServer gatewayServer = null;
+        if (Configuration.gatewayPort() > 0) {
+            GatewayStore store = new GatewayStore(counterRegistry, Configuration.gatewayShards(),
+                    Configuration.counterFilter(), Configuration.seriesLimit(), Configuration.gatewayExpiryMs(),
+                    Configuration.gatewayMaxCounters());
+            gatewayServer = new GatewayServer(new InetSocketAddress(Configuration.gatewayPort()), store);
+            gatewayServer.start();
+            driverGroup = DriverGroup.supplied(counterRegistry, store::drivers);
+        } else if (Configuration.multipleDrivers()) {
+            driverGroup = DriverGroup.discovering(
+                    counterRegistry,
+                    new DriverDirectories(Configuration.aeronDirs(), Configuration.aeronDirsParent()),
+                    (name, aeronDir) -> createDriver(name, new CncFileReader(aeronDir), counterRegistry),
+                    Configuration.discoveryIntervalMs(), TimeUnit.MILLISECONDS);
+        } else {
+            driverGroup = DriverGroup.single(createDriver(null, new CncFileReader(), counterRegistry));
+        }
+
+        if (Configuration.trainingRun()) {
+            train(driverGroup);
+            CloseHelper.close(driverGroup);
+            return;
+        }
+
+        MetricsPusher pusher = null;
+        URI pushUrl = Configuration.pushUrl();
+        if (pushUrl != null) {
+            ExpositionRenderer renderer = new ExpositionRenderer(driverGroup, CollectorRegistry.defaultRegistry, ExpositionFormat.PROMETHEUS, true);
+            pusher = new MetricsPusher(renderer, pushUrl, Configuration.pushQueueCapacity(), Configuration.pushBatchSize(), PUSH_TIMEOUT);
+            pusher.start(Configuration.pushIntervalMs(), TimeUnit.MILLISECONDS);
+        }
+
+        MetricsPusher shutdownPusher = pusher;
+        GatewayServer shutdownGatewayServer = gatewayServer;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            LOGGER.info("Aeron Exporter is shutting down");
+            // pushes the final counters, before the drivers are released
+            CloseHelper.close(shutdownPusher);
+            CloseHelper.closeAll(shutdownGatewayServer, driverGroup);
+        }));
 
         try {
             int port = Integer.parseInt(System.getProperty(PORT_PROPERTY, "-1"));
             if (port == -1) {
                 throw new IllegalStateException("Port number expected");
+            } else if (Configuration.streamingExposition()) {
+                startStreamingServer(new InetSocketAddress(port), driverGroup);
             } else {
+                new AeronCollector(driverGroup).register();
                 new HTTPServer(new InetSocketAddress(port), CollectorRegistry.defaultRegistry);
             }
         } catch (NumberFormatException e) {
             throw new IllegalStateException("Wrong format for port number");
         }
     }
+
+    private static Driver createDriver(String name, CncFileReader cncFileReader, CounterRegistry counterRegistry) {
+        RateEngine rateEngine = null;
+        if (Configuration.rateIntervalMs() > 0) {
+            rateEngine = new RateEngine(counterRegistry, Configuration.rateIntervalMs(), Configuration.rateWindowMs(), TimeUnit.MILLISECONDS);
+        }
+        CounterSnapshotter snapshotter = new CounterSnapshotter(
+                cncFileReader, counterRegistry, rateEngine, name, Configuration.counterFilter(), Configuration.seriesLimit());
+        AgentRunner recorderRunner = startRecorder(name, cncFileReader.aeronDirectory());
+
+        long samplerIntervalMs = Configuration.samplerIntervalMs();
+        if (samplerIntervalMs > 0) {
+            CounterSampler sampler = new CounterSampler(snapshotter, samplerIntervalMs, TimeUnit.MILLISECONDS);
+            AgentRunner samplerRunner = new AgentRunner(Configuration.samplerIdleStrategy(),
+                    throwable -> LOGGER.atError().log("Error while sampling counters", throwable), null, sampler);
+            AgentRunner.startOnThread(samplerRunner);
+            return new Driver(name, sampler, () -> CloseHelper.closeAll(samplerRunner, recorderRunner));
+        }
+
+        SynchronousSnapshotSource snapshotSource = new SynchronousSnapshotSource(snapshotter);
+        return new Driver(name, snapshotSource, () -> CloseHelper.closeAll(snapshotSource, recorderRunner));
+    }
+
+    /**
+     * Starts recording the counters of the driver when a recorder directory is configured, into a sub directory per driver
+     * when several drivers are exported.
+     *
+     * @return runner of the recorder, null when recording is disabled.
+     */
+    private static AgentRunner startRecorder(String name, Path aeronDir) {
+        Path recorderDir = Configuration.recorderDir();
+        if (recorderDir == null) {
+            return null;
+        }
+
+        RecordingWriter writer;
+        try {
+            writer = new RecordingWriter(name == null ? recorderDir : recorderDir.resolve(name),
+                    Configuration.recorderSegmentLength(), Configuration.recorderRetentionBytes());
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not open the recording in " + recorderDir, e);
+        }
+
+        CounterRecorder recorder = new CounterRecorder(new CncFileReader(aeronDir), writer,
+                Configuration.recorderIntervalUs(), TimeUnit.MICROSECONDS);
+        AgentRunner recorderRunner = new AgentRunner(Configuration.recorderIdleStrategy(),
+                throwable -> LOGGER.atError().log("Error while recording counters", throwable), null, recorder);
+        AgentRunner.startOnThread(recorderRunner);
+        return recorderRunner;
+    }
+
+    /**
+     * Pushes the counters of the media driver in "aeron.dir" to the gateway until the process is stopped.
+     */
+    private static void startGatewayAgent(InetSocketAddress gatewayAddress) {
+        String host = Configuration.gatewayHost();
+        LOGGER.atInfo().log("Pushing the counters of host {} to the gateway {}", host, gatewayAddress);
+
+        GatewayAgent agent = new GatewayAgent(new CncFileReader(), gatewayAddress, host,
+                Configuration.gatewayIntervalMs(), TimeUnit.MILLISECONDS, Configuration.gatewayBatchLength());
+        AgentRunner agentRunner = new AgentRunner(Configuration.gatewayIdleStrategy(),
+                throwable -> LOGGER.atError().log("Error while pushing counters to the gateway", throwable), null, agent);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> CloseHelper.close(agentRunner)));
+        AgentRunner.startOnThread(agentRunner);
+    }
+
+    /**
+     * Runs the scrape path without serving it, so a JVM started with -XX:DumpLoadedClassList or -XX:ArchiveClassesAtExit
+     * records its classes for an AppCDS archive.
+     */
+    private static void train(DriverGroup driverGroup) throws IOException {
+        LOGGER.info("Training run, rendering the counters and exiting");
+        for (ExpositionFormat format : ExpositionFormat.values()) {
+            ExpositionRenderer renderer = new ExpositionRenderer(driverGroup, CollectorRegistry.defaultRegistry, format, false);
+            for (int i = 0; i < TRAINING_RENDERS; i++) {
+                renderer.render();
+            }
+        }
+        new AeronCollector(driverGroup).collect();
+    }
+
+    private static void startStreamingServer(InetSocketAddress address, DriverGroup driverGroup) throws IOException {
+        if (Configuration.selectorHttpServer()) {
+            new SelectorHttpServer(address, driverGroup, CollectorRegistry.defaultRegistry).start();
+            return;
+        }
+
+        MetricsHandler metricsHandler = new MetricsHandler(driverGroup, CollectorRegistry.defaultRegistry);
+
+        HttpServer server = HttpServer.create(address, 3);
+        server.createContext("/", metricsHandler);
+        server.createContext("/metrics", metricsHandler);
+        server.createContext("/-/healthy", WebServer::healthy);
+        server.setExecutor(Executors.newFixedThreadPool(HTTP_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "aeron-exporter-http");
+            thread.setDaemon(false);
+            return thread;
+        }));
+        server.start();
+    }
+
+    private static void healthy(HttpExchange exchange) throws IOException {
+        byte[] body = "Exporter is Healthy.".getBytes(StandardCharsets.US_ASCII);
+        exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, body.length);
+        exchange.getResponseBody().write(body);
+        exchange.close();
+    }
 }
@@ -16,16 +16,9 @@
 package aeron.prometheus.collector;
 
 import io.prometheus.client.Collector;
-import org.agrona.concurrent.status.CountersReader;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Locale;
-
-import static io.aeron.driver.status.SystemCounterDescriptor.SYSTEM_COUNTER_TYPE_ID;
 
 /**
  * Exports counters from aeron cnc.dat file to Prometheus.
@@ -33,23 +26,61 @@ import static io.aeron.driver.status.SystemCounterDescriptor.SYSTEM_COUNTER_TYPE
  * Aeron counters file is expected at the default path, use "aeron.dir" property to change it.
  * Reads the systems counters from the cnc.dat file, sanitizes the labels to comply with <a href="https://prometheus.io/docs/practices/naming/">Prometheus naming conventions</a>.
  * Using the UNTYPED type for the Prometheus metrics according to the guide <a href="https://prometheus.io/docs/instrumenting/writing_exporters/">here</a>.
+ * <p>
+ * All other counters are exported under the metric family their type id maps to in the {@link CounterRegistry},
+ * with labels parsed from the counter key.
+ * <p>
+ * With several media drivers, the counters of all drivers are merged into the same families and told apart by the "driver" label.
  */
 public final class AeronCollector extends Collector implements Collector.Describable {
-    private static final Logger LOGGER = LoggerFactory.getLogger(AeronCollector.class);
+    static final String AERON_PREFIX = "aeron_";
 
     private static final String COLLECTOR_DURATION_METRIC = "aeron_exporter_duration_seconds";
-    private static final String AERON_PREFIX = "aeron_";
+    private static final String SNAPSHOT_AGE_METRIC = "aeron_exporter_snapshot_age_seconds";
     private static final String AERON_CNCREAD_ERROR = "aeron_cncread_error";
-    private static final String METRIC_NAME = "aeron";
+    private static final String ERROR_OBSERVATIONS_METRIC = "aeron_error_log_observations";
+    private static final String ERROR_FIRST_OBSERVATION_METRIC = "aeron_error_log_first_observation_timestamp_seconds";
+    private static final String ERROR_LAST_OBSERVATION_METRIC = "aeron_error_log_last_observation_timestamp_seconds";
+    private static final String LOSS_OBSERVATIONS_METRIC = "aeron_loss_observations";
+    private static final String LOSS_BYTES_METRIC = "aeron_loss_bytes";
+    private static final String LOSS_LAST_OBSERVATION_METRIC = "aeron_loss_last_observation_timestamp_seconds";
+    private static final String LOSS_OBSERVATIONS_HELP = "Number of times loss was observed on a stream, from the loss report";
+    private static final String LOSS_BYTES_HELP = "Total bytes lost on a stream, from the loss report";
+    private static final String LOSS_LAST_OBSERVATION_HELP = "Time loss was last observed on a stream, epoch seconds";
+    private static final String ERROR_OBSERVATIONS_HELP = "Number of times errors of a type were observed by the media driver";
+    private static final String ERROR_FIRST_OBSERVATION_HELP = "Time an error of a type was first observed by the media driver, epoch seconds";
+    private static final String ERROR_LAST_OBSERVATION_HELP = "Time an error of a type was last observed by the media driver, epoch seconds";
+    private static final String DROPPED_SERIES_METRIC = "aeron_exporter_dropped_series";
+    private static final String DROPPED_SERIES_HELP = "Number of times a series of a family was dropped by the series limit";
 
-    private final CncFileReader cncFileReader;
+    private final DriverGroup driverGroup;
+    private final CounterRegistry counterRegistry;
 
     public AeronCollector(CncFileReader cncFileReader) {
-        this.cncFileReader = cncFileReader;
+        this(cncFileReader, CounterRegistry.driverCounters());
+    }
+
+    public AeronCollector(CncFileReader cncFileReader, CounterRegistry counterRegistry) {
+        this(new SynchronousSnapshotSource(new CounterSnapshotter(cncFileReader, counterRegistry)));
+    }
+
+    /**
+     * @param snapshotSource source of the counter snapshots, e.g. a {@link CounterSampler} to serve the counters sampled in the background.
+     */
+    public AeronCollector(SnapshotSource snapshotSource) {
+        this(DriverGroup.single(snapshotSource));
+    }
+
+    /**
+     * @param driverGroup drivers to export the counters of.
+     */
+    public AeronCollector(DriverGroup driverGroup) {
+        this.driverGroup = driverGroup;
+        this.counterRegistry = driverGroup.counterRegistry();
     }
 
     /**
-     * Reads the counters from the cnc.dat file.
+     * Reads the counters from the latest snapshot of the cnc.dat file.
      *
      * @return list of metrics with system counters data or an error metric in case file read failed.
      */
@@ -58,42 +89,166 @@ public final class AeronCollector extends Collector implements Collector.Describ
         long start = System.nanoTime();
 
         var mfsList = new ArrayList<MetricFamilySamples>();
-        var samples = new ArrayList<MetricFamilySamples.Sample>();
 
+        List<Driver> drivers = driverGroup.drivers();
+        CounterSnapshot[] snapshots = new CounterSnapshot[drivers.size()];
+        driverGroup.acquire(drivers, snapshots);
         try {
-            addCountersToMetricList(mfsList, samples);
-
-        } catch (IOException e) {
-            LOGGER.atError().log("Error during cnc.dat read", e);
-
             List<MetricFamilySamples.Sample> error = new ArrayList<>();
-            error.add(new MetricFamilySamples.Sample(
-                    AERON_CNCREAD_ERROR, new ArrayList<>(), new ArrayList<>(), 1));
-            mfsList.add(new MetricFamilySamples(AERON_CNCREAD_ERROR, Type.GAUGE, "Non-zero if cnc file read has failed.", error));
+            List<MetricFamilySamples.Sample> age = new ArrayList<>();
+            for (int i = 0; i < snapshots.length; i++) {
+                Driver driver = drivers.get(i);
+                CounterSnapshot snapshot = snapshots[i];
+                if (snapshot.failed()) {
+                    error.add(new MetricFamilySamples.Sample(
+                            AERON_CNCREAD_ERROR, driver.labelNames(), driver.labelValues(), 1));
+                }
+                if (snapshot.sequence() > 0) {
+                    age.add(new MetricFamilySamples.Sample(
+                            SNAPSHOT_AGE_METRIC, driver.labelNames(), driver.labelValues(), (System.nanoTime() - snapshot.timestampNs()) / NANOSECONDS_PER_SECOND));
+                }
+            }
+
+            addCountersToMetricList(mfsList, snapshots);
+            addErrorsToMetricList(mfsList, snapshots);
+            addLossToMetricList(mfsList, snapshots);
+            addDroppedToMetricList(mfsList, snapshots);
+            if (!error.isEmpty()) {
+                mfsList.add(new MetricFamilySamples(AERON_CNCREAD_ERROR, Type.GAUGE, "Non-zero if cnc file read has failed.", error));
+            }
+            if (!age.isEmpty()) {
+                mfsList.add(new MetricFamilySamples(SNAPSHOT_AGE_METRIC, Type.GAUGE, "Age of the counters snapshot served, in seconds.", age));
+            }
         } finally {
+            driverGroup.release(drivers, snapshots);
+
             //add a duration of how long did the collection take
+            double durationSeconds = (System.nanoTime() - start) / NANOSECONDS_PER_SECOND;
+            ExporterMetrics.COLLECT_DURATION.observe(durationSeconds);
             List<MetricFamilySamples.Sample> duration = new ArrayList<>();
             duration.add(new MetricFamilySamples.Sample(
-                    COLLECTOR_DURATION_METRIC, new ArrayList<>(), new ArrayList<>(), (System.nanoTime() - start) / NANOSECONDS_PER_SECOND));
+                    COLLECTOR_DURATION_METRIC, new ArrayList<>(), new ArrayList<>(), durationSeconds));
             mfsList.add(new MetricFamilySamples(COLLECTOR_DURATION_METRIC, Type.GAUGE, "Time aeron counters read took, in seconds.", duration));
         }
         return mfsList;
     }
 
-    private void addCountersToMetricList(ArrayList<MetricFamilySamples> mfsList, ArrayList<MetricFamilySamples.Sample> samples) throws IOException {
-        CountersReader countersReader = cncFileReader.getCountersReader();
+    private void addCountersToMetricList(ArrayList<MetricFamilySamples> mfsList, CounterSnapshot[] snapshots) {
+        List<CounterFamily> families = counterRegistry.families();
+        List<List<MetricFamilySamples.Sample>> samplesByFamily = new ArrayList<>(families.size());
+        for (int i = 0; i < families.size(); i++) {
+            samplesByFamily.add(new ArrayList<>());
+        }
+
+        for (CounterSnapshot snapshot : snapshots) {
+            for (int i = 0, count = snapshot.count(); i < count; i++) {
+                samplesByFamily.get(snapshot.familyIndex(i)).add(new MetricFamilySamples.Sample(
+                        snapshot.name(i), snapshot.labelNames(i), snapshot.labelValues(i), snapshot.value(i)));
+            }
+        }
+
+        for (int i = 0; i < families.size(); i++) {
+            List<MetricFamilySamples.Sample> samples = samplesByFamily.get(i);
+            if (!samples.isEmpty()) {
+                CounterFamily family = families.get(i);
+                mfsList.add(new MetricFamilySamples(family.name(), family.type(), family.help(), samples));
+            }
+        }
+
+        addRatesToMetricList(mfsList, snapshots);
+    }
+
+    private void addErrorsToMetricList(ArrayList<MetricFamilySamples> mfsList, CounterSnapshot[] snapshots) {
+        List<MetricFamilySamples.Sample> observations = new ArrayList<>();
+        List<MetricFamilySamples.Sample> first = new ArrayList<>();
+        List<MetricFamilySamples.Sample> last = new ArrayList<>();
+        for (CounterSnapshot snapshot : snapshots) {
+            for (int i = 0; i < snapshot.errorCount(); i++) {
+                List<String> labelNames = snapshot.errorLabelNames(i);
+                List<String> labelValues = snapshot.errorLabelValues(i);
+                observations.add(new MetricFamilySamples.Sample(
+                        ERROR_OBSERVATIONS_METRIC, labelNames, labelValues, snapshot.errorObservations(i)));
+                first.add(new MetricFamilySamples.Sample(
+                        ERROR_FIRST_OBSERVATION_METRIC, labelNames, labelValues, snapshot.errorFirstObservationMs(i) / 1000.0));
+                last.add(new MetricFamilySamples.Sample(
+                        ERROR_LAST_OBSERVATION_METRIC, labelNames, labelValues, snapshot.errorLastObservationMs(i) / 1000.0));
+            }
+        }
+
+        if (!observations.isEmpty()) {
+            mfsList.add(new MetricFamilySamples(ERROR_OBSERVATIONS_METRIC, Type.COUNTER, ERROR_OBSERVATIONS_HELP, observations));
+            mfsList.add(new MetricFamilySamples(ERROR_FIRST_OBSERVATION_METRIC, Type.GAUGE, ERROR_FIRST_OBSERVATION_HELP, first));
+            mfsList.add(new MetricFamilySamples(ERROR_LAST_OBSERVATION_METRIC, Type.GAUGE, ERROR_LAST_OBSERVATION_HELP, last));
+        }
+    }
+
+    private void addLossToMetricList(ArrayList<MetricFamilySamples> mfsList, CounterSnapshot[] snapshots) {
+        List<MetricFamilySamples.Sample> observations = new ArrayList<>();
+        List<MetricFamilySamples.Sample> bytes = new ArrayList<>();
+        List<MetricFamilySamples.Sample> last = new ArrayList<>();
+        for (CounterSnapshot snapshot : snapshots) {
+            for (int i = 0; i < snapshot.lossCount(); i++) {
+                List<String> labelNames = snapshot.lossLabelNames(i);
+                List<String> labelValues = snapshot.lossLabelValues(i);
+                observations.add(new MetricFamilySamples.Sample(
+                        LOSS_OBSERVATIONS_METRIC, labelNames, labelValues, snapshot.lossObservations(i)));
+                bytes.add(new MetricFamilySamples.Sample(
+                        LOSS_BYTES_METRIC, labelNames, labelValues, snapshot.lossBytes(i)));
+                last.add(new MetricFamilySamples.Sample(
+                        LOSS_LAST_OBSERVATION_METRIC, labelNames, labelValues, snapshot.lossLastObservationMs(i) / 1000.0));
+            }
+        }
+
+        if (!observations.isEmpty()) {
+            mfsList.add(new MetricFamilySamples(LOSS_OBSERVATIONS_METRIC, Type.COUNTER, LOSS_OBSERVATIONS_HELP, observations));
+            mfsList.add(new MetricFamilySamples(LOSS_BYTES_METRIC, Type.COUNTER, LOSS_BYTES_HELP, bytes));
+            mfsList.add(new MetricFamilySamples(LOSS_LAST_OBSERVATION_METRIC, Type.GAUGE, LOSS_LAST_OBSERVATION_HELP, last));
+        }
+    }
+
+    private void addDroppedToMetricList(ArrayList<MetricFamilySamples> mfsList, CounterSnapshot[] snapshots) {
+        List<MetricFamilySamples.Sample> dropped = new ArrayList<>();
+        for (CounterSnapshot snapshot : snapshots) {
+            for (int i = 0; i < snapshot.droppedCount(); i++) {
+                dropped.add(new MetricFamilySamples.Sample(
+                        DROPPED_SERIES_METRIC, snapshot.droppedLabelNames(i), snapshot.droppedLabelValues(i), snapshot.droppedSeries(i)));
+            }
+        }
 
-        countersReader.forEach((counterId, typeId, directBuffer, label) -> {
-            final long value = countersReader.getCounterValue(counterId);
+        if (!dropped.isEmpty()) {
+            mfsList.add(new MetricFamilySamples(DROPPED_SERIES_METRIC, Type.COUNTER, DROPPED_SERIES_HELP, dropped));
+        }
+    }
 
-            // include only the system counters
-            if (typeId == SYSTEM_COUNTER_TYPE_ID) {
-                String counterName = formatLabels(label);
-                samples.add(new MetricFamilySamples.Sample(counterName, new ArrayList<>(), new ArrayList<>(), value));
+    private void addRatesToMetricList(ArrayList<MetricFamilySamples> mfsList, CounterSnapshot[] snapshots) {
+        List<CounterFamily> families = counterRegistry.families();
+        for (int f = 0; f < families.size(); f++) {
+            CounterFamily family = families.get(f);
+            if (!family.monotonic()) {
+                continue;
             }
-        });
 
-        mfsList.add(new MetricFamilySamples(METRIC_NAME, Type.UNTYPED, "Aeron CNC system counters", samples));
+            List<MetricFamilySamples.Sample> rates = new ArrayList<>();
+            List<MetricFamilySamples.Sample> peakRates = new ArrayList<>();
+            for (CounterSnapshot snapshot : snapshots) {
+                if (!snapshot.hasRates()) {
+                    continue;
+                }
+                for (int i = 0, count = snapshot.count(); i < count; i++) {
+                    if (snapshot.familyIndex(i) == f && !Double.isNaN(snapshot.rate(i))) {
+                        rates.add(new MetricFamilySamples.Sample(
+                                snapshot.name(i) + "_rate", snapshot.labelNames(i), snapshot.labelValues(i), snapshot.rate(i)));
+                        peakRates.add(new MetricFamilySamples.Sample(
+                                snapshot.name(i) + "_max_rate", snapshot.labelNames(i), snapshot.labelValues(i), snapshot.peakRate(i)));
+                    }
+                }
+            }
+
+            if (!rates.isEmpty()) {
+                mfsList.add(new MetricFamilySamples(family.name() + "_rate", Type.GAUGE, family.help() + ", per second rate", rates));
+                mfsList.add(new MetricFamilySamples(family.name() + "_max_rate", Type.GAUGE, family.help() + ", peak per second rate over the rate window", peakRates));
+            }
+        }
     }
 
     /**
@@ -103,7 +258,7 @@ public final class AeronCollector extends Collector implements Collector.Describ
      * @return sanitized name.
      */
     public String formatLabels(String label) {
-        return AERON_PREFIX + label.toLowerCase(Locale.US).replace(" ", "_").replaceAll("[^A-Za-z_]", "");
+        return MetricNameCache.sanitize(label, AERON_PREFIX);
     }
 
     @Override
@@ -111,6 +266,21 @@ public final class AeronCollector extends Collector implements Collector.Describ
         List<MetricFamilySamples> metricFamilies = new ArrayList<>();
         metricFamilies.add(new MetricFamilySamples(COLLECTOR_DURATION_METRIC, Type.UNTYPED, "Time aeron counters read took, in seconds.", new ArrayList<>()));
         metricFamilies.add(new MetricFamilySamples(AERON_CNCREAD_ERROR, Type.GAUGE, "Non-zero if cnc file read has failed.", new ArrayList<>()));
+        metricFamilies.add(new MetricFamilySamples(SNAPSHOT_AGE_METRIC, Type.GAUGE, "Age of the counters snapshot served, in seconds.", new ArrayList<>()));
+        metricFamilies.add(new MetricFamilySamples(LOSS_OBSERVATIONS_METRIC, Type.COUNTER, LOSS_OBSERVATIONS_HELP, new ArrayList<>()));
+        metricFamilies.add(new MetricFamilySamples(LOSS_BYTES_METRIC, Type.COUNTER, LOSS_BYTES_HELP, new ArrayList<>()));
+        metricFamilies.add(new MetricFamilySamples(LOSS_LAST_OBSERVATION_METRIC, Type.GAUGE, LOSS_LAST_OBSERVATION_HELP, new ArrayList<>()));
+        metricFamilies.add(new MetricFamilySamples(ERROR_OBSERVATIONS_METRIC, Type.COUNTER, ERROR_OBSERVATIONS_HELP, new ArrayList<>()));
+        metricFamilies.add(new MetricFamilySamples(ERROR_FIRST_OBSERVATION_METRIC, Type.GAUGE, ERROR_FIRST_OBSERVATION_HELP, new ArrayList<>()));
+        metricFamilies.add(new MetricFamilySamples(ERROR_LAST_OBSERVATION_METRIC, Type.GAUGE, ERROR_LAST_OBSERVATION_HELP, new ArrayList<>()));
+        metricFamilies.add(new MetricFamilySamples(DROPPED_SERIES_METRIC, Type.COUNTER, DROPPED_SERIES_HELP, new ArrayList<>()));
+        for (CounterFamily family : counterRegistry.families()) {
+            metricFamilies.add(new MetricFamilySamples(family.name(), family.type(), family.help(), new ArrayList<>()));
+            if (family.monotonic()) {
+                metricFamilies.add(new MetricFamilySamples(family.name() + "_rate", Type.GAUGE, family.help() + ", per second rate", new ArrayList<>()));
+                metricFamilies.add(new MetricFamilySamples(family.name() + "_max_rate", Type.GAUGE, family.help() + ", peak per second rate over the rate window", new ArrayList<>()));
+            }
+        }
         return metricFamilies;
     }
 }
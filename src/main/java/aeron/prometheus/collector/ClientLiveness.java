@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Long2ObjectHashMap;
+import org.agrona.collections.LongHashSet;
+import org.agrona.concurrent.status.CountersReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import static aeron.prometheus.collector.CounterTypes.*;
+
+/**
+ * Derives liveness gauges of the clients of a media driver, keyed by client id like their heartbeat counter:
+ * <ul>
+ *     <li>heartbeat age, milliseconds since the client last heartbeat the driver,</li>
+ *     <li>publications and subscriptions, the publisher limit counters and distinct subscriptions of the subscriber position counters
+ *     whose owner id is the client id,</li>
+ *     <li>stale, 1 when the heartbeat is older than the client liveness timeout of the driver, so the driver is about to time the client out.</li>
+ * </ul>
+ * Clients are tracked across snapshots: the state of a client is only created when it connects and dropped when its counters are gone,
+ * counts are reset lazily by the first counter of each pass, so a host with many clients connecting and disconnecting
+ * does work proportional to the churn on top of the single pass over the counters.
+ * Not thread safe.
+ */
+final class ClientLiveness {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClientLiveness.class);
+
+    /**
+     * Default client liveness timeout of the media driver, used when the timeout of the driver is not known.
+     */
+    static final long DEFAULT_LIVENESS_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(10);
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Long2ObjectHashMap<Client> clients = new Long2ObjectHashMap<>();
+    private final LongHashSet subscriptions = new LongHashSet();
+    private final int[] familyIndexes = new int[4];
+    private final int[] typeIds = {CLIENT_HEARTBEAT_AGE, CLIENT_PUBLICATIONS, CLIENT_SUBSCRIPTIONS, CLIENT_STALE};
+    private final String[] names = new String[4];
+    private final byte[][] nameBytes = new byte[4][];
+
+    private Client[] seen = new Client[INITIAL_CAPACITY];
+    private int seenCount;
+    private int pass = 1;
+
+    /**
+     * @param counterRegistry registry of the snapshots, a gauge is only derived when the registry has its family.
+     */
+    ClientLiveness(CounterRegistry counterRegistry) {
+        for (int gauge = 0; gauge < typeIds.length; gauge++) {
+            CounterFamily family = counterRegistry.family(typeIds[gauge]);
+            if (family.typeId() == typeIds[gauge]) {
+                familyIndexes[gauge] = counterRegistry.familyIndex(typeIds[gauge]);
+                names[gauge] = family.name();
+                nameBytes[gauge] = family.name().getBytes(StandardCharsets.UTF_8);
+            } else {
+                familyIndexes[gauge] = -1;
+            }
+        }
+    }
+
+    /**
+     * @return true when the registry has a family for any of the gauges.
+     */
+    boolean enabled() {
+        for (int familyIndex : familyIndexes) {
+            if (familyIndex >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true when the counters of the type are correlated to their owning client.
+     */
+    static boolean isClientOwned(int typeId) {
+        return typeId == PUBLISHER_LIMIT || typeId == SUBSCRIBER_POSITION;
+    }
+
+    /**
+     * Correlates a counter just added to the snapshot with its client.
+     *
+     * @param typeId    type id of the counter.
+     * @param keyBuffer key of the counter.
+     * @param index     index of the counter in the snapshot.
+     * @param ownerId   owner id of the counter, the client id for counters allocated on behalf of a client.
+     */
+    void onCounter(int typeId, DirectBuffer keyBuffer, int index, long ownerId) {
+        switch (typeId) {
+            case CLIENT_HEARTBEAT:
+                client(keyBuffer.getLong(0)).heartbeatIndex = index;
+                break;
+            case PUBLISHER_LIMIT:
+                if (ownerId != CountersReader.DEFAULT_OWNER_ID) {
+                    client(ownerId).publications++;
+                }
+                break;
+            case SUBSCRIBER_POSITION:
+                // one position per image of a subscription, the registration id is the one of the subscription
+                if (ownerId != CountersReader.DEFAULT_OWNER_ID && subscriptions.add(keyBuffer.getLong(0))) {
+                    client(ownerId).subscriptions++;
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Appends the gauges of the clients whose heartbeat was read since the last call, and forgets the clients which are gone.
+     *
+     * @param snapshot          the counters were added to.
+     * @param nowMs             time the counters were read at, in epoch millis.
+     * @param livenessTimeoutMs client liveness timeout of the driver, 0 when not known.
+     */
+    void derive(CounterSnapshot snapshot, long nowMs, long livenessTimeoutMs) {
+        long timeoutMs = livenessTimeoutMs > 0 ? livenessTimeoutMs : DEFAULT_LIVENESS_TIMEOUT_MS;
+        for (int i = 0; i < seenCount; i++) {
+            Client client = seen[i];
+            if (client.heartbeatIndex < 0) {
+                continue;
+            }
+            long age = Math.max(0, nowMs - snapshot.value(client.heartbeatIndex));
+            boolean stale = age > timeoutMs;
+            if (stale && !client.stale) {
+                LOGGER.atWarn().log("Client {} has not heartbeat for {} ms, above the liveness timeout of {} ms", client.clientId, age, timeoutMs);
+            }
+            client.stale = stale;
+
+            add(snapshot, 0, client.heartbeatIndex, age);
+            add(snapshot, 1, client.heartbeatIndex, client.publications);
+            add(snapshot, 2, client.heartbeatIndex, client.subscriptions);
+            add(snapshot, 3, client.heartbeatIndex, stale ? 1 : 0);
+        }
+
+        if (clients.size() > seenCount) {
+            forgetGone();
+        }
+        endPass();
+    }
+
+    /**
+     * Drops the counts of the pass, e.g. when a scan failed half way. Clients are kept until a complete pass misses them.
+     */
+    void clear() {
+        endPass();
+    }
+
+    /**
+     * @return number of clients tracked.
+     */
+    int clientCount() {
+        return clients.size();
+    }
+
+    private Client client(long clientId) {
+        Client client = clients.get(clientId);
+        if (client == null) {
+            client = new Client(clientId);
+            clients.put(clientId, client);
+        }
+        if (client.pass != pass) {
+            client.pass = pass;
+            client.heartbeatIndex = -1;
+            client.publications = 0;
+            client.subscriptions = 0;
+            addSeen(client);
+        }
+        return client;
+    }
+
+    private void forgetGone() {
+        for (Iterator<Client> iterator = clients.values().iterator(); iterator.hasNext(); ) {
+            Client client = iterator.next();
+            if (client.pass != pass) {
+                if (client.stale) {
+                    LOGGER.atWarn().log("Client {} timed out", client.clientId);
+                }
+                iterator.remove();
+            }
+        }
+    }
+
+    private void endPass() {
+        Arrays.fill(seen, 0, seenCount, null);
+        seenCount = 0;
+        subscriptions.clear();
+        pass++;
+    }
+
+    private void add(CounterSnapshot snapshot, int gauge, int sourceIndex, long value) {
+        int familyIndex = familyIndexes[gauge];
+        if (familyIndex >= 0) {
+            snapshot.add(snapshot.counterId(sourceIndex), typeIds[gauge], familyIndex, names[gauge],
+                    snapshot.labelNames(sourceIndex), snapshot.labelValues(sourceIndex), nameBytes[gauge], snapshot.labelBytes(sourceIndex), value);
+        }
+    }
+
+    private void addSeen(Client client) {
+        if (seenCount == seen.length) {
+            seen = Arrays.copyOf(seen, seenCount * 2);
+        }
+        seen[seenCount++] = client;
+    }
+
+    private static final class Client {
+        private final long clientId;
+        private int pass;
+        private int heartbeatIndex = -1;
+        private int publications;
+        private int subscriptions;
+        private boolean stale;
+
+        private Client(long clientId) {
+            this.clientId = clientId;
+        }
+    }
+}
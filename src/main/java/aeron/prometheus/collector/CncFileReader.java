@@ -16,17 +16,24 @@
 package aeron.prometheus.collector;
 
 import io.aeron.CncFileDescriptor;
-import org.agrona.DirectBuffer;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
 import org.agrona.concurrent.status.CountersReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
 
 import static io.aeron.CommonContext.AERON_DIR_PROP_DEFAULT;
 import static io.aeron.CommonContext.AERON_DIR_PROP_NAME;
@@ -36,39 +43,220 @@ import static java.lang.System.getProperty;
  * Reads the cnc.dat file and exposes the counters with the help of org.agrona.concurrent.status.CountersReader, similar to io.aeron.samples.CncFileReader.
  * <p>
  * Uses the default aeron directory, otherwise use "aeron.dir" to change it.
- * Reads and maps counters file on every execution.
+ * The file is mapped once and the mapping is held across reads. It is only remapped when the media driver restarts,
+ * which is detected by a changed cnc version, driver PID, start timestamp or a new file (inode) at the cnc.dat path.
+ * Call {@link #close()} to release the mapping explicitly instead of waiting for GC.
+ * <p>
+ * Not thread safe, the reader is expected to be used by one collecting thread at a time.
  */
-public class CncFileReader {
+public class CncFileReader implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CncFileReader.class);
+
+    private final Path aeronDir;
+
+    private Path mappedPath;
+    private Object mappedFileKey;
+    private long mappedFileSize;
+    private MappedByteBuffer cncByteBuffer;
+    private UnsafeBuffer cncMetaData;
+    private CountersReader countersReader;
+    private AtomicBuffer errorLogBuffer;
+    private AtomicBuffer toDriverBuffer;
+    private AtomicBuffer toClientsBuffer;
+    private int cncVersion;
+    private long pid;
+    private long startTimestampMs;
+    private long clientLivenessTimeoutNs;
+    private int mappingGeneration;
+
+    /**
+     * Creates a reader resolving the aeron directory from the "aeron.dir" property on every read.
+     */
+    public CncFileReader() {
+        this(null);
+    }
+
+    /**
+     * Creates a reader for a fixed aeron directory.
+     *
+     * @param aeronDir aeron directory containing cnc.dat, or null to resolve it from the "aeron.dir" property.
+     */
+    public CncFileReader(Path aeronDir) {
+        this.aeronDir = aeronDir;
+    }
 
     /**
      * Read the cnc.dat file from the aeron directory and exposes org.agrona.concurrent.status.CountersReader to iterate through the counters.
+     * <p>
+     * The same CountersReader is returned as long as the media driver behind the file has not changed.
      *
      * @return CountersReader ready to iterate though the counters.
      * @throws FileNotFoundException when cnc.dat was not found.
      * @throws IOException           exception when reading the file.
      */
     public CountersReader getCountersReader() throws IOException {
-        Path cncFilePath =
-                Paths.get(
-                        getProperty(AERON_DIR_PROP_NAME, AERON_DIR_PROP_DEFAULT), CncFileDescriptor.CNC_FILE);
+        Path cncFilePath = cncFilePath();
 
-        if (Files.notExists(cncFilePath)) {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(cncFilePath, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            unmap();
             throw new FileNotFoundException("CnC file not found : " + cncFilePath.toString());
         }
 
-        try (FileChannel fc = new RandomAccessFile(cncFilePath.toString(), "r").getChannel()) {
-            final ByteBuffer cncByteBuffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        if (countersReader != null && !isStale(cncFilePath, attributes)) {
+            return countersReader;
+        }
 
-            DirectBuffer cncMetaData = CncFileDescriptor.createMetaDataBuffer(cncByteBuffer);
-            int cncVersion = cncMetaData.getInt(CncFileDescriptor.cncVersionOffset(0));
+        unmap();
+        map(cncFilePath, attributes);
 
-            CncFileDescriptor.checkVersion(cncVersion);
+        return countersReader;
+    }
 
-            return new CountersReader(
-                    CncFileDescriptor.createCountersMetaDataBuffer(cncByteBuffer, cncMetaData),
-                    CncFileDescriptor.createCountersValuesBuffer(cncByteBuffer, cncMetaData));
+    /**
+     * @return aeron directory cnc.dat is read from.
+     */
+    public Path aeronDirectory() {
+        return aeronDir != null ? aeronDir : Paths.get(getProperty(AERON_DIR_PROP_NAME, AERON_DIR_PROP_DEFAULT));
+    }
+
+    /**
+     * @return distinct error log of the media driver of the current mapping, null when not mapped.
+     * Valid until the next call to {@link #getCountersReader()} remaps the file.
+     */
+    public AtomicBuffer errorLogBuffer() {
+        return errorLogBuffer;
+    }
+
+    /**
+     * @return to-driver ring buffer clients write their commands to, null when not mapped.
+     * Valid until the next call to {@link #getCountersReader()} remaps the file.
+     */
+    public AtomicBuffer toDriverBuffer() {
+        return toDriverBuffer;
+    }
+
+    /**
+     * @return to-clients broadcast buffer the media driver transmits its responses on, null when not mapped.
+     * Valid until the next call to {@link #getCountersReader()} remaps the file.
+     */
+    public AtomicBuffer toClientsBuffer() {
+        return toClientsBuffer;
+    }
+
+    /**
+     * @return number of times cnc.dat has been (re)mapped by this reader.
+     */
+    public int mappingGeneration() {
+        return mappingGeneration;
+    }
+
+    /**
+     * @return version of the cnc.dat layout of the current mapping, see io.aeron.CncFileDescriptor#CNC_VERSION.
+     */
+    public int cncVersion() {
+        return cncVersion;
+    }
+
+    /**
+     * @return PID of the media driver the current mapping belongs to.
+     */
+    public long pid() {
+        return pid;
+    }
+
+    /**
+     * @return start timestamp of the media driver the current mapping belongs to, in epoch millis.
+     */
+    public long startTimestampMs() {
+        return startTimestampMs;
+    }
+
+    /**
+     * @return client liveness timeout of the media driver the current mapping belongs to, in nanoseconds, 0 when not mapped.
+     */
+    public long clientLivenessTimeoutNs() {
+        return clientLivenessTimeoutNs;
+    }
+
+    /**
+     * Unmaps cnc.dat, the next read maps the file again.
+     */
+    @Override
+    public void close() {
+        unmap();
+    }
+
+    private Path cncFilePath() {
+        return aeronDirectory().resolve(CncFileDescriptor.CNC_FILE);
+    }
+
+    private boolean isStale(Path cncFilePath, BasicFileAttributes attributes) {
+        return !cncFilePath.equals(mappedPath)
+                || !Objects.equals(attributes.fileKey(), mappedFileKey)
+                || attributes.size() != mappedFileSize
+                || cncMetaData.getIntVolatile(CncFileDescriptor.cncVersionOffset(0)) != cncVersion
+                || cncMetaData.getLong(CncFileDescriptor.pidOffset(0)) != pid
+                || cncMetaData.getLong(CncFileDescriptor.startTimestampOffset(0)) != startTimestampMs;
+    }
+
+    private void map(Path cncFilePath, BasicFileAttributes attributes) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel fc = FileChannel.open(cncFilePath, StandardOpenOption.READ)) {
+            buffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+
+        UnsafeBuffer metaData = CncFileDescriptor.createMetaDataBuffer(buffer);
+        int version = metaData.getIntVolatile(CncFileDescriptor.cncVersionOffset(0));
+        if (version == 0) {
+            IoUtil.unmap(buffer);
+            throw new IOException("CnC file is not initialised yet : " + cncFilePath.toString());
+        }
+
+        try {
+            CncFileDescriptor.checkVersion(version);
+        } catch (RuntimeException e) {
+            IoUtil.unmap(buffer);
+            throw e;
         }
 
+        cncByteBuffer = buffer;
+        ExporterMetrics.MAPPED_BYTES.inc(buffer.capacity());
+        cncMetaData = metaData;
+        cncVersion = version;
+        pid = metaData.getLong(CncFileDescriptor.pidOffset(0));
+        startTimestampMs = metaData.getLong(CncFileDescriptor.startTimestampOffset(0));
+        clientLivenessTimeoutNs = metaData.getLong(CncFileDescriptor.clientLivenessTimeoutOffset(0));
+        mappedPath = cncFilePath;
+        mappedFileKey = attributes.fileKey();
+        mappedFileSize = attributes.size();
+        countersReader = new CountersReader(
+                CncFileDescriptor.createCountersMetaDataBuffer(buffer, metaData),
+                CncFileDescriptor.createCountersValuesBuffer(buffer, metaData));
+        errorLogBuffer = CncFileDescriptor.createErrorLogBuffer(buffer, metaData);
+        toDriverBuffer = CncFileDescriptor.createToDriverBuffer(buffer, metaData);
+        toClientsBuffer = CncFileDescriptor.createToClientsBuffer(buffer, metaData);
+        mappingGeneration++;
+
+        LOGGER.atInfo().log("Mapped {} for media driver pid={} started at {}", cncFilePath, pid, startTimestampMs);
     }
 
+    private void unmap() {
+        if (cncByteBuffer != null) {
+            ExporterMetrics.MAPPED_BYTES.dec(cncByteBuffer.capacity());
+            IoUtil.unmap(cncByteBuffer);
+        }
+        cncByteBuffer = null;
+        cncMetaData = null;
+        countersReader = null;
+        errorLogBuffer = null;
+        toDriverBuffer = null;
+        toClientsBuffer = null;
+        clientLivenessTimeoutNs = 0;
+        mappedPath = null;
+        mappedFileKey = null;
+        mappedFileSize = 0;
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import io.prometheus.client.Collector;
+
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Prometheus metric family a counter type is exported as.
+ */
+public final class CounterFamily {
+    private final int typeId;
+    private final String name;
+    private final String help;
+    private final Collector.Type type;
+    private final KeyLayout keyLayout;
+    private final boolean monotonic;
+    private final List<String> gaugeNamePrefixes;
+
+    public CounterFamily(int typeId, String name, String help, Collector.Type type, KeyLayout keyLayout) {
+        this(typeId, name, help, type, keyLayout, false);
+    }
+
+    /**
+     * @param monotonic true if the counters only ever increase, so per second rates are exported for them.
+     */
+    public CounterFamily(int typeId, String name, String help, Collector.Type type, KeyLayout keyLayout, boolean monotonic) {
+        this(typeId, name, help, type, keyLayout, monotonic, List.of());
+    }
+
+    /**
+     * @param monotonic   true if the counters only ever increase, so per second rates are exported for them.
+     * @param gaugeLabels labels of the system counters of a monotonic family which go up and down, no rates are exported for those.
+     *                    Matched as prefixes, the driver appends details like the threading mode to some labels.
+     */
+    public CounterFamily(
+            int typeId, String name, String help, Collector.Type type, KeyLayout keyLayout, boolean monotonic, List<String> gaugeLabels) {
+        this.typeId = typeId;
+        this.name = name;
+        this.help = help;
+        this.type = type;
+        this.keyLayout = keyLayout;
+        this.monotonic = monotonic;
+        this.gaugeNamePrefixes = gaugeLabels.stream()
+                .map(label -> MetricNameCache.sanitize(label, AeronCollector.AERON_PREFIX))
+                .collect(Collectors.toUnmodifiableList());
+    }
+
+    public int typeId() {
+        return typeId;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public String help() {
+        return help;
+    }
+
+    public Collector.Type type() {
+        return type;
+    }
+
+    public KeyLayout keyLayout() {
+        return keyLayout;
+    }
+
+    public boolean monotonic() {
+        return monotonic;
+    }
+
+    /**
+     * @param metricName name a counter of this family is exported under.
+     * @return true if the counter only ever increases.
+     */
+    public boolean monotonic(String metricName) {
+        if (!monotonic) {
+            return false;
+        }
+        for (String prefix : gaugeNamePrefixes) {
+            if (metricName.startsWith(prefix)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public List<String> labelNames() {
+        return keyLayout.labelNames();
+    }
+
+    @Override
+    public String toString() {
+        return name + "(typeId=" + typeId + ")";
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package aeron.prometheus.collector;
+
+import org.agrona.AsciiSequenceView;
+import org.agrona.DirectBuffer;
+import org.agrona.collections.IntHashSet;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.agrona.BitUtil.SIZE_OF_INT;
+
+/**
+ * Include and exclude rules deciding which counters are exported, on the type id, the label and the channel of the counter.
+ * <p>
+ * A counter is exported when it matches the include rules, all of them matching when unset, and none of the exclude rules.
+ * Label and channel patterns are searched for, not matched against the whole text, and channel rules only apply to counters whose key holds a channel.
+ * The rules are compiled once and matched against the counter metadata in place, before the key is parsed into labels.
+ * Immutable, the same filter may be shared by the snapshotters of several media drivers.
+ */
+public final class CounterFilter {
+    /**
+     * Filter exporting all counters.
+     */
+    public static final CounterFilter ACCEPT_ALL = new CounterFilter(Set.of(), Set.of(), null, null, null, null);
+
+    private final IntHashSet includeTypes;
+    private final IntHashSet excludeTypes;
+    private final Pattern includeLabel;
+    private final Pattern excludeLabel;
+    private final Pattern includeChannel;
+    private final Pattern excludeChannel;
+
+    /**
+     * @param includeTypes   type ids to export, empty to export all types.
+     * @param excludeTypes   type ids not to export.
+     * @param includeLabel   pattern found in the labels of the counters to export, or null.
+     * @param excludeLabel   pattern found in the labels of the counters not to export, or null.
+     * @param includeChannel pattern found in the channels of the counters to export, or null.
+     * @param excludeChannel pattern found in the channels of the counters not to export, or null.
+     */
+    public CounterFilter(
+            Set<Integer> includeTypes, Set<Integer> excludeTypes, Pattern includeLabel, Pattern excludeLabel, Pattern includeChannel, Pattern excludeChannel) {
+        this.includeTypes = toIntHashSet(includeTypes);
+        this.excludeTypes = toIntHashSet(excludeTypes);
+        this.includeLabel = includeLabel;
+        this.excludeLabel = excludeLabel;
+        this.includeChannel = includeChannel;
+        this.excludeChannel = excludeChannel;
+    }
+
+    /**
+     * Matches the type rules only, without allocating.
+     *
+     * @param typeId type id of the counter.
+     * @return true if counters of the type may be exported.
+     */
+    public boolean acceptsType(int typeId) {
+        return (includeTypes.isEmpty() || includeTypes.contains(typeId)) && !excludeTypes.contains(typeId);
+    }
+
+    /**
+     * Matches all rules, expected to run once per counter rather than once per scrape as matching a pattern allocates.
+     *
+     * @param typeId      type id of the counter.
+     * @param keyLayout   layout of the counter key.
+     * @param keyBuffer   key of the counter.
+     * @param labelBuffer label of the counter.
+     * @return true if the counter is exported.
+     */
+    public boolean accepts(int typeId, KeyLayout keyLayout, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+        if (!acceptsType(typeId)) {
+            return false;
+        }
+
+        if (includeLabel != null || excludeLabel != null) {
+            AsciiSequenceView label = new AsciiSequenceView(labelBuffer, 0, labelBuffer.capacity());
+            if (!matches(includeLabel, label, true) || matches(excludeLabel, label, false)) {
+                return false;
+            }
+        }
+
+        int channelOffset = keyLayout.channelOffset();
+        if ((includeChannel != null || excludeChannel != null) && channelOffset != KeyLayout.NO_CHANNEL) {
+            AsciiSequenceView channel = new AsciiSequenceView(
+                    keyBuffer, channelOffset + SIZE_OF_INT, KeyLayout.channelLength(keyBuffer, channelOffset));
+            return matches(includeChannel, channel, true) && !matches(excludeChannel, channel, false);
+        }
+
+        return true;
+    }
+
+    private static boolean matches(Pattern pattern, CharSequence text, boolean unset) {
+        return pattern == null ? unset : pattern.matcher(text).find();
+    }
+
+    private static IntHashSet toIntHashSet(Set<Integer> typeIds) {
+        IntHashSet set = new IntHashSet();
+        set.addAll(typeIds);
+        return set;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.DirectBuffer;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Label values parsed from counter keys, cached by counter id.
+ * <p>
+ * Keys are parsed only when a counter id is seen for the first time or when its type or key changed because the counter was freed and reused,
+ * so a steady set of counters does not allocate label Strings on every scrape.
+ * The {@link CounterFilter} decision is cached alongside, the labels of a counter it rejects are never parsed.
+ * Not thread safe.
+ */
+final class CounterLabelCache {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final Object REJECTED = new Object();
+
+    private final String driver;
+    private final CounterFilter filter;
+
+    private int[] typeIds = new int[INITIAL_CAPACITY];
+    private long[] identities = new long[INITIAL_CAPACITY];
+    private Object[] labelValues = new Object[INITIAL_CAPACITY];
+
+    CounterLabelCache() {
+        this(null, CounterFilter.ACCEPT_ALL);
+    }
+
+    /**
+     * @param driver name of the media driver prepended to all label values, or null.
+     * @param filter deciding which counters are exported.
+     */
+    CounterLabelCache(String driver, CounterFilter filter) {
+        this.driver = driver;
+        this.filter = filter;
+    }
+
+    /**
+     * @param counterId   id of the counter.
+     * @param typeId      type id of the counter.
+     * @param keyLayout   layout of the counter key.
+     * @param keyBuffer   key of the counter.
+     * @param labelBuffer label of the counter.
+     * @return cached or freshly parsed label values, null when the counter is rejected by the filter.
+     */
+    @SuppressWarnings("unchecked")
+    List<String> labelValues(int counterId, int typeId, KeyLayout keyLayout, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+        ensureCapacity(counterId);
+
+        long identity = keyLayout.identity(keyBuffer, labelBuffer);
+        Object cached = labelValues[counterId];
+        if (cached != null && typeIds[counterId] == typeId && identities[counterId] == identity) {
+            return cached == REJECTED ? null : (List<String>) cached;
+        }
+
+        typeIds[counterId] = typeId;
+        identities[counterId] = identity;
+        if (!filter.accepts(typeId, keyLayout, keyBuffer, labelBuffer)) {
+            labelValues[counterId] = REJECTED;
+            return null;
+        }
+
+        List<String> parsed = keyLayout.parse(typeId, keyBuffer, labelBuffer);
+        List<String> values = driver == null ? parsed : CounterSnapshotter.prepend(driver, parsed);
+        labelValues[counterId] = values;
+        return values;
+    }
+
+    /**
+     * Drops all cached labels, e.g. when the counters belong to a restarted media driver.
+     */
+    void clear() {
+        Arrays.fill(labelValues, null);
+    }
+
+    private void ensureCapacity(int counterId) {
+        if (counterId >= labelValues.length) {
+            int capacity = Math.max(counterId + 1, labelValues.length * 2);
+            typeIds = Arrays.copyOf(typeIds, capacity);
+            identities = Arrays.copyOf(identities, capacity);
+            labelValues = Arrays.copyOf(labelValues, capacity);
+        }
+    }
+}
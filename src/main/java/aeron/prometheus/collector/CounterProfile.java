@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import java.util.List;
+
+import static aeron.prometheus.collector.CounterTypes.*;
+import static io.prometheus.client.Collector.Type.COUNTER;
+import static io.prometheus.client.Collector.Type.GAUGE;
+import static io.prometheus.client.Collector.Type.UNTYPED;
+
+/**
+ * Sets of metric families for the components sharing the counters of a media driver.
+ * <p>
+ * Counters of a component whose profile is not selected are still exported, under the generic family,
+ * so a host only running a media driver does not parse the keys of archive or cluster counters.
+ */
+public enum CounterProfile {
+    /**
+     * Media driver counters, the stream health and client liveness gauges derived from them and the metadata of cnc.dat.
+     */
+    DRIVER {
+        @Override
+        public List<CounterFamily> families() {
+            return List.of(
+                    new CounterFamily(SYSTEM, "aeron", "Aeron CNC system counters", UNTYPED, KeyLayout.SYSTEM, true, List.of(
+                            "Bytes currently mapped",
+                            "ControllableIdleStrategy status",
+                            "Conductor max cycle time doing its work in ns",
+                            "Sender max cycle time doing its work in ns",
+                            "Receiver max cycle time doing its work in ns",
+                            "NameResolver max time in ns")),
+                    new CounterFamily(PUBLISHER_LIMIT, "aeron_publisher_limit", "Position a publication may be written up to", GAUGE, KeyLayout.STREAM),
+                    new CounterFamily(PUBLISHER_POSITION, "aeron_publisher_position", "Position a publication has been written up to", GAUGE, KeyLayout.STREAM, true),
+                    new CounterFamily(SENDER_POSITION, "aeron_sender_position", "Position a network publication has been sent up to", GAUGE, KeyLayout.STREAM, true),
+                    new CounterFamily(SENDER_LIMIT, "aeron_sender_limit", "Position a network publication may be sent up to by flow control", GAUGE, KeyLayout.STREAM),
+                    new CounterFamily(SENDER_BPE, "aeron_sender_backpressure_events", "Number of times a network publication was back pressured by flow control", COUNTER, KeyLayout.STREAM, true),
+                    new CounterFamily(RECEIVER_HWM, "aeron_receiver_hwm", "Highest position observed by the receiver of an image", GAUGE, KeyLayout.STREAM, true),
+                    new CounterFamily(RECEIVER_POSITION, "aeron_receiver_position", "Position an image has been received up to without gaps", GAUGE, KeyLayout.STREAM, true),
+                    new CounterFamily(SUBSCRIBER_POSITION, "aeron_subscriber_position", "Position a subscriber has consumed an image up to", GAUGE, KeyLayout.STREAM, true),
+                    new CounterFamily(PER_IMAGE, "aeron_per_image", "Per image indicator counters", GAUGE, KeyLayout.STREAM),
+                    new CounterFamily(SEND_CHANNEL_STATUS, "aeron_send_channel_status", "Status of a send channel endpoint", GAUGE, KeyLayout.CHANNEL),
+                    new CounterFamily(RECEIVE_CHANNEL_STATUS, "aeron_receive_channel_status", "Status of a receive channel endpoint", GAUGE, KeyLayout.CHANNEL),
+                    new CounterFamily(CLIENT_HEARTBEAT, "aeron_client_heartbeat_timestamp", "Last heartbeat of a client, epoch milliseconds", GAUGE, KeyLayout.CLIENT),
+                    new CounterFamily(PUBLISHER_HEADROOM, "aeron_publisher_headroom", "Publisher limit minus publisher position, zero or less when back pressured", GAUGE, KeyLayout.STREAM),
+                    new CounterFamily(SENDER_RECEIVER_GAP, "aeron_sender_receiver_gap", "Sender position minus receiver high water mark of an image published on the same driver", GAUGE, KeyLayout.STREAM),
+                    new CounterFamily(SUBSCRIBER_LAG, "aeron_subscriber_lag", "Producer position of an image minus the position of its slowest subscriber", GAUGE, KeyLayout.STREAM),
+                    new CounterFamily(CLIENT_HEARTBEAT_AGE, "aeron_client_heartbeat_age_ms", "Milliseconds since the last heartbeat of a client", GAUGE, KeyLayout.CLIENT),
+                    new CounterFamily(CLIENT_PUBLICATIONS, "aeron_client_publications", "Number of publications owned by a client", GAUGE, KeyLayout.CLIENT),
+                    new CounterFamily(CLIENT_SUBSCRIPTIONS, "aeron_client_subscriptions", "Number of subscriptions with at least one image owned by a client", GAUGE, KeyLayout.CLIENT),
+                    new CounterFamily(CLIENT_STALE, "aeron_client_stale", "1 when the last heartbeat of a client is older than the client liveness timeout", GAUGE, KeyLayout.CLIENT),
+                    new CounterFamily(DRIVER_INFO, "aeron_driver_info", "Always 1, labelled with the cnc version and PID of the media driver", GAUGE, KeyLayout.DRIVER_INFO),
+                    new CounterFamily(DRIVER_START_TIMESTAMP, "aeron_driver_start_timestamp_ms", "Time the media driver started at, epoch milliseconds", GAUGE, KeyLayout.DRIVER),
+                    new CounterFamily(DRIVER_CLIENT_LIVENESS_TIMEOUT, "aeron_driver_client_liveness_timeout_ns",
+                            "Time after which the media driver times out a client without heartbeat, nanoseconds", GAUGE, KeyLayout.DRIVER),
+                    new CounterFamily(DRIVER_BUFFER_LENGTH, "aeron_driver_buffer_length_bytes", "Length of a buffer of cnc.dat", GAUGE, KeyLayout.CNC_BUFFER),
+                    new CounterFamily(TO_DRIVER_USED, "aeron_driver_to_driver_buffer_used_bytes",
+                            "Bytes of commands written by clients not yet read by the media driver", GAUGE, KeyLayout.DRIVER),
+                    new CounterFamily(TO_DRIVER_HEARTBEAT_AGE, "aeron_driver_heartbeat_age_ms",
+                            "Milliseconds since the media driver last heartbeat the to-driver buffer", GAUGE, KeyLayout.DRIVER),
+                    new CounterFamily(TO_CLIENTS_TAIL, "aeron_driver_to_clients_tail_bytes",
+                            "Bytes of responses and events broadcast by the media driver to its clients", COUNTER, KeyLayout.DRIVER, true));
+        }
+    },
+
+    /**
+     * Aeron Archive counters.
+     */
+    ARCHIVE {
+        @Override
+        public List<CounterFamily> families() {
+            return List.of(
+                    new CounterFamily(ARCHIVE_RECORDING_POSITION, "aeron_archive_recording_position", "Position a recording has been written up to", GAUGE, KeyLayout.RECORDING, true),
+                    new CounterFamily(ARCHIVE_ERROR_COUNT, "aeron_archive_errors", "Number of errors observed by the archive", COUNTER, KeyLayout.ARCHIVE, true),
+                    new CounterFamily(ARCHIVE_CONTROL_SESSIONS, "aeron_archive_control_sessions", "Number of active archive control sessions", GAUGE, KeyLayout.ARCHIVE),
+                    new CounterFamily(ARCHIVE_MAX_CYCLE_TIME, "aeron_archive_max_cycle_time_ns", "Maximum duty cycle time of the archive conductor, nanoseconds", GAUGE, KeyLayout.ARCHIVE),
+                    new CounterFamily(ARCHIVE_CYCLE_TIME_THRESHOLD_EXCEEDED, "aeron_archive_cycle_time_threshold_exceeded",
+                            "Number of archive conductor duty cycles exceeding the cycle time threshold", COUNTER, KeyLayout.ARCHIVE, true));
+        }
+    },
+
+    /**
+     * Aeron Cluster consensus module and clustered service counters.
+     */
+    CLUSTER {
+        @Override
+        public List<CounterFamily> families() {
+            return List.of(
+                    new CounterFamily(CLUSTER_CONSENSUS_MODULE_STATE, "aeron_cluster_consensus_module_state",
+                            "State of the consensus module: 0 init, 1 active, 2 suspended, 3 snapshot, 4 quitting, 5 terminating, 6 closed", GAUGE, KeyLayout.CLUSTER),
+                    new CounterFamily(CLUSTER_NODE_ROLE, "aeron_cluster_node_role", "Role of the cluster node: 0 follower, 1 candidate, 2 leader", GAUGE, KeyLayout.CLUSTER),
+                    new CounterFamily(CLUSTER_CONTROL_TOGGLE, "aeron_cluster_control_toggle",
+                            "Cluster control toggle: 0 neutral, 1 suspend, 2 resume, 3 snapshot, 4 shutdown, 5 abort", GAUGE, KeyLayout.CLUSTER),
+                    new CounterFamily(CLUSTER_COMMIT_POSITION, "aeron_cluster_commit_position", "Position of the log committed by the cluster", GAUGE, KeyLayout.CLUSTER, true),
+                    new CounterFamily(CLUSTER_SNAPSHOT_COUNT, "aeron_cluster_snapshots", "Number of snapshots taken by the cluster node", COUNTER, KeyLayout.CLUSTER, true),
+                    new CounterFamily(CLUSTER_ELECTION_STATE, "aeron_cluster_election_state",
+                            "State of the election as the code of io.aeron.cluster.ElectionState, 0 init, 17 closed when no election is running", GAUGE, KeyLayout.CLUSTER),
+                    new CounterFamily(CLUSTER_ERROR_COUNT, "aeron_cluster_errors", "Number of errors observed by the consensus module", COUNTER, KeyLayout.CLUSTER, true),
+                    new CounterFamily(CLUSTER_CLIENT_TIMEOUT_COUNT, "aeron_cluster_client_timeouts", "Number of cluster client sessions timed out", COUNTER, KeyLayout.CLUSTER, true),
+                    new CounterFamily(CLUSTER_INVALID_REQUEST_COUNT, "aeron_cluster_invalid_requests", "Number of invalid requests received by the consensus module", COUNTER, KeyLayout.CLUSTER, true),
+                    new CounterFamily(CLUSTER_SERVICE_ERROR_COUNT, "aeron_cluster_service_errors", "Number of errors observed by a clustered service", COUNTER, KeyLayout.CLUSTER_SERVICE, true),
+                    new CounterFamily(CLUSTER_LEADERSHIP_TERM_ID, "aeron_cluster_leadership_term_id", "Current leadership term of the cluster node", GAUGE, KeyLayout.CLUSTER));
+        }
+    };
+
+    /**
+     * @return families of the counters of the component.
+     */
+    public abstract List<CounterFamily> families();
+}
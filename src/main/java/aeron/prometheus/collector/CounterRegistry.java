@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.collections.Int2IntHashMap;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import static io.prometheus.client.Collector.Type.UNTYPED;
+
+/**
+ * Maps aeron counter type ids to the metric families they are exported as.
+ * <p>
+ * Counters of a type without a family are exported under a generic "aeron_counter" family labelled with their type id and label.
+ * The families are usually those of the {@link CounterProfile}s of the components running on the media driver.
+ */
+public final class CounterRegistry {
+    private static final int MISSING_INDEX = -1;
+
+    private final List<CounterFamily> families;
+    private final Int2IntHashMap indexByTypeId = new Int2IntHashMap(MISSING_INDEX);
+    private final int genericIndex;
+
+    /**
+     * @param families families to export, at most one per type id. The generic family is appended as the last one.
+     */
+    public CounterRegistry(List<CounterFamily> families) {
+        List<CounterFamily> all = new ArrayList<>(families);
+        all.add(new CounterFamily(-1, "aeron_counter", "Aeron counters of a type without a dedicated metric family", UNTYPED, KeyLayout.GENERIC));
+
+        for (int i = 0; i < families.size(); i++) {
+            int typeId = families.get(i).typeId();
+            if (indexByTypeId.get(typeId) != MISSING_INDEX) {
+                throw new IllegalArgumentException("Duplicate family for counter type " + typeId);
+            }
+            indexByTypeId.put(typeId, i);
+        }
+
+        this.families = List.copyOf(all);
+        this.genericIndex = all.size() - 1;
+    }
+
+    /**
+     * @return registry with families for all media driver counters.
+     */
+    public static CounterRegistry driverCounters() {
+        return of(List.of(CounterProfile.DRIVER));
+    }
+
+    /**
+     * @param profiles components to export the counters of with dedicated families.
+     * @return registry with the families of all the profiles.
+     */
+    public static CounterRegistry of(Collection<CounterProfile> profiles) {
+        List<CounterFamily> families = new ArrayList<>();
+        for (CounterProfile profile : profiles) {
+            families.addAll(profile.families());
+        }
+        return new CounterRegistry(families);
+    }
+
+    /**
+     * @return all families including the generic one, indexed as returned by {@link #familyIndex(int)}.
+     */
+    public List<CounterFamily> families() {
+        return families;
+    }
+
+    /**
+     * @param typeId counter type id.
+     * @return index of the family counters of the type are exported as.
+     */
+    public int familyIndex(int typeId) {
+        int index = indexByTypeId.get(typeId);
+        return index == MISSING_INDEX ? genericIndex : index;
+    }
+
+    /**
+     * @param typeId counter type id.
+     * @return family counters of the type are exported as.
+     */
+    public CounterFamily family(int typeId) {
+        return families.get(familyIndex(typeId));
+    }
+}
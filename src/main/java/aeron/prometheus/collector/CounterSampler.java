@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.concurrent.Agent;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Samples the counters at a fixed rate on its own thread, decoupled from the HTTP scrapes.
+ * <p>
+ * Run with an org.agrona.concurrent.AgentRunner. Samples are written into one of two preallocated snapshots and published
+ * by swapping the latest snapshot reference, so scrapes only ever read a complete snapshot, however many of them run concurrently.
+ * A snapshot still held by a scrape is not overwritten, the sample is retried on the next duty cycle instead.
+ */
+public final class CounterSampler implements Agent, SnapshotSource {
+    private final CounterSnapshotter snapshotter;
+    private final long intervalNs;
+    private final CounterSnapshot first = new CounterSnapshot();
+    private final CounterSnapshot second = new CounterSnapshot();
+
+    private volatile CounterSnapshot latest = first;
+    private long nextSampleNs;
+
+    /**
+     * @param snapshotter reads the counters, owned by the sampler thread from now on.
+     * @param interval    interval between samples.
+     * @param unit        unit of the interval.
+     */
+    public CounterSampler(CounterSnapshotter snapshotter, long interval, TimeUnit unit) {
+        this.snapshotter = snapshotter;
+        this.intervalNs = unit.toNanos(interval);
+        this.nextSampleNs = System.nanoTime();
+    }
+
+    @Override
+    public int doWork() {
+        long nowNs = System.nanoTime();
+        if (nowNs - nextSampleNs < 0) {
+            return 0;
+        }
+
+        CounterSnapshot current = latest;
+        CounterSnapshot next = current == first ? second : first;
+        if (next.readers().get() > 0) {
+            return 0;
+        }
+
+        snapshotter.fill(next);
+        latest = next;
+        nextSampleNs = nowNs + intervalNs;
+        return 1;
+    }
+
+    @Override
+    public void onClose() {
+        snapshotter.close();
+    }
+
+    @Override
+    public String roleName() {
+        return "aeron-exporter-sampler";
+    }
+
+    @Override
+    public CounterSnapshot acquire() {
+        while (true) {
+            CounterSnapshot snapshot = latest;
+            snapshot.readers().incrementAndGet();
+            if (snapshot == latest) {
+                return snapshot;
+            }
+            snapshot.readers().decrementAndGet();
+        }
+    }
+
+    @Override
+    public void release(CounterSnapshot snapshot) {
+        snapshot.readers().decrementAndGet();
+    }
+
+    @Override
+    public CounterRegistry counterRegistry() {
+        return snapshotter.counterRegistry();
+    }
+}
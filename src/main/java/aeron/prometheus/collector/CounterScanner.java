@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersReader;
+
+import static org.agrona.BitUtil.SIZE_OF_INT;
+import static org.agrona.BitUtil.SIZE_OF_LONG;
+import static org.agrona.concurrent.status.CountersReader.*;
+
+/**
+ * Walks the allocated counters in the counters metadata buffer without allocating.
+ * <p>
+ * Unlike CountersReader.forEach it does not decode the label into a String nor create a new key buffer per counter,
+ * the key and label are handed to the visitor as views over the metadata buffer.
+ * Not thread safe, use one scanner per thread.
+ */
+public final class CounterScanner {
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final UnsafeBuffer keyBuffer = new UnsafeBuffer(0, 0);
+    private final UnsafeBuffer labelBuffer = new UnsafeBuffer(0, 0);
+
+    /**
+     * Visits every allocated counter.
+     *
+     * @param countersReader counters to walk.
+     * @param visitor        called for every allocated counter.
+     * @return number of counters visited.
+     */
+    public int scan(CountersReader countersReader, CounterVisitor visitor) {
+        AtomicBuffer metaDataBuffer = countersReader.metaDataBuffer();
+        int visited = 0;
+        int counterId = 0;
+
+        for (int offset = 0, capacity = metaDataBuffer.capacity(); offset < capacity; offset += METADATA_LENGTH, counterId++) {
+            int recordStatus = metaDataBuffer.getIntVolatile(offset);
+
+            if (RECORD_ALLOCATED == recordStatus) {
+                int typeId = metaDataBuffer.getInt(offset + TYPE_ID_OFFSET);
+                int labelLength = Math.max(0, Math.min(metaDataBuffer.getInt(offset + LABEL_OFFSET), MAX_LABEL_LENGTH));
+
+                keyBuffer.wrap(metaDataBuffer, offset + KEY_OFFSET, MAX_KEY_LENGTH);
+                labelBuffer.wrap(metaDataBuffer, offset + LABEL_OFFSET + SIZE_OF_INT, labelLength);
+
+                visitor.visit(counterId, typeId, keyBuffer, labelBuffer);
+                visited++;
+            } else if (RECORD_UNUSED == recordStatus) {
+                break;
+            }
+        }
+
+        return visited;
+    }
+
+    /**
+     * FNV-1a style hash of a region of a buffer, consuming 8 bytes at a time.
+     *
+     * @param buffer to hash.
+     * @param offset of the region.
+     * @param length of the region.
+     * @return 64 bit hash.
+     */
+    public static long hash(DirectBuffer buffer, int offset, int length) {
+        long hash = FNV_OFFSET_BASIS;
+        int i = 0;
+        for (; i + SIZE_OF_LONG <= length; i += SIZE_OF_LONG) {
+            hash = (hash ^ buffer.getLong(offset + i)) * FNV_PRIME;
+        }
+        for (; i < length; i++) {
+            hash = (hash ^ buffer.getByte(offset + i)) * FNV_PRIME;
+        }
+        return hash;
+    }
+}
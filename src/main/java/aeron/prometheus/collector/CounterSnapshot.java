@@ -0,0 +1,469 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Values of the counters read in one pass over cnc.dat, together with the metric name and labels each counter is exported with.
+ * <p>
+ * Arrays are preallocated and reused between samples, they only grow when the number of counters does.
+ * A snapshot is filled by a {@link CounterSnapshotter} and is immutable while acquired from a {@link SnapshotSource}.
+ */
+public final class CounterSnapshot {
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int INITIAL_ERROR_CAPACITY = 16;
+
+    private final AtomicInteger readers = new AtomicInteger();
+
+    private int count;
+    private int[] counterIds = new int[INITIAL_CAPACITY];
+    private int[] typeIds = new int[INITIAL_CAPACITY];
+    private int[] familyIndexes = new int[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private Object[] labelNames = new Object[INITIAL_CAPACITY];
+    private Object[] labelValues = new Object[INITIAL_CAPACITY];
+    private byte[][] nameBytes = new byte[INITIAL_CAPACITY][];
+    private byte[][] labelBytes = new byte[INITIAL_CAPACITY][];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private double[] rates = new double[INITIAL_CAPACITY];
+    private double[] peakRates = new double[INITIAL_CAPACITY];
+    private boolean hasRates;
+    private int errorCount;
+    private String[] errorTypes = new String[INITIAL_ERROR_CAPACITY];
+    private Object[] errorLabelNames = new Object[INITIAL_ERROR_CAPACITY];
+    private Object[] errorLabelValues = new Object[INITIAL_ERROR_CAPACITY];
+    private byte[][] errorLabelBytes = new byte[INITIAL_ERROR_CAPACITY][];
+    private long[] errorObservations = new long[INITIAL_ERROR_CAPACITY];
+    private long[] errorFirstTimestamps = new long[INITIAL_ERROR_CAPACITY];
+    private long[] errorLastTimestamps = new long[INITIAL_ERROR_CAPACITY];
+    private int lossCount;
+    private Object[] lossLabelNames = new Object[INITIAL_ERROR_CAPACITY];
+    private Object[] lossLabelValues = new Object[INITIAL_ERROR_CAPACITY];
+    private byte[][] lossLabelBytes = new byte[INITIAL_ERROR_CAPACITY][];
+    private long[] lossObservations = new long[INITIAL_ERROR_CAPACITY];
+    private long[] lossBytes = new long[INITIAL_ERROR_CAPACITY];
+    private long[] lossLastTimestamps = new long[INITIAL_ERROR_CAPACITY];
+    private int droppedCount;
+    private Object[] droppedLabelNames = new Object[INITIAL_ERROR_CAPACITY];
+    private Object[] droppedLabelValues = new Object[INITIAL_ERROR_CAPACITY];
+    private byte[][] droppedLabelBytes = new byte[INITIAL_ERROR_CAPACITY][];
+    private long[] droppedSeries = new long[INITIAL_ERROR_CAPACITY];
+    private long sequence;
+    private long timestampNs;
+    private long epochMs;
+    private boolean failed;
+
+    /**
+     * @return number of counters in the snapshot.
+     */
+    public int count() {
+        return count;
+    }
+
+    public int counterId(int index) {
+        return counterIds[index];
+    }
+
+    public int typeId(int index) {
+        return typeIds[index];
+    }
+
+    /**
+     * @return index of the family in the {@link CounterRegistry} the counter is exported as.
+     */
+    public int familyIndex(int index) {
+        return familyIndexes[index];
+    }
+
+    public String name(int index) {
+        return names[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> labelNames(int index) {
+        return (List<String>) labelNames[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> labelValues(int index) {
+        return (List<String>) labelValues[index];
+    }
+
+    /**
+     * @return metric name encoded for the Prometheus text format.
+     */
+    public byte[] nameBytes(int index) {
+        return nameBytes[index];
+    }
+
+    /**
+     * @return label set, including the braces, encoded for the Prometheus text format. Empty when the counter has no labels.
+     */
+    public byte[] labelBytes(int index) {
+        return labelBytes[index];
+    }
+
+    public long value(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return per second rate of the counter, NaN when not known (yet).
+     */
+    public double rate(int index) {
+        return rates[index];
+    }
+
+    /**
+     * @return peak per second rate of the counter over the rate window, NaN when not known (yet).
+     */
+    public double peakRate(int index) {
+        return peakRates[index];
+    }
+
+    /**
+     * @return true if rates were derived for the monotonic counters of this snapshot.
+     */
+    public boolean hasRates() {
+        return hasRates;
+    }
+
+    /**
+     * @return number of error types found in the distinct error log of the media driver.
+     */
+    public int errorCount() {
+        return errorCount;
+    }
+
+    /**
+     * @return type of the error, the exception class for errors of the java media driver.
+     */
+    public String errorType(int index) {
+        return errorTypes[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> errorLabelNames(int index) {
+        return (List<String>) errorLabelNames[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> errorLabelValues(int index) {
+        return (List<String>) errorLabelValues[index];
+    }
+
+    /**
+     * @return label set of the error type, including the braces, encoded for the Prometheus text format.
+     */
+    public byte[] errorLabelBytes(int index) {
+        return errorLabelBytes[index];
+    }
+
+    /**
+     * @return number of times errors of the type have been observed.
+     */
+    public long errorObservations(int index) {
+        return errorObservations[index];
+    }
+
+    /**
+     * @return epoch millis an error of the type was first observed at.
+     */
+    public long errorFirstObservationMs(int index) {
+        return errorFirstTimestamps[index];
+    }
+
+    /**
+     * @return epoch millis an error of the type was last observed at.
+     */
+    public long errorLastObservationMs(int index) {
+        return errorLastTimestamps[index];
+    }
+
+    /**
+     * @return number of streams found in the loss report of the media driver.
+     */
+    public int lossCount() {
+        return lossCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> lossLabelNames(int index) {
+        return (List<String>) lossLabelNames[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> lossLabelValues(int index) {
+        return (List<String>) lossLabelValues[index];
+    }
+
+    /**
+     * @return label set of the stream, including the braces, encoded for the Prometheus text format.
+     */
+    public byte[] lossLabelBytes(int index) {
+        return lossLabelBytes[index];
+    }
+
+    /**
+     * @return number of times loss has been observed on the stream.
+     */
+    public long lossObservations(int index) {
+        return lossObservations[index];
+    }
+
+    /**
+     * @return total number of bytes lost on the stream.
+     */
+    public long lossBytes(int index) {
+        return lossBytes[index];
+    }
+
+    /**
+     * @return epoch millis loss was last observed at on the stream.
+     */
+    public long lossLastObservationMs(int index) {
+        return lossLastTimestamps[index];
+    }
+
+    /**
+     * @return number of families which had series dropped by the series limit, see {@link SeriesLimiter}.
+     */
+    public int droppedCount() {
+        return droppedCount;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> droppedLabelNames(int index) {
+        return (List<String>) droppedLabelNames[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<String> droppedLabelValues(int index) {
+        return (List<String>) droppedLabelValues[index];
+    }
+
+    /**
+     * @return label set of the family, including the braces, encoded for the Prometheus text format.
+     */
+    public byte[] droppedLabelBytes(int index) {
+        return droppedLabelBytes[index];
+    }
+
+    /**
+     * @return number of times a series of the family was dropped by the series limit.
+     */
+    public long droppedSeries(int index) {
+        return droppedSeries[index];
+    }
+
+    /**
+     * @return number of times the snapshot has been filled, 0 if it has never been.
+     */
+    public long sequence() {
+        return sequence;
+    }
+
+    /**
+     * @return System.nanoTime() at which the snapshot was completed.
+     */
+    public long timestampNs() {
+        return timestampNs;
+    }
+
+    /**
+     * @return wall clock time at which the snapshot was completed, in epoch millis.
+     */
+    public long epochMs() {
+        return epochMs;
+    }
+
+    /**
+     * @return true if cnc.dat could not be read for this snapshot.
+     */
+    public boolean failed() {
+        return failed;
+    }
+
+    void reset() {
+        count = 0;
+        errorCount = 0;
+        lossCount = 0;
+        droppedCount = 0;
+        failed = false;
+        hasRates = false;
+    }
+
+    void add(
+            int counterId, int typeId, int familyIndex, String name, List<String> labelNames, List<String> labelValues, byte[] nameBytes, byte[] labelBytes, long value) {
+        if (count == values.length) {
+            grow();
+        }
+        counterIds[count] = counterId;
+        typeIds[count] = typeId;
+        familyIndexes[count] = familyIndex;
+        names[count] = name;
+        this.labelNames[count] = labelNames;
+        this.labelValues[count] = labelValues;
+        this.nameBytes[count] = nameBytes;
+        this.labelBytes[count] = labelBytes;
+        values[count] = value;
+        rates[count] = Double.NaN;
+        peakRates[count] = Double.NaN;
+        count++;
+    }
+
+    void addError(
+            String type, List<String> labelNames, List<String> labelValues, byte[] labelBytes, long observations, long firstTimestampMs, long lastTimestampMs) {
+        if (errorCount == errorObservations.length) {
+            growErrors();
+        }
+        errorTypes[errorCount] = type;
+        errorLabelNames[errorCount] = labelNames;
+        errorLabelValues[errorCount] = labelValues;
+        errorLabelBytes[errorCount] = labelBytes;
+        errorObservations[errorCount] = observations;
+        errorFirstTimestamps[errorCount] = firstTimestampMs;
+        errorLastTimestamps[errorCount] = lastTimestampMs;
+        errorCount++;
+    }
+
+    void addLoss(List<String> labelNames, List<String> labelValues, byte[] labelBytes, long observations, long bytesLost, long lastTimestampMs) {
+        if (lossCount == lossObservations.length) {
+            growLoss();
+        }
+        lossLabelNames[lossCount] = labelNames;
+        lossLabelValues[lossCount] = labelValues;
+        lossLabelBytes[lossCount] = labelBytes;
+        lossObservations[lossCount] = observations;
+        lossBytes[lossCount] = bytesLost;
+        lossLastTimestamps[lossCount] = lastTimestampMs;
+        lossCount++;
+    }
+
+    void addDropped(List<String> labelNames, List<String> labelValues, byte[] labelBytes, long series) {
+        if (droppedCount == droppedSeries.length) {
+            growDropped();
+        }
+        droppedLabelNames[droppedCount] = labelNames;
+        droppedLabelValues[droppedCount] = labelValues;
+        droppedLabelBytes[droppedCount] = labelBytes;
+        droppedSeries[droppedCount] = series;
+        droppedCount++;
+    }
+
+    /**
+     * Removes the counters which are not retained, keeping the order of the others.
+     *
+     * @param retained true at the index of each counter to keep.
+     */
+    void retain(boolean[] retained) {
+        int retainedCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (retained[i]) {
+                if (retainedCount != i) {
+                    counterIds[retainedCount] = counterIds[i];
+                    typeIds[retainedCount] = typeIds[i];
+                    familyIndexes[retainedCount] = familyIndexes[i];
+                    names[retainedCount] = names[i];
+                    labelNames[retainedCount] = labelNames[i];
+                    labelValues[retainedCount] = labelValues[i];
+                    nameBytes[retainedCount] = nameBytes[i];
+                    labelBytes[retainedCount] = labelBytes[i];
+                    values[retainedCount] = values[i];
+                    rates[retainedCount] = rates[i];
+                    peakRates[retainedCount] = peakRates[i];
+                }
+                retainedCount++;
+            }
+        }
+        count = retainedCount;
+    }
+
+    void rates(int index, double rate, double peakRate) {
+        rates[index] = rate;
+        peakRates[index] = peakRate;
+    }
+
+    void hasRates(boolean hasRates) {
+        this.hasRates = hasRates;
+    }
+
+    void fail() {
+        count = 0;
+        errorCount = 0;
+        lossCount = 0;
+        droppedCount = 0;
+        failed = true;
+    }
+
+    void complete(long timestampNs, long epochMs) {
+        this.timestampNs = timestampNs;
+        this.epochMs = epochMs;
+        sequence++;
+    }
+
+    AtomicInteger readers() {
+        return readers;
+    }
+
+    private void grow() {
+        int capacity = values.length * 2;
+        counterIds = Arrays.copyOf(counterIds, capacity);
+        typeIds = Arrays.copyOf(typeIds, capacity);
+        familyIndexes = Arrays.copyOf(familyIndexes, capacity);
+        names = Arrays.copyOf(names, capacity);
+        labelNames = Arrays.copyOf(labelNames, capacity);
+        labelValues = Arrays.copyOf(labelValues, capacity);
+        nameBytes = Arrays.copyOf(nameBytes, capacity);
+        labelBytes = Arrays.copyOf(labelBytes, capacity);
+        values = Arrays.copyOf(values, capacity);
+        rates = Arrays.copyOf(rates, capacity);
+        peakRates = Arrays.copyOf(peakRates, capacity);
+    }
+
+    private void growErrors() {
+        int capacity = errorObservations.length * 2;
+        errorTypes = Arrays.copyOf(errorTypes, capacity);
+        errorLabelNames = Arrays.copyOf(errorLabelNames, capacity);
+        errorLabelValues = Arrays.copyOf(errorLabelValues, capacity);
+        errorLabelBytes = Arrays.copyOf(errorLabelBytes, capacity);
+        errorObservations = Arrays.copyOf(errorObservations, capacity);
+        errorFirstTimestamps = Arrays.copyOf(errorFirstTimestamps, capacity);
+        errorLastTimestamps = Arrays.copyOf(errorLastTimestamps, capacity);
+    }
+
+    private void growLoss() {
+        int capacity = lossObservations.length * 2;
+        lossLabelNames = Arrays.copyOf(lossLabelNames, capacity);
+        lossLabelValues = Arrays.copyOf(lossLabelValues, capacity);
+        lossLabelBytes = Arrays.copyOf(lossLabelBytes, capacity);
+        lossObservations = Arrays.copyOf(lossObservations, capacity);
+        lossBytes = Arrays.copyOf(lossBytes, capacity);
+        lossLastTimestamps = Arrays.copyOf(lossLastTimestamps, capacity);
+    }
+
+    private void growDropped() {
+        int capacity = droppedSeries.length * 2;
+        droppedLabelNames = Arrays.copyOf(droppedLabelNames, capacity);
+        droppedLabelValues = Arrays.copyOf(droppedLabelValues, capacity);
+        droppedLabelBytes = Arrays.copyOf(droppedLabelBytes, capacity);
+        droppedSeries = Arrays.copyOf(droppedSeries, capacity);
+    }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import io.prometheus.client.Collector;
+import org.agrona.CloseHelper;
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.status.CountersReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reads the counters from cnc.dat into a {@link CounterSnapshot}, together with the error types of the distinct error log
+ * and the streams of loss-report.dat, and derives the health gauges of the streams and the liveness gauges of the clients,
+ * see {@link StreamHealth} and {@link ClientLiveness}, and reads the gauges of the metadata of cnc.dat, see {@link DriverMetadata}.
+ * Counters rejected by the {@link CounterFilter} are skipped before their key is parsed, and the series over the limit
+ * of a family are dropped once the pass is complete, see {@link SeriesLimiter}.
+ * <p>
+ * Resolves the metric name and labels of each counter, and their encoding in the text format, through caches,
+ * so filling a snapshot for a steady set of counters does not allocate.
+ * Not thread safe, a snapshotter is owned by the thread sampling the counters.
+ */
+public final class CounterSnapshotter {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CounterSnapshotter.class);
+
+    static final String DRIVER_LABEL = "driver";
+
+    private final CncFileReader cncFileReader;
+    private final CounterRegistry counterRegistry;
+    private final List<CounterFamily> families;
+    private final CounterScanner counterScanner = new CounterScanner();
+    private final CounterLabelCache labelCache;
+    private final List<List<String>> labelNamesByFamily;
+    private final MetricNameCache nameCache = new MetricNameCache(AeronCollector.AERON_PREFIX);
+    private final SeriesCache seriesCache = new SeriesCache();
+    private final CounterVisitor visitor = this::onCounter;
+    private final RateEngine rateEngine;
+    private final StreamHealth streamHealth;
+    private final ClientLiveness clientLiveness;
+    private final DriverMetadata driverMetadata;
+    private final CounterFilter filter;
+    private final SeriesLimiter seriesLimiter;
+    private final ErrorLogScanner errorLogScanner;
+    private final LossReportFileReader lossReportFileReader;
+    private final LossReportScanner lossReportScanner;
+
+    private int mappingGeneration;
+    private int lossReportGeneration;
+    private boolean lastFailed;
+    private boolean lastLossReportFailed;
+    private CountersReader countersReader;
+    private CounterSnapshot target;
+    private int countersRead;
+
+    public CounterSnapshotter(CncFileReader cncFileReader, CounterRegistry counterRegistry) {
+        this(cncFileReader, counterRegistry, null);
+    }
+
+    /**
+     * Creates a snapshotter for counters which are not read from cnc.dat, see {@link #fill(CountersReader, long, CounterSnapshot)}.
+     */
+    public CounterSnapshotter(CounterRegistry counterRegistry) {
+        this(null, counterRegistry, null);
+    }
+
+    /**
+     * @param rateEngine derives rates of the monotonic counters of each snapshot, or null to export raw values only.
+     */
+    public CounterSnapshotter(CncFileReader cncFileReader, CounterRegistry counterRegistry, RateEngine rateEngine) {
+        this(cncFileReader, counterRegistry, rateEngine, null);
+    }
+
+    /**
+     * @param driver name of the media driver, added as a "driver" label to every counter, or null to add no label.
+     */
+    public CounterSnapshotter(CncFileReader cncFileReader, CounterRegistry counterRegistry, RateEngine rateEngine, String driver) {
+        this(cncFileReader, counterRegistry, rateEngine, driver, CounterFilter.ACCEPT_ALL, 0);
+    }
+
+    /**
+     * @param filter      deciding which counters are exported.
+     * @param seriesLimit maximum number of series exported per family, 0 for no limit.
+     */
+    public CounterSnapshotter(
+            CncFileReader cncFileReader, CounterRegistry counterRegistry, RateEngine rateEngine, String driver, CounterFilter filter, int seriesLimit) {
+        this(cncFileReader, counterRegistry, rateEngine, DRIVER_LABEL, driver, filter, seriesLimit);
+    }
+
+    /**
+     * Creates a snapshotter for counters which are not read from cnc.dat, labelled with the source they were read from,
+     * see {@link #fill(CountersReader, long, CounterSnapshot)}.
+     *
+     * @param sourceLabel name of the label added to every counter, e.g. "host".
+     * @param source      value of the label.
+     * @param filter      deciding which counters are exported.
+     * @param seriesLimit maximum number of series exported per family, 0 for no limit.
+     */
+    public CounterSnapshotter(CounterRegistry counterRegistry, String sourceLabel, String source, CounterFilter filter, int seriesLimit) {
+        this(null, counterRegistry, null, sourceLabel, source, filter, seriesLimit);
+    }
+
+    private CounterSnapshotter(
+            CncFileReader cncFileReader, CounterRegistry counterRegistry, RateEngine rateEngine,
+            String driverLabel, String driver, CounterFilter filter, int seriesLimit) {
+        this.cncFileReader = cncFileReader;
+        this.counterRegistry = counterRegistry;
+        this.families = counterRegistry.families();
+        this.rateEngine = rateEngine;
+        this.streamHealth = new StreamHealth(counterRegistry);
+        this.clientLiveness = new ClientLiveness(counterRegistry);
+        this.driverMetadata = new DriverMetadata(counterRegistry, filter, driverLabel, driver);
+        this.filter = filter;
+        this.seriesLimiter = new SeriesLimiter(families, seriesLimit, driverLabel, driver);
+        this.labelCache = new CounterLabelCache(driver, filter);
+        this.errorLogScanner = new ErrorLogScanner(driver);
+        this.lossReportFileReader = cncFileReader == null ? null : new LossReportFileReader(cncFileReader::aeronDirectory);
+        this.lossReportScanner = new LossReportScanner(driver);
+
+        List<List<String>> labelNames = new ArrayList<>(families.size());
+        for (CounterFamily family : families) {
+            labelNames.add(driver == null ? family.labelNames() : prepend(driverLabel, family.labelNames()));
+        }
+        this.labelNamesByFamily = List.copyOf(labelNames);
+    }
+
+    static List<String> prepend(String first, List<String> rest) {
+        List<String> list = new ArrayList<>(rest.size() + 1);
+        list.add(first);
+        list.addAll(rest);
+        return List.copyOf(list);
+    }
+
+    /**
+     * @return registry used to map counters to families.
+     */
+    public CounterRegistry counterRegistry() {
+        return counterRegistry;
+    }
+
+    /**
+     * Releases the cnc.dat mapping, to be called by the thread owning the snapshotter.
+     */
+    public void close() {
+        CloseHelper.close(cncFileReader);
+        CloseHelper.close(lossReportFileReader);
+    }
+
+    /**
+     * Reads all counters into the snapshot, or marks it as failed when cnc.dat could not be read.
+     *
+     * @param snapshot to fill, its previous content is discarded.
+     */
+    public void fill(CounterSnapshot snapshot) {
+        long start = System.nanoTime();
+        snapshot.reset();
+        try {
+            countersReader = cncFileReader.getCountersReader();
+            if (mappingGeneration != cncFileReader.mappingGeneration()) {
+                mappingGeneration = cncFileReader.mappingGeneration();
+                labelCache.clear();
+                nameCache.clear();
+                seriesCache.clear();
+                errorLogScanner.clear();
+                seriesLimiter.clear();
+                if (rateEngine != null) {
+                    rateEngine.clear();
+                }
+            }
+
+            scanCounters(snapshot, System.currentTimeMillis(), TimeUnit.NANOSECONDS.toMillis(cncFileReader.clientLivenessTimeoutNs()), cncFileReader);
+
+            AtomicBuffer errorLog = cncFileReader.errorLogBuffer();
+            if (errorLog != null) {
+                errorLogScanner.scan(errorLog, snapshot);
+            }
+            readLossReport(snapshot);
+            lastFailed = false;
+        } catch (IOException e) {
+            if (!lastFailed) {
+                LOGGER.atError().log("Error during cnc.dat read", e);
+            }
+            lastFailed = true;
+            snapshot.fail();
+        } finally {
+            target = null;
+            countersReader = null;
+        }
+        long now = System.nanoTime();
+        snapshot.complete(now, System.currentTimeMillis());
+        ExporterMetrics.SNAPSHOT_DURATION.observe((now - start) / Collector.NANOSECONDS_PER_SECOND);
+    }
+
+    /**
+     * Reads the counters of a reader other than cnc.dat into the snapshot, e.g. counters replayed from a recording.
+     * The error log and loss report are not read. The snapshot is dated back to the time the counters were sampled at,
+     * so its age tells how old the counters are.
+     *
+     * @param countersReader counters to read.
+     * @param epochMs        time the counters were sampled at, in epoch millis.
+     * @param snapshot       to fill, its previous content is discarded.
+     */
+    public void fill(CountersReader countersReader, long epochMs, CounterSnapshot snapshot) {
+        snapshot.reset();
+        try {
+            this.countersReader = countersReader;
+            scanCounters(snapshot, epochMs, 0, null);
+        } finally {
+            target = null;
+            this.countersReader = null;
+        }
+        snapshot.complete(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(Math.max(0, System.currentTimeMillis() - epochMs)), epochMs);
+    }
+
+    /**
+     * Marks the snapshot as failed, for sources whose counters can not be read at the moment.
+     *
+     * @param snapshot to fail, its previous content is discarded.
+     */
+    public void fail(CounterSnapshot snapshot) {
+        snapshot.reset();
+        snapshot.fail();
+        snapshot.complete(System.nanoTime(), System.currentTimeMillis());
+    }
+
+    private void scanCounters(CounterSnapshot snapshot, long epochMs, long livenessTimeoutMs, CncFileReader metadataSource) {
+        target = snapshot;
+        nameCache.beginScan();
+        streamHealth.clear();
+        clientLiveness.clear();
+        countersRead = 0;
+        counterScanner.scan(countersReader, visitor);
+        nameCache.endScan();
+        ExporterMetrics.COUNTERS_READ.inc(countersRead);
+        if (streamHealth.enabled()) {
+            streamHealth.derive(snapshot);
+        }
+        if (clientLiveness.enabled()) {
+            clientLiveness.derive(snapshot, epochMs, livenessTimeoutMs);
+        }
+        if (metadataSource != null && driverMetadata.enabled()) {
+            driverMetadata.derive(metadataSource, countersReader, snapshot, epochMs);
+        }
+        if (seriesLimiter.enabled()) {
+            seriesLimiter.limit(snapshot);
+        }
+        if (rateEngine != null) {
+            rateEngine.update(snapshot, System.nanoTime());
+        }
+    }
+
+    private void readLossReport(CounterSnapshot snapshot) {
+        try {
+            AtomicBuffer lossReport = lossReportFileReader.getBuffer();
+            if (lossReport != null) {
+                if (lossReportGeneration != lossReportFileReader.mappingGeneration()) {
+                    lossReportGeneration = lossReportFileReader.mappingGeneration();
+                    lossReportScanner.clear();
+                }
+                lossReportScanner.scan(lossReport, snapshot);
+            }
+            lastLossReportFailed = false;
+        } catch (IOException e) {
+            if (!lastLossReportFailed) {
+                LOGGER.atError().log("Error during loss-report.dat read", e);
+            }
+            lastLossReportFailed = true;
+        }
+    }
+
+    private void onCounter(int counterId, int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+        countersRead++;
+        if (!filter.acceptsType(typeId)) {
+            return;
+        }
+
+        final int familyIndex = counterRegistry.familyIndex(typeId);
+        final CounterFamily family = families.get(familyIndex);
+        final List<String> labelValues = labelCache.labelValues(counterId, typeId, family.keyLayout(), keyBuffer, labelBuffer);
+        if (labelValues == null) {
+            return;
+        }
+
+        final long value = countersReader.getCounterValue(counterId);
+
+        // system counters are exported one metric name per counter, the rest by family with labels
+        final String name = family.keyLayout() == KeyLayout.SYSTEM ? nameCache.name(counterId, labelBuffer) : family.name();
+
+        final List<String> labelNames = labelNamesByFamily.get(familyIndex);
+
+        seriesCache.update(counterId, name, labelNames, labelValues);
+
+        target.add(counterId, typeId, familyIndex, name, labelNames, labelValues,
+                seriesCache.nameBytes(counterId), seriesCache.labelBytes(counterId), value);
+        streamHealth.onCounter(typeId, keyBuffer, target.count() - 1, value);
+        clientLiveness.onCounter(typeId, keyBuffer, target.count() - 1,
+                ClientLiveness.isClientOwned(typeId) ? countersReader.getCounterOwnerId(counterId) : CountersReader.DEFAULT_OWNER_ID);
+    }
+}
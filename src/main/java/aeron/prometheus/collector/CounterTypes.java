@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package aeron.prometheus.collector;
+
+/**
+ * Type ids of the counters aeron stores in cnc.dat.
+ * <p>
+ * Mirrors the type ids declared next to each counter in io.aeron.driver.status and io.aeron.status,
+ * kept in one place so the exporter does not depend on where a given aeron version declares them.
+ */
+public final class CounterTypes {
+    /**
+     * System counters, see io.aeron.driver.status.SystemCounterDescriptor.
+     */
+    public static final int SYSTEM = 0;
+    public static final int PUBLISHER_LIMIT = 1;
+    public static final int SENDER_POSITION = 2;
+    public static final int RECEIVER_HWM = 3;
+    public static final int SUBSCRIBER_POSITION = 4;
+    public static final int RECEIVER_POSITION = 5;
+    public static final int SEND_CHANNEL_STATUS = 6;
+    public static final int RECEIVE_CHANNEL_STATUS = 7;
+    public static final int SENDER_LIMIT = 9;
+    public static final int PER_IMAGE = 10;
+    public static final int CLIENT_HEARTBEAT = 11;
+    public static final int PUBLISHER_POSITION = 12;
+    public static final int SENDER_BPE = 13;
+
+    /**
+     * Archive counters, see io.aeron.archive.status.RecordingPos and io.aeron.archive.ArchiveCounters.
+     */
+    public static final int ARCHIVE_RECORDING_POSITION = 100;
+    public static final int ARCHIVE_ERROR_COUNT = 101;
+    public static final int ARCHIVE_CONTROL_SESSIONS = 102;
+    public static final int ARCHIVE_MAX_CYCLE_TIME = 103;
+    public static final int ARCHIVE_CYCLE_TIME_THRESHOLD_EXCEEDED = 104;
+
+    /**
+     * Cluster counters, see io.aeron.cluster.ConsensusModule.Configuration and io.aeron.cluster.service.ClusteredServiceContainer.Configuration.
+     */
+    public static final int CLUSTER_CONSENSUS_MODULE_STATE = 200;
+    public static final int CLUSTER_NODE_ROLE = 201;
+    public static final int CLUSTER_CONTROL_TOGGLE = 202;
+    public static final int CLUSTER_COMMIT_POSITION = 203;
+    public static final int CLUSTER_SNAPSHOT_COUNT = 205;
+    public static final int CLUSTER_ELECTION_STATE = 207;
+    public static final int CLUSTER_ERROR_COUNT = 212;
+    public static final int CLUSTER_CLIENT_TIMEOUT_COUNT = 213;
+    public static final int CLUSTER_INVALID_REQUEST_COUNT = 214;
+    public static final int CLUSTER_SERVICE_ERROR_COUNT = 215;
+    public static final int CLUSTER_LEADERSHIP_TERM_ID = 239;
+
+    /**
+     * Gauges derived by the exporter from several position counters, not allocated by aeron, see {@link StreamHealth}.
+     * Negative so they never collide with an aeron type id, -1 being the generic family.
+     */
+    public static final int PUBLISHER_HEADROOM = -2;
+    public static final int SENDER_RECEIVER_GAP = -3;
+    public static final int SUBSCRIBER_LAG = -4;
+
+    /**
+     * Gauges derived by the exporter for each client of a media driver, see {@link ClientLiveness}.
+     */
+    public static final int CLIENT_HEARTBEAT_AGE = -5;
+    public static final int CLIENT_PUBLICATIONS = -6;
+    public static final int CLIENT_SUBSCRIPTIONS = -7;
+    public static final int CLIENT_STALE = -8;
+
+    /**
+     * Gauges read by the exporter from the metadata and buffers of cnc.dat, see {@link DriverMetadata}.
+     */
+    public static final int DRIVER_INFO = -9;
+    public static final int DRIVER_START_TIMESTAMP = -10;
+    public static final int DRIVER_CLIENT_LIVENESS_TIMEOUT = -11;
+    public static final int DRIVER_BUFFER_LENGTH = -12;
+    public static final int TO_DRIVER_USED = -13;
+    public static final int TO_DRIVER_HEARTBEAT_AGE = -14;
+    public static final int TO_CLIENTS_TAIL = -15;
+
+    private CounterTypes() {
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.DirectBuffer;
+
+/**
+ * Callback for the allocated counters found by {@link CounterScanner}.
+ */
+@FunctionalInterface
+public interface CounterVisitor {
+    /**
+     * Called for each allocated counter.
+     *
+     * @param counterId   id of the counter.
+     * @param typeId      aeron type id of the counter.
+     * @param keyBuffer   key of the counter, only valid for the duration of the call.
+     * @param labelBuffer label of the counter as ascii bytes, only valid for the duration of the call.
+     */
+    void visit(int counterId, int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer);
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.CloseHelper;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * A media driver the exporter reads the counters of, with the source of its counter snapshots.
+ */
+public final class Driver implements AutoCloseable {
+    private final String name;
+    private final SnapshotSource snapshotSource;
+    private final AutoCloseable resources;
+    private final List<String> labelNames;
+    private final List<String> labelValues;
+    private final byte[] labelBytes;
+
+    /**
+     * @param name           name of the driver exported as the "driver" label, or null when the exporter reads a single driver.
+     * @param snapshotSource source of the counter snapshots of the driver.
+     * @param resources      released when the driver goes away, e.g. the sampler runner or the synchronous source, may be null.
+     */
+    public Driver(String name, SnapshotSource snapshotSource, AutoCloseable resources) {
+        this(CounterSnapshotter.DRIVER_LABEL, name, snapshotSource, resources);
+    }
+
+    /**
+     * @param labelName name of the label the name is exported as, e.g. "host" for the drivers of a gateway.
+     */
+    public Driver(String labelName, String name, SnapshotSource snapshotSource, AutoCloseable resources) {
+        this.name = name;
+        this.snapshotSource = snapshotSource;
+        this.resources = resources;
+        this.labelNames = name == null ? List.of() : List.of(labelName);
+        this.labelValues = name == null ? List.of() : List.of(name);
+        this.labelBytes = name == null ? SeriesCache.EMPTY :
+                ("{" + labelName + "=\"" + SeriesCache.escape(name) + "\"}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return name of the driver, null when the exporter reads a single driver.
+     */
+    public String name() {
+        return name;
+    }
+
+    public SnapshotSource snapshotSource() {
+        return snapshotSource;
+    }
+
+    /**
+     * @return names of the labels identifying the driver, empty for a single driver.
+     */
+    public List<String> labelNames() {
+        return labelNames;
+    }
+
+    /**
+     * @return values of the labels identifying the driver, empty for a single driver.
+     */
+    public List<String> labelValues() {
+        return labelValues;
+    }
+
+    /**
+     * @return label set identifying the driver encoded for the Prometheus text format, empty for a single driver.
+     */
+    public byte[] labelBytes() {
+        return labelBytes;
+    }
+
+    @Override
+    public void close() {
+        CloseHelper.close(resources);
+    }
+
+    @Override
+    public String toString() {
+        return "Driver(" + name + ")";
+    }
+}
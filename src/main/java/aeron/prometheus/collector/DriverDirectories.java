@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import io.aeron.CncFileDescriptor;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.function.Supplier;
+
+/**
+ * Finds the aeron directories of the media drivers to export.
+ * <p>
+ * Directories are given as a list of paths, where the last element of a path may be a glob, e.g. "/dev/shm/aeron-*",
+ * and/or as a parent directory every sub directory of which is an aeron directory.
+ * Globbed and parent sub directories are only included while they contain a cnc.dat file, so drivers appear and disappear with it.
+ * Directories listed explicitly are always included, a missing driver is then reported as a cnc.dat read error.
+ */
+public final class DriverDirectories implements Supplier<List<Path>> {
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    private final List<String> patterns;
+    private final Path parent;
+
+    /**
+     * @param patterns directories or globs, may be empty.
+     * @param parent   directory whose sub directories are aeron directories, or null.
+     */
+    public DriverDirectories(List<String> patterns, Path parent) {
+        this.patterns = List.copyOf(patterns);
+        this.parent = parent;
+    }
+
+    /**
+     * @return sorted, distinct aeron directories found.
+     */
+    @Override
+    public List<Path> get() {
+        TreeSet<Path> directories = new TreeSet<>();
+
+        for (String pattern : patterns) {
+            Path path = Paths.get(pattern).toAbsolutePath().normalize();
+            Path fileName = path.getFileName();
+            if (fileName != null && isGlob(fileName.toString()) && path.getParent() != null) {
+                addDriverDirectories(path.getParent(), fileName.toString(), directories);
+            } else {
+                directories.add(path);
+            }
+        }
+
+        if (parent != null) {
+            addDriverDirectories(parent.toAbsolutePath().normalize(), "*", directories);
+        }
+
+        return new ArrayList<>(directories);
+    }
+
+    private static void addDriverDirectories(Path directory, String glob, TreeSet<Path> directories) {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for (Path path : stream) {
+                if (Files.isDirectory(path) && Files.exists(path.resolve(CncFileDescriptor.CNC_FILE))) {
+                    directories.add(path);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            // no drivers until the directory is created
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static boolean isGlob(String fileName) {
+        for (int i = 0; i < fileName.length(); i++) {
+            if (GLOB_CHARACTERS.indexOf(fileName.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
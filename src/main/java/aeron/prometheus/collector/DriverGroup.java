@@ -0,0 +1,262 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.CloseHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * The media drivers exported by this process.
+ * <p>
+ * Either a single fixed driver, drivers discovered from their aeron directories, or drivers supplied by another component
+ * such as the gateway. Discovered drivers are rescanned at most once per
+ * rescan interval, when the drivers are asked for. New directories get a driver created by the {@link DriverFactory},
+ * drivers whose directory went away are closed. The snapshots of several drivers are acquired in parallel.
+ */
+public final class DriverGroup implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DriverGroup.class);
+
+    /**
+     * Creates the driver reading the counters of an aeron directory.
+     */
+    @FunctionalInterface
+    public interface DriverFactory {
+        /**
+         * @param name     name of the driver, exported as the "driver" label.
+         * @param aeronDir aeron directory of the driver.
+         * @return the driver.
+         */
+        Driver create(String name, Path aeronDir);
+    }
+
+    private final CounterRegistry counterRegistry;
+    private final Supplier<List<Path>> discovery;
+    private final Supplier<List<Driver>> driverSupplier;
+    private final DriverFactory driverFactory;
+    private final long rescanIntervalNs;
+    private final ExecutorService executor;
+    private final Map<Path, Driver> driversByDirectory = new HashMap<>();
+
+    private volatile List<Driver> drivers;
+    private long nextRescanNs;
+    private boolean scanned;
+    private boolean closed;
+
+    private DriverGroup(
+            CounterRegistry counterRegistry,
+            List<Driver> drivers,
+            Supplier<List<Path>> discovery,
+            DriverFactory driverFactory,
+            long rescanIntervalNs,
+            Supplier<List<Driver>> driverSupplier) {
+        this.counterRegistry = counterRegistry;
+        this.drivers = List.copyOf(drivers);
+        this.discovery = discovery;
+        this.driverFactory = driverFactory;
+        this.rescanIntervalNs = rescanIntervalNs;
+        this.driverSupplier = driverSupplier;
+        this.executor = discovery == null && driverSupplier == null ? null : Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "aeron-exporter-driver-read");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @param snapshotSource source of the counters of the only driver, exported without a "driver" label.
+     * @return group of a single driver.
+     */
+    public static DriverGroup single(SnapshotSource snapshotSource) {
+        return single(new Driver(null, snapshotSource, null));
+    }
+
+    /**
+     * @param driver the only driver, closed with the group.
+     * @return group of a single driver.
+     */
+    public static DriverGroup single(Driver driver) {
+        return new DriverGroup(driver.snapshotSource().counterRegistry(), List.of(driver), null, null, 0, null);
+    }
+
+    /**
+     * @param counterRegistry registry shared by the snapshots of all drivers.
+     * @param discovery       finds the aeron directories of the drivers.
+     * @param driverFactory   creates a driver for a new aeron directory.
+     * @param rescanInterval  minimum interval between two discoveries.
+     * @param unit            unit of the interval.
+     * @return group of the discovered drivers.
+     */
+    public static DriverGroup discovering(
+            CounterRegistry counterRegistry, Supplier<List<Path>> discovery, DriverFactory driverFactory, long rescanInterval, TimeUnit unit) {
+        return new DriverGroup(counterRegistry, List.of(), discovery, driverFactory, unit.toNanos(rescanInterval), null);
+    }
+
+    /**
+     * @param counterRegistry registry shared by the snapshots of all drivers.
+     * @param driverSupplier  current drivers, asked for on every call to {@link #drivers()}, owned and closed by the supplier.
+     * @return group of the drivers managed elsewhere, e.g. the hosts pushing to a gateway.
+     */
+    public static DriverGroup supplied(CounterRegistry counterRegistry, Supplier<List<Driver>> driverSupplier) {
+        return new DriverGroup(counterRegistry, List.of(), null, null, 0, driverSupplier);
+    }
+
+    /**
+     * @return registry the family indexes of the snapshots of all drivers refer to.
+     */
+    public CounterRegistry counterRegistry() {
+        return counterRegistry;
+    }
+
+    /**
+     * @return current drivers, rediscovered first if the rescan interval has elapsed.
+     */
+    public List<Driver> drivers() {
+        if (driverSupplier != null) {
+            return driverSupplier.get();
+        }
+        if (discovery != null) {
+            rescanIfDue();
+        }
+        return drivers;
+    }
+
+    /**
+     * Acquires the latest snapshot of every driver, in parallel when there are several.
+     *
+     * @param drivers   drivers as returned by {@link #drivers()}.
+     * @param snapshots receives the snapshots, at the index of their driver.
+     */
+    public void acquire(List<Driver> drivers, CounterSnapshot[] snapshots) {
+        int count = drivers.size();
+        if (count <= 1 || executor == null) {
+            for (int i = 0; i < count; i++) {
+                snapshots[i] = drivers.get(i).snapshotSource().acquire();
+            }
+            return;
+        }
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[count];
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            futures[i] = CompletableFuture.runAsync(() -> snapshots[index] = drivers.get(index).snapshotSource().acquire(), executor);
+        }
+
+        RuntimeException failure = null;
+        for (CompletableFuture<?> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException e) {
+                failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        if (failure != null) {
+            release(drivers, snapshots);
+            throw failure;
+        }
+    }
+
+    /**
+     * Releases the snapshots acquired by {@link #acquire(List, CounterSnapshot[])}.
+     */
+    public void release(List<Driver> drivers, CounterSnapshot[] snapshots) {
+        for (int i = 0, count = drivers.size(); i < count; i++) {
+            if (snapshots[i] != null) {
+                drivers.get(i).snapshotSource().release(snapshots[i]);
+                snapshots[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Closes all drivers.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        drivers.forEach(CloseHelper::close);
+        drivers = List.of();
+        driversByDirectory.clear();
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private synchronized void rescanIfDue() {
+        long nowNs = System.nanoTime();
+        if (closed || scanned && nowNs - nextRescanNs < 0) {
+            return;
+        }
+        scanned = true;
+        nextRescanNs = nowNs + rescanIntervalNs;
+
+        List<Path> directories = discovery.get();
+
+        List<Path> removed = new ArrayList<>();
+        for (Path directory : driversByDirectory.keySet()) {
+            if (!directories.contains(directory)) {
+                removed.add(directory);
+            }
+        }
+        for (Path directory : removed) {
+            Driver driver = driversByDirectory.remove(directory);
+            LOGGER.atInfo().log("Media driver {} at {} is gone", driver.name(), directory);
+            CloseHelper.close(driver);
+        }
+
+        boolean added = false;
+        for (Path directory : directories) {
+            if (!driversByDirectory.containsKey(directory)) {
+                String name = driverName(directory);
+                LOGGER.atInfo().log("Found media driver {} at {}", name, directory);
+                driversByDirectory.put(directory, driverFactory.create(name, directory));
+                added = true;
+            }
+        }
+
+        if (added || !removed.isEmpty()) {
+            List<Driver> current = new ArrayList<>();
+            for (Path directory : directories) {
+                current.add(driversByDirectory.get(directory));
+            }
+            drivers = List.copyOf(current);
+        }
+    }
+
+    private String driverName(Path directory) {
+        String name = directory.getFileName() == null ? directory.toString() : directory.getFileName().toString();
+        for (Driver driver : driversByDirectory.values()) {
+            if (name.equals(driver.name())) {
+                return directory.toString();
+            }
+        }
+        return name;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.broadcast.BroadcastBufferDescriptor;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+import org.agrona.concurrent.status.CountersReader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static aeron.prometheus.collector.CounterTypes.*;
+import static org.agrona.BitUtil.SIZE_OF_INT;
+import static org.agrona.BitUtil.SIZE_OF_LONG;
+
+/**
+ * Reads the metadata and the command buffers of cnc.dat into gauges of the media driver:
+ * <ul>
+ *     <li>info, always 1, labelled with the cnc version and the PID, so dashboards can mark restarts of the driver,</li>
+ *     <li>start timestamp and client liveness timeout of the driver,</li>
+ *     <li>lengths of the to-driver, to-clients, counters and error log buffers,</li>
+ *     <li>bytes of the to-driver ring buffer written by clients and not yet read by the driver, and milliseconds since the driver
+ *     last heartbeat it, a saturated buffer or a stalled driver being an early sign of command back-pressure before clients time out,</li>
+ *     <li>tail of the to-clients broadcast buffer, the bytes transmitted by the driver to its clients.</li>
+ * </ul>
+ * Positions are read from the trailers of the buffers without touching their records. Labels only change with the mapping of cnc.dat,
+ * so reading the gauges does not allocate. The gauges take the counter id past the last one of cnc.dat,
+ * so the rate of the broadcast tail is tracked apart from the rates of the counters.
+ * Not thread safe.
+ */
+final class DriverMetadata {
+    private static final int INFO = 0;
+    private static final int START_TIMESTAMP = 1;
+    private static final int CLIENT_LIVENESS_TIMEOUT = 2;
+    private static final int BUFFER_LENGTH = 3;
+    private static final int TO_DRIVER_USED_BYTES = 4;
+    private static final int TO_DRIVER_HEARTBEAT = 5;
+    private static final int TO_CLIENTS_TAIL_BYTES = 6;
+    private static final String[] BUFFERS = {"to_driver", "to_clients", "counters_metadata", "counters_values", "error_log"};
+
+    private final int[] typeIds = {
+            DRIVER_INFO, DRIVER_START_TIMESTAMP, DRIVER_CLIENT_LIVENESS_TIMEOUT, DRIVER_BUFFER_LENGTH, TO_DRIVER_USED, TO_DRIVER_HEARTBEAT_AGE, TO_CLIENTS_TAIL};
+    private final int[] familyIndexes = new int[typeIds.length];
+    private final String[] names = new String[typeIds.length];
+    private final byte[][] nameBytes = new byte[typeIds.length][];
+    private final List<List<String>> labelNames = new ArrayList<>(typeIds.length);
+    private final String driverLabel;
+    private final List<String> driverLabelValues;
+    private final byte[] driverLabelBytes;
+    private final List<List<String>> bufferLabelValues = new ArrayList<>(BUFFERS.length);
+    private final byte[][] bufferLabelBytes = new byte[BUFFERS.length][];
+    private final long[] bufferLengths = new long[BUFFERS.length];
+    private final UnsafeBuffer infoKey = new UnsafeBuffer(new byte[SIZE_OF_INT + SIZE_OF_LONG]);
+    private final String driver;
+
+    private int mappingGeneration;
+    private int counterId;
+    private List<String> infoLabelValues;
+    private byte[] infoLabelBytes;
+
+    /**
+     * @param counterRegistry registry of the snapshots, a gauge is only read when the registry has its family.
+     * @param filter          deciding which gauges are exported by their type id.
+     * @param driverLabel     name of the label added to every gauge.
+     * @param driver          value of the label, or null to add no label.
+     */
+    DriverMetadata(CounterRegistry counterRegistry, CounterFilter filter, String driverLabel, String driver) {
+        this.driverLabel = driverLabel;
+        this.driver = driver;
+        for (int gauge = 0; gauge < typeIds.length; gauge++) {
+            CounterFamily family = counterRegistry.family(typeIds[gauge]);
+            if (family.typeId() == typeIds[gauge] && filter.acceptsType(typeIds[gauge])) {
+                familyIndexes[gauge] = counterRegistry.familyIndex(typeIds[gauge]);
+                names[gauge] = family.name();
+                nameBytes[gauge] = family.name().getBytes(StandardCharsets.UTF_8);
+            } else {
+                familyIndexes[gauge] = -1;
+            }
+        }
+        for (int gauge = 0; gauge < typeIds.length; gauge++) {
+            KeyLayout keyLayout = gauge == INFO ? KeyLayout.DRIVER_INFO : gauge == BUFFER_LENGTH ? KeyLayout.CNC_BUFFER : KeyLayout.DRIVER;
+            labelNames.add(labelNames(keyLayout.labelNames()));
+        }
+
+        driverLabelValues = labelValues(List.of());
+        driverLabelBytes = SeriesCache.encode(labelNames.get(START_TIMESTAMP), driverLabelValues);
+        for (int i = 0; i < BUFFERS.length; i++) {
+            UnsafeBuffer label = new UnsafeBuffer(BUFFERS[i].getBytes(StandardCharsets.US_ASCII));
+            bufferLabelValues.add(labelValues(KeyLayout.CNC_BUFFER.parse(DRIVER_BUFFER_LENGTH, label, label)));
+            bufferLabelBytes[i] = SeriesCache.encode(labelNames.get(BUFFER_LENGTH), bufferLabelValues.get(i));
+        }
+    }
+
+    /**
+     * @return true when the registry has a family for any of the gauges.
+     */
+    boolean enabled() {
+        for (int familyIndex : familyIndexes) {
+            if (familyIndex >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Appends the gauges of the media driver cnc.dat is currently mapped for, nothing when the buffers of cnc.dat are not mapped.
+     *
+     * @param cncFileReader  reader holding the mapping of cnc.dat.
+     * @param countersReader counters of the mapping.
+     * @param snapshot       the counters were added to.
+     * @param nowMs          time the counters were read at, in epoch millis.
+     */
+    void derive(CncFileReader cncFileReader, CountersReader countersReader, CounterSnapshot snapshot, long nowMs) {
+        AtomicBuffer toDriver = cncFileReader.toDriverBuffer();
+        AtomicBuffer toClients = cncFileReader.toClientsBuffer();
+        if (toDriver == null || toClients == null) {
+            // counters not read from a mapping of cnc.dat
+            return;
+        }
+
+        if (infoLabelValues == null || mappingGeneration != cncFileReader.mappingGeneration()) {
+            mappingGeneration = cncFileReader.mappingGeneration();
+            infoKey.putInt(0, cncFileReader.cncVersion());
+            infoKey.putLong(SIZE_OF_INT, cncFileReader.pid());
+            infoLabelValues = labelValues(KeyLayout.DRIVER_INFO.parse(DRIVER_INFO, infoKey, infoKey));
+            infoLabelBytes = SeriesCache.encode(labelNames.get(INFO), infoLabelValues);
+        }
+
+        counterId = countersReader.maxCounterId() + 1;
+        add(snapshot, INFO, infoLabelValues, infoLabelBytes, 1);
+        add(snapshot, START_TIMESTAMP, driverLabelValues, driverLabelBytes, cncFileReader.startTimestampMs());
+        add(snapshot, CLIENT_LIVENESS_TIMEOUT, driverLabelValues, driverLabelBytes, cncFileReader.clientLivenessTimeoutNs());
+
+        bufferLengths[0] = toDriver.capacity();
+        bufferLengths[1] = toClients.capacity();
+        bufferLengths[2] = countersReader.metaDataBuffer().capacity();
+        bufferLengths[3] = countersReader.valuesBuffer().capacity();
+        bufferLengths[4] = cncFileReader.errorLogBuffer().capacity();
+        for (int i = 0; i < BUFFERS.length; i++) {
+            add(snapshot, BUFFER_LENGTH, bufferLabelValues.get(i), bufferLabelBytes[i], bufferLengths[i]);
+        }
+
+        // positions of the buffers are in their trailer, the head of the ring buffer being the consumer position of the driver
+        int toDriverCapacity = toDriver.capacity() - RingBufferDescriptor.TRAILER_LENGTH;
+        long head = toDriver.getLongVolatile(toDriverCapacity + RingBufferDescriptor.HEAD_POSITION_OFFSET);
+        long tail = toDriver.getLongVolatile(toDriverCapacity + RingBufferDescriptor.TAIL_POSITION_OFFSET);
+        long heartbeatMs = toDriver.getLongVolatile(toDriverCapacity + RingBufferDescriptor.CONSUMER_HEARTBEAT_OFFSET);
+        add(snapshot, TO_DRIVER_USED_BYTES, driverLabelValues, driverLabelBytes, Math.max(0, Math.min(toDriverCapacity, tail - head)));
+        add(snapshot, TO_DRIVER_HEARTBEAT, driverLabelValues, driverLabelBytes, Math.max(0, nowMs - heartbeatMs));
+
+        int toClientsCapacity = toClients.capacity() - BroadcastBufferDescriptor.TRAILER_LENGTH;
+        add(snapshot, TO_CLIENTS_TAIL_BYTES, driverLabelValues, driverLabelBytes,
+                toClients.getLongVolatile(toClientsCapacity + BroadcastBufferDescriptor.TAIL_COUNTER_OFFSET));
+    }
+
+    private List<String> labelNames(List<String> names) {
+        if (driver == null) {
+            return names;
+        }
+        return CounterSnapshotter.prepend(driverLabel, names);
+    }
+
+    private List<String> labelValues(List<String> values) {
+        if (driver == null) {
+            return values;
+        }
+        return CounterSnapshotter.prepend(driver, values);
+    }
+
+    private void add(CounterSnapshot snapshot, int gauge, List<String> labelValues, byte[] labelBytes, long value) {
+        int familyIndex = familyIndexes[gauge];
+        if (familyIndex >= 0) {
+            snapshot.add(counterId, typeIds[gauge], familyIndex, names[gauge],
+                    labelNames.get(gauge), labelValues, nameBytes[gauge], labelBytes, value);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.BitUtil;
+import org.agrona.collections.Object2IntHashMap;
+import org.agrona.concurrent.AtomicBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.agrona.concurrent.errors.DistinctErrorLog.ENCODED_ERROR_OFFSET;
+import static org.agrona.concurrent.errors.DistinctErrorLog.FIRST_OBSERVATION_TIMESTAMP_OFFSET;
+import static org.agrona.concurrent.errors.DistinctErrorLog.LAST_OBSERVATION_TIMESTAMP_OFFSET;
+import static org.agrona.concurrent.errors.DistinctErrorLog.LENGTH_OFFSET;
+import static org.agrona.concurrent.errors.DistinctErrorLog.OBSERVATION_COUNT_OFFSET;
+import static org.agrona.concurrent.errors.DistinctErrorLog.RECORD_ALIGNMENT;
+
+/**
+ * Aggregates the distinct error log of the media driver by error type, see org.agrona.concurrent.errors.DistinctErrorLog.
+ * <p>
+ * The type of an error is the first line of its encoded stack trace up to the message, e.g. "java.io.IOException".
+ * Records are only ever appended to the log, and of an existing record only the observation count and timestamp change in place.
+ * So the scanner keeps the offset it has read the log up to and the type of every record before it:
+ * a scan decodes the first line of the new records only and reads the fixed fields of the known ones, however long the stack traces are.
+ * Not thread safe.
+ */
+public final class ErrorLogScanner {
+    static final String ERROR_TYPE_LABEL = "error_type";
+
+    private static final int MAX_ERROR_TYPE_LENGTH = 128;
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String driver;
+    private final List<String> labelNames;
+    private final Object2IntHashMap<String> typeIndexes = new Object2IntHashMap<>(-1);
+    private final List<String> types = new ArrayList<>();
+    private final List<List<String>> typeLabelValues = new ArrayList<>();
+    private final List<byte[]> typeLabelBytes = new ArrayList<>();
+
+    private int scanOffset;
+    private int recordCount;
+    private int[] recordOffsets = new int[INITIAL_CAPACITY];
+    private int[] recordTypes = new int[INITIAL_CAPACITY];
+    private long[] observations = new long[INITIAL_CAPACITY];
+    private long[] firstTimestamps = new long[INITIAL_CAPACITY];
+    private long[] lastTimestamps = new long[INITIAL_CAPACITY];
+
+    public ErrorLogScanner() {
+        this(null);
+    }
+
+    /**
+     * @param driver name of the media driver, added as a "driver" label to every error type, or null to add no label.
+     */
+    public ErrorLogScanner(String driver) {
+        this.driver = driver;
+        this.labelNames = driver == null ? List.of(ERROR_TYPE_LABEL) : List.of(CounterSnapshotter.DRIVER_LABEL, ERROR_TYPE_LABEL);
+    }
+
+    /**
+     * Reads the records appended since the last scan and adds the observations of every error type to the snapshot.
+     *
+     * @param errorLog distinct error log of the media driver.
+     * @param snapshot receives one entry per error type.
+     */
+    public void scan(AtomicBuffer errorLog, CounterSnapshot snapshot) {
+        int capacity = errorLog.capacity();
+        while (scanOffset + ENCODED_ERROR_OFFSET <= capacity) {
+            int length = errorLog.getIntVolatile(scanOffset + LENGTH_OFFSET);
+            if (length <= 0) {
+                break;
+            }
+
+            addRecord(scanOffset, typeIndex(errorType(errorLog, scanOffset, length)));
+            scanOffset += BitUtil.align(length, RECORD_ALIGNMENT);
+        }
+
+        int typeCount = types.size();
+        Arrays.fill(observations, 0, typeCount, 0);
+        Arrays.fill(firstTimestamps, 0, typeCount, Long.MAX_VALUE);
+        Arrays.fill(lastTimestamps, 0, typeCount, Long.MIN_VALUE);
+        for (int i = 0; i < recordCount; i++) {
+            int offset = recordOffsets[i];
+            int type = recordTypes[i];
+            observations[type] += errorLog.getIntVolatile(offset + OBSERVATION_COUNT_OFFSET);
+            firstTimestamps[type] = Math.min(firstTimestamps[type], errorLog.getLong(offset + FIRST_OBSERVATION_TIMESTAMP_OFFSET));
+            lastTimestamps[type] = Math.max(lastTimestamps[type], errorLog.getLongVolatile(offset + LAST_OBSERVATION_TIMESTAMP_OFFSET));
+        }
+
+        for (int type = 0; type < typeCount; type++) {
+            snapshot.addError(types.get(type), labelNames, typeLabelValues.get(type), typeLabelBytes.get(type),
+                    observations[type], firstTimestamps[type], lastTimestamps[type]);
+        }
+    }
+
+    /**
+     * Forgets all records, to be called when the log belongs to a new media driver.
+     */
+    public void clear() {
+        scanOffset = 0;
+        recordCount = 0;
+        typeIndexes.clear();
+        types.clear();
+        typeLabelValues.clear();
+        typeLabelBytes.clear();
+    }
+
+    static String errorType(AtomicBuffer errorLog, int offset, int length) {
+        int start = offset + ENCODED_ERROR_OFFSET;
+        int limit = Math.min(offset + length, start + MAX_ERROR_TYPE_LENGTH);
+        int end = start;
+        while (end < limit) {
+            byte b = errorLog.getByte(end);
+            if (b == ':' || b == '\n' || b == '\r') {
+                break;
+            }
+            end++;
+        }
+        return errorLog.getStringWithoutLengthUtf8(start, end - start).trim();
+    }
+
+    private int typeIndex(String type) {
+        int index = typeIndexes.getValue(type);
+        if (index == -1) {
+            index = types.size();
+            typeIndexes.put(type, index);
+            types.add(type);
+            List<String> labelValues = driver == null ? List.of(type) : List.of(driver, type);
+            typeLabelValues.add(labelValues);
+            typeLabelBytes.add(SeriesCache.encode(labelNames, labelValues));
+            if (index == observations.length) {
+                observations = Arrays.copyOf(observations, index * 2);
+                firstTimestamps = Arrays.copyOf(firstTimestamps, index * 2);
+                lastTimestamps = Arrays.copyOf(lastTimestamps, index * 2);
+            }
+        }
+        return index;
+    }
+
+    private void addRecord(int offset, int type) {
+        if (recordCount == recordOffsets.length) {
+            recordOffsets = Arrays.copyOf(recordOffsets, recordCount * 2);
+            recordTypes = Arrays.copyOf(recordTypes, recordCount * 2);
+        }
+        recordOffsets[recordCount] = offset;
+        recordTypes[recordCount] = type;
+        recordCount++;
+    }
+}
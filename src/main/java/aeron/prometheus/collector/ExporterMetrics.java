@@ -0,0 +1,166 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package aeron.prometheus.collector;
+
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Counter;
+import io.prometheus.client.Gauge;
+import io.prometheus.client.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Metrics of the exporter itself, to show the cost of exporting on the host running the media driver.
+ * <p>
+ * The metrics are created once per process and updated from the sampling, scraping and recording threads,
+ * they are only exposed once registered, see {@link #register(CollectorRegistry)}.
+ * Updating a metric does not allocate, it can be done on the scrape path.
+ */
+public final class ExporterMetrics {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExporterMetrics.class);
+
+    private static final double[] DURATION_BUCKETS = {
+            0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5};
+
+    /**
+     * Time to read the counters of a media driver into a snapshot, including the error log and loss report.
+     */
+    public static final Histogram SNAPSHOT_DURATION = Histogram.build()
+            .name("aeron_exporter_snapshot_duration_seconds")
+            .help("Time to read the counters of a media driver into a snapshot, in seconds.")
+            .buckets(DURATION_BUCKETS)
+            .create();
+
+    /**
+     * Time to turn the latest snapshots into an exposition, text format or simpleclient samples.
+     */
+    public static final Histogram COLLECT_DURATION = Histogram.build()
+            .name("aeron_exporter_collect_duration_seconds")
+            .help("Time to serialise the latest snapshots for a scrape or a push, in seconds.")
+            .buckets(DURATION_BUCKETS)
+            .create();
+
+    /**
+     * Time to serve a scrape, from the request to the last byte of the response.
+     */
+    public static final Histogram HTTP_REQUEST_DURATION = Histogram.build()
+            .name("aeron_exporter_http_request_duration_seconds")
+            .help("Time to serve a scrape, in seconds.")
+            .buckets(DURATION_BUCKETS)
+            .create();
+
+    /**
+     * Scrapes being served.
+     */
+    public static final Gauge HTTP_REQUESTS_IN_FLIGHT = Gauge.build()
+            .name("aeron_exporter_http_requests_in_flight")
+            .help("Number of scrapes being served.")
+            .create();
+
+    /**
+     * Bytes allocated by the thread serving a scrape.
+     */
+    public static final Histogram SCRAPE_ALLOCATED_BYTES = Histogram.build()
+            .name("aeron_exporter_scrape_allocated_bytes")
+            .help("Bytes allocated on the heap by the thread serving a scrape.")
+            .exponentialBuckets(256, 4, 10)
+            .create();
+
+    /**
+     * Counters visited in cnc.dat, before filtering.
+     */
+    public static final Counter COUNTERS_READ = Counter.build()
+            .name("aeron_exporter_counters_read")
+            .help("Number of counters read from cnc.dat, before filtering.")
+            .create();
+
+    /**
+     * Bytes of the files currently mapped by the exporter: cnc.dat, loss-report.dat and recording segments.
+     */
+    public static final Gauge MAPPED_BYTES = Gauge.build()
+            .name("aeron_exporter_mapped_bytes")
+            .help("Bytes of cnc.dat, loss-report.dat and recording segments mapped by the exporter.")
+            .create();
+
+    /**
+     * Hosts connected to the gateway, see aeron.prometheus.gateway.GatewayServer.
+     */
+    public static final Gauge GATEWAY_HOSTS = Gauge.build()
+            .name("aeron_exporter_gateway_hosts")
+            .help("Number of hosts connected to the gateway.")
+            .create();
+
+    /**
+     * Bytes of counter deltas received by the gateway.
+     */
+    public static final Counter GATEWAY_RECEIVED_BYTES = Counter.build()
+            .name("aeron_exporter_gateway_received_bytes")
+            .help("Bytes of counter samples received by the gateway from its agents.")
+            .create();
+
+    /**
+     * Samples an agent did not send because the gateway did not keep up, their changes are sent with the next sample.
+     */
+    public static final Counter GATEWAY_COALESCED_SAMPLES = Counter.build()
+            .name("aeron_exporter_gateway_coalesced_samples")
+            .help("Number of samples an agent merged into the next one because the gateway connection was back pressured.")
+            .create();
+
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final boolean ALLOCATED_BYTES_SUPPORTED = allocatedBytesSupported();
+
+    private ExporterMetrics() {
+    }
+
+    /**
+     * Registers all metrics of the exporter, to be called once.
+     *
+     * @param registry to expose the metrics with.
+     */
+    public static void register(CollectorRegistry registry) {
+        registry.register(SNAPSHOT_DURATION);
+        registry.register(COLLECT_DURATION);
+        registry.register(HTTP_REQUEST_DURATION);
+        registry.register(HTTP_REQUESTS_IN_FLIGHT);
+        registry.register(SCRAPE_ALLOCATED_BYTES);
+        registry.register(COUNTERS_READ);
+        registry.register(MAPPED_BYTES);
+        registry.register(GATEWAY_HOSTS);
+        registry.register(GATEWAY_RECEIVED_BYTES);
+        registry.register(GATEWAY_COALESCED_SAMPLES);
+    }
+
+    /**
+     * @return bytes allocated on the heap by the current thread so far, -1 when the JVM does not measure it.
+     */
+    public static long threadAllocatedBytes() {
+        return ALLOCATED_BYTES_SUPPORTED ? ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static boolean allocatedBytesSupported() {
+        if (THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) THREAD_MX_BEAN;
+            if (threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled()) {
+                return true;
+            }
+        }
+        LOGGER.atInfo().log("Thread allocated bytes are not measured by this JVM, scrape allocations are not reported");
+        return false;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package aeron.prometheus.collector;
+
+import org.agrona.DirectBuffer;
+import org.agrona.SemanticVersion;
+
+import java.util.List;
+
+import static org.agrona.BitUtil.SIZE_OF_INT;
+import static org.agrona.BitUtil.SIZE_OF_LONG;
+
+/**
+ * Layouts of the counter key buffer and how they map to Prometheus labels.
+ * <p>
+ * Parsing allocates the label values, it is expected to run once per counter, not once per scrape.
+ */
+public enum KeyLayout {
+    /**
+     * System counters, named after their label and exported without labels.
+     */
+    SYSTEM(List.of()) {
+        @Override
+        public long identity(DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return CounterScanner.hash(labelBuffer, 0, labelBuffer.capacity()) ^ super.identity(keyBuffer, labelBuffer);
+        }
+
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return List.of();
+        }
+    },
+
+    /**
+     * Stream position counters, see io.aeron.driver.status.StreamCounter: registration id, session id, stream id and channel.
+     */
+    STREAM(List.of("registration_id", "session_id", "stream_id", "channel"), SIZE_OF_LONG + 2 * SIZE_OF_INT) {
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return List.of(
+                    Long.toString(keyBuffer.getLong(0)),
+                    Integer.toString(keyBuffer.getInt(SIZE_OF_LONG)),
+                    Integer.toString(keyBuffer.getInt(SIZE_OF_LONG + SIZE_OF_INT)),
+                    channel(keyBuffer, channelOffset()));
+        }
+    },
+
+    /**
+     * Channel endpoint status counters, see io.aeron.status.ChannelEndpointStatus: channel only.
+     */
+    CHANNEL(List.of("channel"), 0) {
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return List.of(channel(keyBuffer, channelOffset()));
+        }
+    },
+
+    /**
+     * Client heartbeat counters, see io.aeron.status.HeartbeatTimestamp: the client id.
+     */
+    CLIENT(List.of("client_id")) {
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return List.of(Long.toString(keyBuffer.getLong(0)));
+        }
+    },
+
+    /**
+     * Gauges of a media driver as a whole, see {@link DriverMetadata}: no label besides the driver.
+     */
+    DRIVER(List.of()) {
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return List.of();
+        }
+    },
+
+    /**
+     * Identity of a media driver, see {@link DriverMetadata}: the cnc version and the PID from the key.
+     */
+    DRIVER_INFO(List.of("cnc_version", "pid")) {
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return List.of(SemanticVersion.toString(keyBuffer.getInt(0)), Long.toString(keyBuffer.getLong(SIZE_OF_INT)));
+        }
+    },
+
+    /**
+     * Buffers of cnc.dat, see {@link DriverMetadata}: the name of the buffer from the label.
+     */
+    CNC_BUFFER(List.of("buffer")) {
+        @Override
+        public long identity(DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return CounterScanner.hash(labelBuffer, 0, labelBuffer.capacity());
+        }
+
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return List.of(labelBuffer.getStringWithoutLengthAscii(0, labelBuffer.capacity()));
+        }
+    },
+
+    /**
+     * Archive recording position counters, see io.aeron.archive.status.RecordingPos: recording id, session id and source identity
+     * from the key, the stream id from the label.
+     */
+    RECORDING(List.of("recording_id", "session_id", "stream_id", "source_identity"), SIZE_OF_LONG + SIZE_OF_INT) {
+        @Override
+        public long identity(DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return CounterScanner.hash(labelBuffer, 0, labelBuffer.capacity()) ^ super.identity(keyBuffer, labelBuffer);
+        }
+
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            // label is "rec-pos: <recording id> <session id> <stream id> <channel>"
+            return List.of(
+                    Long.toString(keyBuffer.getLong(0)),
+                    Integer.toString(keyBuffer.getInt(SIZE_OF_LONG)),
+                    labelToken(labelBuffer, 3),
+                    channel(keyBuffer, channelOffset()));
+        }
+    },
+
+    /**
+     * Archive counters keyed by the archive id, see io.aeron.archive.ArchiveCounters.
+     */
+    ARCHIVE(List.of("archive_id")) {
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return List.of(Long.toString(keyBuffer.getLong(0)));
+        }
+    },
+
+    /**
+     * Consensus module counters keyed by the cluster id, see io.aeron.cluster.ClusterCounters.
+     */
+    CLUSTER(List.of("cluster_id")) {
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return List.of(Integer.toString(keyBuffer.getInt(0)));
+        }
+    },
+
+    /**
+     * Clustered service counters keyed by the cluster id and the service id.
+     */
+    CLUSTER_SERVICE(List.of("cluster_id", "service_id")) {
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return List.of(Integer.toString(keyBuffer.getInt(0)), Integer.toString(keyBuffer.getInt(SIZE_OF_INT)));
+        }
+    },
+
+    /**
+     * Counters of unknown type, exported with their type id and raw label.
+     */
+    GENERIC(List.of("type_id", "label")) {
+        @Override
+        public long identity(DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return CounterScanner.hash(labelBuffer, 0, labelBuffer.capacity()) ^ super.identity(keyBuffer, labelBuffer);
+        }
+
+        @Override
+        public List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+            return List.of(Integer.toString(typeId), labelBuffer.getStringWithoutLengthAscii(0, labelBuffer.capacity()));
+        }
+    };
+
+    /**
+     * {@link #channelOffset()} of the layouts whose key holds no channel.
+     */
+    static final int NO_CHANNEL = -1;
+
+    private final List<String> labelNames;
+    private final int channelOffset;
+
+    KeyLayout(List<String> labelNames) {
+        this(labelNames, NO_CHANNEL);
+    }
+
+    KeyLayout(List<String> labelNames, int channelOffset) {
+        this.labelNames = labelNames;
+        this.channelOffset = channelOffset;
+    }
+
+    /**
+     * @return names of the labels produced by {@link #parse(int, DirectBuffer, DirectBuffer)}.
+     */
+    public List<String> labelNames() {
+        return labelNames;
+    }
+
+    /**
+     * Hashes the parts of the counter metadata the labels are derived from, without allocating.
+     * A changed identity for the same counter id means the counter was freed and reused.
+     *
+     * @param keyBuffer   counter key.
+     * @param labelBuffer counter label.
+     * @return hash identifying the labels of the counter.
+     */
+    public long identity(DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+        return CounterScanner.hash(keyBuffer, 0, keyBuffer.capacity());
+    }
+
+    /**
+     * Parses the counter key into label values matching {@link #labelNames()}.
+     *
+     * @param typeId      counter type id.
+     * @param keyBuffer   counter key.
+     * @param labelBuffer counter label.
+     * @return immutable label values.
+     */
+    public abstract List<String> parse(int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer);
+
+    /**
+     * @return offset of the length prefixed channel in the key, {@link #NO_CHANNEL} when the key holds none.
+     */
+    int channelOffset() {
+        return channelOffset;
+    }
+
+    /**
+     * @return length of the channel at the offset, bounded by the key and cut at the first NUL, the driver pads a
+     * truncated channel with NULs up to the length it writes.
+     */
+    static int channelLength(DirectBuffer keyBuffer, int offset) {
+        int length = Math.max(0, Math.min(keyBuffer.getInt(offset), keyBuffer.capacity() - offset - SIZE_OF_INT));
+        int start = offset + SIZE_OF_INT;
+        for (int i = 0; i < length; i++) {
+            if (keyBuffer.getByte(start + i) == 0) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static String labelToken(DirectBuffer labelBuffer, int index) {
+        String[] tokens = labelBuffer.getStringWithoutLengthAscii(0, labelBuffer.capacity()).split(" ");
+        return index < tokens.length ? tokens[index] : "";
+    }
+
+    private static String channel(DirectBuffer keyBuffer, int offset) {
+        return keyBuffer.getStringWithoutLengthAscii(offset + SIZE_OF_INT, channelLength(keyBuffer, offset));
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import io.aeron.driver.reports.LossReportUtil;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.AtomicBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Maps the loss-report.dat file the media driver writes next to cnc.dat, see io.aeron.driver.reports.LossReport.
+ * <p>
+ * Like the {@link CncFileReader}, the file is mapped once and only remapped when a new file (inode) or size is found at its path.
+ * The loss report is optional, a driver without one simply has no loss to export.
+ * Not thread safe, the reader is expected to be used by one collecting thread at a time.
+ */
+public final class LossReportFileReader implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LossReportFileReader.class);
+
+    private final Supplier<Path> aeronDir;
+
+    private Path mappedPath;
+    private Object mappedFileKey;
+    private long mappedFileSize;
+    private MappedByteBuffer byteBuffer;
+    private UnsafeBuffer buffer;
+    private int mappingGeneration;
+
+    /**
+     * @param aeronDir resolves the aeron directory of the media driver, may supply null when it is not known.
+     */
+    public LossReportFileReader(Supplier<Path> aeronDir) {
+        this.aeronDir = aeronDir;
+    }
+
+    /**
+     * Maps loss-report.dat unless the current mapping is still the one of the file at its path.
+     *
+     * @return loss report of the media driver, null when the driver has none.
+     * @throws IOException exception when mapping the file.
+     */
+    public AtomicBuffer getBuffer() throws IOException {
+        Path dir = aeronDir.get();
+        if (dir == null) {
+            unmap();
+            return null;
+        }
+
+        Path path = dir.resolve(LossReportUtil.LOSS_REPORT_FILE_NAME);
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            unmap();
+            return null;
+        }
+
+        if (buffer != null
+                && path.equals(mappedPath)
+                && Objects.equals(attributes.fileKey(), mappedFileKey)
+                && attributes.size() == mappedFileSize) {
+            return buffer;
+        }
+
+        unmap();
+        try (FileChannel fc = FileChannel.open(path, StandardOpenOption.READ)) {
+            byteBuffer = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+        ExporterMetrics.MAPPED_BYTES.inc(byteBuffer.capacity());
+        buffer = new UnsafeBuffer(byteBuffer);
+        mappedPath = path;
+        mappedFileKey = attributes.fileKey();
+        mappedFileSize = attributes.size();
+        mappingGeneration++;
+
+        LOGGER.atInfo().log("Mapped {}", path);
+        return buffer;
+    }
+
+    /**
+     * @return number of times loss-report.dat has been (re)mapped by this reader.
+     */
+    public int mappingGeneration() {
+        return mappingGeneration;
+    }
+
+    /**
+     * Unmaps loss-report.dat, the next read maps the file again.
+     */
+    @Override
+    public void close() {
+        unmap();
+    }
+
+    private void unmap() {
+        if (byteBuffer != null) {
+            ExporterMetrics.MAPPED_BYTES.dec(byteBuffer.capacity());
+            IoUtil.unmap(byteBuffer);
+        }
+        byteBuffer = null;
+        buffer = null;
+        mappedPath = null;
+        mappedFileKey = null;
+        mappedFileSize = 0;
+    }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.BitUtil;
+import org.agrona.collections.Long2LongHashMap;
+import org.agrona.concurrent.AtomicBuffer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static io.aeron.driver.reports.LossReport.CHANNEL_OFFSET;
+import static io.aeron.driver.reports.LossReport.ENTRY_ALIGNMENT;
+import static io.aeron.driver.reports.LossReport.LAST_OBSERVATION_OFFSET;
+import static io.aeron.driver.reports.LossReport.OBSERVATION_COUNT_OFFSET;
+import static io.aeron.driver.reports.LossReport.SESSION_ID_OFFSET;
+import static io.aeron.driver.reports.LossReport.STREAM_ID_OFFSET;
+import static io.aeron.driver.reports.LossReport.TOTAL_BYTES_LOST_OFFSET;
+import static org.agrona.BitUtil.SIZE_OF_INT;
+
+/**
+ * Aggregates the entries of the loss report by stream: channel, source, stream id and session id.
+ * <p>
+ * Entries are only ever appended to the report, each one is published by its first observation count and then updated in place.
+ * The scanner keeps the offset it has read the report up to, so only the entries appended since the last scan are decoded.
+ * Of the known entries only the observation count is read, the other fields are only read again when it has moved,
+ * and the change is applied to the totals of the stream. An image re-created for the same stream gets a new entry,
+ * which is mapped to the existing stream through a primitive map keyed by the hash of the stream identity.
+ * Not thread safe.
+ */
+public final class LossReportScanner {
+    static final List<String> LABEL_NAMES = List.of("channel", "source", "stream_id", "session_id");
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final String driver;
+    private final List<String> labelNames;
+    private final Long2LongHashMap streamIndexes = new Long2LongHashMap(-1);
+    private final List<List<String>> streamLabelValues = new ArrayList<>();
+    private final List<byte[]> streamLabelBytes = new ArrayList<>();
+
+    private int scanOffset;
+    private int entryCount;
+    private int[] entryOffsets = new int[INITIAL_CAPACITY];
+    private int[] entryStreams = new int[INITIAL_CAPACITY];
+    private long[] entryObservations = new long[INITIAL_CAPACITY];
+    private long[] entryBytesLost = new long[INITIAL_CAPACITY];
+    private long[] streamObservations = new long[INITIAL_CAPACITY];
+    private long[] streamBytesLost = new long[INITIAL_CAPACITY];
+    private long[] streamLastObservations = new long[INITIAL_CAPACITY];
+
+    public LossReportScanner() {
+        this(null);
+    }
+
+    /**
+     * @param driver name of the media driver, added as a "driver" label to every stream, or null to add no label.
+     */
+    public LossReportScanner(String driver) {
+        this.driver = driver;
+        this.labelNames = driver == null ? LABEL_NAMES : CounterSnapshotter.prepend(CounterSnapshotter.DRIVER_LABEL, LABEL_NAMES);
+    }
+
+    /**
+     * Reads the entries appended or changed since the last scan and adds the loss of every stream to the snapshot.
+     *
+     * @param lossReport loss report of the media driver.
+     * @param snapshot   receives one entry per stream with loss.
+     */
+    public void scan(AtomicBuffer lossReport, CounterSnapshot snapshot) {
+        for (int i = 0; i < entryCount; i++) {
+            long observations = lossReport.getLongVolatile(entryOffsets[i] + OBSERVATION_COUNT_OFFSET);
+            if (observations != entryObservations[i]) {
+                updateEntry(lossReport, i, observations);
+            }
+        }
+
+        int capacity = lossReport.capacity();
+        while (scanOffset + CHANNEL_OFFSET + SIZE_OF_INT <= capacity) {
+            long observations = lossReport.getLongVolatile(scanOffset + OBSERVATION_COUNT_OFFSET);
+            if (observations <= 0) {
+                break;
+            }
+
+            // a length running past the end of the report means the entry is torn or corrupt, it is read again on the next scan
+            int remaining = capacity - scanOffset;
+            int channelLength = lossReport.getInt(scanOffset + CHANNEL_OFFSET);
+            if (channelLength < 0 || channelLength > remaining - CHANNEL_OFFSET - 2 * SIZE_OF_INT) {
+                break;
+            }
+            int sourceOffset = CHANNEL_OFFSET + BitUtil.align(SIZE_OF_INT + channelLength, SIZE_OF_INT);
+            if (sourceOffset > remaining - SIZE_OF_INT) {
+                break;
+            }
+            int sourceLength = lossReport.getInt(scanOffset + sourceOffset);
+            if (sourceLength < 0 || sourceLength > remaining - sourceOffset - SIZE_OF_INT) {
+                break;
+            }
+            int entryLength = sourceOffset + SIZE_OF_INT + sourceLength;
+
+            int entry = addEntry(scanOffset, streamIndex(lossReport, scanOffset, channelLength, sourceOffset, sourceLength, entryLength));
+            updateEntry(lossReport, entry, observations);
+            scanOffset += BitUtil.align(entryLength, ENTRY_ALIGNMENT);
+        }
+
+        for (int stream = 0, count = streamLabelValues.size(); stream < count; stream++) {
+            snapshot.addLoss(labelNames, streamLabelValues.get(stream), streamLabelBytes.get(stream),
+                    streamObservations[stream], streamBytesLost[stream], streamLastObservations[stream]);
+        }
+    }
+
+    /**
+     * Forgets all entries, to be called when the report belongs to a new media driver.
+     */
+    public void clear() {
+        scanOffset = 0;
+        entryCount = 0;
+        streamIndexes.clear();
+        streamLabelValues.clear();
+        streamLabelBytes.clear();
+    }
+
+    private void updateEntry(AtomicBuffer lossReport, int entry, long observations) {
+        int offset = entryOffsets[entry];
+        int stream = entryStreams[entry];
+        long bytesLost = lossReport.getLongVolatile(offset + TOTAL_BYTES_LOST_OFFSET);
+
+        streamObservations[stream] += observations - entryObservations[entry];
+        streamBytesLost[stream] += bytesLost - entryBytesLost[entry];
+        streamLastObservations[stream] = Math.max(streamLastObservations[stream], lossReport.getLongVolatile(offset + LAST_OBSERVATION_OFFSET));
+        entryObservations[entry] = observations;
+        entryBytesLost[entry] = bytesLost;
+    }
+
+    private int streamIndex(AtomicBuffer lossReport, int offset, int channelLength, int sourceOffset, int sourceLength, int entryLength) {
+        long identity = CounterScanner.hash(lossReport, offset + SESSION_ID_OFFSET, entryLength - SESSION_ID_OFFSET);
+        int index = (int) streamIndexes.get(identity);
+        if (index != -1) {
+            return index;
+        }
+
+        index = streamLabelValues.size();
+        streamIndexes.put(identity, index);
+
+        List<String> labelValues = List.of(
+                lossReport.getStringWithoutLengthAscii(offset + CHANNEL_OFFSET + SIZE_OF_INT, channelLength),
+                lossReport.getStringWithoutLengthAscii(offset + sourceOffset + SIZE_OF_INT, sourceLength),
+                Integer.toString(lossReport.getInt(offset + STREAM_ID_OFFSET)),
+                Integer.toString(lossReport.getInt(offset + SESSION_ID_OFFSET)));
+        if (driver != null) {
+            labelValues = CounterSnapshotter.prepend(driver, labelValues);
+        }
+        streamLabelValues.add(labelValues);
+        streamLabelBytes.add(SeriesCache.encode(labelNames, labelValues));
+
+        if (index == streamObservations.length) {
+            streamObservations = Arrays.copyOf(streamObservations, index * 2);
+            streamBytesLost = Arrays.copyOf(streamBytesLost, index * 2);
+            streamLastObservations = Arrays.copyOf(streamLastObservations, index * 2);
+        }
+        streamObservations[index] = 0;
+        streamBytesLost[index] = 0;
+        streamLastObservations[index] = 0;
+        return index;
+    }
+
+    private int addEntry(int offset, int stream) {
+        if (entryCount == entryOffsets.length) {
+            entryOffsets = Arrays.copyOf(entryOffsets, entryCount * 2);
+            entryStreams = Arrays.copyOf(entryStreams, entryCount * 2);
+            entryObservations = Arrays.copyOf(entryObservations, entryCount * 2);
+            entryBytesLost = Arrays.copyOf(entryBytesLost, entryCount * 2);
+        }
+        entryOffsets[entryCount] = offset;
+        entryStreams[entryCount] = stream;
+        entryObservations[entryCount] = 0;
+        entryBytesLost[entryCount] = 0;
+        return entryCount++;
+    }
+}
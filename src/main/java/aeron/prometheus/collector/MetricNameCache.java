@@ -0,0 +1,175 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Object2IntHashMap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.agrona.concurrent.status.CountersReader.MAX_LABEL_LENGTH;
+
+/**
+ * Prometheus metric names derived from counter labels, cached by counter id and label hash.
+ * <p>
+ * Names are sanitized in a single pass over the label bytes in the counters metadata buffer: upper case letters are lower cased,
+ * spaces become underscores and every other character outside [a-z_] is dropped.
+ * As the mapping is lossy, a name that is already taken by another live counter gets the counter id appended.
+ * Entries are invalidated when the label at a counter id changes, i.e. the counter was freed and the id reused,
+ * and released when a counter is not seen during a scan.
+ * Not thread safe.
+ */
+final class MetricNameCache {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NO_OWNER = -1;
+
+    private final byte[] prefix;
+    private final byte[] scratch;
+    private final Object2IntHashMap<String> ownerByName = new Object2IntHashMap<>(NO_OWNER);
+
+    private long[] labelHashes = new long[INITIAL_CAPACITY];
+    private int[] lastSeen = new int[INITIAL_CAPACITY];
+    private String[] names = new String[INITIAL_CAPACITY];
+    private int scan;
+    private int highestCounterId = -1;
+
+    MetricNameCache(String prefix) {
+        this.prefix = prefix.getBytes(StandardCharsets.US_ASCII);
+        this.scratch = new byte[this.prefix.length + MAX_LABEL_LENGTH];
+    }
+
+    /**
+     * Starts a scan, counters not looked up until {@link #endScan()} release their names.
+     */
+    void beginScan() {
+        scan++;
+    }
+
+    /**
+     * Releases the names of counters which were not looked up since {@link #beginScan()}.
+     */
+    void endScan() {
+        for (int counterId = 0; counterId <= highestCounterId; counterId++) {
+            if (names[counterId] != null && lastSeen[counterId] != scan) {
+                release(counterId);
+            }
+        }
+    }
+
+    /**
+     * @param counterId   id of the counter.
+     * @param labelBuffer label of the counter.
+     * @return cached or freshly sanitized metric name, unique among live counters.
+     */
+    String name(int counterId, DirectBuffer labelBuffer) {
+        ensureCapacity(counterId);
+        lastSeen[counterId] = scan;
+
+        long labelHash = CounterScanner.hash(labelBuffer, 0, labelBuffer.capacity());
+        String cached = names[counterId];
+        if (cached != null && labelHashes[counterId] == labelHash) {
+            return cached;
+        }
+
+        if (cached != null) {
+            release(counterId);
+        }
+
+        int length = sanitize(labelBuffer, scratch, prefix);
+        String name = new String(scratch, 0, length, StandardCharsets.US_ASCII);
+        if (ownerByName.getValue(name) != NO_OWNER) {
+            name = name + "_" + counterId;
+        }
+
+        ownerByName.put(name, counterId);
+        names[counterId] = name;
+        labelHashes[counterId] = labelHash;
+        highestCounterId = Math.max(highestCounterId, counterId);
+        return name;
+    }
+
+    /**
+     * Drops all cached names, e.g. when the counters belong to a restarted media driver.
+     */
+    void clear() {
+        Arrays.fill(names, null);
+        ownerByName.clear();
+        highestCounterId = -1;
+    }
+
+    /**
+     * Sanitizes a label into a metric name in a single pass.
+     *
+     * @param label  counter label.
+     * @param prefix prefix of the metric name.
+     * @return sanitized name.
+     */
+    static String sanitize(CharSequence label, String prefix) {
+        StringBuilder builder = new StringBuilder(prefix.length() + label.length()).append(prefix);
+        for (int i = 0, length = label.length(); i < length; i++) {
+            int c = sanitize(label.charAt(i));
+            if (c != 0) {
+                builder.append((char) c);
+            }
+        }
+        return builder.toString();
+    }
+
+    private static int sanitize(DirectBuffer label, byte[] dst, byte[] prefix) {
+        System.arraycopy(prefix, 0, dst, 0, prefix.length);
+        int position = prefix.length;
+        for (int i = 0, length = label.capacity(); i < length; i++) {
+            int c = sanitize(label.getByte(i));
+            if (c != 0) {
+                dst[position++] = (byte) c;
+            }
+        }
+        return position;
+    }
+
+    /**
+     * @return sanitized character, or 0 when the character is dropped.
+     */
+    private static int sanitize(int c) {
+        if (c >= 'a' && c <= 'z' || c == '_') {
+            return c;
+        } else if (c >= 'A' && c <= 'Z') {
+            return c + ('a' - 'A');
+        } else if (c == ' ') {
+            return '_';
+        }
+        return 0;
+    }
+
+    private void release(int counterId) {
+        String name = names[counterId];
+        if (ownerByName.getValue(name) == counterId) {
+            ownerByName.removeKey(name);
+        }
+        names[counterId] = null;
+    }
+
+    private void ensureCapacity(int counterId) {
+        if (counterId >= names.length) {
+            int capacity = Math.max(counterId + 1, names.length * 2);
+            labelHashes = Arrays.copyOf(labelHashes, capacity);
+            lastSeen = Arrays.copyOf(lastSeen, capacity);
+            names = Arrays.copyOf(names, capacity);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Derives per second rates of the monotonic counters between samples, and the peak of those rates over a window.
+ * <p>
+ * The value a counter had at the start of the current rate interval is kept in primitive arrays indexed by counter id.
+ * Once the interval has elapsed, the rate over it is computed and the interval restarts, so with a sampler running every few milliseconds
+ * a 1 second interval gives 1 second rates, and the window peak shows bursts that a 15 second scrape would average away.
+ * The peak exported is the highest rate seen in the current or the previous window.
+ * <p>
+ * A counter value going backwards is treated as a reset to 0. A counter id whose name or labels changed was freed and reused,
+ * and its rate starts over. System counters which are gauges, like the max cycle times, are told apart by name when a counter id is first seen. Not thread safe, updated by the thread filling the snapshots.
+ */
+public final class RateEngine {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final long rateIntervalNs;
+    private final long windowNs;
+    private final List<CounterFamily> families;
+    private final boolean[] monotonicFamilies;
+
+    private Object[] nameIdentities = new Object[INITIAL_CAPACITY];
+    private Object[] labelIdentities = new Object[INITIAL_CAPACITY];
+    private boolean[] gauges = new boolean[INITIAL_CAPACITY];
+    private long[] startValues = new long[INITIAL_CAPACITY];
+    private long[] startTimestampsNs = new long[INITIAL_CAPACITY];
+    private double[] rates = new double[INITIAL_CAPACITY];
+    private double[] windowPeaks = new double[INITIAL_CAPACITY];
+    private double[] previousWindowPeaks = new double[INITIAL_CAPACITY];
+    private long windowStartNs;
+    private boolean started;
+
+    /**
+     * @param counterRegistry registry telling which families are monotonic.
+     * @param rateInterval    interval the rates are computed over.
+     * @param window          window the peak rate is taken over.
+     * @param unit            unit of the intervals.
+     */
+    public RateEngine(CounterRegistry counterRegistry, long rateInterval, long window, TimeUnit unit) {
+        this.rateIntervalNs = unit.toNanos(rateInterval);
+        this.windowNs = unit.toNanos(window);
+
+        this.families = counterRegistry.families();
+        this.monotonicFamilies = new boolean[families.size()];
+        for (int i = 0; i < families.size(); i++) {
+            monotonicFamilies[i] = families.get(i).monotonic();
+        }
+    }
+
+    /**
+     * Updates the rates with the values of a freshly filled snapshot and stores them into it.
+     *
+     * @param snapshot filled snapshot.
+     * @param nowNs    System.nanoTime() at which the snapshot was taken.
+     */
+    public void update(CounterSnapshot snapshot, long nowNs) {
+        if (!started) {
+            windowStartNs = nowNs;
+            started = true;
+        } else if (nowNs - windowStartNs >= windowNs) {
+            System.arraycopy(windowPeaks, 0, previousWindowPeaks, 0, windowPeaks.length);
+            Arrays.fill(windowPeaks, Double.NaN);
+            windowStartNs = nowNs;
+        }
+
+        for (int i = 0, count = snapshot.count(); i < count; i++) {
+            int familyIndex = snapshot.familyIndex(i);
+            if (!monotonicFamilies[familyIndex]) {
+                continue;
+            }
+
+            int counterId = snapshot.counterId(i);
+            long value = snapshot.value(i);
+            ensureCapacity(counterId);
+
+            if (nameIdentities[counterId] != snapshot.nameBytes(i) || labelIdentities[counterId] != snapshot.labelBytes(i)) {
+                nameIdentities[counterId] = snapshot.nameBytes(i);
+                labelIdentities[counterId] = snapshot.labelBytes(i);
+                gauges[counterId] = !families.get(familyIndex).monotonic(snapshot.name(i));
+                startValues[counterId] = value;
+                startTimestampsNs[counterId] = nowNs;
+                rates[counterId] = Double.NaN;
+                windowPeaks[counterId] = Double.NaN;
+                previousWindowPeaks[counterId] = Double.NaN;
+                continue;
+            }
+            if (gauges[counterId]) {
+                continue;
+            }
+
+            long elapsedNs = nowNs - startTimestampsNs[counterId];
+            if (elapsedNs >= rateIntervalNs && elapsedNs > 0) {
+                long delta = value - startValues[counterId];
+                if (delta < 0) {
+                    delta = value;
+                }
+
+                double rate = delta * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNs;
+                rates[counterId] = rate;
+                windowPeaks[counterId] = max(windowPeaks[counterId], rate);
+                startValues[counterId] = value;
+                startTimestampsNs[counterId] = nowNs;
+            }
+
+            snapshot.rates(i, rates[counterId], max(windowPeaks[counterId], previousWindowPeaks[counterId]));
+        }
+        snapshot.hasRates(true);
+    }
+
+    /**
+     * Forgets all counters, e.g. when they belong to a restarted media driver.
+     */
+    public void clear() {
+        Arrays.fill(nameIdentities, null);
+        Arrays.fill(labelIdentities, null);
+    }
+
+    private static double max(double a, double b) {
+        if (Double.isNaN(a)) {
+            return b;
+        }
+        return Double.isNaN(b) ? a : Math.max(a, b);
+    }
+
+    private void ensureCapacity(int counterId) {
+        if (counterId >= startValues.length) {
+            int oldCapacity = startValues.length;
+            int capacity = Math.max(counterId + 1, oldCapacity * 2);
+            nameIdentities = Arrays.copyOf(nameIdentities, capacity);
+            labelIdentities = Arrays.copyOf(labelIdentities, capacity);
+            gauges = Arrays.copyOf(gauges, capacity);
+            startValues = Arrays.copyOf(startValues, capacity);
+            startTimestampsNs = Arrays.copyOf(startTimestampsNs, capacity);
+            rates = Arrays.copyOf(rates, capacity);
+            windowPeaks = Arrays.copyOf(windowPeaks, capacity);
+            previousWindowPeaks = Arrays.copyOf(previousWindowPeaks, capacity);
+        }
+    }
+}
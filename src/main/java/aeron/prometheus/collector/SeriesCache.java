@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Metric name and label set of each counter pre-encoded in the Prometheus text format, cached by counter id.
+ * <p>
+ * The name and label values handed in are the cached instances of the name and label caches,
+ * so an unchanged counter is detected by reference and its encoded bytes are reused.
+ * Not thread safe.
+ */
+final class SeriesCache {
+    static final byte[] EMPTY = new byte[0];
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final ByteArrayOutputStream scratch = new ByteArrayOutputStream(256);
+
+    private String[] names = new String[INITIAL_CAPACITY];
+    private Object[] labelValues = new Object[INITIAL_CAPACITY];
+    private byte[][] nameBytes = new byte[INITIAL_CAPACITY][];
+    private byte[][] labelBytes = new byte[INITIAL_CAPACITY][];
+
+    /**
+     * Encodes the series of the counter unless it is unchanged since the last call for the counter id.
+     *
+     * @param counterId   id of the counter.
+     * @param name        metric name.
+     * @param labelNames  label names.
+     * @param labelValues label values.
+     */
+    void update(int counterId, String name, List<String> labelNames, List<String> labelValues) {
+        ensureCapacity(counterId);
+
+        if (names[counterId] != name) {
+            names[counterId] = name;
+            nameBytes[counterId] = name.getBytes(StandardCharsets.UTF_8);
+        }
+
+        if (this.labelValues[counterId] != labelValues) {
+            this.labelValues[counterId] = labelValues;
+            labelBytes[counterId] = encodeLabels(labelNames, labelValues);
+        }
+    }
+
+    /**
+     * @return metric name bytes of the counter last passed to {@link #update(int, String, List, List)}.
+     */
+    byte[] nameBytes(int counterId) {
+        return nameBytes[counterId];
+    }
+
+    /**
+     * @return label set bytes, including the braces, of the counter last passed to {@link #update(int, String, List, List)}.
+     */
+    byte[] labelBytes(int counterId) {
+        return labelBytes[counterId];
+    }
+
+    void clear() {
+        Arrays.fill(names, null);
+        Arrays.fill(labelValues, null);
+    }
+
+    private byte[] encodeLabels(List<String> labelNames, List<String> labelValues) {
+        if (labelNames.isEmpty()) {
+            return EMPTY;
+        }
+
+        scratch.reset();
+        scratch.write('{');
+        for (int i = 0; i < labelNames.size(); i++) {
+            if (i > 0) {
+                scratch.write(',');
+            }
+            scratch.writeBytes(labelNames.get(i).getBytes(StandardCharsets.UTF_8));
+            scratch.write('=');
+            scratch.write('"');
+            scratch.writeBytes(escape(labelValues.get(i)).getBytes(StandardCharsets.UTF_8));
+            scratch.write('"');
+        }
+        scratch.write('}');
+        return scratch.toByteArray();
+    }
+
+    /**
+     * Encodes a label set outside of the cache, for series which are not counters.
+     *
+     * @return label set, including the braces, encoded for the Prometheus text format.
+     */
+    static byte[] encode(List<String> labelNames, List<String> labelValues) {
+        if (labelNames.isEmpty()) {
+            return EMPTY;
+        }
+
+        StringBuilder labels = new StringBuilder("{");
+        for (int i = 0; i < labelNames.size(); i++) {
+            if (i > 0) {
+                labels.append(',');
+            }
+            labels.append(labelNames.get(i)).append("=\"").append(escape(labelValues.get(i))).append('"');
+        }
+        return labels.append('}').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private void ensureCapacity(int counterId) {
+        if (counterId >= names.length) {
+            int capacity = Math.max(counterId + 1, names.length * 2);
+            names = Arrays.copyOf(names, capacity);
+            labelValues = Arrays.copyOf(labelValues, capacity);
+            nameBytes = Arrays.copyOf(nameBytes, capacity);
+            labelBytes = Arrays.copyOf(labelBytes, capacity);
+        }
+    }
+}
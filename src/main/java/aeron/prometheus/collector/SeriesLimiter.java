@@ -0,0 +1,182 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package aeron.prometheus.collector;
+
+import org.agrona.collections.LongHashSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Hard limit on the number of series exported per family, protecting the time series database from clients churning sessions.
+ * <p>
+ * When a family has more counters than the limit, the ones with the highest values are kept, ties in counter order,
+ * and the others are removed from the snapshot. Every time a series goes from exported to dropped, the dropped series counter
+ * of its family is incremented, so a series staying over the limit is only counted once.
+ * Not thread safe, a limiter is owned by the {@link CounterSnapshotter} of a media driver.
+ */
+final class SeriesLimiter {
+    static final String FAMILY_LABEL = "family";
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final int limit;
+    private final List<String> labelNames;
+    private final List<List<String>> labelValuesByFamily;
+    private final byte[][] labelBytesByFamily;
+    private final long[] droppedSeries;
+    private final int[] familyCounts;
+    private final long[] thresholds;
+    private final int[] thresholdsRetained;
+    private LongHashSet dropped = new LongHashSet();
+    private LongHashSet previouslyDropped = new LongHashSet();
+    private long[] familyValues = new long[INITIAL_CAPACITY];
+    private boolean[] retained = new boolean[INITIAL_CAPACITY];
+
+    /**
+     * @param families families of the registry the snapshots refer to.
+     * @param limit    maximum number of series exported per family, 0 for no limit.
+     * @param driver   name of the media driver added as a label to the dropped series counter, or null.
+     */
+    SeriesLimiter(List<CounterFamily> families, int limit, String driver) {
+        this(families, limit, CounterSnapshotter.DRIVER_LABEL, driver);
+    }
+
+    /**
+     * @param driverLabel name of the label holding the name of the media driver.
+     */
+    SeriesLimiter(List<CounterFamily> families, int limit, String driverLabel, String driver) {
+        this.limit = limit;
+        this.labelNames = driver == null ? List.of(FAMILY_LABEL) : List.of(driverLabel, FAMILY_LABEL);
+        this.droppedSeries = new long[families.size()];
+        this.familyCounts = new int[families.size()];
+        this.thresholds = new long[families.size()];
+        this.thresholdsRetained = new int[families.size()];
+        this.labelBytesByFamily = new byte[families.size()][];
+
+        List<List<String>> labelValues = new ArrayList<>(families.size());
+        for (int i = 0; i < families.size(); i++) {
+            String family = families.get(i).name();
+            List<String> values = driver == null ? List.of(family) : List.of(driver, family);
+            labelValues.add(values);
+            labelBytesByFamily[i] = SeriesCache.encode(labelNames, values);
+        }
+        this.labelValuesByFamily = List.copyOf(labelValues);
+    }
+
+    /**
+     * @return true if a limit is set.
+     */
+    boolean enabled() {
+        return limit > 0;
+    }
+
+    /**
+     * Removes the series over the limit of each family from the snapshot and adds the dropped series counters to it.
+     *
+     * @param snapshot filled with the counters of one pass.
+     */
+    void limit(CounterSnapshot snapshot) {
+        int count = snapshot.count();
+        Arrays.fill(familyCounts, 0);
+        for (int i = 0; i < count; i++) {
+            familyCounts[snapshot.familyIndex(i)]++;
+        }
+
+        boolean exceeded = false;
+        for (int f = 0; f < familyCounts.length; f++) {
+            if (familyCounts[f] > limit) {
+                threshold(snapshot, f);
+                exceeded = true;
+            }
+        }
+
+        LongHashSet swap = previouslyDropped;
+        previouslyDropped = dropped;
+        dropped = swap;
+        dropped.clear();
+
+        if (exceeded) {
+            if (retained.length < count) {
+                retained = new boolean[Math.max(count, retained.length * 2)];
+            }
+            for (int i = 0; i < count; i++) {
+                int familyIndex = snapshot.familyIndex(i);
+                retained[i] = familyCounts[familyIndex] <= limit || retain(familyIndex, snapshot.value(i));
+                if (!retained[i]) {
+                    long series = ((long) familyIndex << 32) | (snapshot.counterId(i) & 0xFFFF_FFFFL);
+                    dropped.add(series);
+                    if (!previouslyDropped.contains(series)) {
+                        droppedSeries[familyIndex]++;
+                    }
+                }
+            }
+            snapshot.retain(retained);
+        }
+
+        for (int f = 0; f < droppedSeries.length; f++) {
+            if (droppedSeries[f] > 0) {
+                snapshot.addDropped(labelNames, labelValuesByFamily.get(f), labelBytesByFamily[f], droppedSeries[f]);
+            }
+        }
+    }
+
+    /**
+     * Forgets which series were dropped, e.g. when the counter ids belong to a restarted media driver. The dropped series counters are kept.
+     */
+    void clear() {
+        dropped.clear();
+        previouslyDropped.clear();
+    }
+
+    private boolean retain(int familyIndex, long value) {
+        if (value > thresholds[familyIndex]) {
+            return true;
+        }
+        if (value == thresholds[familyIndex] && thresholdsRetained[familyIndex] > 0) {
+            thresholdsRetained[familyIndex]--;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the lowest value retained in the family and how many counters holding exactly that value are retained.
+     */
+    private void threshold(CounterSnapshot snapshot, int familyIndex) {
+        int familyCount = familyCounts[familyIndex];
+        if (familyValues.length < familyCount) {
+            familyValues = new long[Math.max(familyCount, familyValues.length * 2)];
+        }
+
+        int n = 0;
+        for (int i = 0; i < snapshot.count(); i++) {
+            if (snapshot.familyIndex(i) == familyIndex) {
+                familyValues[n++] = snapshot.value(i);
+            }
+        }
+        Arrays.sort(familyValues, 0, n);
+
+        long threshold = familyValues[n - limit];
+        int above = 0;
+        for (int i = n - 1; i >= 0 && familyValues[i] > threshold; i--) {
+            above++;
+        }
+        thresholds[familyIndex] = threshold;
+        thresholdsRetained[familyIndex] = limit - above;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+/**
+ * Supplies counter snapshots to the collectors.
+ * <p>
+ * A snapshot returned by {@link #acquire()} must be handed back with {@link #release(CounterSnapshot)} once it is no longer read.
+ */
+public interface SnapshotSource {
+    /**
+     * @return latest snapshot, which is not modified until released.
+     */
+    CounterSnapshot acquire();
+
+    /**
+     * @param snapshot previously acquired snapshot.
+     */
+    void release(CounterSnapshot snapshot);
+
+    /**
+     * @return registry the family indexes of the snapshots refer to.
+     */
+    CounterRegistry counterRegistry();
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.DirectBuffer;
+import org.agrona.collections.Long2LongHashMap;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static aeron.prometheus.collector.CounterTypes.*;
+import static org.agrona.BitUtil.SIZE_OF_INT;
+import static org.agrona.BitUtil.SIZE_OF_LONG;
+
+/**
+ * Derives health gauges of the streams of a media driver from its position counters, so alerts need no joins across series:
+ * <ul>
+ *     <li>publisher headroom, publisher limit minus publisher position of a publication, zero or less when back pressured,</li>
+ *     <li>sender receiver gap, sender position minus receiver high water mark of an image whose publication is on the same driver,</li>
+ *     <li>subscriber lag, position of the producer of an image minus the position of its slowest subscriber,
+ *     the producer being the receiver high water mark of a network image or the publisher position of an IPC one.</li>
+ * </ul>
+ * Counters are grouped by registration id, or by session and stream id, while the snapshot is filled in a single pass,
+ * then the gauges are appended to the snapshot under their own families, labelled like the counter they are derived from.
+ * Grouping maps and index arrays are cleared rather than reallocated, so a steady set of streams does not allocate.
+ * Not thread safe.
+ */
+final class StreamHealth {
+    private static final int INITIAL_CAPACITY = 64;
+    private static final long MISSING = -1;
+
+    private final Long2LongHashMap publisherLimits = new Long2LongHashMap(MISSING);
+    private final Long2LongHashMap senders = new Long2LongHashMap(MISSING);
+    private final Long2LongHashMap receiverHwms = new Long2LongHashMap(MISSING);
+    private final Long2LongHashMap publisherPositions = new Long2LongHashMap(MISSING);
+    private final Long2LongHashMap slowestSubscribers = new Long2LongHashMap(MISSING);
+    private final int headroomFamily;
+    private final int gapFamily;
+    private final int lagFamily;
+    private final int[] typeIds = {PUBLISHER_HEADROOM, SENDER_RECEIVER_GAP, SUBSCRIBER_LAG};
+    private final String[] names = new String[3];
+    private final byte[][] nameBytes = new byte[3][];
+
+    private int[] positionIndexes = new int[INITIAL_CAPACITY];
+    private long[] positionRegistrations = new long[INITIAL_CAPACITY];
+    private int positionCount;
+    private int[] hwmIndexes = new int[INITIAL_CAPACITY];
+    private long[] hwmStreams = new long[INITIAL_CAPACITY];
+    private int hwmCount;
+    private long[] subscribedStreams = new long[INITIAL_CAPACITY];
+    private int subscribedCount;
+
+    /**
+     * @param counterRegistry registry of the snapshots, a gauge is only derived when the registry has its family.
+     */
+    StreamHealth(CounterRegistry counterRegistry) {
+        this.headroomFamily = familyIndex(counterRegistry, PUBLISHER_HEADROOM, 0);
+        this.gapFamily = familyIndex(counterRegistry, SENDER_RECEIVER_GAP, 1);
+        this.lagFamily = familyIndex(counterRegistry, SUBSCRIBER_LAG, 2);
+    }
+
+    private int familyIndex(CounterRegistry counterRegistry, int typeId, int gauge) {
+        CounterFamily family = counterRegistry.family(typeId);
+        if (family.typeId() != typeId) {
+            return -1;
+        }
+        names[gauge] = family.name();
+        nameBytes[gauge] = family.name().getBytes(StandardCharsets.UTF_8);
+        return counterRegistry.familyIndex(typeId);
+    }
+
+    /**
+     * @return true when the registry has a family for any of the gauges.
+     */
+    boolean enabled() {
+        return headroomFamily >= 0 || gapFamily >= 0 || lagFamily >= 0;
+    }
+
+    /**
+     * Groups a counter just added to the snapshot, if it is a position taking part in a gauge.
+     *
+     * @param typeId    type id of the counter.
+     * @param keyBuffer key of the counter.
+     * @param index     index of the counter in the snapshot.
+     * @param value     value of the counter.
+     */
+    void onCounter(int typeId, DirectBuffer keyBuffer, int index, long value) {
+        switch (typeId) {
+            case PUBLISHER_LIMIT:
+                publisherLimits.put(keyBuffer.getLong(0), index);
+                break;
+            case PUBLISHER_POSITION:
+                addPosition(index, keyBuffer.getLong(0));
+                if (publisherPositions.get(stream(keyBuffer)) == MISSING) {
+                    publisherPositions.put(stream(keyBuffer), index);
+                }
+                break;
+            case SENDER_POSITION:
+                senders.put(stream(keyBuffer), index);
+                break;
+            case RECEIVER_HWM:
+                addHwm(index, stream(keyBuffer));
+                if (receiverHwms.get(stream(keyBuffer)) == MISSING) {
+                    receiverHwms.put(stream(keyBuffer), index);
+                }
+                break;
+            case SUBSCRIBER_POSITION:
+                long stream = stream(keyBuffer);
+                long slowest = slowestSubscribers.get(stream);
+                if (slowest == MISSING) {
+                    addSubscribed(stream);
+                    slowestSubscribers.put(stream, value);
+                } else if (value < slowest) {
+                    slowestSubscribers.put(stream, value);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    /**
+     * Appends the gauges derived from the counters grouped since the last call, then clears the groups.
+     *
+     * @param snapshot the counters were added to.
+     */
+    void derive(CounterSnapshot snapshot) {
+        if (headroomFamily >= 0) {
+            for (int i = 0; i < positionCount; i++) {
+                long limit = publisherLimits.get(positionRegistrations[i]);
+                if (limit != MISSING) {
+                    int limitIndex = (int) limit;
+                    add(snapshot, headroomFamily, 0, limitIndex, snapshot.value(limitIndex) - snapshot.value(positionIndexes[i]));
+                }
+            }
+        }
+
+        if (gapFamily >= 0) {
+            for (int i = 0; i < hwmCount; i++) {
+                long sender = senders.get(hwmStreams[i]);
+                if (sender != MISSING) {
+                    int hwmIndex = hwmIndexes[i];
+                    add(snapshot, gapFamily, 1, hwmIndex, snapshot.value((int) sender) - snapshot.value(hwmIndex));
+                }
+            }
+        }
+
+        if (lagFamily >= 0) {
+            for (int i = 0; i < subscribedCount; i++) {
+                long stream = subscribedStreams[i];
+                long producer = receiverHwms.get(stream);
+                if (producer == MISSING) {
+                    producer = publisherPositions.get(stream);
+                }
+                if (producer != MISSING) {
+                    int producerIndex = (int) producer;
+                    add(snapshot, lagFamily, 2, producerIndex, snapshot.value(producerIndex) - slowestSubscribers.get(stream));
+                }
+            }
+        }
+
+        clear();
+    }
+
+    /**
+     * Drops the groups, e.g. when a scan failed half way.
+     */
+    void clear() {
+        publisherLimits.clear();
+        senders.clear();
+        receiverHwms.clear();
+        publisherPositions.clear();
+        slowestSubscribers.clear();
+        positionCount = 0;
+        hwmCount = 0;
+        subscribedCount = 0;
+    }
+
+    private void add(CounterSnapshot snapshot, int familyIndex, int gauge, int sourceIndex, long value) {
+        snapshot.add(snapshot.counterId(sourceIndex), typeIds[gauge], familyIndex, names[gauge],
+                snapshot.labelNames(sourceIndex), snapshot.labelValues(sourceIndex), nameBytes[gauge], snapshot.labelBytes(sourceIndex), value);
+    }
+
+    private static long stream(DirectBuffer keyBuffer) {
+        long sessionId = keyBuffer.getInt(SIZE_OF_LONG);
+        long streamId = keyBuffer.getInt(SIZE_OF_LONG + SIZE_OF_INT);
+        return (sessionId << 32) | (streamId & 0xFFFF_FFFFL);
+    }
+
+    private void addPosition(int index, long registrationId) {
+        if (positionCount == positionIndexes.length) {
+            positionIndexes = Arrays.copyOf(positionIndexes, positionCount * 2);
+            positionRegistrations = Arrays.copyOf(positionRegistrations, positionCount * 2);
+        }
+        positionIndexes[positionCount] = index;
+        positionRegistrations[positionCount] = registrationId;
+        positionCount++;
+    }
+
+    private void addHwm(int index, long stream) {
+        if (hwmCount == hwmIndexes.length) {
+            hwmIndexes = Arrays.copyOf(hwmIndexes, hwmCount * 2);
+            hwmStreams = Arrays.copyOf(hwmStreams, hwmCount * 2);
+        }
+        hwmIndexes[hwmCount] = index;
+        hwmStreams[hwmCount] = stream;
+        hwmCount++;
+    }
+
+    private void addSubscribed(long stream) {
+        if (subscribedCount == subscribedStreams.length) {
+            subscribedStreams = Arrays.copyOf(subscribedStreams, subscribedCount * 2);
+        }
+        subscribedStreams[subscribedCount++] = stream;
+    }
+}
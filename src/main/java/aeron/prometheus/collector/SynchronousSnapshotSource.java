@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import java.util.concurrent.Semaphore;
+
+/**
+ * Reads cnc.dat on every acquire, on the calling thread.
+ * <p>
+ * Concurrent callers are serialised, each of them reading the counters again.
+ * A snapshot may be released by another thread than the one which acquired it.
+ */
+public final class SynchronousSnapshotSource implements SnapshotSource, AutoCloseable {
+    private final Semaphore lock = new Semaphore(1);
+    private final CounterSnapshot snapshot = new CounterSnapshot();
+    private final CounterSnapshotter snapshotter;
+    private boolean closed;
+
+    public SynchronousSnapshotSource(CounterSnapshotter snapshotter) {
+        this.snapshotter = snapshotter;
+    }
+
+    @Override
+    public CounterSnapshot acquire() {
+        lock.acquireUninterruptibly();
+        try {
+            if (closed) {
+                snapshot.reset();
+                snapshot.fail();
+            } else {
+                snapshotter.fill(snapshot);
+            }
+        } catch (RuntimeException e) {
+            lock.release();
+            throw e;
+        }
+        return snapshot;
+    }
+
+    @Override
+    public void release(CounterSnapshot snapshot) {
+        lock.release();
+    }
+
+    /**
+     * Waits for the read in progress, if any, and releases the cnc.dat mapping. Later acquires return a failed snapshot.
+     */
+    @Override
+    public void close() {
+        lock.acquireUninterruptibly();
+        try {
+            closed = true;
+            snapshotter.close();
+        } finally {
+            lock.release();
+        }
+    }
+
+    @Override
+    public CounterRegistry counterRegistry() {
+        return snapshotter.counterRegistry();
+    }
+}
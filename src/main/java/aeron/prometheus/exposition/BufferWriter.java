@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.exposition;
+
+import org.agrona.MutableDirectBuffer;
+
+import java.io.Writer;
+
+/**
+ * java.io.Writer appending UTF-8 encoded characters to a buffer, used to add the samples of the simpleclient
+ * collectors to the exposition without an intermediate String.
+ */
+final class BufferWriter extends Writer {
+    private MutableDirectBuffer buffer;
+    private int position;
+    private char highSurrogate;
+
+    /**
+     * @param buffer   destination, expected to grow as needed.
+     * @param position at which to start writing.
+     * @return this writer.
+     */
+    BufferWriter wrap(MutableDirectBuffer buffer, int position) {
+        this.buffer = buffer;
+        this.position = position;
+        this.highSurrogate = 0;
+        return this;
+    }
+
+    /**
+     * @return offset after the last byte written.
+     */
+    int position() {
+        return position;
+    }
+
+    @Override
+    public void write(int c) {
+        char ch = (char) c;
+        if (Character.isHighSurrogate(ch)) {
+            highSurrogate = ch;
+        } else if (Character.isLowSurrogate(ch) && highSurrogate != 0) {
+            int codePoint = Character.toCodePoint(highSurrogate, ch);
+            highSurrogate = 0;
+            putByte(0xF0 | (codePoint >> 18));
+            putByte(0x80 | ((codePoint >> 12) & 0x3F));
+            putByte(0x80 | ((codePoint >> 6) & 0x3F));
+            putByte(0x80 | (codePoint & 0x3F));
+        } else if (ch < 0x80) {
+            putByte(ch);
+        } else if (ch < 0x800) {
+            putByte(0xC0 | (ch >> 6));
+            putByte(0x80 | (ch & 0x3F));
+        } else {
+            putByte(0xE0 | (ch >> 12));
+            putByte(0x80 | ((ch >> 6) & 0x3F));
+            putByte(0x80 | (ch & 0x3F));
+        }
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            write(chars[i]);
+        }
+    }
+
+    @Override
+    public void write(String str, int offset, int length) {
+        for (int i = offset, end = offset + length; i < end; i++) {
+            write(str.charAt(i));
+        }
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private void putByte(int b) {
+        buffer.putByte(position++, (byte) b);
+    }
+}
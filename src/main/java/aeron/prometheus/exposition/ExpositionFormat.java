@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.exposition;
+
+import io.prometheus.client.Collector;
+import io.prometheus.client.exporter.common.TextFormat;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Text formats the counters can be exposed in.
+ */
+public enum ExpositionFormat {
+    /**
+     * Prometheus text format 0.0.4, timestamps are written in epoch millis.
+     */
+    PROMETHEUS(TextFormat.CONTENT_TYPE_004) {
+        @Override
+        public String typeName(Collector.Type type) {
+            return type.name().toLowerCase(Locale.ROOT);
+        }
+
+        @Override
+        public void write(Writer writer, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+            TextFormat.write004(writer, mfs);
+        }
+    },
+
+    /**
+     * OpenMetrics text format 1.0.0, timestamps are written in epoch seconds.
+     * Counter samples carry the "_total" suffix, untyped families are "unknown" and the exposition ends with "# EOF".
+     */
+    OPENMETRICS("application/openmetrics-text; version=1.0.0; charset=utf-8") {
+        @Override
+        public String typeName(Collector.Type type) {
+            return type == Collector.Type.UNTYPED ? "unknown" : type.name().toLowerCase(Locale.ROOT);
+        }
+
+        @Override
+        public void write(Writer writer, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException {
+            while (mfs.hasMoreElements()) {
+                Collector.MetricFamilySamples family = mfs.nextElement();
+                // simpleclient 0.9 does not suffix counter samples, those are exposed as unknown rather than as invalid counters
+                Collector.Type type = family.type == Collector.Type.COUNTER && !isSuffixedCounter(family) ? Collector.Type.UNTYPED : family.type;
+                writer.write("# TYPE " + family.name + " " + typeName(type) + "\n");
+                writer.write("# HELP " + family.name + " " + escapeHelp(family.help) + "\n");
+                for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+                    writer.write(sample.name);
+                    if (!sample.labelNames.isEmpty()) {
+                        writer.write('{');
+                        for (int i = 0; i < sample.labelNames.size(); i++) {
+                            if (i > 0) {
+                                writer.write(',');
+                            }
+                            writer.write(sample.labelNames.get(i) + "=\"" + escapeLabelValue(sample.labelValues.get(i)) + "\"");
+                        }
+                        writer.write('}');
+                    }
+                    writer.write(' ');
+                    writer.write(Collector.doubleToGoString(sample.value));
+                    writer.write('\n');
+                }
+            }
+        }
+    };
+
+    /**
+     * Content type of the OpenMetrics text format, as requested in the Accept header.
+     */
+    static final String OPENMETRICS_MEDIA_TYPE = "application/openmetrics-text";
+
+    private final String contentType;
+
+    ExpositionFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    /**
+     * @return content type of the response.
+     */
+    public String contentType() {
+        return contentType;
+    }
+
+    /**
+     * @return name of the metric type in the TYPE line.
+     */
+    public abstract String typeName(Collector.Type type);
+
+    /**
+     * Writes the samples of simpleclient collectors.
+     */
+    public abstract void write(Writer writer, Enumeration<Collector.MetricFamilySamples> mfs) throws IOException;
+
+    /**
+     * @param accept Accept header values of the request, may be null.
+     * @return OpenMetrics when the client asks for it, Prometheus text format otherwise.
+     */
+    public static ExpositionFormat negotiate(List<String> accept) {
+        if (accept != null) {
+            for (String value : accept) {
+                if (value.contains(OPENMETRICS_MEDIA_TYPE)) {
+                    return OPENMETRICS;
+                }
+            }
+        }
+        return PROMETHEUS;
+    }
+
+    private static boolean isSuffixedCounter(Collector.MetricFamilySamples family) {
+        String total = family.name + "_total";
+        for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+            if (!sample.name.equals(total)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    private static String escapeLabelValue(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
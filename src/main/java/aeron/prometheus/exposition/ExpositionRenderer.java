@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.exposition;
+
+import aeron.prometheus.collector.CounterSnapshot;
+import aeron.prometheus.collector.Driver;
+import aeron.prometheus.collector.DriverGroup;
+import aeron.prometheus.collector.ExporterMetrics;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import org.agrona.ExpandableDirectByteBuffer;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Renders the latest counter snapshots of a {@link DriverGroup} in a text format into a reusable direct buffer.
+ * <p>
+ * The samples of the collectors registered with the simpleclient registry, if any, are appended after the counters.
+ * Those and the gauges of the exporter carry no timestamp, they follow the samples of the snapshots so a pusher
+ * batching several renders can keep them only from the newest one, see {@link #timestampedLength()}.
+ * This is the output pipeline shared by the scrape endpoint and the pusher, so both serve the same snapshots.
+ * Not thread safe, use one renderer per thread.
+ */
+public final class ExpositionRenderer {
+    private static final String COLLECTOR_DURATION_METRIC = "aeron_exporter_duration_seconds";
+    private static final String SNAPSHOT_AGE_METRIC = "aeron_exporter_snapshot_age_seconds";
+    private static final String AERON_CNCREAD_ERROR = "aeron_cncread_error";
+    private static final byte[] COLLECTOR_DURATION_HEADER = TextExpositionWriter.header(
+            COLLECTOR_DURATION_METRIC, "Time aeron counters read took, in seconds.", Collector.Type.GAUGE);
+    private static final byte[] SNAPSHOT_AGE_HEADER = TextExpositionWriter.header(
+            SNAPSHOT_AGE_METRIC, "Age of the counters snapshot served, in seconds.", Collector.Type.GAUGE);
+    private static final byte[] AERON_CNCREAD_ERROR_HEADER = TextExpositionWriter.header(
+            AERON_CNCREAD_ERROR, "Non-zero if cnc file read has failed.", Collector.Type.GAUGE);
+    private static final byte[] SNAPSHOT_AGE_NAME = SNAPSHOT_AGE_METRIC.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] AERON_CNCREAD_ERROR_NAME = AERON_CNCREAD_ERROR.getBytes(StandardCharsets.US_ASCII);
+
+    private static final int INITIAL_BUFFER_LENGTH = 64 * 1024;
+
+    private final DriverGroup driverGroup;
+    private final CollectorRegistry registry;
+    private final TextExpositionWriter writer;
+    private final ExpandableDirectByteBuffer buffer = new ExpandableDirectByteBuffer(INITIAL_BUFFER_LENGTH);
+    private final BufferWriter registryWriter = new BufferWriter();
+    private CounterSnapshot[] snapshots = new CounterSnapshot[1];
+    private int timestampedLength;
+
+    /**
+     * @param driverGroup drivers to render the counters of.
+     * @param registry    additional simpleclient collectors to render, the aeron collector is not expected to be registered with it.
+     * @param format      text format to render.
+     * @param timestamps  true to write the time of the snapshot with every counter sample.
+     */
+    public ExpositionRenderer(DriverGroup driverGroup, CollectorRegistry registry, ExpositionFormat format, boolean timestamps) {
+        this.driverGroup = driverGroup;
+        this.registry = registry;
+        this.writer = new TextExpositionWriter(driverGroup.counterRegistry(), format, timestamps);
+    }
+
+    /**
+     * @return text format rendered.
+     */
+    public ExpositionFormat format() {
+        return writer.format();
+    }
+
+    /**
+     * @return buffer holding the last rendered exposition from offset 0.
+     */
+    public ExpandableDirectByteBuffer buffer() {
+        return buffer;
+    }
+
+    /**
+     * @return length of the leading part of the last render holding the samples of the snapshots, which carry the time
+     * of their snapshot when rendered with timestamps. The rest of the render is only valid at the time of the render.
+     */
+    public int timestampedLength() {
+        return timestampedLength;
+    }
+
+    /**
+     * Acquires the latest snapshot of every driver and renders them.
+     *
+     * @return length of the exposition in the buffer.
+     * @throws IOException when the registry could not be written.
+     */
+    public int render() throws IOException {
+        long start = System.nanoTime();
+        ExpandableDirectByteBuffer buffer = this.buffer;
+        int position;
+
+        List<Driver> drivers = driverGroup.drivers();
+        int driverCount = drivers.size();
+        if (snapshots.length < driverCount) {
+            snapshots = new CounterSnapshot[driverCount];
+        }
+
+        driverGroup.acquire(drivers, snapshots);
+        try {
+            position = writer.writeCounters(snapshots, driverCount, buffer, 0);
+            position = writer.writeErrors(snapshots, driverCount, buffer, position);
+            position = writer.writeLoss(snapshots, driverCount, buffer, position);
+            position = writer.writeDropped(snapshots, driverCount, buffer, position);
+            timestampedLength = position;
+
+            boolean headerWritten = false;
+            for (int i = 0; i < driverCount; i++) {
+                if (snapshots[i].failed()) {
+                    if (!headerWritten) {
+                        buffer.putBytes(position, AERON_CNCREAD_ERROR_HEADER);
+                        position += AERON_CNCREAD_ERROR_HEADER.length;
+                        headerWritten = true;
+                    }
+                    position = TextExpositionWriter.writeGaugeSample(buffer, position, AERON_CNCREAD_ERROR_NAME, drivers.get(i).labelBytes(), 1);
+                }
+            }
+
+            headerWritten = false;
+            long now = System.nanoTime();
+            for (int i = 0; i < driverCount; i++) {
+                if (snapshots[i].sequence() > 0) {
+                    if (!headerWritten) {
+                        buffer.putBytes(position, SNAPSHOT_AGE_HEADER);
+                        position += SNAPSHOT_AGE_HEADER.length;
+                        headerWritten = true;
+                    }
+                    position = TextExpositionWriter.writeGaugeSample(buffer, position, SNAPSHOT_AGE_NAME, drivers.get(i).labelBytes(),
+                            (now - snapshots[i].timestampNs()) / Collector.NANOSECONDS_PER_SECOND);
+                }
+            }
+        } finally {
+            driverGroup.release(drivers, snapshots);
+        }
+
+        double durationSeconds = (System.nanoTime() - start) / Collector.NANOSECONDS_PER_SECOND;
+        ExporterMetrics.COLLECT_DURATION.observe(durationSeconds);
+        position = TextExpositionWriter.writeGauge(buffer, position, COLLECTOR_DURATION_HEADER, COLLECTOR_DURATION_METRIC, durationSeconds);
+
+        writer.format().write(registryWriter.wrap(buffer, position), registry.metricFamilySamples());
+        return writer.writeEnd(buffer, registryWriter.position());
+    }
+}
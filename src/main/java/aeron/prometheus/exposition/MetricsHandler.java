@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.exposition;
+
+import aeron.prometheus.collector.DriverGroup;
+import aeron.prometheus.collector.ExporterMetrics;
+import aeron.prometheus.collector.SnapshotSource;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.exporter.common.TextFormat;
+import org.agrona.ExpandableDirectByteBuffer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+import static java.net.HttpURLConnection.HTTP_OK;
+
+/**
+ * Serves the counters in the Prometheus text format, or in OpenMetrics when the client asks for it,
+ * rendered by an {@link ExpositionRenderer} into a reusable direct buffer.
+ * <p>
+ * Every handler thread owns its renderers and deflater, so after warm up a scrape does not allocate per sample.
+ * The samples of the collectors registered with the simpleclient registry, if any, are appended after the counters.
+ * With several media drivers, the counters of all drivers are merged family by family and told apart by the "driver" label.
+ * With gzip accepted by the client, the response is deflated straight from the same buffer.
+ */
+public final class MetricsHandler implements HttpHandler {
+    static final String CONTENT_TYPE = TextFormat.CONTENT_TYPE_004;
+
+    private static final int CHUNK_LENGTH = 16 * 1024;
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+
+    private final DriverGroup driverGroup;
+    private final CollectorRegistry registry;
+    private final ThreadLocal<Response> responses;
+
+    /**
+     * @param snapshotSource source of the counters.
+     * @param registry       additional simpleclient collectors to expose, the aeron collector is not expected to be registered with it.
+     */
+    public MetricsHandler(SnapshotSource snapshotSource, CollectorRegistry registry) {
+        this(DriverGroup.single(snapshotSource), registry);
+    }
+
+    /**
+     * @param driverGroup drivers to expose the counters of.
+     * @param registry    additional simpleclient collectors to expose, the aeron collector is not expected to be registered with it.
+     */
+    public MetricsHandler(DriverGroup driverGroup, CollectorRegistry registry) {
+        this.driverGroup = driverGroup;
+        this.registry = registry;
+        this.responses = ThreadLocal.withInitial(Response::new);
+    }
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        long start = System.nanoTime();
+        long allocatedBytes = ExporterMetrics.threadAllocatedBytes();
+        ExporterMetrics.HTTP_REQUESTS_IN_FLIGHT.inc();
+        try {
+            Response response = responses.get();
+            ExpositionRenderer renderer = response.renderer(ExpositionFormat.negotiate(exchange.getRequestHeaders().get("Accept")));
+            int length = renderer.render();
+
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", renderer.format().contentType());
+            if (acceptsGzip(exchange)) {
+                headers.set("Content-Encoding", "gzip");
+                exchange.sendResponseHeaders(HTTP_OK, 0);
+                response.writeGzip(renderer.buffer(), length, exchange.getResponseBody());
+            } else {
+                exchange.sendResponseHeaders(HTTP_OK, length);
+                response.write(renderer.buffer(), length, exchange.getResponseBody());
+            }
+        } finally {
+            exchange.close();
+            ExporterMetrics.HTTP_REQUESTS_IN_FLIGHT.dec();
+            ExporterMetrics.HTTP_REQUEST_DURATION.observe((System.nanoTime() - start) / Collector.NANOSECONDS_PER_SECOND);
+            if (allocatedBytes >= 0) {
+                ExporterMetrics.SCRAPE_ALLOCATED_BYTES.observe(ExporterMetrics.threadAllocatedBytes() - allocatedBytes);
+            }
+        }
+    }
+
+    /**
+     * Renders the exposition on the calling thread and copies it out, mainly for tests and tools.
+     *
+     * @return the exposition in the Prometheus text format.
+     * @throws IOException when the registry could not be written.
+     */
+    public byte[] render() throws IOException {
+        return render(ExpositionFormat.PROMETHEUS);
+    }
+
+    /**
+     * Renders the exposition on the calling thread and copies it out, mainly for tests and tools.
+     *
+     * @param format text format to render.
+     * @return the exposition in the given format.
+     * @throws IOException when the registry could not be written.
+     */
+    public byte[] render(ExpositionFormat format) throws IOException {
+        ExpositionRenderer renderer = responses.get().renderer(format);
+        int length = renderer.render();
+        byte[] bytes = new byte[length];
+        renderer.buffer().getBytes(0, bytes);
+        return bytes;
+    }
+
+    static boolean acceptsGzip(HttpExchange exchange) {
+        List<String> encodings = exchange.getRequestHeaders().get("Accept-Encoding");
+        if (encodings != null) {
+            for (String encoding : encodings) {
+                if (encoding.contains("gzip")) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private final class Response {
+        private final ExpositionRenderer[] renderers = new ExpositionRenderer[ExpositionFormat.values().length];
+        private final byte[] chunk = new byte[CHUNK_LENGTH];
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final CRC32 crc = new CRC32();
+
+        ExpositionRenderer renderer(ExpositionFormat format) {
+            ExpositionRenderer renderer = renderers[format.ordinal()];
+            if (renderer == null) {
+                renderer = new ExpositionRenderer(driverGroup, registry, format, false);
+                renderers[format.ordinal()] = renderer;
+            }
+            return renderer;
+        }
+
+        void write(ExpandableDirectByteBuffer buffer, int length, OutputStream out) throws IOException {
+            for (int offset = 0; offset < length; offset += CHUNK_LENGTH) {
+                int chunkLength = Math.min(CHUNK_LENGTH, length - offset);
+                buffer.getBytes(offset, chunk, 0, chunkLength);
+                out.write(chunk, 0, chunkLength);
+            }
+        }
+
+        void writeGzip(ExpandableDirectByteBuffer buffer, int length, OutputStream out) throws IOException {
+            ByteBuffer input = buffer.byteBuffer();
+            input.clear().limit(length);
+            crc.reset();
+            crc.update(input);
+
+            input.clear().limit(length);
+            deflater.reset();
+            deflater.setInput(input);
+            deflater.finish();
+
+            out.write(GZIP_HEADER);
+            while (!deflater.finished()) {
+                int deflated = deflater.deflate(chunk);
+                out.write(chunk, 0, deflated);
+            }
+
+            putIntLittleEndian(chunk, 0, (int) crc.getValue());
+            putIntLittleEndian(chunk, 4, length);
+            out.write(chunk, 0, 8);
+        }
+    }
+
+    private static void putIntLittleEndian(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >> 8);
+        bytes[offset + 2] = (byte) (value >> 16);
+        bytes[offset + 3] = (byte) (value >> 24);
+    }
+}
@@ -0,0 +1,494 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package aeron.prometheus.exposition;
+
+import aeron.prometheus.collector.DriverGroup;
+import aeron.prometheus.collector.ExporterMetrics;
+import io.prometheus.client.Collector;
+import io.prometheus.client.CollectorRegistry;
+import org.agrona.CloseHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Minimal HTTP/1.1 server serving the exposition from a single thread, as a low footprint alternative to the
+ * com.sun.net.httpserver provider (jetty when on the classpath) and its thread pool.
+ * <p>
+ * One selector thread accepts the connections, parses the requests and writes the responses without blocking.
+ * Connections are kept alive unless the client asks otherwise, and every connection reuses its request and response buffers,
+ * so after warm up a scrape only allocates when the number of counters grows. Only GET requests without a body are served:
+ * the exposition on "/" and "/metrics", and "/-/healthy". Responses are not compressed.
+ * Pipelined requests are answered in order, connections idle for longer than a minute are closed.
+ */
+public final class SelectorHttpServer implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(SelectorHttpServer.class);
+
+    static final String THREAD_NAME = "aeron-exporter-http";
+
+    private static final int BACKLOG = 16;
+    private static final int REQUEST_BUFFER_LENGTH = 8 * 1024;
+    private static final int INITIAL_RESPONSE_LENGTH = 64 * 1024;
+    private static final int MAX_HEADERS_LENGTH = 256;
+    private static final long SELECT_TIMEOUT_MS = 1000;
+    private static final long IDLE_TIMEOUT_NS = TimeUnit.SECONDS.toNanos(60);
+
+    private static final byte[] GET = ascii("GET");
+    private static final byte[] METRICS_PATH = ascii("/metrics");
+    private static final byte[] ROOT_PATH = ascii("/");
+    private static final byte[] HEALTHY_PATH = ascii("/-/healthy");
+    private static final byte[] HTTP_1_0 = ascii("HTTP/1.0");
+    private static final byte[] CONNECTION = ascii("connection");
+    private static final byte[] ACCEPT = ascii("accept");
+    private static final byte[] CONTENT_LENGTH = ascii("content-length");
+    private static final byte[] TRANSFER_ENCODING = ascii("transfer-encoding");
+    private static final byte[] CLOSE = ascii("close");
+    private static final byte[] KEEP_ALIVE = ascii("keep-alive");
+    private static final byte[] OPENMETRICS = ascii(ExpositionFormat.OPENMETRICS_MEDIA_TYPE);
+
+    private static final byte[] STATUS_OK = ascii("HTTP/1.1 200 OK\r\n");
+    private static final byte[] STATUS_BAD_REQUEST = ascii("HTTP/1.1 400 Bad Request\r\n");
+    private static final byte[] STATUS_NOT_FOUND = ascii("HTTP/1.1 404 Not Found\r\n");
+    private static final byte[] STATUS_METHOD_NOT_ALLOWED = ascii("HTTP/1.1 405 Method Not Allowed\r\n");
+    private static final byte[] STATUS_HEADERS_TOO_LARGE = ascii("HTTP/1.1 431 Request Header Fields Too Large\r\n");
+    private static final byte[] STATUS_INTERNAL_ERROR = ascii("HTTP/1.1 500 Internal Server Error\r\n");
+    private static final byte[] CONTENT_TYPE_TEXT = ascii("Content-Type: text/plain; charset=utf-8\r\n");
+    private static final byte[] CONTENT_LENGTH_HEADER = ascii("Content-Length: ");
+    private static final byte[] CONNECTION_CLOSE_HEADER = ascii("Connection: close\r\n");
+    private static final byte[] CRLF = ascii("\r\n");
+    private static final byte[] HEALTHY_BODY = ascii("Exporter is Healthy.");
+    private static final byte[] EMPTY = new byte[0];
+
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final ExpositionRenderer[] renderers;
+    private final byte[][] contentTypeHeaders;
+    private final Consumer<SelectionKey> keyHandler = this::onSelected;
+    private final Thread thread;
+    private volatile boolean running = true;
+    private long nowNs;
+
+    /**
+     * @param address     to listen on.
+     * @param driverGroup drivers to expose the counters of.
+     * @param registry    additional simpleclient collectors to expose, the aeron collector is not expected to be registered with it.
+     * @throws IOException when the address could not be bound.
+     */
+    public SelectorHttpServer(InetSocketAddress address, DriverGroup driverGroup, CollectorRegistry registry) throws IOException {
+        ExpositionFormat[] formats = ExpositionFormat.values();
+        this.renderers = new ExpositionRenderer[formats.length];
+        this.contentTypeHeaders = new byte[formats.length][];
+        for (ExpositionFormat format : formats) {
+            renderers[format.ordinal()] = new ExpositionRenderer(driverGroup, registry, format, false);
+            contentTypeHeaders[format.ordinal()] = ascii("Content-Type: " + format.contentType() + "\r\n");
+        }
+
+        this.selector = Selector.open();
+        try {
+            this.serverChannel = ServerSocketChannel.open();
+            serverChannel.bind(address, BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            CloseHelper.quietClose(selector);
+            throw e;
+        }
+        this.thread = new Thread(this::run, THREAD_NAME);
+    }
+
+    /**
+     * Starts serving on the selector thread.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * @return address the server listens on, with the port resolved when bound to port 0.
+     * @throws IOException when the address could not be read.
+     */
+    public InetSocketAddress address() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Stops the selector thread and closes all connections.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (!thread.isAlive()) {
+            CloseHelper.quietCloseAll(serverChannel, selector);
+            return;
+        }
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long lastIdleCheckNs = System.nanoTime();
+        try {
+            while (running) {
+                selector.select(keyHandler, SELECT_TIMEOUT_MS);
+                nowNs = System.nanoTime();
+                if (nowNs - lastIdleCheckNs >= TimeUnit.MILLISECONDS.toNanos(SELECT_TIMEOUT_MS)) {
+                    lastIdleCheckNs = nowNs;
+                    closeIdleConnections();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.atError().log("HTTP selector failed, no more scrapes are served", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    close((Connection) key.attachment());
+                }
+            }
+            CloseHelper.quietCloseAll(serverChannel, selector);
+        }
+    }
+
+    private void onSelected(SelectionKey key) {
+        nowNs = System.nanoTime();
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+
+        Connection connection = (Connection) key.attachment();
+        try {
+            if (key.isReadable()) {
+                read(connection);
+            } else if (key.isWritable()) {
+                write(connection);
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.atDebug().log("Closing HTTP connection {}", connection.channel, e);
+            close(connection);
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel, nowNs);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            }
+        } catch (IOException e) {
+            LOGGER.atWarn().log("Could not accept HTTP connection", e);
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        ByteBuffer request = connection.request;
+        int read = connection.channel.read(request);
+        if (read < 0) {
+            close(connection);
+            return;
+        }
+        connection.lastActivityNs = nowNs;
+        handleRequests(connection);
+    }
+
+    private void write(Connection connection) throws IOException {
+        flush(connection);
+        if (!connection.responding && connection.channel.isOpen()) {
+            handleRequests(connection);
+        }
+    }
+
+    /**
+     * Answers the requests completely received, one at a time as a response has to be written before the next is handled.
+     */
+    private void handleRequests(Connection connection) throws IOException {
+        ByteBuffer request = connection.request;
+        while (!connection.responding && connection.channel.isOpen()) {
+            int end = headersEnd(request.array(), request.position());
+            if (end < 0) {
+                if (!request.hasRemaining()) {
+                    connection.closeAfterResponse = true;
+                    respond(connection, STATUS_HEADERS_TOO_LARGE, CONTENT_TYPE_TEXT, EMPTY);
+                    flush(connection);
+                }
+                return;
+            }
+
+            connection.requestStartNs = nowNs;
+            long allocatedBytes = ExporterMetrics.threadAllocatedBytes();
+            handle(connection, request.array(), end);
+            if (allocatedBytes >= 0) {
+                ExporterMetrics.SCRAPE_ALLOCATED_BYTES.observe(ExporterMetrics.threadAllocatedBytes() - allocatedBytes);
+            }
+
+            // keeps the bytes of a pipelined request
+            request.flip().position(end);
+            request.compact();
+            flush(connection);
+        }
+    }
+
+    /**
+     * Writes as much of the response as the socket takes, waiting for the selector when it does not take all of it.
+     */
+    private void flush(Connection connection) throws IOException {
+        ByteBuffer response = connection.response;
+        connection.channel.write(response);
+        connection.lastActivityNs = nowNs;
+        if (response.hasRemaining()) {
+            connection.key.interestOps(SelectionKey.OP_WRITE);
+            return;
+        }
+
+        ExporterMetrics.HTTP_REQUESTS_IN_FLIGHT.dec();
+        ExporterMetrics.HTTP_REQUEST_DURATION.observe((System.nanoTime() - connection.requestStartNs) / Collector.NANOSECONDS_PER_SECOND);
+        connection.responding = false;
+        if (connection.closeAfterResponse) {
+            close(connection);
+        } else {
+            connection.key.interestOps(SelectionKey.OP_READ);
+        }
+    }
+
+    private void handle(Connection connection, byte[] request, int end) {
+        int methodEnd = indexOf(request, 0, end, (byte) ' ');
+        int pathEnd = methodEnd < 0 ? -1 : indexOf(request, methodEnd + 1, end, (byte) ' ');
+        int lineEnd = indexOf(request, 0, end, (byte) '\r');
+        if (methodEnd < 0 || pathEnd < 0 || pathEnd > lineEnd) {
+            connection.closeAfterResponse = true;
+            respond(connection, STATUS_BAD_REQUEST, CONTENT_TYPE_TEXT, EMPTY);
+            return;
+        }
+
+        boolean keepAlive = !regionEquals(request, pathEnd + 1, lineEnd, HTTP_1_0);
+        boolean openMetrics = false;
+        boolean hasBody = false;
+        for (int lineStart = lineEnd + 2; lineStart < end - 2; lineStart = indexOf(request, lineStart, end, (byte) '\n') + 1) {
+            int headerEnd = indexOf(request, lineStart, end, (byte) '\r');
+            int colon = indexOf(request, lineStart, headerEnd, (byte) ':');
+            if (colon < 0) {
+                continue;
+            }
+            if (regionEqualsIgnoreCase(request, lineStart, colon, CONNECTION)) {
+                if (containsIgnoreCase(request, colon + 1, headerEnd, CLOSE)) {
+                    keepAlive = false;
+                } else if (containsIgnoreCase(request, colon + 1, headerEnd, KEEP_ALIVE)) {
+                    keepAlive = true;
+                }
+            } else if (regionEqualsIgnoreCase(request, lineStart, colon, ACCEPT)) {
+                openMetrics |= containsIgnoreCase(request, colon + 1, headerEnd, OPENMETRICS);
+            } else if (regionEqualsIgnoreCase(request, lineStart, colon, CONTENT_LENGTH)
+                    || regionEqualsIgnoreCase(request, lineStart, colon, TRANSFER_ENCODING)) {
+                hasBody = true;
+            }
+        }
+        // request bodies are not read, the connection can not be reused after one
+        connection.closeAfterResponse = !keepAlive || hasBody;
+
+        int pathQuery = indexOf(request, methodEnd + 1, pathEnd, (byte) '?');
+        int pathStart = methodEnd + 1;
+        pathEnd = pathQuery < 0 ? pathEnd : pathQuery;
+        if (!regionEquals(request, 0, methodEnd, GET)) {
+            respond(connection, STATUS_METHOD_NOT_ALLOWED, CONTENT_TYPE_TEXT, EMPTY);
+        } else if (regionEquals(request, pathStart, pathEnd, METRICS_PATH) || regionEquals(request, pathStart, pathEnd, ROOT_PATH)) {
+            respondExposition(connection, openMetrics ? ExpositionFormat.OPENMETRICS : ExpositionFormat.PROMETHEUS);
+        } else if (regionEquals(request, pathStart, pathEnd, HEALTHY_PATH)) {
+            respond(connection, STATUS_OK, CONTENT_TYPE_TEXT, HEALTHY_BODY);
+        } else {
+            respond(connection, STATUS_NOT_FOUND, CONTENT_TYPE_TEXT, EMPTY);
+        }
+    }
+
+    private void respondExposition(Connection connection, ExpositionFormat format) {
+        ExpositionRenderer renderer = renderers[format.ordinal()];
+        int length;
+        try {
+            length = renderer.render();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.atError().log("Could not render the exposition", e);
+            respond(connection, STATUS_INTERNAL_ERROR, CONTENT_TYPE_TEXT, EMPTY);
+            return;
+        }
+
+        ByteBuffer response = connection.beginResponse(MAX_HEADERS_LENGTH + length);
+        putHeaders(connection, response, STATUS_OK, contentTypeHeaders[format.ordinal()], length);
+        renderer.buffer().getBytes(0, response, length);
+        endResponse(connection, response);
+    }
+
+    private void respond(Connection connection, byte[] status, byte[] contentType, byte[] body) {
+        ByteBuffer response = connection.beginResponse(MAX_HEADERS_LENGTH + body.length);
+        putHeaders(connection, response, status, contentType, body.length);
+        response.put(body);
+        endResponse(connection, response);
+    }
+
+    private static void putHeaders(Connection connection, ByteBuffer response, byte[] status, byte[] contentType, int contentLength) {
+        response.put(status).put(contentType).put(CONTENT_LENGTH_HEADER);
+        putAscii(response, contentLength);
+        response.put(CRLF);
+        if (connection.closeAfterResponse) {
+            response.put(CONNECTION_CLOSE_HEADER);
+        }
+        response.put(CRLF);
+    }
+
+    private static void endResponse(Connection connection, ByteBuffer response) {
+        response.flip();
+        connection.responding = true;
+        ExporterMetrics.HTTP_REQUESTS_IN_FLIGHT.inc();
+    }
+
+    private void closeIdleConnections() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                Connection connection = (Connection) key.attachment();
+                if (nowNs - connection.lastActivityNs > IDLE_TIMEOUT_NS) {
+                    close(connection);
+                }
+            }
+        }
+    }
+
+    private static void close(Connection connection) {
+        if (connection.responding) {
+            connection.responding = false;
+            ExporterMetrics.HTTP_REQUESTS_IN_FLIGHT.dec();
+        }
+        if (connection.key != null) {
+            connection.key.cancel();
+        }
+        CloseHelper.quietClose(connection.channel);
+    }
+
+    /**
+     * @return index after the blank line ending the headers, -1 when not received yet.
+     */
+    static int headersEnd(byte[] bytes, int length) {
+        for (int i = 3; i < length; i++) {
+            if (bytes[i] == '\n' && bytes[i - 1] == '\r' && bytes[i - 2] == '\n' && bytes[i - 3] == '\r') {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int indexOf(byte[] bytes, int from, int to, byte b) {
+        for (int i = from; i < to; i++) {
+            if (bytes[i] == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(byte[] bytes, int from, int to, byte[] expected) {
+        if (to - from != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (bytes[from + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean regionEqualsIgnoreCase(byte[] bytes, int from, int to, byte[] lowerCase) {
+        if (to - from != lowerCase.length) {
+            return false;
+        }
+        for (int i = 0; i < lowerCase.length; i++) {
+            if (toLowerCase(bytes[from + i]) != lowerCase[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean containsIgnoreCase(byte[] bytes, int from, int to, byte[] lowerCase) {
+        for (int start = from; start <= to - lowerCase.length; start++) {
+            if (regionEqualsIgnoreCase(bytes, start, start + lowerCase.length, lowerCase)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte toLowerCase(byte b) {
+        return b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static void putAscii(ByteBuffer buffer, int value) {
+        int divisor = 1;
+        while (value / divisor >= 10) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + (value / divisor) % 10));
+        }
+    }
+
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static final class Connection {
+        private final SocketChannel channel;
+        private final ByteBuffer request = ByteBuffer.allocate(REQUEST_BUFFER_LENGTH);
+        private ByteBuffer response = ByteBuffer.allocateDirect(INITIAL_RESPONSE_LENGTH);
+        private SelectionKey key;
+        private boolean responding;
+        private boolean closeAfterResponse;
+        private long lastActivityNs;
+        private long requestStartNs;
+
+        Connection(SocketChannel channel, long nowNs) {
+            this.channel = channel;
+            this.lastActivityNs = nowNs;
+        }
+
+        /**
+         * @return cleared response buffer of at least the given capacity.
+         */
+        ByteBuffer beginResponse(int capacity) {
+            if (response.capacity() < capacity) {
+                response = ByteBuffer.allocateDirect(Math.max(capacity, response.capacity() * 2));
+            }
+            return response.clear();
+        }
+    }
+}
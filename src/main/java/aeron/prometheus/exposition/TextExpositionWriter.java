@@ -0,0 +1,564 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.exposition;
+
+import aeron.prometheus.collector.CounterFamily;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterSnapshot;
+import aeron.prometheus.collector.KeyLayout;
+import io.prometheus.client.Collector;
+import org.agrona.MutableDirectBuffer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Writes counter snapshots in a text format straight into a buffer, the Prometheus text format (version 0.0.4) by default.
+ * <p>
+ * Metric names, label sets and family headers are pre-encoded, the values are written as ascii digits in place,
+ * so no per-sample objects are created. Samples are grouped by family with a counting sort over reusable arrays.
+ * Optionally every sample carries the wall clock time of its snapshot as a timestamp.
+ * <p>
+ * OpenMetrics requires the samples of a family to be named after it, so there the system counters,
+ * which are exported under a metric name each, get a family of their own instead of sharing one.
+ * Not thread safe, use one writer per thread.
+ */
+public final class TextExpositionWriter {
+    private static final byte[] RATE_SUFFIX = "_rate".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MAX_RATE_SUFFIX = "_max_rate".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TOTAL_SUFFIX = "_total".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NO_SUFFIX = new byte[0];
+    private static final byte[] EOF = "# EOF\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TYPE_PREFIX = "# TYPE ".getBytes(StandardCharsets.US_ASCII);
+    private static final int RATE_DECIMALS = 1000;
+
+    private static final String ERROR_OBSERVATIONS_METRIC = "aeron_error_log_observations";
+    private static final String ERROR_FIRST_OBSERVATION_METRIC = "aeron_error_log_first_observation_timestamp_seconds";
+    private static final String ERROR_LAST_OBSERVATION_METRIC = "aeron_error_log_last_observation_timestamp_seconds";
+    private static final byte[] ERROR_OBSERVATIONS_NAME = ERROR_OBSERVATIONS_METRIC.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR_FIRST_OBSERVATION_NAME = ERROR_FIRST_OBSERVATION_METRIC.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ERROR_LAST_OBSERVATION_NAME = ERROR_LAST_OBSERVATION_METRIC.getBytes(StandardCharsets.US_ASCII);
+    private static final String LOSS_OBSERVATIONS_METRIC = "aeron_loss_observations";
+    private static final String LOSS_BYTES_METRIC = "aeron_loss_bytes";
+    private static final String LOSS_LAST_OBSERVATION_METRIC = "aeron_loss_last_observation_timestamp_seconds";
+    private static final byte[] LOSS_OBSERVATIONS_NAME = LOSS_OBSERVATIONS_METRIC.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LOSS_BYTES_NAME = LOSS_BYTES_METRIC.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LOSS_LAST_OBSERVATION_NAME = LOSS_LAST_OBSERVATION_METRIC.getBytes(StandardCharsets.US_ASCII);
+    private static final String DROPPED_SERIES_METRIC = "aeron_exporter_dropped_series";
+    private static final byte[] DROPPED_SERIES_NAME = DROPPED_SERIES_METRIC.getBytes(StandardCharsets.US_ASCII);
+
+    private final ExpositionFormat format;
+    private final boolean timestamps;
+    private final List<CounterFamily> families;
+    private final byte[][] familyHeaders;
+    private final byte[][] rateHeaders;
+    private final byte[][] maxRateHeaders;
+    private final boolean[] familyPerSeries;
+    private final byte[][] seriesTypes;
+    private final byte[] gaugeType;
+    private final byte[] counterSuffix;
+    private final byte[] errorObservationsHeader;
+    private final byte[] errorFirstObservationHeader;
+    private final byte[] errorLastObservationHeader;
+    private final byte[] lossObservationsHeader;
+    private final byte[] lossBytesHeader;
+    private final byte[] lossLastObservationHeader;
+    private final byte[] droppedSeriesHeader;
+    private final int[] familyOffsets;
+    private final CounterSnapshot[] single = new CounterSnapshot[1];
+    private int[] orderIndexes = new int[256];
+    private int[] orderSnapshots = new int[256];
+
+    public TextExpositionWriter(CounterRegistry counterRegistry) {
+        this(counterRegistry, ExpositionFormat.PROMETHEUS, false);
+    }
+
+    /**
+     * @param counterRegistry registry the snapshots refer to.
+     * @param format          text format to write.
+     * @param timestamps      true to write the time of the snapshot with every sample, e.g. for samples pushed rather than scraped.
+     */
+    public TextExpositionWriter(CounterRegistry counterRegistry, ExpositionFormat format, boolean timestamps) {
+        this.format = format;
+        this.timestamps = timestamps;
+        this.families = counterRegistry.families();
+        this.familyHeaders = new byte[families.size()][];
+        this.rateHeaders = new byte[families.size()][];
+        this.maxRateHeaders = new byte[families.size()][];
+        this.familyPerSeries = new boolean[families.size()];
+        this.seriesTypes = new byte[families.size()][];
+        this.familyOffsets = new int[families.size() + 1];
+        this.gaugeType = typeSuffix(Collector.Type.GAUGE, format);
+
+        for (int i = 0; i < families.size(); i++) {
+            CounterFamily family = families.get(i);
+            familyHeaders[i] = header(family.name(), family.help(), family.type(), format);
+            rateHeaders[i] = header(family.name() + "_rate", family.help() + ", per second rate", Collector.Type.GAUGE, format);
+            maxRateHeaders[i] = header(family.name() + "_max_rate", family.help() + ", peak per second rate over the rate window", Collector.Type.GAUGE, format);
+            familyPerSeries[i] = format == ExpositionFormat.OPENMETRICS && family.keyLayout() == KeyLayout.SYSTEM;
+            seriesTypes[i] = typeSuffix(family.type(), format);
+        }
+
+        counterSuffix = format == ExpositionFormat.OPENMETRICS ? TOTAL_SUFFIX : NO_SUFFIX;
+        errorObservationsHeader = header(
+                ERROR_OBSERVATIONS_METRIC, "Number of times errors of a type were observed by the media driver", Collector.Type.COUNTER, format);
+        errorFirstObservationHeader = header(
+                ERROR_FIRST_OBSERVATION_METRIC, "Time an error of a type was first observed by the media driver, epoch seconds", Collector.Type.GAUGE, format);
+        errorLastObservationHeader = header(
+                ERROR_LAST_OBSERVATION_METRIC, "Time an error of a type was last observed by the media driver, epoch seconds", Collector.Type.GAUGE, format);
+        lossObservationsHeader = header(
+                LOSS_OBSERVATIONS_METRIC, "Number of times loss was observed on a stream, from the loss report", Collector.Type.COUNTER, format);
+        lossBytesHeader = header(
+                LOSS_BYTES_METRIC, "Total bytes lost on a stream, from the loss report", Collector.Type.COUNTER, format);
+        lossLastObservationHeader = header(
+                LOSS_LAST_OBSERVATION_METRIC, "Time loss was last observed on a stream, epoch seconds", Collector.Type.GAUGE, format);
+        droppedSeriesHeader = header(
+                DROPPED_SERIES_METRIC, "Number of times a series of a family was dropped by the series limit", Collector.Type.COUNTER, format);
+    }
+
+    /**
+     * @return text format written.
+     */
+    public ExpositionFormat format() {
+        return format;
+    }
+
+    /**
+     * Encodes the HELP and TYPE lines of a metric family in the Prometheus text format.
+     *
+     * @param name metric family name.
+     * @param help help text.
+     * @param type metric type.
+     * @return encoded header lines.
+     */
+    public static byte[] header(String name, String help, Collector.Type type) {
+        return header(name, help, type, ExpositionFormat.PROMETHEUS);
+    }
+
+    /**
+     * Encodes the HELP and TYPE lines of a metric family.
+     *
+     * @param name   metric family name.
+     * @param help   help text.
+     * @param type   metric type.
+     * @param format text format.
+     * @return encoded header lines.
+     */
+    public static byte[] header(String name, String help, Collector.Type type, ExpositionFormat format) {
+        return ("# HELP " + name + " " + ExpositionFormat.escapeHelp(help) + "\n# TYPE " + name + " " + format.typeName(type) + "\n")
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] typeSuffix(Collector.Type type, ExpositionFormat format) {
+        return (" " + format.typeName(type) + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Writes all counters of the snapshot grouped by family.
+     *
+     * @param snapshot counters to write.
+     * @param buffer   destination, expected to grow as needed.
+     * @param offset   at which to start writing.
+     * @return offset after the last byte written.
+     */
+    public int writeCounters(CounterSnapshot snapshot, MutableDirectBuffer buffer, int offset) {
+        single[0] = snapshot;
+        try {
+            return writeCounters(single, 1, buffer, offset);
+        } finally {
+            single[0] = null;
+        }
+    }
+
+    /**
+     * Writes all counters of several snapshots grouped by family, so a family shared by the snapshots of several drivers
+     * is written under a single header. The snapshots must refer to the registry of this writer.
+     *
+     * @param snapshots     counters to write.
+     * @param snapshotCount number of snapshots to write from the array.
+     * @param buffer        destination, expected to grow as needed.
+     * @param offset        at which to start writing.
+     * @return offset after the last byte written.
+     */
+    public int writeCounters(CounterSnapshot[] snapshots, int snapshotCount, MutableDirectBuffer buffer, int offset) {
+        int count = 0;
+        for (int s = 0; s < snapshotCount; s++) {
+            count += snapshots[s].count();
+        }
+        if (orderIndexes.length < count) {
+            int capacity = Math.max(count, orderIndexes.length * 2);
+            orderIndexes = new int[capacity];
+            orderSnapshots = new int[capacity];
+        }
+
+        // counting sort of the snapshot entries by family, stable so the entries of a driver stay together
+        Arrays.fill(familyOffsets, 0);
+        for (int s = 0; s < snapshotCount; s++) {
+            CounterSnapshot snapshot = snapshots[s];
+            for (int i = 0, n = snapshot.count(); i < n; i++) {
+                familyOffsets[snapshot.familyIndex(i) + 1]++;
+            }
+        }
+        for (int f = 0; f < families.size(); f++) {
+            familyOffsets[f + 1] += familyOffsets[f];
+        }
+        for (int s = 0; s < snapshotCount; s++) {
+            CounterSnapshot snapshot = snapshots[s];
+            for (int i = 0, n = snapshot.count(); i < n; i++) {
+                int slot = familyOffsets[snapshot.familyIndex(i)]++;
+                orderIndexes[slot] = i;
+                orderSnapshots[slot] = s;
+            }
+        }
+
+        boolean hasRates = false;
+        for (int s = 0; s < snapshotCount; s++) {
+            hasRates |= snapshots[s].hasRates();
+        }
+
+        int position = offset;
+        int start = 0;
+        for (int f = 0; f < families.size(); f++) {
+            int end = familyOffsets[f];
+            if (end > start) {
+                if (familyPerSeries[f]) {
+                    sortByName(snapshots, start, end);
+                } else {
+                    position = putBytes(buffer, position, familyHeaders[f]);
+                }
+
+                byte[] previousName = null;
+                for (int i = start; i < end; i++) {
+                    CounterSnapshot snapshot = snapshots[orderSnapshots[i]];
+                    int index = orderIndexes[i];
+                    if (familyPerSeries[f] && !Arrays.equals(previousName, snapshot.nameBytes(index))) {
+                        previousName = snapshot.nameBytes(index);
+                        position = putTypeLine(buffer, position, previousName, NO_SUFFIX, seriesTypes[f]);
+                    }
+                    position = putSeries(buffer, position, snapshot.nameBytes(index), NO_SUFFIX, snapshot.labelBytes(index));
+                    position += buffer.putLongAscii(position, snapshot.value(index));
+                    position = endSample(buffer, position, snapshot);
+                }
+
+                if (hasRates && families.get(f).monotonic()) {
+                    byte[] rateHeader = familyPerSeries[f] ? null : rateHeaders[f];
+                    byte[] maxRateHeader = familyPerSeries[f] ? null : maxRateHeaders[f];
+                    position = writeRates(snapshots, buffer, position, start, end, rateHeader, RATE_SUFFIX, false);
+                    position = writeRates(snapshots, buffer, position, start, end, maxRateHeader, MAX_RATE_SUFFIX, true);
+                }
+            }
+            start = end;
+        }
+
+        return position;
+    }
+
+    /**
+     * Writes the rates of the entries in the range, under the given header, or under a header per metric name when it is null.
+     */
+    private int writeRates(
+            CounterSnapshot[] snapshots, MutableDirectBuffer buffer, int offset, int start, int end, byte[] header, byte[] suffix, boolean peak) {
+        int position = offset;
+        boolean headerWritten = false;
+        byte[] previousName = null;
+        for (int i = start; i < end; i++) {
+            CounterSnapshot snapshot = snapshots[orderSnapshots[i]];
+            if (!snapshot.hasRates()) {
+                continue;
+            }
+
+            int index = orderIndexes[i];
+            double rate = peak ? snapshot.peakRate(index) : snapshot.rate(index);
+            if (Double.isNaN(rate)) {
+                continue;
+            }
+
+            if (header == null) {
+                if (!Arrays.equals(previousName, snapshot.nameBytes(index))) {
+                    previousName = snapshot.nameBytes(index);
+                    position = putTypeLine(buffer, position, previousName, suffix, gaugeType);
+                }
+            } else if (!headerWritten) {
+                position = putBytes(buffer, position, header);
+                headerWritten = true;
+            }
+
+            position = putSeries(buffer, position, snapshot.nameBytes(index), suffix, snapshot.labelBytes(index));
+            position = putDecimal(buffer, position, rate);
+            position = endSample(buffer, position, snapshot);
+        }
+        return position;
+    }
+
+    /**
+     * Writes the error types of the distinct error logs of the snapshots, one family each for the observation count
+     * and the first and last observation timestamps.
+     *
+     * @param snapshots     errors to write.
+     * @param snapshotCount number of snapshots to write from the array.
+     * @param buffer        destination, expected to grow as needed.
+     * @param offset        at which to start writing.
+     * @return offset after the last byte written.
+     */
+    public int writeErrors(CounterSnapshot[] snapshots, int snapshotCount, MutableDirectBuffer buffer, int offset) {
+        int errorCount = 0;
+        for (int s = 0; s < snapshotCount; s++) {
+            errorCount += snapshots[s].errorCount();
+        }
+        if (errorCount == 0) {
+            return offset;
+        }
+
+        int position = putBytes(buffer, offset, errorObservationsHeader);
+        for (int s = 0; s < snapshotCount; s++) {
+            CounterSnapshot snapshot = snapshots[s];
+            for (int i = 0; i < snapshot.errorCount(); i++) {
+                position = putSeries(buffer, position, ERROR_OBSERVATIONS_NAME, counterSuffix, snapshot.errorLabelBytes(i));
+                position += buffer.putLongAscii(position, snapshot.errorObservations(i));
+                position = endSample(buffer, position, snapshot);
+            }
+        }
+
+        position = putBytes(buffer, position, errorFirstObservationHeader);
+        for (int s = 0; s < snapshotCount; s++) {
+            CounterSnapshot snapshot = snapshots[s];
+            for (int i = 0; i < snapshot.errorCount(); i++) {
+                position = putSeries(buffer, position, ERROR_FIRST_OBSERVATION_NAME, NO_SUFFIX, snapshot.errorLabelBytes(i));
+                position = putDecimal(buffer, position, snapshot.errorFirstObservationMs(i) / 1000.0);
+                position = endSample(buffer, position, snapshot);
+            }
+        }
+
+        position = putBytes(buffer, position, errorLastObservationHeader);
+        for (int s = 0; s < snapshotCount; s++) {
+            CounterSnapshot snapshot = snapshots[s];
+            for (int i = 0; i < snapshot.errorCount(); i++) {
+                position = putSeries(buffer, position, ERROR_LAST_OBSERVATION_NAME, NO_SUFFIX, snapshot.errorLabelBytes(i));
+                position = putDecimal(buffer, position, snapshot.errorLastObservationMs(i) / 1000.0);
+                position = endSample(buffer, position, snapshot);
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Writes the streams of the loss reports of the snapshots, one family each for the observation count,
+     * the bytes lost and the last observation timestamp.
+     *
+     * @param snapshots     loss to write.
+     * @param snapshotCount number of snapshots to write from the array.
+     * @param buffer        destination, expected to grow as needed.
+     * @param offset        at which to start writing.
+     * @return offset after the last byte written.
+     */
+    public int writeLoss(CounterSnapshot[] snapshots, int snapshotCount, MutableDirectBuffer buffer, int offset) {
+        int lossCount = 0;
+        for (int s = 0; s < snapshotCount; s++) {
+            lossCount += snapshots[s].lossCount();
+        }
+        if (lossCount == 0) {
+            return offset;
+        }
+
+        int position = putBytes(buffer, offset, lossObservationsHeader);
+        for (int s = 0; s < snapshotCount; s++) {
+            CounterSnapshot snapshot = snapshots[s];
+            for (int i = 0; i < snapshot.lossCount(); i++) {
+                position = putSeries(buffer, position, LOSS_OBSERVATIONS_NAME, counterSuffix, snapshot.lossLabelBytes(i));
+                position += buffer.putLongAscii(position, snapshot.lossObservations(i));
+                position = endSample(buffer, position, snapshot);
+            }
+        }
+
+        position = putBytes(buffer, position, lossBytesHeader);
+        for (int s = 0; s < snapshotCount; s++) {
+            CounterSnapshot snapshot = snapshots[s];
+            for (int i = 0; i < snapshot.lossCount(); i++) {
+                position = putSeries(buffer, position, LOSS_BYTES_NAME, counterSuffix, snapshot.lossLabelBytes(i));
+                position += buffer.putLongAscii(position, snapshot.lossBytes(i));
+                position = endSample(buffer, position, snapshot);
+            }
+        }
+
+        position = putBytes(buffer, position, lossLastObservationHeader);
+        for (int s = 0; s < snapshotCount; s++) {
+            CounterSnapshot snapshot = snapshots[s];
+            for (int i = 0; i < snapshot.lossCount(); i++) {
+                position = putSeries(buffer, position, LOSS_LAST_OBSERVATION_NAME, NO_SUFFIX, snapshot.lossLabelBytes(i));
+                position = putDecimal(buffer, position, snapshot.lossLastObservationMs(i) / 1000.0);
+                position = endSample(buffer, position, snapshot);
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Writes the number of series dropped by the series limit of each family of the snapshots.
+     *
+     * @param snapshots     dropped series to write.
+     * @param snapshotCount number of snapshots to write from the array.
+     * @param buffer        destination, expected to grow as needed.
+     * @param offset        at which to start writing.
+     * @return offset after the last byte written.
+     */
+    public int writeDropped(CounterSnapshot[] snapshots, int snapshotCount, MutableDirectBuffer buffer, int offset) {
+        int droppedCount = 0;
+        for (int s = 0; s < snapshotCount; s++) {
+            droppedCount += snapshots[s].droppedCount();
+        }
+        if (droppedCount == 0) {
+            return offset;
+        }
+
+        int position = putBytes(buffer, offset, droppedSeriesHeader);
+        for (int s = 0; s < snapshotCount; s++) {
+            CounterSnapshot snapshot = snapshots[s];
+            for (int i = 0; i < snapshot.droppedCount(); i++) {
+                position = putSeries(buffer, position, DROPPED_SERIES_NAME, counterSuffix, snapshot.droppedLabelBytes(i));
+                position += buffer.putLongAscii(position, snapshot.droppedSeries(i));
+                position = endSample(buffer, position, snapshot);
+            }
+        }
+
+        return position;
+    }
+
+    /**
+     * Terminates the exposition, as OpenMetrics requires.
+     *
+     * @return offset after the last byte written.
+     */
+    public int writeEnd(MutableDirectBuffer buffer, int offset) {
+        return format == ExpositionFormat.OPENMETRICS ? putBytes(buffer, offset, EOF) : offset;
+    }
+
+    /**
+     * Stable insertion sort of the entries in the range by metric name, so the series of a name are written together.
+     */
+    private void sortByName(CounterSnapshot[] snapshots, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            int index = orderIndexes[i];
+            int snapshot = orderSnapshots[i];
+            byte[] name = snapshots[snapshot].nameBytes(index);
+            int j = i - 1;
+            while (j >= start && Arrays.compare(snapshots[orderSnapshots[j]].nameBytes(orderIndexes[j]), name) > 0) {
+                orderIndexes[j + 1] = orderIndexes[j];
+                orderSnapshots[j + 1] = orderSnapshots[j];
+                j--;
+            }
+            orderIndexes[j + 1] = index;
+            orderSnapshots[j + 1] = snapshot;
+        }
+    }
+
+    private static int putTypeLine(MutableDirectBuffer buffer, int offset, byte[] name, byte[] suffix, byte[] type) {
+        int position = putBytes(buffer, offset, TYPE_PREFIX);
+        position = putBytes(buffer, position, name);
+        position = putBytes(buffer, position, suffix);
+        return putBytes(buffer, position, type);
+    }
+
+    private int endSample(MutableDirectBuffer buffer, int offset, CounterSnapshot snapshot) {
+        int position = offset;
+        if (timestamps) {
+            buffer.putByte(position++, (byte) ' ');
+            if (format == ExpositionFormat.OPENMETRICS) {
+                position = putDecimal(buffer, position, snapshot.epochMs() / 1000.0);
+            } else {
+                position += buffer.putLongAscii(position, snapshot.epochMs());
+            }
+        }
+        buffer.putByte(position++, (byte) '\n');
+        return position;
+    }
+
+    private static int putSeries(MutableDirectBuffer buffer, int offset, byte[] name, byte[] suffix, byte[] labels) {
+        int position = putBytes(buffer, offset, name);
+        position = putBytes(buffer, position, suffix);
+        position = putBytes(buffer, position, labels);
+        buffer.putByte(position++, (byte) ' ');
+        return position;
+    }
+
+    private static int putBytes(MutableDirectBuffer buffer, int offset, byte[] bytes) {
+        buffer.putBytes(offset, bytes);
+        return offset + bytes.length;
+    }
+
+    /**
+     * Writes a finite value as ascii with three decimals, without going through a String.
+     *
+     * @return offset after the last byte written.
+     */
+    static int putDecimal(MutableDirectBuffer buffer, int offset, double value) {
+        int position = offset;
+        long scaled = Math.round(value * RATE_DECIMALS);
+        if (scaled < 0) {
+            buffer.putByte(position++, (byte) '-');
+            scaled = -scaled;
+        }
+        position += buffer.putLongAscii(position, scaled / RATE_DECIMALS);
+
+        long fraction = scaled % RATE_DECIMALS;
+        buffer.putByte(position++, (byte) '.');
+        buffer.putByte(position++, (byte) ('0' + fraction / 100));
+        buffer.putByte(position++, (byte) ('0' + fraction / 10 % 10));
+        buffer.putByte(position++, (byte) ('0' + fraction % 10));
+        return position;
+    }
+
+    /**
+     * Writes a single sample line.
+     *
+     * @return offset after the last byte written.
+     */
+    public static int writeSample(MutableDirectBuffer buffer, int offset, byte[] name, byte[] labels, long value) {
+        int position = putSeries(buffer, offset, name, NO_SUFFIX, labels);
+        position += buffer.putLongAscii(position, value);
+        buffer.putByte(position++, (byte) '\n');
+        return position;
+    }
+
+    /**
+     * Writes a single gauge sample line, the family header is expected to be written by the caller.
+     *
+     * @return offset after the last byte written.
+     */
+    public static int writeGaugeSample(MutableDirectBuffer buffer, int offset, byte[] name, byte[] labels, double value) {
+        int position = putSeries(buffer, offset, name, NO_SUFFIX, labels);
+        position += buffer.putStringWithoutLengthAscii(position, Collector.doubleToGoString(value));
+        buffer.putByte(position++, (byte) '\n');
+        return position;
+    }
+
+    /**
+     * Writes a family with a single unlabelled sample.
+     *
+     * @return offset after the last byte written.
+     */
+    public static int writeGauge(MutableDirectBuffer buffer, int offset, byte[] header, String name, double value) {
+        int position = putBytes(buffer, offset, header);
+        position += buffer.putStringWithoutLengthAscii(position, name);
+        buffer.putByte(position++, (byte) ' ');
+        position += buffer.putStringWithoutLengthAscii(position, Collector.doubleToGoString(value));
+        buffer.putByte(position++, (byte) '\n');
+        return position;
+    }
+}
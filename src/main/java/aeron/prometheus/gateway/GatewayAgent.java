@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.gateway;
+
+import aeron.prometheus.collector.CncFileReader;
+import aeron.prometheus.collector.ExporterMetrics;
+import aeron.prometheus.recorder.CounterDeltaEncoder;
+import org.agrona.CloseHelper;
+import org.agrona.ExpandableDirectByteBuffer;
+import org.agrona.concurrent.Agent;
+import org.agrona.concurrent.status.CountersReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static aeron.prometheus.gateway.GatewayProtocol.*;
+
+/**
+ * Pushes the counters of a media driver to a {@link GatewayServer}, instead of serving them to Prometheus.
+ * <p>
+ * Run with an org.agrona.concurrent.AgentRunner. Each sample is encoded with a {@link CounterDeltaEncoder}, so only the counters
+ * which changed since the previous sample are sent, and appended to a send buffer written without blocking.
+ * Samples queue up in the send buffer while the connection is slower than the sampling, and go out in one write.
+ * Once the send buffer holds more than the batch length, samples are not encoded until it drains: the changes of the
+ * skipped samples are carried by the next one, so a slow gateway costs freshness but neither memory nor counter updates.
+ * A lost connection is reconnected with an exponential backoff, and the first sample on the new connection sends
+ * all counters again.
+ * Not thread safe, an agent is owned by its agent thread.
+ */
+public final class GatewayAgent implements Agent {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GatewayAgent.class);
+
+    private static final long MIN_RECONNECT_BACKOFF_NS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long MAX_RECONNECT_BACKOFF_NS = TimeUnit.SECONDS.toNanos(10);
+
+    private final CncFileReader cncFileReader;
+    private final InetSocketAddress gateway;
+    private final byte[] host;
+    private final long intervalNs;
+    private final int batchLength;
+    private final CounterDeltaEncoder encoder = new CounterDeltaEncoder();
+    private final ExpandableDirectByteBuffer message = new ExpandableDirectByteBuffer(64 * 1024);
+
+    private ByteBuffer sendBuffer;
+    private SocketChannel channel;
+    private boolean connected;
+    private long nextSampleNs;
+    private long nextConnectNs;
+    private long reconnectBackoffNs = MIN_RECONNECT_BACKOFF_NS;
+    private boolean lastReadFailed;
+    private boolean lastConnectFailed;
+    private long samplesSent;
+
+    /**
+     * @param cncFileReader reads the counters, owned by the agent thread from now on.
+     * @param gateway       address of the gateway.
+     * @param host          name of the host the counters are labelled with by the gateway.
+     * @param interval      interval between samples.
+     * @param unit          unit of the interval.
+     * @param batchLength   bytes waiting to be sent beyond which samples are merged into the next one.
+     */
+    public GatewayAgent(CncFileReader cncFileReader, InetSocketAddress gateway, String host, long interval, TimeUnit unit, int batchLength) {
+        this.host = host.getBytes(StandardCharsets.US_ASCII);
+        if (this.host.length == 0 || this.host.length > MAX_HOST_LENGTH) {
+            throw new IllegalArgumentException("Host name must be 1 to " + MAX_HOST_LENGTH + " characters: " + host);
+        }
+
+        this.cncFileReader = cncFileReader;
+        this.gateway = gateway;
+        this.intervalNs = unit.toNanos(interval);
+        this.batchLength = batchLength;
+        this.sendBuffer = ByteBuffer.allocateDirect(Math.max(batchLength, 64 * 1024)).flip();
+        this.nextSampleNs = System.nanoTime();
+        this.nextConnectNs = nextSampleNs;
+    }
+
+    @Override
+    public int doWork() {
+        long nowNs = System.nanoTime();
+        int workCount = 0;
+        try {
+            if (channel == null) {
+                if (nowNs - nextConnectNs < 0) {
+                    return 0;
+                }
+                connect();
+                workCount++;
+            }
+            if (!connected) {
+                if (!channel.finishConnect()) {
+                    return workCount;
+                }
+                onConnected();
+                workCount++;
+            }
+
+            if (nowNs - nextSampleNs >= 0) {
+                nextSampleNs += intervalNs;
+                if (nowNs - nextSampleNs >= 0) {
+                    nextSampleNs = nowNs + intervalNs;
+                }
+                workCount += sample();
+            }
+
+            if (sendBuffer.hasRemaining()) {
+                workCount += channel.write(sendBuffer) > 0 ? 1 : 0;
+            }
+        } catch (IOException e) {
+            onDisconnected(nowNs, e);
+        }
+        return workCount;
+    }
+
+    @Override
+    public void onClose() {
+        CloseHelper.quietClose(channel);
+        CloseHelper.close(cncFileReader);
+    }
+
+    @Override
+    public String roleName() {
+        return "aeron-exporter-gateway-agent";
+    }
+
+    /**
+     * @return true once connected to the gateway, until the connection is lost.
+     */
+    boolean isConnected() {
+        return connected;
+    }
+
+    /**
+     * @return number of samples appended to the send buffer.
+     */
+    long samplesSent() {
+        return samplesSent;
+    }
+
+    private void connect() throws IOException {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        channel.connect(gateway);
+    }
+
+    private void onConnected() {
+        connected = true;
+        reconnectBackoffNs = MIN_RECONNECT_BACKOFF_NS;
+        if (lastConnectFailed) {
+            LOGGER.atInfo().log("Reconnected to the gateway {}", gateway);
+        }
+        lastConnectFailed = false;
+
+        // the gateway knows nothing of this connection, the first sample defines all counters again
+        encoder.forget();
+        sendBuffer.clear().flip();
+        message.putInt(LENGTH_OFFSET, HELLO_HOST_OFFSET - HEADER_LENGTH + host.length, BYTE_ORDER);
+        message.putInt(TYPE_OFFSET, HELLO, BYTE_ORDER);
+        message.putInt(HELLO_VERSION_OFFSET, VERSION, BYTE_ORDER);
+        message.putBytes(HELLO_HOST_OFFSET, host);
+        append(HELLO_HOST_OFFSET + host.length);
+    }
+
+    private void onDisconnected(long nowNs, IOException e) {
+        if (!lastConnectFailed) {
+            LOGGER.atWarn().log("Lost the connection to the gateway {}, reconnecting: {}", gateway, e.toString());
+        }
+        lastConnectFailed = true;
+        CloseHelper.quietClose(channel);
+        channel = null;
+        connected = false;
+        nextConnectNs = nowNs + reconnectBackoffNs;
+        reconnectBackoffNs = Math.min(reconnectBackoffNs * 2, MAX_RECONNECT_BACKOFF_NS);
+    }
+
+    private int sample() {
+        if (sendBuffer.remaining() >= batchLength) {
+            ExporterMetrics.GATEWAY_COALESCED_SAMPLES.inc();
+            return 0;
+        }
+
+        CountersReader countersReader;
+        try {
+            countersReader = cncFileReader.getCountersReader();
+            lastReadFailed = false;
+        } catch (IOException e) {
+            if (!lastReadFailed) {
+                LOGGER.atError().log("Error during cnc.dat read, no samples are pushed", e);
+            }
+            lastReadFailed = true;
+            return 0;
+        }
+
+        int length = encoder.encode(countersReader, message, SAMPLE_ENTRIES_OFFSET);
+        message.putInt(LENGTH_OFFSET, length - HEADER_LENGTH, BYTE_ORDER);
+        message.putInt(TYPE_OFFSET, SAMPLE, BYTE_ORDER);
+        message.putLong(SAMPLE_EPOCH_MS_OFFSET, System.currentTimeMillis(), BYTE_ORDER);
+        append(length);
+        samplesSent++;
+        return 1;
+    }
+
+    /**
+     * Appends the message to the bytes waiting to be sent, growing the send buffer for a message larger than its free space.
+     */
+    private void append(int length) {
+        sendBuffer.compact();
+        if (sendBuffer.remaining() < length) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(sendBuffer.capacity() * 2, sendBuffer.position() + length));
+            sendBuffer.flip();
+            grown.put(sendBuffer);
+            sendBuffer = grown;
+        }
+        message.getBytes(0, sendBuffer, length);
+        sendBuffer.flip();
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.gateway;
+
+import java.nio.ByteOrder;
+
+import static org.agrona.BitUtil.SIZE_OF_INT;
+import static org.agrona.BitUtil.SIZE_OF_LONG;
+
+/**
+ * Messages pushed by a {@link GatewayAgent} to a {@link GatewayServer} over a TCP connection.
+ * <p>
+ * Every message starts with a header of an int payload length and an int message type, followed by the payload:
+ * <pre>
+ *   HELLO   int protocol version, host name in ASCII up to the end of the payload
+ *   SAMPLE  long epoch millis the counters were read at, then the entries of aeron.prometheus.recorder.CounterDeltaEncoder
+ * </pre>
+ * A connection starts with a HELLO, its first SAMPLE defines all counters of the host, the following ones only carry
+ * the counters which changed. Integers are little endian, whatever the byte order of the agent and the gateway.
+ */
+public final class GatewayProtocol {
+    public static final int VERSION = 1;
+
+    public static final int LENGTH_OFFSET = 0;
+    public static final int TYPE_OFFSET = LENGTH_OFFSET + SIZE_OF_INT;
+    public static final int HEADER_LENGTH = TYPE_OFFSET + SIZE_OF_INT;
+
+    public static final int HELLO = 1;
+    public static final int SAMPLE = 2;
+
+    public static final int HELLO_VERSION_OFFSET = HEADER_LENGTH;
+    public static final int HELLO_HOST_OFFSET = HELLO_VERSION_OFFSET + SIZE_OF_INT;
+    public static final int MAX_HOST_LENGTH = 255;
+    public static final int MAX_HELLO_LENGTH = HELLO_HOST_OFFSET + MAX_HOST_LENGTH;
+
+    public static final int SAMPLE_EPOCH_MS_OFFSET = HEADER_LENGTH;
+    public static final int SAMPLE_ENTRIES_OFFSET = SAMPLE_EPOCH_MS_OFFSET + SIZE_OF_LONG;
+
+    /**
+     * Upper bound of a payload, a sample defining every counter of a large cnc.dat stays well below.
+     */
+    public static final int MAX_PAYLOAD_LENGTH = 64 * 1024 * 1024;
+
+    public static final ByteOrder BYTE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private GatewayProtocol() {
+    }
+}
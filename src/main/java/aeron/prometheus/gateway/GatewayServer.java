@@ -0,0 +1,294 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.gateway;
+
+import aeron.prometheus.collector.ExporterMetrics;
+import org.agrona.CloseHelper;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import static aeron.prometheus.gateway.GatewayProtocol.*;
+
+/**
+ * Receives the samples pushed by {@link GatewayAgent}s and applies them to a {@link GatewayStore}.
+ * <p>
+ * A single selector thread reads all connections. A connection reads into a buffer large enough for one message,
+ * grown when a larger message announces itself, and applies every complete message before reading again.
+ * Until it has announced its host, a connection may only send a HELLO, so connections which never do can not make the buffers grow,
+ * and a slow gateway pushes back on the agents through TCP flow control. A connection announcing a known host
+ * replaces the previous connection of the host. Malformed messages close the connection, the agent reconnects and
+ * sends all its counters again.
+ */
+public final class GatewayServer implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GatewayServer.class);
+
+    static final String THREAD_NAME = "aeron-exporter-gateway";
+
+    private static final int BACKLOG = 128;
+    private static final int INITIAL_READ_LENGTH = 64 * 1024;
+    private static final long SELECT_TIMEOUT_MS = 1000;
+    private static final long EXPIRY_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1);
+
+    private final GatewayStore store;
+    private final Selector selector;
+    private final ServerSocketChannel serverChannel;
+    private final Map<String, Connection> connectionsByHost = new HashMap<>();
+    private final Consumer<SelectionKey> keyHandler = this::onSelected;
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    /**
+     * @param address to listen on for agents.
+     * @param store   the samples are applied to.
+     * @throws IOException when the address could not be bound.
+     */
+    public GatewayServer(InetSocketAddress address, GatewayStore store) throws IOException {
+        this.store = store;
+        this.selector = Selector.open();
+        try {
+            this.serverChannel = ServerSocketChannel.open();
+            // a restarted gateway binds again while the connections of its agents linger
+            serverChannel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+            serverChannel.bind(address, BACKLOG);
+            serverChannel.configureBlocking(false);
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            CloseHelper.quietClose(selector);
+            throw e;
+        }
+        this.thread = new Thread(this::run, THREAD_NAME);
+    }
+
+    /**
+     * Starts receiving on the selector thread.
+     */
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * @return address the server listens on, with the port resolved when bound to port 0.
+     * @throws IOException when the address could not be read.
+     */
+    public InetSocketAddress address() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Stops the selector thread and closes all connections, the hosts stay in the store until they expire.
+     */
+    @Override
+    public void close() {
+        running = false;
+        if (!thread.isAlive()) {
+            CloseHelper.quietCloseAll(serverChannel, selector);
+            return;
+        }
+        selector.wakeup();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        long lastExpiryNs = System.nanoTime();
+        try {
+            while (running) {
+                selector.select(keyHandler, SELECT_TIMEOUT_MS);
+                long nowNs = System.nanoTime();
+                // expiring walks every host under the shard locks, once a second is enough for an expiry in minutes
+                if (nowNs - lastExpiryNs >= EXPIRY_INTERVAL_NS) {
+                    lastExpiryNs = nowNs;
+                    store.expire(System.currentTimeMillis());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.atError().log("Gateway selector failed, no more samples are received", e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                if (key.attachment() instanceof Connection) {
+                    close((Connection) key.attachment());
+                }
+            }
+            CloseHelper.quietCloseAll(serverChannel, selector);
+        }
+    }
+
+    private void onSelected(SelectionKey key) {
+        if (!key.isValid()) {
+            return;
+        }
+        if (key.isAcceptable()) {
+            accept();
+            return;
+        }
+
+        Connection connection = (Connection) key.attachment();
+        try {
+            read(connection);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.atWarn().log("Closing gateway connection {} of host {}: {}", connection.channel, connection.hostName(), e.toString());
+            close(connection);
+        }
+    }
+
+    private void accept() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                Connection connection = new Connection(channel);
+                connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+            }
+        } catch (IOException e) {
+            LOGGER.atWarn().log("Could not accept gateway connection", e);
+        }
+    }
+
+    private void read(Connection connection) throws IOException {
+        int read = connection.channel.read(connection.buffer);
+        if (read < 0) {
+            close(connection);
+            return;
+        }
+        ExporterMetrics.GATEWAY_RECEIVED_BYTES.inc(read);
+
+        ByteBuffer buffer = connection.buffer;
+        UnsafeBuffer view = connection.view;
+        int offset = 0;
+        int end = buffer.position();
+        while (end - offset >= HEADER_LENGTH) {
+            int payloadLength = view.getInt(offset + LENGTH_OFFSET, BYTE_ORDER);
+            if (payloadLength < 0 || payloadLength > MAX_PAYLOAD_LENGTH) {
+                throw new IOException("Invalid payload length " + payloadLength);
+            }
+            int messageLength = HEADER_LENGTH + payloadLength;
+            if (connection.host == null && messageLength > MAX_HELLO_LENGTH) {
+                throw new IOException("Message of length " + messageLength + " before hello");
+            }
+            if (end - offset < messageLength) {
+                if (messageLength > buffer.capacity()) {
+                    connection.grow(offset, messageLength);
+                    return;
+                }
+                break;
+            }
+
+            onMessage(connection, view, offset, messageLength);
+            offset += messageLength;
+        }
+
+        // keeps the start of a partial message
+        buffer.flip().position(offset);
+        buffer.compact();
+    }
+
+    private void onMessage(Connection connection, UnsafeBuffer view, int offset, int length) throws IOException {
+        int type = view.getInt(offset + TYPE_OFFSET, BYTE_ORDER);
+        switch (type) {
+            case HELLO:
+                hello(connection, view, offset, length);
+                break;
+            case SAMPLE:
+                if (connection.host == null || length < SAMPLE_ENTRIES_OFFSET) {
+                    throw new IOException("Unexpected sample");
+                }
+                long epochMs = view.getLong(offset + SAMPLE_EPOCH_MS_OFFSET, BYTE_ORDER);
+                store.apply(connection.host, view, offset + SAMPLE_ENTRIES_OFFSET, offset + length, epochMs);
+                break;
+            default:
+                throw new IOException("Unknown message type " + type);
+        }
+    }
+
+    private void hello(Connection connection, UnsafeBuffer view, int offset, int length) throws IOException {
+        if (connection.host != null || length < HELLO_HOST_OFFSET) {
+            throw new IOException("Unexpected hello");
+        }
+        int version = view.getInt(offset + HELLO_VERSION_OFFSET, BYTE_ORDER);
+        if (version != VERSION) {
+            throw new IOException("Unsupported protocol version " + version);
+        }
+        int hostLength = length - HELLO_HOST_OFFSET;
+        if (hostLength == 0 || hostLength > MAX_HOST_LENGTH) {
+            throw new IOException("Invalid host name length " + hostLength);
+        }
+
+        String name = view.getStringWithoutLengthAscii(offset + HELLO_HOST_OFFSET, hostLength);
+        Connection previous = connectionsByHost.get(name);
+        if (previous != null) {
+            LOGGER.atWarn().log("Host {} connected again from {}, closing its previous connection", name, connection.channel);
+            close(previous);
+        }
+        connection.host = store.connect(name);
+        connectionsByHost.put(name, connection);
+    }
+
+    private void close(Connection connection) {
+        connection.key.cancel();
+        CloseHelper.quietClose(connection.channel);
+        if (connection.host != null) {
+            connectionsByHost.remove(connection.host.name(), connection);
+            store.disconnect(connection.host, System.currentTimeMillis());
+            connection.host = null;
+        }
+    }
+
+    private static final class Connection {
+        private final SocketChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocateDirect(INITIAL_READ_LENGTH);
+        private UnsafeBuffer view = new UnsafeBuffer(buffer);
+        private SelectionKey key;
+        private GatewayStore.Host host;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        private String hostName() {
+            return host == null ? null : host.name();
+        }
+
+        /**
+         * Moves the partial message at the offset to the start of a buffer of at least the given length.
+         */
+        private void grow(int offset, int length) {
+            ByteBuffer grown = ByteBuffer.allocateDirect(Math.max(length, buffer.capacity() * 2));
+            buffer.flip().position(offset);
+            grown.put(buffer);
+            buffer = grown;
+            view = new UnsafeBuffer(grown);
+        }
+    }
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.gateway;
+
+import aeron.prometheus.collector.CounterFilter;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterSnapshot;
+import aeron.prometheus.collector.CounterSnapshotter;
+import aeron.prometheus.collector.Driver;
+import aeron.prometheus.collector.ExporterMetrics;
+import aeron.prometheus.collector.SnapshotSource;
+import aeron.prometheus.recorder.CounterDeltaDecoder;
+import org.agrona.DirectBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Counters of the hosts pushing to the gateway, rebuilt in memory from their samples.
+ * <p>
+ * Hosts are spread over shards by name, each shard guarding its hosts with its own lock, so samples received for a host
+ * only wait for scrapes reading a host of the same shard, and the snapshots of several hosts are filled in parallel.
+ * Each host is exported as a {@link Driver} labelled with {@link #HOST_LABEL}, its snapshot is filled from the counters
+ * received so far when it is scraped and is as old as the last sample of the host.
+ * A host whose agent disconnected is kept for the expiry time, so an agent reconnecting after a network blip or a restart
+ * continues the same series, it is dropped afterwards.
+ * Thread safe.
+ */
+public final class GatewayStore {
+    private static final Logger LOGGER = LoggerFactory.getLogger(GatewayStore.class);
+
+    /**
+     * Label holding the name of the host a counter was pushed from.
+     */
+    public static final String HOST_LABEL = "host";
+
+    private final CounterRegistry counterRegistry;
+    private final CounterFilter filter;
+    private final int seriesLimit;
+    private final long expiryMs;
+    private final int maxCounters;
+    private final Shard[] shards;
+
+    private volatile List<Driver> drivers = List.of();
+
+    /**
+     * @param counterRegistry registry the snapshots of the hosts refer to.
+     * @param shardCount      number of shards the hosts are spread over.
+     * @param filter          deciding which counters are exported.
+     * @param seriesLimit     maximum number of series exported per family and host, 0 for no limit.
+     * @param expiryMs        time a disconnected host is kept for, in milliseconds.
+     */
+    public GatewayStore(CounterRegistry counterRegistry, int shardCount, CounterFilter filter, int seriesLimit, long expiryMs) {
+        this(counterRegistry, shardCount, filter, seriesLimit, expiryMs, CounterDeltaDecoder.DEFAULT_MAX_COUNTERS);
+    }
+
+    /**
+     * @param maxCounters maximum number of counters of a host, a sample defining more closes the connection of the host.
+     */
+    public GatewayStore(CounterRegistry counterRegistry, int shardCount, CounterFilter filter, int seriesLimit, long expiryMs, int maxCounters) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("Shard count must be positive: " + shardCount);
+        }
+
+        this.counterRegistry = counterRegistry;
+        this.filter = filter;
+        this.seriesLimit = seriesLimit;
+        this.expiryMs = expiryMs;
+        this.maxCounters = maxCounters;
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard();
+        }
+    }
+
+    /**
+     * @return registry the snapshots of the hosts refer to.
+     */
+    public CounterRegistry counterRegistry() {
+        return counterRegistry;
+    }
+
+    /**
+     * @return current hosts as drivers sorted by name, the list is replaced when a host comes or goes.
+     */
+    public List<Driver> drivers() {
+        return drivers;
+    }
+
+    /**
+     * Registers the connection of an agent, its next sample replaces the counters of the host.
+     *
+     * @param name name of the host.
+     * @return the host to apply the samples of the connection to.
+     */
+    public Host connect(String name) {
+        Shard shard = shard(name);
+        Host host;
+        boolean added = false;
+        synchronized (shard) {
+            host = shard.hosts.get(name);
+            if (host == null) {
+                host = new Host(shard, name);
+                shard.hosts.put(name, host);
+                added = true;
+            }
+            host.connected = true;
+            host.resetPending = true;
+        }
+        ExporterMetrics.GATEWAY_HOSTS.inc();
+
+        if (added) {
+            LOGGER.atInfo().log("Host {} connected to the gateway", name);
+            updateDrivers();
+        } else {
+            LOGGER.atInfo().log("Host {} reconnected to the gateway", name);
+        }
+        return host;
+    }
+
+    /**
+     * Applies a sample of a host.
+     *
+     * @param host    as returned by {@link #connect(String)}.
+     * @param buffer  holding the entries of the sample.
+     * @param offset  of the first entry.
+     * @param limit   offset after the last entry.
+     * @param epochMs time the counters were read at by the agent, in epoch millis.
+     * @throws IllegalStateException when the entries are malformed, the counters of the host are dropped until its next connection.
+     */
+    public void apply(Host host, DirectBuffer buffer, int offset, int limit, long epochMs) {
+        synchronized (host.shard) {
+            if (host.resetPending) {
+                host.resetPending = false;
+                host.decoder.clear();
+            }
+            try {
+                host.decoder.apply(buffer, offset, limit);
+            } catch (IllegalStateException e) {
+                host.decoder.clear();
+                host.epochMs = 0;
+                throw e;
+            }
+            host.epochMs = epochMs;
+        }
+    }
+
+    /**
+     * Registers the end of the connection of an agent, the host expires unless it connects again.
+     *
+     * @param host  as returned by {@link #connect(String)}.
+     * @param nowMs current time in epoch millis.
+     */
+    public void disconnect(Host host, long nowMs) {
+        synchronized (host.shard) {
+            host.connected = false;
+            host.disconnectedMs = nowMs;
+        }
+        ExporterMetrics.GATEWAY_HOSTS.dec();
+        LOGGER.atInfo().log("Host {} disconnected from the gateway", host.name);
+    }
+
+    /**
+     * Drops the hosts disconnected for longer than the expiry time.
+     *
+     * @param nowMs current time in epoch millis.
+     * @return number of hosts dropped.
+     */
+    public int expire(long nowMs) {
+        int expired = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Iterator<Host> iterator = shard.hosts.values().iterator(); iterator.hasNext(); ) {
+                    Host host = iterator.next();
+                    if (!host.connected && nowMs - host.disconnectedMs > expiryMs) {
+                        LOGGER.atInfo().log("Host {} expired", host.name);
+                        iterator.remove();
+                        expired++;
+                    }
+                }
+            }
+        }
+
+        if (expired > 0) {
+            updateDrivers();
+        }
+        return expired;
+    }
+
+    private Shard shard(String name) {
+        return shards[Math.floorMod(name.hashCode(), shards.length)];
+    }
+
+    private synchronized void updateDrivers() {
+        List<Host> hosts = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                hosts.addAll(shard.hosts.values());
+            }
+        }
+        hosts.sort(Comparator.comparing(host -> host.name));
+
+        List<Driver> current = new ArrayList<>(hosts.size());
+        for (Host host : hosts) {
+            current.add(host.driver);
+        }
+        drivers = List.copyOf(current);
+    }
+
+    private static final class Shard {
+        private final Map<String, Host> hosts = new HashMap<>();
+    }
+
+    /**
+     * A host pushing to the gateway, the source of the snapshots of its counters.
+     */
+    public final class Host implements SnapshotSource {
+        private final Shard shard;
+        private final String name;
+        private final CounterDeltaDecoder decoder = new CounterDeltaDecoder(maxCounters);
+        private final CounterSnapshotter snapshotter;
+        private final CounterSnapshot snapshot = new CounterSnapshot();
+        private final Semaphore lock = new Semaphore(1);
+        private final Driver driver;
+
+        private boolean connected;
+        private boolean resetPending;
+        private long epochMs;
+        private long disconnectedMs;
+
+        private Host(Shard shard, String name) {
+            this.shard = shard;
+            this.name = name;
+            this.snapshotter = new CounterSnapshotter(counterRegistry, HOST_LABEL, name, filter, seriesLimit);
+            this.driver = new Driver(HOST_LABEL, name, this, null);
+        }
+
+        /**
+         * @return name of the host.
+         */
+        public String name() {
+            return name;
+        }
+
+        /**
+         * Fills the snapshot from the counters received so far, a host which has not sent a complete sample yet
+         * gets a failed snapshot.
+         */
+        @Override
+        public CounterSnapshot acquire() {
+            lock.acquireUninterruptibly();
+            try {
+                synchronized (shard) {
+                    if (epochMs == 0) {
+                        snapshotter.fail(snapshot);
+                    } else {
+                        snapshotter.fill(decoder.countersReader(), epochMs, snapshot);
+                    }
+                }
+            } catch (RuntimeException e) {
+                lock.release();
+                throw e;
+            }
+            return snapshot;
+        }
+
+        @Override
+        public void release(CounterSnapshot snapshot) {
+            lock.release();
+        }
+
+        @Override
+        public CounterRegistry counterRegistry() {
+            return counterRegistry;
+        }
+    }
+}
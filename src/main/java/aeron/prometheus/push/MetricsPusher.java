@@ -0,0 +1,269 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.push;
+
+import aeron.prometheus.exposition.ExpositionRenderer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pushes the counters to a remote endpoint at a fixed rate, for drivers which may be gone before the next scrape.
+ * <p>
+ * A render thread renders the latest snapshots with timestamps into a bounded queue, a sender thread drains the queue
+ * and posts up to a batch of renders in one request. When the endpoint is slower than the renders, or down,
+ * the oldest renders are dropped once the queue is full. Renders which could not be sent are put back at the head
+ * of the queue and retried. Only the newest render of a batch is sent whole, the older ones are cut to their
+ * timestamped samples, so the exporter gauges and the simpleclient registry, which carry no timestamp, are posted
+ * once per request. Closing the pusher renders the final values and flushes the queue, so the last counters
+ * are delivered when the exporter shuts down between two pushes.
+ */
+public final class MetricsPusher implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MetricsPusher.class);
+
+    private static final long RETRY_BACKOFF_MS = 1000;
+
+    private final ExpositionRenderer renderer;
+    private final URI endpoint;
+    private final int batchSize;
+    private final Duration timeout;
+    private final HttpClient client;
+    private final LinkedBlockingDeque<Render> queue;
+    private final ScheduledExecutorService renderThread;
+    private final Thread senderThread;
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong sent = new AtomicLong();
+
+    private volatile boolean running;
+    private boolean lastFailed;
+
+    /**
+     * @param renderer      renders the counters, not to be used by other threads.
+     * @param endpoint      URL the renders are posted to.
+     * @param queueCapacity maximum number of renders waiting to be sent.
+     * @param batchSize     maximum number of renders sent in one request.
+     * @param timeout       timeout of a request.
+     */
+    public MetricsPusher(ExpositionRenderer renderer, URI endpoint, int queueCapacity, int batchSize, Duration timeout) {
+        this.renderer = renderer;
+        this.endpoint = endpoint;
+        this.batchSize = batchSize;
+        this.timeout = timeout;
+        this.client = HttpClient.newBuilder().connectTimeout(timeout).build();
+        this.queue = new LinkedBlockingDeque<>(queueCapacity);
+        this.renderThread = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "aeron-exporter-push-render");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.senderThread = new Thread(this::sendLoop, "aeron-exporter-push-send");
+        this.senderThread.setDaemon(true);
+    }
+
+    /**
+     * Starts rendering and sending.
+     *
+     * @param interval interval between two renders.
+     * @param unit     unit of the interval.
+     */
+    public void start(long interval, TimeUnit unit) {
+        running = true;
+        senderThread.start();
+        renderThread.scheduleAtFixedRate(this::renderSafely, 0, interval, unit);
+    }
+
+    /**
+     * @return number of renders dropped because the queue was full.
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * @return number of renders delivered to the endpoint.
+     */
+    public long sent() {
+        return sent.get();
+    }
+
+    /**
+     * Renders the latest counters into the queue, dropping the oldest render when it is full.
+     *
+     * @throws IOException when the counters could not be rendered.
+     */
+    void render() throws IOException {
+        int length = renderer.render();
+        byte[] body = new byte[length];
+        renderer.buffer().getBytes(0, body);
+
+        Render render = new Render(body, renderer.timestampedLength());
+        while (!queue.offerLast(render)) {
+            if (queue.pollFirst() != null) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Sends the queued renders in batches until the queue is empty or a request fails.
+     *
+     * @return true if the queue was emptied.
+     */
+    boolean flush() {
+        List<Render> batch = new ArrayList<>(batchSize);
+        while (true) {
+            batch.clear();
+            queue.drainTo(batch, batchSize);
+            if (batch.isEmpty()) {
+                return true;
+            }
+            if (!send(batch)) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Stops the periodic renders, renders the final counters and flushes the queue, waiting up to the request timeout per batch.
+     */
+    @Override
+    public void close() {
+        running = false;
+        renderThread.shutdown();
+        try {
+            renderThread.awaitTermination(timeout.toMillis(), TimeUnit.MILLISECONDS);
+            senderThread.interrupt();
+            senderThread.join(timeout.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        renderSafely();
+        if (!flush()) {
+            LOGGER.atWarn().log("Could not push the final counters to {}, {} renders are lost", endpoint, queue.size());
+        }
+    }
+
+    private void renderSafely() {
+        try {
+            render();
+        } catch (IOException | RuntimeException e) {
+            LOGGER.atError().log("Error while rendering counters to push", e);
+        }
+    }
+
+    private void sendLoop() {
+        List<Render> batch = new ArrayList<>(batchSize);
+        while (running) {
+            try {
+                Render first = queue.pollFirst(RETRY_BACKOFF_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+
+                batch.clear();
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                if (!send(batch)) {
+                    Thread.sleep(RETRY_BACKOFF_MS);
+                }
+            } catch (InterruptedException e) {
+                // closing, the queue is flushed by close
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Posts the batch, or puts it back at the head of the queue when the request failed.
+     *
+     * @return true if the endpoint accepted the batch.
+     */
+    private boolean send(List<Render> batch) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int last = batch.size() - 1;
+        for (int i = 0; i <= last; i++) {
+            Render render = batch.get(i);
+            body.write(render.body, 0, i == last ? render.body.length : render.timestampedLength);
+        }
+
+        HttpRequest request = HttpRequest.newBuilder(endpoint)
+                .timeout(timeout)
+                .header("Content-Type", renderer.format().contentType())
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body.toByteArray()))
+                .build();
+
+        String failure;
+        try {
+            HttpResponse<Void> response = client.send(request, HttpResponse.BodyHandlers.discarding());
+            if (response.statusCode() / 100 == 2) {
+                sent.addAndGet(batch.size());
+                if (lastFailed) {
+                    LOGGER.atInfo().log("Pushing counters to {} recovered", endpoint);
+                }
+                lastFailed = false;
+                return true;
+            }
+            failure = "HTTP " + response.statusCode();
+        } catch (IOException e) {
+            failure = e.toString();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failure = "interrupted";
+        }
+
+        if (!lastFailed) {
+            LOGGER.atWarn().log("Pushing counters to {} failed: {}", endpoint, failure);
+        }
+        lastFailed = true;
+
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            if (!queue.offerFirst(batch.get(i))) {
+                dropped.incrementAndGet();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rendered exposition and the length of its timestamped samples.
+     */
+    private static final class Render {
+        final byte[] body;
+        final int timestampedLength;
+
+        Render(byte[] body, int timestampedLength) {
+            this.body = body;
+            this.timestampedLength = timestampedLength;
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.recorder;
+
+import org.agrona.DirectBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersReader;
+
+import java.nio.ByteBuffer;
+
+import static aeron.prometheus.recorder.RecordingDescriptor.*;
+import static org.agrona.BitUtil.SIZE_OF_INT;
+import static org.agrona.concurrent.status.CountersReader.*;
+
+/**
+ * Applies the entries encoded by a {@link CounterDeltaEncoder} to in-memory metadata and values buffers with the layout of cnc.dat,
+ * so the counters are read back with a plain CountersReader and anything reading cnc.dat can read them as well.
+ * <p>
+ * Entries may come from the network, so they are validated before anything is allocated for them: counter ids are bounded
+ * by the maximum number of counters and key and label lengths by the ones of cnc.dat, anything else is rejected
+ * rather than read at a wrong offset.
+ * Not thread safe.
+ */
+public final class CounterDeltaDecoder {
+    /**
+     * Default maximum number of counters, the ones of a counters values buffer of 8MB.
+     */
+    public static final int DEFAULT_MAX_COUNTERS = 64 * 1024;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final Decoder decoder = new Decoder();
+    private final int maxCounters;
+
+    private UnsafeBuffer metaDataBuffer;
+    private UnsafeBuffer valuesBuffer;
+    private CountersReader countersReader;
+    private int highestCounterId = -1;
+
+    public CounterDeltaDecoder() {
+        this(DEFAULT_MAX_COUNTERS);
+    }
+
+    /**
+     * @param maxCounters maximum number of counters, entries of a counter id above are rejected.
+     */
+    public CounterDeltaDecoder(int maxCounters) {
+        if (maxCounters <= 0) {
+            throw new IllegalArgumentException("Maximum number of counters must be positive: " + maxCounters);
+        }
+        this.maxCounters = maxCounters;
+        allocate(Math.min(INITIAL_CAPACITY, maxCounters));
+    }
+
+    /**
+     * @return reader of the counters decoded so far, replaced when the buffers grow.
+     */
+    public CountersReader countersReader() {
+        return countersReader;
+    }
+
+    /**
+     * Applies the entries found in a range of the buffer.
+     *
+     * @param buffer holding the entries.
+     * @param offset of the first entry.
+     * @param limit  offset after the last entry.
+     * @throws IllegalStateException when the entries are malformed or define more counters than the maximum.
+     */
+    public void apply(DirectBuffer buffer, int offset, int limit) {
+        decoder.wrap(buffer, offset, limit);
+        while (decoder.hasRemaining()) {
+            long tag = decoder.varLong();
+            long id = tag >>> ENTRY_TYPE_BITS;
+            if (id >= maxCounters) {
+                throw new IllegalStateException("Counter id above the maximum of " + maxCounters + " counters in tag " + tag);
+            }
+            int counterId = (int) id;
+            switch ((int) (tag & ENTRY_TYPE_MASK)) {
+                case ENTRY_VALUE:
+                    checkDefined(counterId, tag);
+                    int valueOffset = counterOffset(counterId);
+                    valuesBuffer.putLong(valueOffset, valuesBuffer.getLong(valueOffset) + decoder.zigZag());
+                    break;
+                case ENTRY_DEFINE:
+                    define(buffer, counterId);
+                    break;
+                case ENTRY_FREE:
+                    checkDefined(counterId, tag);
+                    metaDataBuffer.putInt(metaDataOffset(counterId), RECORD_RECLAIMED);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown entry type in tag " + tag);
+            }
+        }
+    }
+
+    /**
+     * Forgets all counters, the entries applied next are expected to define them again.
+     */
+    public void clear() {
+        metaDataBuffer.setMemory(0, metaDataBuffer.capacity(), (byte) 0);
+        valuesBuffer.setMemory(0, valuesBuffer.capacity(), (byte) 0);
+        highestCounterId = -1;
+    }
+
+    private void checkDefined(int counterId, long tag) {
+        if (counterId > highestCounterId) {
+            throw new IllegalStateException("Entry of an undefined counter in tag " + tag);
+        }
+    }
+
+    private void define(DirectBuffer buffer, int counterId) {
+        int typeId = (int) decoder.zigZag();
+        int keyLength = length(MAX_KEY_LENGTH, "key");
+        int keyOffset = decoder.offset();
+        decoder.skip(keyLength);
+        int labelLength = length(MAX_LABEL_LENGTH, "label");
+        int labelOffset = decoder.offset();
+        decoder.skip(labelLength);
+
+        if (counterId >= valuesBuffer.capacity() / COUNTER_LENGTH) {
+            grow(counterId);
+        }
+        // the scan stops at the first unused record, ids skipped so far are marked as freed
+        for (int id = highestCounterId + 1; id < counterId; id++) {
+            metaDataBuffer.putInt(metaDataOffset(id), RECORD_RECLAIMED);
+        }
+        highestCounterId = Math.max(highestCounterId, counterId);
+
+        int offset = metaDataOffset(counterId);
+        metaDataBuffer.setMemory(offset, METADATA_LENGTH, (byte) 0);
+        metaDataBuffer.putInt(offset + TYPE_ID_OFFSET, typeId);
+        metaDataBuffer.putBytes(offset + KEY_OFFSET, buffer, keyOffset, keyLength);
+        metaDataBuffer.putInt(offset + LABEL_OFFSET, labelLength);
+        metaDataBuffer.putBytes(offset + LABEL_OFFSET + SIZE_OF_INT, buffer, labelOffset, labelLength);
+        metaDataBuffer.putInt(offset, RECORD_ALLOCATED);
+        valuesBuffer.putLong(counterOffset(counterId), 0);
+    }
+
+    private int length(int maxLength, String name) {
+        long length = decoder.varLong();
+        if (length < 0 || length > maxLength) {
+            throw new IllegalStateException("Invalid " + name + " length " + length);
+        }
+        return (int) length;
+    }
+
+    private void grow(int counterId) {
+        UnsafeBuffer metaData = metaDataBuffer;
+        UnsafeBuffer values = valuesBuffer;
+        allocate(Math.min(maxCounters, Math.max(counterId + 1, values.capacity() / COUNTER_LENGTH * 2)));
+        metaDataBuffer.putBytes(0, metaData, 0, metaData.capacity());
+        valuesBuffer.putBytes(0, values, 0, values.capacity());
+    }
+
+    private void allocate(int counters) {
+        metaDataBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(counters * METADATA_LENGTH));
+        valuesBuffer = new UnsafeBuffer(ByteBuffer.allocateDirect(counters * COUNTER_LENGTH));
+        countersReader = new CountersReader(metaDataBuffer, valuesBuffer);
+    }
+}
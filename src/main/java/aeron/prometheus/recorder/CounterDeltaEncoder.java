@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.recorder;
+
+import aeron.prometheus.collector.CounterScanner;
+import aeron.prometheus.collector.CounterVisitor;
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+import org.agrona.concurrent.status.CountersReader;
+
+import java.util.Arrays;
+
+import static aeron.prometheus.recorder.RecordingDescriptor.*;
+
+/**
+ * Encodes the counters which changed since the previous encode as the entries of a recording frame, see {@link RecordingDescriptor}:
+ * value deltas of the counters, definitions of the counters allocated or reused meanwhile and the ids of the counters freed.
+ * <p>
+ * The first encode, and the first one after {@link #forget()}, defines every allocated counter with its value as a delta from zero,
+ * so the entries can be applied on their own by a {@link CounterDeltaDecoder}. State arrays are reused,
+ * so encoding a steady set of counters does not allocate.
+ * Not thread safe.
+ */
+public final class CounterDeltaEncoder {
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final CounterScanner counterScanner = new CounterScanner();
+    private final CounterVisitor visitor = this::onCounter;
+
+    private boolean[] defined = new boolean[INITIAL_CAPACITY];
+    private long[] identities = new long[INITIAL_CAPACITY];
+    private long[] values = new long[INITIAL_CAPACITY];
+    private int[] lastSeen = new int[INITIAL_CAPACITY];
+    private int highestCounterId = -1;
+    private int scan;
+    private int position;
+    private CountersReader countersReader;
+    private MutableDirectBuffer buffer;
+
+    /**
+     * Appends the entries of the counters which changed since the previous encode.
+     *
+     * @param countersReader counters to encode.
+     * @param buffer         receiving the entries, expected to expand as needed.
+     * @param offset         of the first entry in the buffer.
+     * @return offset after the last entry, equal to the offset when nothing changed.
+     */
+    public int encode(CountersReader countersReader, MutableDirectBuffer buffer, int offset) {
+        this.countersReader = countersReader;
+        this.buffer = buffer;
+        this.position = offset;
+        try {
+            scan++;
+            counterScanner.scan(countersReader, visitor);
+
+            for (int counterId = 0; counterId <= highestCounterId; counterId++) {
+                if (defined[counterId] && lastSeen[counterId] != scan) {
+                    defined[counterId] = false;
+                    position = putVarLong(buffer, position, tag(counterId, ENTRY_FREE));
+                }
+            }
+            return position;
+        } finally {
+            this.countersReader = null;
+            this.buffer = null;
+        }
+    }
+
+    /**
+     * Forgets the counters encoded so far, the next encode defines all counters again.
+     */
+    public void forget() {
+        Arrays.fill(defined, false);
+    }
+
+    private void onCounter(int counterId, int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+        ensureCapacity(counterId);
+        lastSeen[counterId] = scan;
+
+        long identity = CounterScanner.hash(keyBuffer, 0, keyBuffer.capacity())
+                ^ (31 * CounterScanner.hash(labelBuffer, 0, labelBuffer.capacity()) + typeId);
+        if (!defined[counterId] || identities[counterId] != identity) {
+            define(counterId, typeId, keyBuffer, labelBuffer);
+            defined[counterId] = true;
+            identities[counterId] = identity;
+            values[counterId] = 0;
+        }
+
+        long value = countersReader.getCounterValue(counterId);
+        if (value != values[counterId]) {
+            position = putVarLong(buffer, position, tag(counterId, ENTRY_VALUE));
+            position = putZigZag(buffer, position, value - values[counterId]);
+            values[counterId] = value;
+        }
+    }
+
+    private void define(int counterId, int typeId, DirectBuffer keyBuffer, DirectBuffer labelBuffer) {
+        // the key is zero padded up to its maximum length, only the used part is encoded
+        int keyLength = keyBuffer.capacity();
+        while (keyLength > 0 && keyBuffer.getByte(keyLength - 1) == 0) {
+            keyLength--;
+        }
+        int labelLength = labelBuffer.capacity();
+
+        position = putVarLong(buffer, position, tag(counterId, ENTRY_DEFINE));
+        position = putZigZag(buffer, position, typeId);
+        position = putVarLong(buffer, position, keyLength);
+        buffer.putBytes(position, keyBuffer, 0, keyLength);
+        position += keyLength;
+        position = putVarLong(buffer, position, labelLength);
+        buffer.putBytes(position, labelBuffer, 0, labelLength);
+        position += labelLength;
+    }
+
+    private static long tag(int counterId, int entryType) {
+        return ((long) counterId << ENTRY_TYPE_BITS) | entryType;
+    }
+
+    private void ensureCapacity(int counterId) {
+        highestCounterId = Math.max(highestCounterId, counterId);
+        if (counterId >= defined.length) {
+            int capacity = Math.max(counterId + 1, defined.length * 2);
+            defined = Arrays.copyOf(defined, capacity);
+            identities = Arrays.copyOf(identities, capacity);
+            values = Arrays.copyOf(values, capacity);
+            lastSeen = Arrays.copyOf(lastSeen, capacity);
+        }
+    }
+}
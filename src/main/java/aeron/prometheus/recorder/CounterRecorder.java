@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.recorder;
+
+import aeron.prometheus.collector.CncFileReader;
+import org.agrona.CloseHelper;
+import org.agrona.ExpandableDirectByteBuffer;
+import org.agrona.concurrent.Agent;
+import org.agrona.concurrent.status.CountersReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static aeron.prometheus.recorder.RecordingDescriptor.*;
+
+/**
+ * Records the counters at a high rate, e.g. every millisecond, into a {@link RecordingWriter} for post-mortem analysis.
+ * <p>
+ * Run with an org.agrona.concurrent.AgentRunner. Each sample is encoded as a frame holding only the counters which changed
+ * since the previous sample, as varint deltas, together with the counters allocated or freed meanwhile, see {@link CounterDeltaEncoder}.
+ * Samples in which no counter changed are not written. Encoding reuses its buffers and state arrays,
+ * so recording a steady set of counters does not allocate. cnc.dat is checked for a restarted media driver at most
+ * once per remap check interval, as the check reads the file attributes.
+ * Not thread safe, a recorder is owned by its agent thread.
+ */
+public final class CounterRecorder implements Agent {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CounterRecorder.class);
+
+    private static final long REMAP_CHECK_INTERVAL_NS = TimeUnit.SECONDS.toNanos(1);
+
+    private final CncFileReader cncFileReader;
+    private final RecordingWriter writer;
+    private final long intervalNs;
+    private final CounterDeltaEncoder encoder = new CounterDeltaEncoder();
+    private final ExpandableDirectByteBuffer frame = new ExpandableDirectByteBuffer(64 * 1024);
+
+    private CountersReader countersReader;
+    private long nextSampleNs;
+    private long nextRemapCheckNs;
+    private long lastFrameNs;
+    private boolean lastFailed;
+    private boolean stopped;
+
+    /**
+     * @param cncFileReader reads the counters, owned by the recorder thread from now on.
+     * @param writer        segments the samples are appended to, owned by the recorder thread from now on.
+     * @param interval      interval between samples.
+     * @param unit          unit of the interval.
+     */
+    public CounterRecorder(CncFileReader cncFileReader, RecordingWriter writer, long interval, TimeUnit unit) {
+        this.cncFileReader = cncFileReader;
+        this.writer = writer;
+        this.intervalNs = unit.toNanos(interval);
+        this.nextSampleNs = System.nanoTime();
+        this.nextRemapCheckNs = nextSampleNs;
+    }
+
+    @Override
+    public int doWork() {
+        long nowNs = System.nanoTime();
+        if (stopped || nowNs - nextSampleNs < 0) {
+            return 0;
+        }
+
+        // samples missed while the thread was descheduled are skipped rather than caught up
+        nextSampleNs += intervalNs;
+        if (nowNs - nextSampleNs >= 0) {
+            nextSampleNs = nowNs + intervalNs;
+        }
+
+        if (countersReader == null || nowNs - nextRemapCheckNs >= 0) {
+            nextRemapCheckNs = nowNs + REMAP_CHECK_INTERVAL_NS;
+            try {
+                countersReader = cncFileReader.getCountersReader();
+                lastFailed = false;
+            } catch (IOException e) {
+                if (!lastFailed) {
+                    LOGGER.atError().log("Error during cnc.dat read, recording paused", e);
+                }
+                lastFailed = true;
+                countersReader = null;
+                return 0;
+            }
+        }
+
+        sample(nowNs);
+        return 1;
+    }
+
+    @Override
+    public void onClose() {
+        CloseHelper.closeAll(writer, cncFileReader);
+    }
+
+    @Override
+    public String roleName() {
+        return "aeron-exporter-recorder";
+    }
+
+    private void sample(long nowNs) {
+        int length = encode(nowNs);
+        if (length == 0) {
+            return;
+        }
+
+        if (!writer.fits(length)) {
+            // a new segment starts with all counters defined, so it can be replayed on its own
+            encoder.forget();
+            writer.roll(nowNs);
+            lastFrameNs = writer.baseNs();
+            length = encode(nowNs);
+            if (length > writer.maxFrameLength()) {
+                LOGGER.atError().log("Recording stopped, a sample of {} bytes does not fit into a segment", length);
+                stopped = true;
+                return;
+            }
+        }
+
+        writer.append(frame, length);
+        lastFrameNs = nowNs;
+    }
+
+    /**
+     * Encodes the changes since the previous sample into the frame buffer.
+     *
+     * @return length of the frame payload, 0 when nothing changed.
+     */
+    private int encode(long nowNs) {
+        int headerLength = putVarLong(frame, 0, nowNs - lastFrameNs);
+        int length = encoder.encode(countersReader, frame, headerLength);
+        return length == headerLength ? 0 : length;
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.recorder;
+
+import org.agrona.DirectBuffer;
+import org.agrona.MutableDirectBuffer;
+
+import java.nio.file.Path;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.agrona.BitUtil.SIZE_OF_INT;
+
+/**
+ * Layout of the segment files of a counter recording.
+ * <p>
+ * A segment starts with a header holding a magic number, the format version and the base time of the segment in epoch nanos,
+ * followed by frames aligned to {@link #FRAME_ALIGNMENT}. A frame is an int length, written last, and a payload:
+ * <pre>
+ *   varint  nanos since the previous frame, or since the base time for the first frame
+ *   entries until the end of the payload, each starting with a varint tag of (counter id &lt;&lt; 2 | entry type):
+ *     VALUE   zigzag varint of the value minus the previous value of the counter
+ *     DEFINE  zigzag varint type id, varint key length, key, varint label length, label
+ *     FREE    nothing, the counter id is no longer allocated
+ * </pre>
+ * A zero length marks the end of the frames written so far. Every segment is self-contained: its first frame defines
+ * all counters allocated at the time with their values as a delta from zero, so older segments can be deleted.
+ */
+public final class RecordingDescriptor {
+    public static final int MAGIC = 0x41524543;
+    public static final int VERSION = 1;
+
+    public static final int MAGIC_OFFSET = 0;
+    public static final int VERSION_OFFSET = MAGIC_OFFSET + SIZE_OF_INT;
+    public static final int BASE_EPOCH_NS_OFFSET = VERSION_OFFSET + SIZE_OF_INT;
+    public static final int HEADER_LENGTH = 32;
+
+    public static final int FRAME_ALIGNMENT = SIZE_OF_INT;
+
+    public static final int ENTRY_VALUE = 1;
+    public static final int ENTRY_DEFINE = 2;
+    public static final int ENTRY_FREE = 3;
+    public static final int ENTRY_TYPE_BITS = 2;
+    public static final int ENTRY_TYPE_MASK = (1 << ENTRY_TYPE_BITS) - 1;
+
+    public static final String SEGMENT_PREFIX = "counters-";
+    public static final String SEGMENT_SUFFIX = ".rec";
+
+    private static final Pattern SEGMENT_NAME = Pattern.compile(SEGMENT_PREFIX + "(\\d+)" + Pattern.quote(SEGMENT_SUFFIX));
+
+    private RecordingDescriptor() {
+    }
+
+    /**
+     * @return file name of the segment with the given index, segments sort by name in recording order.
+     */
+    public static String segmentFileName(long index) {
+        return String.format("%s%012d%s", SEGMENT_PREFIX, index, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * @return index of the segment file, or -1 when the path is not a segment.
+     */
+    public static long segmentIndex(Path path) {
+        Matcher matcher = SEGMENT_NAME.matcher(path.getFileName().toString());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Writes an unsigned varint, 7 bits per byte, least significant group first.
+     *
+     * @return offset after the last byte written.
+     */
+    public static int putVarLong(MutableDirectBuffer buffer, int offset, long value) {
+        int position = offset;
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            buffer.putByte(position++, (byte) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        buffer.putByte(position++, (byte) remaining);
+        return position;
+    }
+
+    /**
+     * Writes a signed value as a zigzag varint, so small negative deltas stay short.
+     *
+     * @return offset after the last byte written.
+     */
+    public static int putZigZag(MutableDirectBuffer buffer, int offset, long value) {
+        return putVarLong(buffer, offset, (value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * Decodes varints, keeping the offset after the last value read so a payload is walked without allocating.
+     */
+    static final class Decoder {
+        private DirectBuffer buffer;
+        private int offset;
+        private int limit;
+
+        Decoder wrap(DirectBuffer buffer, int offset, int limit) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.limit = limit;
+            return this;
+        }
+
+        boolean hasRemaining() {
+            return offset < limit;
+        }
+
+        int offset() {
+            return offset;
+        }
+
+        void skip(int length) {
+            if (length < 0 || length > limit - offset) {
+                throw new IllegalStateException("Malformed entry at offset " + offset + ", " + length + " bytes past the limit");
+            }
+            offset += length;
+        }
+
+        long varLong() {
+            long value = 0;
+            int shift = 0;
+            while (true) {
+                if (offset >= limit || shift > 63) {
+                    throw new IllegalStateException("Malformed varint at offset " + offset);
+                }
+                byte b = buffer.getByte(offset++);
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+                shift += 7;
+            }
+        }
+
+        long zigZag() {
+            long value = varLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+    }
+}
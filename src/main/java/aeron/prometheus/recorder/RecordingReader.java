@@ -0,0 +1,146 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.recorder;
+
+import org.agrona.BitUtil;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static aeron.prometheus.recorder.RecordingDescriptor.*;
+import static org.agrona.BitUtil.SIZE_OF_INT;
+
+/**
+ * Replays a recording written by a {@link CounterRecorder}.
+ * <p>
+ * The counters are rebuilt frame by frame by a {@link CounterDeltaDecoder} into in-memory buffers with the layout of cnc.dat,
+ * so a sample is handed over as a plain CountersReader and anything reading cnc.dat can read a replayed sample as well.
+ * Replay starts from the last segment beginning before the requested range, as every segment is self-contained.
+ * Reading the recording while it is being written is safe, replay stops at the last complete frame.
+ * Not thread safe.
+ */
+public final class RecordingReader {
+    private final Path directory;
+    private final Decoder decoder = new Decoder();
+    private final CounterDeltaDecoder counters = new CounterDeltaDecoder();
+
+    private boolean rangeEnded;
+
+    /**
+     * @param directory directory of the recording.
+     */
+    public RecordingReader(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Replays the samples recorded in a time range.
+     *
+     * @param fromEpochMs start of the range, inclusive, in epoch millis.
+     * @param toEpochMs   end of the range, inclusive, in epoch millis.
+     * @param handler     receives the samples in the range in recording order.
+     * @return number of samples replayed.
+     * @throws IOException when a segment could not be read or is not a recording segment.
+     */
+    public int replay(long fromEpochMs, long toEpochMs, ReplayHandler handler) throws IOException {
+        long fromNs = fromEpochMs * 1_000_000L;
+        long toNs = toEpochMs * 1_000_000L + 999_999L;
+
+        List<Path> segments = RecordingWriter.segments(directory);
+        int first = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            if (baseEpochNs(segments.get(i)) <= fromNs) {
+                first = i;
+            }
+        }
+
+        int samples = 0;
+        rangeEnded = false;
+        for (int i = first; i < segments.size(); i++) {
+            MappedByteBuffer mapped = map(segments.get(i));
+            try {
+                samples += replaySegment(segments.get(i), new UnsafeBuffer(mapped), fromNs, toNs, handler);
+            } finally {
+                IoUtil.unmap(mapped);
+            }
+            if (rangeEnded) {
+                break;
+            }
+        }
+        return samples;
+    }
+
+    /**
+     * @return number of samples replayed from the segment, flags rangeEnded when a sample past the range was found.
+     */
+    private int replaySegment(Path path, UnsafeBuffer segment, long fromNs, long toNs, ReplayHandler handler) throws IOException {
+        if (segment.capacity() < HEADER_LENGTH || segment.getInt(MAGIC_OFFSET) != MAGIC) {
+            throw new IOException("Not a recording segment: " + path);
+        }
+        if (segment.getInt(VERSION_OFFSET) != VERSION) {
+            throw new IOException("Unsupported recording version " + segment.getInt(VERSION_OFFSET) + ": " + path);
+        }
+
+        counters.clear();
+        long timestampNs = segment.getLong(BASE_EPOCH_NS_OFFSET);
+        int samples = 0;
+        int position = HEADER_LENGTH;
+        while (position + SIZE_OF_INT <= segment.capacity()) {
+            int length = segment.getIntVolatile(position);
+            if (length <= 0 || position + SIZE_OF_INT + length > segment.capacity()) {
+                break;
+            }
+
+            int limit = position + SIZE_OF_INT + length;
+            decoder.wrap(segment, position + SIZE_OF_INT, limit);
+            timestampNs += decoder.varLong();
+            counters.apply(segment, decoder.offset(), limit);
+
+            if (timestampNs > toNs) {
+                rangeEnded = true;
+                break;
+            }
+            if (timestampNs >= fromNs) {
+                handler.onSample(timestampNs, counters.countersReader());
+                samples++;
+            }
+            position = BitUtil.align(position + SIZE_OF_INT + length, FRAME_ALIGNMENT);
+        }
+        return samples;
+    }
+
+    private static long baseEpochNs(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            channel.read(header, 0);
+            return new UnsafeBuffer(header).getLong(BASE_EPOCH_NS_OFFSET);
+        }
+    }
+
+    private static MappedByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+}
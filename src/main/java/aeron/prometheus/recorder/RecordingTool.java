@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.recorder;
+
+import aeron.prometheus.Configuration;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterScanner;
+import aeron.prometheus.collector.CounterSnapshot;
+import aeron.prometheus.collector.CounterSnapshotter;
+import aeron.prometheus.exposition.ExpositionFormat;
+import aeron.prometheus.exposition.TextExpositionWriter;
+import org.agrona.ExpandableDirectByteBuffer;
+import org.agrona.concurrent.status.CountersReader;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Command line tool reading a counter recording back for post-mortems:
+ * <pre>
+ *   RecordingTool &lt;directory&gt; dump|prometheus [from] [to] [step-ms]
+ * </pre>
+ * "dump" prints the counters which changed in each sample, "prometheus" prints every sample in the Prometheus text format
+ * with the time of the sample as the timestamp of each series, e.g. to import into a time series database.
+ * The range is given as ISO-8601 instants or epoch millis and defaults to the whole recording,
+ * a step skips samples recorded less than the step after the last one printed.
+ * The counter profiles are taken from the same property as the exporter's.
+ */
+public final class RecordingTool {
+    private static final long END_OF_TIME_MS = Long.MAX_VALUE / 1_000_000L - 1;
+
+    private RecordingTool() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: RecordingTool <directory> dump|prometheus [from] [to] [step-ms]");
+            System.exit(1);
+        }
+
+        Path directory = Paths.get(args[0]);
+        long fromMs = args.length > 2 ? parseTime(args[2]) : 0;
+        long toMs = args.length > 3 ? parseTime(args[3]) : END_OF_TIME_MS;
+        long stepMs = args.length > 4 ? Long.parseLong(args[4]) : 0;
+
+        try (PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 64 * 1024), false, StandardCharsets.UTF_8)) {
+            ReplayHandler handler;
+            switch (args[1]) {
+                case "dump":
+                    handler = new Dump(out);
+                    break;
+                case "prometheus":
+                    handler = new PrometheusText(CounterRegistry.of(Configuration.counterProfiles()), out);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown command: " + args[1]);
+            }
+
+            new RecordingReader(directory).replay(fromMs, toMs, stepMs > 0 ? new Step(stepMs, handler) : handler);
+        }
+    }
+
+    static long parseTime(String time) {
+        return time.chars().allMatch(Character::isDigit) ? Long.parseLong(time) : Instant.parse(time).toEpochMilli();
+    }
+
+    /**
+     * Forwards samples at least a step apart.
+     */
+    static final class Step implements ReplayHandler {
+        private final long stepNs;
+        private final ReplayHandler handler;
+        private long nextNs = Long.MIN_VALUE;
+
+        Step(long stepMs, ReplayHandler handler) {
+            this.stepNs = stepMs * 1_000_000L;
+            this.handler = handler;
+        }
+
+        @Override
+        public void onSample(long timestampNs, CountersReader counters) {
+            if (timestampNs >= nextNs) {
+                nextNs = timestampNs + stepNs;
+                handler.onSample(timestampNs, counters);
+            }
+        }
+    }
+
+    /**
+     * Prints the counters which appeared or changed value since the previous sample, one line each.
+     */
+    static final class Dump implements ReplayHandler {
+        private final PrintStream out;
+        private final CounterScanner counterScanner = new CounterScanner();
+        private long[] values = new long[1024];
+        private int[] lastSeen = new int[1024];
+        private int sample = 1;
+
+        Dump(PrintStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void onSample(long timestampNs, CountersReader counters) {
+            sample++;
+            String time = Instant.ofEpochSecond(0, timestampNs).toString();
+            counterScanner.scan(counters, (counterId, typeId, keyBuffer, labelBuffer) -> {
+                if (counterId >= values.length) {
+                    values = Arrays.copyOf(values, Math.max(counterId + 1, values.length * 2));
+                    lastSeen = Arrays.copyOf(lastSeen, values.length);
+                }
+
+                long value = counters.getCounterValue(counterId);
+                if (lastSeen[counterId] != sample - 1 || values[counterId] != value) {
+                    out.println(time + " " + counterId + " " + typeId + " " + value + " "
+                            + labelBuffer.getStringWithoutLengthAscii(0, labelBuffer.capacity()));
+                }
+                values[counterId] = value;
+                lastSeen[counterId] = sample;
+            });
+        }
+    }
+
+    /**
+     * Prints every sample in the Prometheus text format, timestamped with the time of the sample.
+     */
+    static final class PrometheusText implements ReplayHandler {
+        private final OutputStream out;
+        private final CounterSnapshotter snapshotter;
+        private final TextExpositionWriter writer;
+        private final CounterSnapshot snapshot = new CounterSnapshot();
+        private final ExpandableDirectByteBuffer buffer = new ExpandableDirectByteBuffer(64 * 1024);
+        private final byte[] chunk = new byte[8 * 1024];
+
+        PrometheusText(CounterRegistry counterRegistry, OutputStream out) {
+            this.out = out;
+            this.snapshotter = new CounterSnapshotter(counterRegistry);
+            this.writer = new TextExpositionWriter(counterRegistry, ExpositionFormat.PROMETHEUS, true);
+        }
+
+        @Override
+        public void onSample(long timestampNs, CountersReader counters) {
+            snapshotter.fill(counters, timestampNs / 1_000_000L, snapshot);
+            int length = writer.writeCounters(snapshot, buffer, 0);
+            try {
+                for (int offset = 0; offset < length; offset += chunk.length) {
+                    int chunkLength = Math.min(chunk.length, length - offset);
+                    buffer.getBytes(offset, chunk, 0, chunkLength);
+                    out.write(chunk, 0, chunkLength);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
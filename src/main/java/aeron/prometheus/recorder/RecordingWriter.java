@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.recorder;
+
+import aeron.prometheus.collector.ExporterMetrics;
+import org.agrona.BitUtil;
+import org.agrona.DirectBuffer;
+import org.agrona.IoUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static aeron.prometheus.recorder.RecordingDescriptor.*;
+import static org.agrona.BitUtil.SIZE_OF_INT;
+
+/**
+ * Appends frames to memory mapped segment files of a fixed length, rolling to a new segment when the current one is full.
+ * <p>
+ * Segments are created at their full length and deleted oldest first once the recording exceeds the retention size,
+ * the current segment is always kept. Appending a frame is a copy into the mapping followed by an ordered write of its length,
+ * so a concurrent reader never sees a partial frame.
+ * <p>
+ * The recording thread must not stall on the file system, so a housekeeping thread creates and maps the next segment ahead of time,
+ * under a name readers ignore, and unmaps the previous segment and applies the retention after a roll.
+ * Segments are not forced to disk: readers read through the page cache and the OS writes the pages back.
+ * Not thread safe, a writer is owned by the recording thread.
+ */
+public final class RecordingWriter implements AutoCloseable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RecordingWriter.class);
+
+    private static final String PENDING_SUFFIX = ".pending";
+
+    private final Path directory;
+    private final int segmentLength;
+    private final long retentionBytes;
+    private final UnsafeBuffer segment = new UnsafeBuffer(0, 0);
+    private final ExecutorService housekeeping = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "aeron-exporter-recording-housekeeping");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private MappedByteBuffer mappedSegment;
+    private Future<MappedByteBuffer> nextSegment;
+    private long nextIndex;
+    private int position;
+    private long baseNs;
+
+    /**
+     * @param directory      directory holding the segments, created if missing.
+     * @param segmentLength  length of a segment file in bytes.
+     * @param retentionBytes total length of the segments kept, at least the current segment is kept.
+     * @throws IOException when the directory could not be created or listed.
+     */
+    public RecordingWriter(Path directory, int segmentLength, long retentionBytes) throws IOException {
+        if (segmentLength <= HEADER_LENGTH) {
+            throw new IllegalArgumentException("Segment length must exceed the header length: " + segmentLength);
+        }
+
+        this.directory = directory;
+        this.segmentLength = segmentLength;
+        this.retentionBytes = retentionBytes;
+
+        Files.createDirectories(directory);
+        for (Path path : segments(directory)) {
+            nextIndex = Math.max(nextIndex, segmentIndex(path) + 1);
+        }
+        // segments created ahead by a writer which did not close
+        List<Path> pending = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.filter(path -> path.getFileName().toString().endsWith(PENDING_SUFFIX)).forEach(pending::add);
+        }
+        for (Path path : pending) {
+            Files.deleteIfExists(path);
+        }
+        nextSegment = prepare(nextIndex);
+    }
+
+    /**
+     * @param directory directory of a recording.
+     * @return segment files of the recording, oldest first.
+     * @throws IOException when the directory could not be listed.
+     */
+    public static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (Stream<Path> paths = Files.list(directory)) {
+            paths.filter(path -> segmentIndex(path) >= 0).forEach(segments::add);
+        }
+        segments.sort((a, b) -> Long.compare(segmentIndex(a), segmentIndex(b)));
+        return segments;
+    }
+
+    /**
+     * @return true when a segment is open and a frame of the given payload length fits into it.
+     */
+    public boolean fits(int length) {
+        return mappedSegment != null && position + SIZE_OF_INT + length <= segmentLength;
+    }
+
+    /**
+     * @return largest payload a frame can carry in an empty segment.
+     */
+    public int maxFrameLength() {
+        return segmentLength - HEADER_LENGTH - SIZE_OF_INT;
+    }
+
+    /**
+     * @return time the current segment starts at, in nanos of System.nanoTime().
+     */
+    public long baseNs() {
+        return baseNs;
+    }
+
+    /**
+     * Appends a frame, which is expected to fit into the current segment.
+     *
+     * @param payload buffer holding the frame payload from offset 0.
+     * @param length  length of the payload.
+     */
+    public void append(DirectBuffer payload, int length) {
+        segment.putBytes(position + SIZE_OF_INT, payload, 0, length);
+        segment.putIntOrdered(position, length);
+        position = BitUtil.align(position + SIZE_OF_INT + length, FRAME_ALIGNMENT);
+    }
+
+    /**
+     * Switches to the segment created ahead and starts creating the following one, the previous segment is unmapped
+     * and the oldest segments beyond the retention size are deleted in the background.
+     *
+     * @param nowNs time the new segment starts at, in nanos of System.nanoTime().
+     */
+    public void roll(long nowNs) {
+        MappedByteBuffer next;
+        try {
+            next = await(nextSegment, nextIndex);
+        } catch (RuntimeException e) {
+            // tried again at the next roll
+            nextSegment = prepare(nextIndex);
+            throw e;
+        }
+        long index = nextIndex++;
+        nextSegment = prepare(nextIndex);
+
+        MappedByteBuffer previous = mappedSegment;
+        mappedSegment = next;
+        segment.wrap(next);
+        segment.putInt(MAGIC_OFFSET, MAGIC);
+        segment.putInt(VERSION_OFFSET, VERSION);
+        segment.putLong(BASE_EPOCH_NS_OFFSET, System.currentTimeMillis() * 1_000_000L);
+        position = HEADER_LENGTH;
+        baseNs = nowNs;
+
+        // the header is written before the segment is visible to readers
+        Path path = directory.resolve(segmentFileName(index));
+        try {
+            Files.move(pendingPath(index), path, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not create recording segment " + path, e);
+        }
+
+        LOGGER.atInfo().log("Recording counters into {}", path);
+        housekeeping.execute(() -> {
+            unmap(previous);
+            applyRetention(index);
+        });
+    }
+
+    @Override
+    public void close() {
+        if (housekeeping.isShutdown()) {
+            return;
+        }
+        MappedByteBuffer current = mappedSegment;
+        mappedSegment = null;
+        segment.wrap(0, 0);
+        housekeeping.execute(() -> unmap(current));
+        housekeeping.shutdown();
+        try {
+            housekeeping.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            unmap(await(nextSegment, nextIndex));
+            Files.deleteIfExists(pendingPath(nextIndex));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.atWarn().log("Could not delete the segment created ahead in {}", directory, e);
+        }
+    }
+
+    private Path pendingPath(long index) {
+        return directory.resolve(segmentFileName(index) + PENDING_SUFFIX);
+    }
+
+    private Future<MappedByteBuffer> prepare(long index) {
+        Path path = pendingPath(index);
+        return housekeeping.submit(() -> {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentLength);
+                ExporterMetrics.MAPPED_BYTES.inc(segmentLength);
+                return mapped;
+            }
+        });
+    }
+
+    private MappedByteBuffer await(Future<MappedByteBuffer> future, long index) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while creating recording segment " + segmentFileName(index), e);
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException("Could not create recording segment " + segmentFileName(index),
+                    e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause()));
+        }
+    }
+
+    private void applyRetention(long currentIndex) {
+        try {
+            List<Path> segments = segments(directory);
+            long total = 0;
+            for (Path path : segments) {
+                total += Files.size(path);
+            }
+
+            for (Path path : segments) {
+                if (total <= retentionBytes || segmentIndex(path) >= currentIndex) {
+                    break;
+                }
+                long size = Files.size(path);
+                Files.deleteIfExists(path);
+                total -= size;
+            }
+        } catch (IOException e) {
+            LOGGER.atWarn().log("Could not apply the retention of the recording in {}", directory, e);
+        }
+    }
+
+    private void unmap(MappedByteBuffer mapped) {
+        if (mapped != null) {
+            IoUtil.unmap(mapped);
+            ExporterMetrics.MAPPED_BYTES.dec(segmentLength);
+        }
+    }
+}
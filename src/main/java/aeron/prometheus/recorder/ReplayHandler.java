@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.recorder;
+
+import org.agrona.concurrent.status.CountersReader;
+
+/**
+ * Receives the samples of a recording being replayed, see {@link RecordingReader}.
+ */
+@FunctionalInterface
+public interface ReplayHandler {
+    /**
+     * @param timestampNs time of the sample in epoch nanos.
+     * @param counters    counters as they were at the time of the sample, only valid during the call.
+     */
+    void onSample(long timestampNs, CountersReader counters);
+}
@@ -142,6 +142,54 @@ class AeronCollectorTest {
         driver.close();
     }
 
+    @Test
+    @Timeout(10)
+    public void shouldReturnStreamCountersWithLabels() throws Exception {
+        //given
+        MediaDriver driver = MediaDriver.launch(new MediaDriver.Context()
+                .dirDeleteOnShutdown(true)
+                .errorHandler(Throwable::printStackTrace));
+
+        Aeron client = Aeron.connect();
+        Subscription subscription = client.addSubscription(CHANNEL, 7);
+        ConcurrentPublication publication = client.addPublication(CHANNEL, 7);
+
+        while (!publication.isConnected()) {
+            sleep(10);
+        }
+
+        //when
+        List<Collector.MetricFamilySamples> mfs = collector.collect();
+
+        //then
+        assertAll(
+                () -> assertStreamSample(mfs, "aeron_publisher_limit", publication.sessionId()),
+                () -> assertStreamSample(mfs, "aeron_publisher_position", publication.sessionId()),
+                () -> assertStreamSample(mfs, "aeron_sender_position", publication.sessionId()),
+                () -> assertStreamSample(mfs, "aeron_receiver_hwm", publication.sessionId()),
+                () -> assertStreamSample(mfs, "aeron_subscriber_position", publication.sessionId()),
+                () -> assertTrue(mfs.stream().anyMatch(m -> "aeron_client_heartbeat_timestamp".equals(m.name))),
+                () -> assertTrue(mfs.stream().anyMatch(m -> "aeron_client_heartbeat_age_ms".equals(m.name) && !m.samples.isEmpty()))
+        );
+
+        client.close();
+        driver.close();
+    }
+
+    private static void assertStreamSample(List<Collector.MetricFamilySamples> mfs, String family, int sessionId) {
+        Collector.MetricFamilySamples samples = mfs.stream()
+                .filter(m -> family.equals(m.name))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("Missing family " + family));
+
+        assertTrue(samples.samples.stream().anyMatch(s ->
+                        s.labelNames.equals(List.of("registration_id", "session_id", "stream_id", "channel"))
+                                && s.labelValues.get(1).equals(Integer.toString(sessionId))
+                                && s.labelValues.get(2).equals("7")
+                                && s.labelValues.get(3).equals(CHANNEL)),
+                "Missing stream sample in " + family);
+    }
+
     @Test
     @DisplayName("Generate temp cnc file in a default folder /dev/shm/aeron-{user}/cnc.dat")
     @Disabled
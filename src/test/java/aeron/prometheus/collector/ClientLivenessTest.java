@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ClientLivenessTest {
+
+    @Mock
+    CncFileReader cncFileReader;
+
+    CountersManager countersManager;
+    CounterSnapshotter snapshotter;
+
+    @BeforeEach
+    public void init() {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        snapshotter = new CounterSnapshotter(cncFileReader, CounterRegistry.driverCounters());
+    }
+
+    @Test
+    public void shouldCountPublicationsAndSubscriptionsByOwner() throws Exception {
+        allocateHeartbeat(1, System.currentTimeMillis());
+        allocateHeartbeat(2, System.currentTimeMillis());
+        allocateStreamCounter(CounterTypes.PUBLISHER_LIMIT, 5, 1);
+        allocateStreamCounter(CounterTypes.PUBLISHER_LIMIT, 6, 1);
+        allocateStreamCounter(CounterTypes.SUBSCRIBER_POSITION, 7, 1);
+        allocateStreamCounter(CounterTypes.SUBSCRIBER_POSITION, 7, 1);
+        allocateStreamCounter(CounterTypes.SUBSCRIBER_POSITION, 8, 2);
+
+        Map<String, Long> gauges = fill();
+
+        assertAll(
+                () -> assertEquals(2L, gauges.get("aeron_client_publications{client_id=\"1\"}")),
+                () -> assertEquals(1L, gauges.get("aeron_client_subscriptions{client_id=\"1\"}")),
+                () -> assertEquals(0L, gauges.get("aeron_client_publications{client_id=\"2\"}")),
+                () -> assertEquals(1L, gauges.get("aeron_client_subscriptions{client_id=\"2\"}")),
+                () -> assertEquals(0L, gauges.get("aeron_client_stale{client_id=\"1\"}"))
+        );
+    }
+
+    @Test
+    public void shouldDetectStaleClientsAgainstLivenessTimeout() throws Exception {
+        when(cncFileReader.clientLivenessTimeoutNs()).thenReturn(TimeUnit.SECONDS.toNanos(5));
+        allocateHeartbeat(1, System.currentTimeMillis() - 6_000);
+        allocateHeartbeat(2, System.currentTimeMillis() - 1_000);
+
+        Map<String, Long> gauges = fill();
+
+        assertAll(
+                () -> assertEquals(1L, gauges.get("aeron_client_stale{client_id=\"1\"}")),
+                () -> assertEquals(0L, gauges.get("aeron_client_stale{client_id=\"2\"}")),
+                () -> assertTrue(gauges.get("aeron_client_heartbeat_age_ms{client_id=\"1\"}") >= 6_000),
+                () -> assertTrue(gauges.get("aeron_client_heartbeat_age_ms{client_id=\"2\"}") < 6_000)
+        );
+    }
+
+    @Test
+    public void shouldForgetClientsWhoseCountersAreGone() throws Exception {
+        allocateHeartbeat(1, System.currentTimeMillis());
+        int heartbeat = allocateHeartbeat(2, System.currentTimeMillis());
+        int publication = allocateStreamCounter(CounterTypes.PUBLISHER_LIMIT, 5, 2);
+        fill();
+
+        countersManager.free(heartbeat);
+        countersManager.free(publication);
+        Map<String, Long> gauges = fill();
+
+        assertAll(
+                () -> assertNull(gauges.get("aeron_client_publications{client_id=\"2\"}")),
+                () -> assertEquals(0L, gauges.get("aeron_client_publications{client_id=\"1\"}"))
+        );
+    }
+
+    @Test
+    public void shouldTrackClientsIncrementally() {
+        ClientLiveness liveness = new ClientLiveness(CounterRegistry.driverCounters());
+        CounterSnapshot snapshot = new CounterSnapshot();
+        UnsafeBuffer key = new UnsafeBuffer(new byte[8]);
+
+        key.putLong(0, 1);
+        liveness.onCounter(CounterTypes.PUBLISHER_LIMIT, key, 0, 3);
+        liveness.onCounter(CounterTypes.PUBLISHER_LIMIT, key, 1, 4);
+        liveness.derive(snapshot, 0, 0);
+        assertEquals(2, liveness.clientCount());
+
+        liveness.onCounter(CounterTypes.PUBLISHER_LIMIT, key, 0, 4);
+        liveness.derive(snapshot, 0, 0);
+        assertAll(
+                () -> assertEquals(1, liveness.clientCount()),
+                () -> assertEquals(0, snapshot.count())
+        );
+    }
+
+    private Map<String, Long> fill() throws Exception {
+        when(cncFileReader.getCountersReader()).thenReturn(countersManager);
+        CounterSnapshot snapshot = new CounterSnapshot();
+        snapshotter.fill(snapshot);
+
+        Map<String, Long> values = new HashMap<>();
+        for (int i = 0; i < snapshot.count(); i++) {
+            values.put(new String(snapshot.nameBytes(i)) + new String(snapshot.labelBytes(i)), snapshot.value(i));
+        }
+        return values;
+    }
+
+    private int allocateHeartbeat(long clientId, long timestampMs) {
+        int counterId = countersManager.allocate("client-heartbeat: " + clientId, CounterTypes.CLIENT_HEARTBEAT, key -> key.putLong(0, clientId));
+        countersManager.setCounterValue(counterId, timestampMs);
+        return counterId;
+    }
+
+    private int allocateStreamCounter(int typeId, long registrationId, long clientId) {
+        int counterId = countersManager.allocate("position", typeId, key -> {
+            key.putLong(0, registrationId);
+            key.putInt(8, (int) registrationId);
+            key.putInt(12, 7);
+            key.putStringAscii(16, "aeron:udp");
+        });
+        countersManager.setCounterOwnerId(counterId, clientId);
+        return counterId;
+    }
+}
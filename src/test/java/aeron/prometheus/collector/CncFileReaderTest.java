@@ -16,16 +16,19 @@
 package aeron.prometheus.collector;
 
 import io.aeron.Aeron;
+import io.aeron.CncFileDescriptor;
 import io.aeron.driver.MediaDriver;
 import org.agrona.concurrent.status.CountersReader;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
 
 import java.io.IOException;
 import java.nio.file.Paths;
 
-import static org.junit.jupiter.api.Assertions.assertNotNull;
-import static org.junit.jupiter.api.Assertions.assertThrows;
+import static java.lang.Thread.sleep;
+import static org.junit.jupiter.api.Assertions.*;
 
 class CncFileReaderTest {
 
@@ -36,6 +39,11 @@ class CncFileReaderTest {
         cncFileReader = new CncFileReader();
     }
 
+    @AfterEach
+    public void close() {
+        cncFileReader.close();
+    }
+
     @Test
     public void shouldFailForMissingCncFile() {
         System.setProperty("aeron.dir", Paths.get("./temp").toString());
@@ -57,4 +65,98 @@ class CncFileReaderTest {
         driver.close();
     }
 
+    @Test
+    public void shouldKeepMappingAcrossReads() throws Exception {
+        MediaDriver driver = launchDriver();
+
+        CountersReader first = cncFileReader.getCountersReader();
+        CountersReader second = cncFileReader.getCountersReader();
+
+        assertAll(
+                () -> assertSame(first, second),
+                () -> assertEquals(1, cncFileReader.mappingGeneration())
+        );
+
+        driver.close();
+    }
+
+    @Test
+    public void shouldExposeMetadataAndBuffersOfDriver() throws Exception {
+        MediaDriver driver = launchDriver();
+
+        cncFileReader.getCountersReader();
+
+        assertAll(
+                () -> assertEquals(CncFileDescriptor.CNC_VERSION, cncFileReader.cncVersion()),
+                () -> assertEquals(driver.context().clientLivenessTimeoutNs(), cncFileReader.clientLivenessTimeoutNs()),
+                () -> assertEquals(driver.context().conductorBufferLength(), cncFileReader.toDriverBuffer().capacity()),
+                () -> assertEquals(driver.context().toClientsBufferLength(), cncFileReader.toClientsBuffer().capacity())
+        );
+
+        driver.close();
+        cncFileReader.close();
+        assertNull(cncFileReader.toDriverBuffer());
+    }
+
+    @Test
+    @Timeout(20)
+    public void shouldRemapWhenMediaDriverRestarts() throws Exception {
+        MediaDriver driver = launchDriver();
+        CountersReader beforeRestart = cncFileReader.getCountersReader();
+        long startTimestampBeforeRestart = cncFileReader.startTimestampMs();
+        driver.close();
+
+        assertThrows(IOException.class, () -> cncFileReader.getCountersReader());
+
+        sleep(10);
+        driver = launchDriver();
+        CountersReader afterRestart = cncFileReader.getCountersReader();
+
+        assertAll(
+                () -> assertNotSame(beforeRestart, afterRestart),
+                () -> assertEquals(2, cncFileReader.mappingGeneration()),
+                () -> assertNotEquals(startTimestampBeforeRestart, cncFileReader.startTimestampMs()),
+                () -> assertEquals(ProcessHandle.current().pid(), cncFileReader.pid())
+        );
+
+        driver.close();
+    }
+
+    @Test
+    @Timeout(20)
+    public void shouldRemapWhenMediaDriverIsReplacedBetweenReads() throws Exception {
+        MediaDriver driver = launchDriver();
+        cncFileReader.getCountersReader();
+        driver.close();
+
+        sleep(10);
+        driver = launchDriver();
+        cncFileReader.getCountersReader();
+
+        assertEquals(2, cncFileReader.mappingGeneration());
+
+        driver.close();
+    }
+
+    @Test
+    public void shouldMapAgainAfterClose() throws Exception {
+        MediaDriver driver = launchDriver();
+        cncFileReader.getCountersReader();
+
+        cncFileReader.close();
+        CountersReader countersReader = cncFileReader.getCountersReader();
+
+        assertAll(
+                () -> assertNotNull(countersReader),
+                () -> assertEquals(2, cncFileReader.mappingGeneration())
+        );
+
+        driver.close();
+    }
+
+    private static MediaDriver launchDriver() {
+        return MediaDriver.launch(new MediaDriver.Context()
+                .dirDeleteOnShutdown(true)
+                .errorHandler(Throwable::printStackTrace));
+    }
 }
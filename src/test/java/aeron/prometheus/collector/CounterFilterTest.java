@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package aeron.prometheus.collector;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CounterFilterTest {
+
+    @Mock
+    CncFileReader cncFileReader;
+
+    CountersManager countersManager;
+
+    @BeforeEach
+    public void init() throws Exception {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        when(cncFileReader.getCountersReader()).thenReturn(countersManager);
+
+        countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        countersManager.allocate("Errors", CounterTypes.SYSTEM);
+        allocateStreamCounter("pub-pos: 5 6 7 aeron:ipc", CounterTypes.PUBLISHER_POSITION, 5, 6, "aeron:ipc");
+        allocateStreamCounter("pub-pos: 8 9 7 aeron:udp?endpoint=localhost:40123", CounterTypes.PUBLISHER_POSITION, 8, 9, "aeron:udp?endpoint=localhost:40123");
+        allocateStreamCounter("sub-pos: 10 12 7 aeron:udp?endpoint=localhost:40123", CounterTypes.SUBSCRIBER_POSITION, 10, 12, "aeron:udp?endpoint=localhost:40123");
+    }
+
+    @Test
+    public void shouldAcceptAllWithoutRules() {
+        assertEquals(5, fill(CounterFilter.ACCEPT_ALL).size());
+    }
+
+    @Test
+    public void shouldFilterByTypeId() {
+        Set<String> included = fill(new CounterFilter(Set.of(CounterTypes.PUBLISHER_POSITION), Set.of(), null, null, null, null));
+        Set<String> excluded = fill(new CounterFilter(Set.of(), Set.of(CounterTypes.SYSTEM), null, null, null, null));
+
+        assertAll(
+                () -> assertEquals(Set.of("aeron_publisher_position:5", "aeron_publisher_position:8"), included),
+                () -> assertEquals(Set.of("aeron_publisher_position:5", "aeron_publisher_position:8", "aeron_subscriber_position:10"), excluded)
+        );
+    }
+
+    @Test
+    public void shouldFilterByLabelPattern() {
+        Set<String> included = fill(new CounterFilter(Set.of(), Set.of(), Pattern.compile("^Bytes"), null, null, null));
+        Set<String> excluded = fill(new CounterFilter(Set.of(), Set.of(), null, Pattern.compile("pos:"), null, null));
+
+        assertAll(
+                () -> assertEquals(Set.of("aeron_bytes_sent:"), included),
+                () -> assertEquals(Set.of("aeron_bytes_sent:", "aeron_errors:"), excluded)
+        );
+    }
+
+    @Test
+    public void shouldFilterByChannelOnlyCountersWithAChannel() {
+        Set<String> included = fill(new CounterFilter(Set.of(), Set.of(), null, null, Pattern.compile("aeron:ipc"), null));
+        Set<String> excluded = fill(new CounterFilter(Set.of(), Set.of(), null, null, null, Pattern.compile("endpoint=localhost")));
+
+        assertAll(
+                () -> assertEquals(Set.of("aeron_bytes_sent:", "aeron_errors:", "aeron_publisher_position:5"), included),
+                () -> assertEquals(Set.of("aeron_bytes_sent:", "aeron_errors:", "aeron_publisher_position:5"), excluded)
+        );
+    }
+
+    @Test
+    public void shouldReconsiderReusedCounterIds() {
+        CounterSnapshotter snapshotter = new CounterSnapshotter(
+                cncFileReader, CounterRegistry.driverCounters(), null, null, new CounterFilter(Set.of(), Set.of(), null, null, null, Pattern.compile("udp")), 0);
+        CounterSnapshot snapshot = new CounterSnapshot();
+        snapshotter.fill(snapshot);
+        assertEquals(3, snapshot.count());
+
+        countersManager.free(3);
+        int counterId = allocateStreamCounter("pub-pos: 11 9 7 aeron:ipc", CounterTypes.PUBLISHER_POSITION, 11, 9, "aeron:ipc");
+        snapshotter.fill(snapshot);
+
+        assertAll(
+                () -> assertEquals(3, counterId),
+                () -> assertEquals(4, snapshot.count()),
+                () -> assertEquals(List.of("11", "9", "7", "aeron:ipc"), snapshot.labelValues(3))
+        );
+    }
+
+    private Set<String> fill(CounterFilter filter) {
+        CounterSnapshotter snapshotter = new CounterSnapshotter(cncFileReader, CounterRegistry.driverCounters(), null, null, filter, 0);
+        CounterSnapshot snapshot = new CounterSnapshot();
+        snapshotter.fill(snapshot);
+
+        Set<String> series = new HashSet<>();
+        for (int i = 0; i < snapshot.count(); i++) {
+            List<String> labelValues = snapshot.labelValues(i);
+            series.add(snapshot.name(i) + ":" + (labelValues.isEmpty() ? "" : labelValues.get(0)));
+        }
+        return series;
+    }
+
+    private int allocateStreamCounter(String label, int typeId, long registrationId, int sessionId, String channel) {
+        return countersManager.allocate(label, typeId, key -> {
+            key.putLong(0, registrationId);
+            key.putInt(8, sessionId);
+            key.putInt(12, 7);
+            key.putStringAscii(16, channel);
+        });
+    }
+}
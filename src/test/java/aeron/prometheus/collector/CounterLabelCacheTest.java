@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CounterLabelCacheTest {
+
+    CountersManager countersManager;
+    CounterScanner scanner;
+    CounterLabelCache labelCache;
+    CounterRegistry registry;
+
+    @BeforeEach
+    public void init() {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        scanner = new CounterScanner();
+        labelCache = new CounterLabelCache();
+        registry = CounterRegistry.driverCounters();
+    }
+
+    @Test
+    public void shouldParseStreamKeyIntoLabels() {
+        allocateStreamCounter(CounterTypes.PUBLISHER_LIMIT, 42, 7, 1001, "aeron:ipc");
+
+        List<String> labels = scanLabels().get(0);
+
+        assertEquals(List.of("42", "7", "1001", "aeron:ipc"), labels);
+    }
+
+    @Test
+    public void shouldStopChannelAtFirstNul() {
+        countersManager.allocate("stream counter", CounterTypes.PUBLISHER_LIMIT, key -> {
+            key.putLong(0, 42);
+            key.putInt(8, 7);
+            key.putInt(12, 1001);
+            key.putInt(16, 40);
+            key.putStringWithoutLengthAscii(20, "aeron:udp?endpoint=localhost:2");
+        });
+
+        List<String> labels = scanLabels().get(0);
+
+        assertEquals(List.of("42", "7", "1001", "aeron:udp?endpoint=localhost:2"), labels);
+    }
+
+    @Test
+    public void shouldReuseLabelsForUnchangedCounter() {
+        allocateStreamCounter(CounterTypes.PUBLISHER_LIMIT, 42, 7, 1001, "aeron:ipc");
+
+        List<String> first = scanLabels().get(0);
+        List<String> second = scanLabels().get(0);
+
+        assertSame(first, second);
+    }
+
+    @Test
+    public void shouldParseAgainWhenCounterIdIsReused() {
+        int counterId = allocateStreamCounter(CounterTypes.PUBLISHER_LIMIT, 42, 7, 1001, "aeron:ipc");
+        List<String> first = scanLabels().get(0);
+
+        countersManager.free(counterId);
+        assertEquals(counterId, allocateStreamCounter(CounterTypes.PUBLISHER_LIMIT, 43, 8, 1001, "aeron:ipc"));
+        List<String> second = scanLabels().get(0);
+
+        assertAll(
+                () -> assertNotSame(first, second),
+                () -> assertEquals(List.of("43", "8", "1001", "aeron:ipc"), second)
+        );
+    }
+
+    @Test
+    public void shouldExportUnknownTypeWithTypeIdAndLabel() {
+        countersManager.allocate("custom counter", 1234);
+
+        List<String> labels = scanLabels().get(0);
+
+        assertEquals(List.of("1234", "custom counter"), labels);
+    }
+
+    private int allocateStreamCounter(int typeId, long registrationId, int sessionId, int streamId, String channel) {
+        return countersManager.allocate("stream counter", typeId, key -> {
+            key.putLong(0, registrationId);
+            key.putInt(8, sessionId);
+            key.putInt(12, streamId);
+            key.putStringAscii(16, channel);
+        });
+    }
+
+    private List<List<String>> scanLabels() {
+        List<List<String>> labels = new ArrayList<>();
+        scanner.scan(countersManager, (counterId, typeId, keyBuffer, labelBuffer) ->
+                labels.add(labelCache.labelValues(counterId, typeId, registry.family(typeId).keyLayout(), keyBuffer, labelBuffer)));
+        return labels;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CounterProfileTest {
+
+    @Mock
+    CncFileReader cncFileReader;
+
+    CountersManager countersManager;
+
+    @BeforeEach
+    public void init() {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+
+        int recordingPosition = countersManager.allocate("rec-pos: 3 4 1001 aeron:udp?endpoint=localhost:40123", CounterTypes.ARCHIVE_RECORDING_POSITION, key -> {
+            key.putLong(0, 3);
+            key.putInt(8, 4);
+            key.putStringAscii(12, "127.0.0.1:40124");
+        });
+        countersManager.setCounterValue(recordingPosition, 4096);
+        int role = countersManager.allocate("Cluster node role - clusterId=0", CounterTypes.CLUSTER_NODE_ROLE, key -> key.putInt(0, 0));
+        countersManager.setCounterValue(role, 2);
+        countersManager.allocate("Cluster service errors - clusterId=0 serviceId=1", CounterTypes.CLUSTER_SERVICE_ERROR_COUNT, key -> {
+            key.putInt(0, 0);
+            key.putInt(4, 1);
+        });
+    }
+
+    @Test
+    public void shouldExportArchiveAndClusterCountersWithTheirProfiles() throws Exception {
+        List<String> series = fill(CounterRegistry.of(List.of(CounterProfile.DRIVER, CounterProfile.ARCHIVE, CounterProfile.CLUSTER)));
+
+        assertEquals(List.of(
+                "aeron_archive_recording_position{recording_id=\"3\",session_id=\"4\",stream_id=\"1001\",source_identity=\"127.0.0.1:40124\"} 4096",
+                "aeron_cluster_node_role{cluster_id=\"0\"} 2",
+                "aeron_cluster_service_errors{cluster_id=\"0\",service_id=\"1\"} 0"), series);
+    }
+
+    @Test
+    public void shouldExportCountersOfUnselectedProfilesAsGeneric() throws Exception {
+        List<String> series = fill(CounterRegistry.of(List.of(CounterProfile.DRIVER, CounterProfile.CLUSTER)));
+
+        assertEquals(List.of(
+                "aeron_counter{type_id=\"100\",label=\"rec-pos: 3 4 1001 aeron:udp?endpoint=localhost:40123\"} 4096",
+                "aeron_cluster_node_role{cluster_id=\"0\"} 2",
+                "aeron_cluster_service_errors{cluster_id=\"0\",service_id=\"1\"} 0"), series);
+    }
+
+    @Test
+    public void shouldRejectOverlappingProfiles() {
+        assertThrows(IllegalArgumentException.class, () -> CounterRegistry.of(List.of(CounterProfile.CLUSTER, CounterProfile.CLUSTER)));
+    }
+
+    private List<String> fill(CounterRegistry registry) throws Exception {
+        when(cncFileReader.getCountersReader()).thenReturn(countersManager);
+        CounterSnapshot snapshot = new CounterSnapshot();
+        new CounterSnapshotter(cncFileReader, registry).fill(snapshot);
+
+        List<String> series = new ArrayList<>();
+        for (int i = 0; i < snapshot.count(); i++) {
+            series.add(new String(snapshot.nameBytes(i)) + new String(snapshot.labelBytes(i)) + " " + snapshot.value(i));
+        }
+        return series;
+    }
+}
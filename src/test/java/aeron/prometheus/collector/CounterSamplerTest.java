@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import io.aeron.driver.MediaDriver;
+import io.prometheus.client.Collector;
+import org.agrona.CloseHelper;
+import org.agrona.concurrent.AgentRunner;
+import org.agrona.concurrent.SleepingMillisIdleStrategy;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.Thread.sleep;
+import static org.junit.jupiter.api.Assertions.*;
+
+class CounterSamplerTest {
+
+    MediaDriver driver;
+    CncFileReader cncFileReader;
+    CounterSampler sampler;
+
+    @BeforeEach
+    public void init() {
+        driver = MediaDriver.launch(new MediaDriver.Context()
+                .dirDeleteOnShutdown(true)
+                .errorHandler(Throwable::printStackTrace));
+        cncFileReader = new CncFileReader();
+        sampler = new CounterSampler(new CounterSnapshotter(cncFileReader, CounterRegistry.driverCounters()), 0, TimeUnit.MILLISECONDS);
+    }
+
+    @AfterEach
+    public void close() {
+        cncFileReader.close();
+        driver.close();
+    }
+
+    @Test
+    public void shouldServeEmptySnapshotBeforeFirstSample() {
+        CounterSnapshot snapshot = sampler.acquire();
+
+        assertAll(
+                () -> assertEquals(0, snapshot.sequence()),
+                () -> assertEquals(0, snapshot.count())
+        );
+
+        sampler.release(snapshot);
+    }
+
+    @Test
+    public void shouldPublishSampledCounters() {
+        assertEquals(1, sampler.doWork());
+
+        CounterSnapshot snapshot = sampler.acquire();
+
+        assertAll(
+                () -> assertEquals(1, snapshot.sequence()),
+                () -> assertFalse(snapshot.failed()),
+                () -> assertTrue(snapshot.count() > 0)
+        );
+
+        sampler.release(snapshot);
+    }
+
+    @Test
+    public void shouldKeepAcquiredSnapshotUnchanged() {
+        sampler.doWork();
+        CounterSnapshot held = sampler.acquire();
+
+        assertEquals(1, sampler.doWork(), "Second buffer is free");
+        assertEquals(0, sampler.doWork(), "First buffer is still held by a reader");
+        assertEquals(1, held.sequence());
+
+        sampler.release(held);
+        assertEquals(1, sampler.doWork());
+        assertEquals(2, held.sequence());
+    }
+
+    @Test
+    @Timeout(10)
+    public void shouldServeSnapshotsFromSamplerThread() throws Exception {
+        sampler = new CounterSampler(new CounterSnapshotter(cncFileReader, CounterRegistry.driverCounters()), 1, TimeUnit.MILLISECONDS);
+        AgentRunner runner = new AgentRunner(new SleepingMillisIdleStrategy(1), Throwable::printStackTrace, null, sampler);
+        AgentRunner.startOnThread(runner);
+        try {
+            AeronCollector collector = new AeronCollector(sampler);
+            List<Collector.MetricFamilySamples> mfs = collector.collect();
+            while (mfs.stream().noneMatch(m -> "aeron".equals(m.name))) {
+                sleep(1);
+                mfs = collector.collect();
+            }
+
+            assertTrue(mfs.stream().anyMatch(m -> "aeron_exporter_snapshot_age_seconds".equals(m.name)));
+        } finally {
+            CloseHelper.close(runner);
+        }
+    }
+}
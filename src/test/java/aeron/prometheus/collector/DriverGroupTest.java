@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import io.aeron.driver.MediaDriver;
+import org.agrona.CloseHelper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class DriverGroupTest {
+
+    @TempDir
+    Path parent;
+
+    MediaDriver driverA;
+    MediaDriver driverB;
+    DriverGroup driverGroup;
+
+    @BeforeEach
+    public void init() {
+        driverA = launch(parent.resolve("aeron-a"));
+        driverB = launch(parent.resolve("aeron-b"));
+
+        CounterRegistry counterRegistry = CounterRegistry.driverCounters();
+        driverGroup = DriverGroup.discovering(
+                counterRegistry,
+                new DriverDirectories(List.of(), parent),
+                (name, aeronDir) -> {
+                    SynchronousSnapshotSource source = new SynchronousSnapshotSource(
+                            new CounterSnapshotter(new CncFileReader(aeronDir), counterRegistry, null, name));
+                    return new Driver(name, source, source);
+                },
+                0, TimeUnit.MILLISECONDS);
+    }
+
+    @AfterEach
+    public void close() {
+        CloseHelper.closeAll(driverGroup, driverA, driverB);
+    }
+
+    @Test
+    @Timeout(10)
+    public void shouldDiscoverDriversInParentDirectory() {
+        List<Driver> drivers = driverGroup.drivers();
+
+        assertAll(
+                () -> assertEquals(2, drivers.size()),
+                () -> assertEquals("aeron-a", drivers.get(0).name()),
+                () -> assertEquals("aeron-b", drivers.get(1).name())
+        );
+    }
+
+    @Test
+    @Timeout(10)
+    public void shouldLabelCountersOfEachDriver() {
+        List<Driver> drivers = driverGroup.drivers();
+        CounterSnapshot[] snapshots = new CounterSnapshot[drivers.size()];
+
+        driverGroup.acquire(drivers, snapshots);
+        try {
+            for (int i = 0; i < snapshots.length; i++) {
+                CounterSnapshot snapshot = snapshots[i];
+                assertFalse(snapshot.failed());
+                assertTrue(snapshot.count() > 0);
+                assertEquals(CounterSnapshotter.DRIVER_LABEL, snapshot.labelNames(0).get(0));
+                assertEquals(drivers.get(i).name(), snapshot.labelValues(0).get(0));
+            }
+        } finally {
+            driverGroup.release(drivers, snapshots);
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    public void shouldDropDriverWhenItGoesAway() {
+        assertEquals(2, driverGroup.drivers().size());
+
+        driverB.close();
+        driverB = null;
+
+        List<Driver> drivers = driverGroup.drivers();
+        assertAll(
+                () -> assertEquals(1, drivers.size()),
+                () -> assertEquals("aeron-a", drivers.get(0).name())
+        );
+    }
+
+    @Test
+    public void shouldServeSingleDriverWithoutLabel() {
+        SnapshotSource source = new SynchronousSnapshotSource(
+                new CounterSnapshotter(new CncFileReader(parent.resolve("aeron-a")), CounterRegistry.driverCounters()));
+        DriverGroup single = DriverGroup.single(source);
+
+        List<Driver> drivers = single.drivers();
+        assertAll(
+                () -> assertEquals(1, drivers.size()),
+                () -> assertNull(drivers.get(0).name()),
+                () -> assertEquals(0, drivers.get(0).labelBytes().length)
+        );
+        single.close();
+    }
+
+    private static MediaDriver launch(Path aeronDir) {
+        return MediaDriver.launch(new MediaDriver.Context()
+                .aeronDirectoryName(aeronDir.toString())
+                .dirDeleteOnShutdown(true)
+                .errorHandler(Throwable::printStackTrace));
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import io.aeron.CncFileDescriptor;
+import org.agrona.BitUtil;
+import org.agrona.SemanticVersion;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.broadcast.BroadcastBufferDescriptor;
+import org.agrona.concurrent.broadcast.BroadcastTransmitter;
+import org.agrona.concurrent.broadcast.RecordDescriptor;
+import org.agrona.concurrent.ringbuffer.ManyToOneRingBuffer;
+import org.agrona.concurrent.ringbuffer.RingBufferDescriptor;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class DriverMetadataTest {
+    private static final int BUFFER_LENGTH = 1024;
+
+    @Mock
+    CncFileReader cncFileReader;
+
+    CountersManager countersManager;
+    CounterSnapshotter snapshotter;
+    UnsafeBuffer toDriver;
+    UnsafeBuffer toClients;
+
+    @BeforeEach
+    public void init() throws Exception {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        when(cncFileReader.getCountersReader()).thenReturn(countersManager);
+        snapshotter = new CounterSnapshotter(cncFileReader, CounterRegistry.driverCounters(), null, "a");
+        toDriver = new UnsafeBuffer(ByteBuffer.allocateDirect(BUFFER_LENGTH + RingBufferDescriptor.TRAILER_LENGTH));
+        toClients = new UnsafeBuffer(ByteBuffer.allocateDirect(BUFFER_LENGTH + BroadcastBufferDescriptor.TRAILER_LENGTH));
+    }
+
+    @Test
+    public void shouldExportMetadataAndBufferLengths() {
+        map(1234, 1);
+        when(cncFileReader.startTimestampMs()).thenReturn(1_600_000_000_000L);
+        when(cncFileReader.clientLivenessTimeoutNs()).thenReturn(TimeUnit.SECONDS.toNanos(10));
+
+        Map<String, Long> gauges = fill();
+
+        String version = SemanticVersion.toString(CncFileDescriptor.CNC_VERSION);
+        assertAll(
+                () -> assertEquals(1L, gauges.get("aeron_driver_info{driver=\"a\",cnc_version=\"" + version + "\",pid=\"1234\"}")),
+                () -> assertEquals(1_600_000_000_000L, gauges.get("aeron_driver_start_timestamp_ms{driver=\"a\"}")),
+                () -> assertEquals(TimeUnit.SECONDS.toNanos(10), gauges.get("aeron_driver_client_liveness_timeout_ns{driver=\"a\"}")),
+                () -> assertEquals((long) toDriver.capacity(), gauges.get("aeron_driver_buffer_length_bytes{driver=\"a\",buffer=\"to_driver\"}")),
+                () -> assertEquals((long) toClients.capacity(), gauges.get("aeron_driver_buffer_length_bytes{driver=\"a\",buffer=\"to_clients\"}")),
+                () -> assertEquals(64L * 128, gauges.get("aeron_driver_buffer_length_bytes{driver=\"a\",buffer=\"counters_values\"}")),
+                () -> assertEquals(4096L, gauges.get("aeron_driver_buffer_length_bytes{driver=\"a\",buffer=\"error_log\"}"))
+        );
+    }
+
+    @Test
+    public void shouldReadUnconsumedCommandsAndBroadcastTail() {
+        map(1234, 1);
+        ManyToOneRingBuffer ringBuffer = new ManyToOneRingBuffer(toDriver);
+        ringBuffer.consumerHeartbeatTime(System.currentTimeMillis() - 5_000);
+        UnsafeBuffer message = new UnsafeBuffer(new byte[16]);
+        assertTrue(ringBuffer.write(1, message, 0, message.capacity()));
+        assertTrue(ringBuffer.write(1, message, 0, message.capacity()));
+        new BroadcastTransmitter(toClients).transmit(1, message, 0, message.capacity());
+
+        Map<String, Long> gauges = fill();
+
+        assertAll(
+                () -> assertEquals((long) ringBuffer.size(), gauges.get("aeron_driver_to_driver_buffer_used_bytes{driver=\"a\"}")),
+                () -> assertTrue(gauges.get("aeron_driver_heartbeat_age_ms{driver=\"a\"}") >= 5_000),
+                () -> assertEquals((long) BitUtil.align(message.capacity() + RecordDescriptor.HEADER_LENGTH, RecordDescriptor.RECORD_ALIGNMENT),
+                        gauges.get("aeron_driver_to_clients_tail_bytes{driver=\"a\"}"))
+        );
+
+        ringBuffer.read((msgTypeId, buffer, index, length) -> {
+        });
+        assertEquals(0L, fill().get("aeron_driver_to_driver_buffer_used_bytes{driver=\"a\"}"));
+    }
+
+    @Test
+    public void shouldDeriveRateOfBroadcastTail() throws Exception {
+        map(1234, 1);
+        CounterRegistry counterRegistry = CounterRegistry.driverCounters();
+        snapshotter = new CounterSnapshotter(cncFileReader, counterRegistry, new RateEngine(counterRegistry, 0, 1, TimeUnit.SECONDS), "a");
+        CounterSnapshot snapshot = new CounterSnapshot();
+        snapshotter.fill(snapshot);
+
+        new BroadcastTransmitter(toClients).transmit(1, new UnsafeBuffer(new byte[16]), 0, 16);
+        Thread.sleep(10);
+        snapshotter.fill(snapshot);
+
+        int tail = -1;
+        for (int i = 0; i < snapshot.count(); i++) {
+            if (snapshot.typeId(i) == CounterTypes.TO_CLIENTS_TAIL) {
+                tail = i;
+            }
+        }
+        assertTrue(tail >= 0);
+        assertTrue(snapshot.rate(tail) > 0, Double.toString(snapshot.rate(tail)));
+    }
+
+    @Test
+    public void shouldRelabelInfoWhenDriverRestarts() {
+        map(1234, 1);
+        fill();
+        when(cncFileReader.pid()).thenReturn(5678L);
+        when(cncFileReader.mappingGeneration()).thenReturn(2);
+
+        Map<String, Long> gauges = fill();
+
+        String version = SemanticVersion.toString(CncFileDescriptor.CNC_VERSION);
+        assertAll(
+                () -> assertEquals(1L, gauges.get("aeron_driver_info{driver=\"a\",cnc_version=\"" + version + "\",pid=\"5678\"}")),
+                () -> assertNull(gauges.get("aeron_driver_info{driver=\"a\",cnc_version=\"" + version + "\",pid=\"1234\"}"))
+        );
+    }
+
+    @Test
+    public void shouldNotExportMetadataOfCountersNotReadFromCnc() {
+        Map<String, Long> gauges = fill();
+
+        assertAll(
+                () -> assertTrue(gauges.keySet().stream().noneMatch(series -> series.startsWith("aeron_driver_"))),
+                () -> assertFalse(new DriverMetadata(CounterRegistry.of(List.of(CounterProfile.ARCHIVE)), CounterFilter.ACCEPT_ALL, "driver", null).enabled())
+        );
+    }
+
+    private void map(long pid, int mappingGeneration) {
+        when(cncFileReader.toDriverBuffer()).thenReturn(toDriver);
+        when(cncFileReader.toClientsBuffer()).thenReturn(toClients);
+        when(cncFileReader.errorLogBuffer()).thenReturn(new UnsafeBuffer(new byte[4096]));
+        when(cncFileReader.cncVersion()).thenReturn(CncFileDescriptor.CNC_VERSION);
+        when(cncFileReader.pid()).thenReturn(pid);
+        when(cncFileReader.mappingGeneration()).thenReturn(mappingGeneration);
+    }
+
+    private Map<String, Long> fill() {
+        CounterSnapshot snapshot = new CounterSnapshot();
+        snapshotter.fill(snapshot);
+
+        Map<String, Long> values = new HashMap<>();
+        for (int i = 0; i < snapshot.count(); i++) {
+            values.put(new String(snapshot.nameBytes(i)) + new String(snapshot.labelBytes(i)), snapshot.value(i));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.errors.DistinctErrorLog;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ErrorLogScannerTest {
+
+    UnsafeBuffer errorLogBuffer;
+    DistinctErrorLog errorLog;
+    long nowMs;
+    ErrorLogScanner scanner;
+    CounterSnapshot snapshot;
+
+    @BeforeEach
+    public void init() {
+        errorLogBuffer = new UnsafeBuffer(new byte[64 * 1024]);
+        nowMs = 1_000;
+        errorLog = new DistinctErrorLog(errorLogBuffer, () -> nowMs);
+        scanner = new ErrorLogScanner();
+        snapshot = new CounterSnapshot();
+    }
+
+    @Test
+    public void shouldReportNothingForEmptyLog() {
+        scanner.scan(errorLogBuffer, snapshot);
+
+        assertEquals(0, snapshot.errorCount());
+    }
+
+    @Test
+    public void shouldAggregateDistinctErrorsOfSameType() {
+        errorLog.record(new IllegalStateException("first"));
+        nowMs = 2_000;
+        errorLog.record(new IllegalStateException("second"));
+        nowMs = 3_000;
+        errorLog.record(new IOException("io"));
+
+        scanner.scan(errorLogBuffer, snapshot);
+
+        assertAll(
+                () -> assertEquals(2, snapshot.errorCount()),
+                () -> assertEquals("java.lang.IllegalStateException", snapshot.errorType(0)),
+                () -> assertEquals(2, snapshot.errorObservations(0)),
+                () -> assertEquals(1_000, snapshot.errorFirstObservationMs(0)),
+                () -> assertEquals(2_000, snapshot.errorLastObservationMs(0)),
+                () -> assertEquals(List.of("java.io.IOException"), snapshot.errorLabelValues(1)),
+                () -> assertEquals(1, snapshot.errorObservations(1)),
+                () -> assertEquals("{error_type=\"java.io.IOException\"}", new String(snapshot.errorLabelBytes(1)))
+        );
+    }
+
+    @Test
+    public void shouldPickUpNewObservationsAndRecordsIncrementally() {
+        IOException error = new IOException("io");
+        errorLog.record(error);
+        scanner.scan(errorLogBuffer, snapshot);
+
+        nowMs = 5_000;
+        errorLog.record(error);
+        errorLog.record(new IllegalArgumentException("new"));
+        snapshot.reset();
+        scanner.scan(errorLogBuffer, snapshot);
+
+        assertAll(
+                () -> assertEquals(2, snapshot.errorCount()),
+                () -> assertEquals(2, snapshot.errorObservations(0)),
+                () -> assertEquals(1_000, snapshot.errorFirstObservationMs(0)),
+                () -> assertEquals(5_000, snapshot.errorLastObservationMs(0)),
+                () -> assertEquals("java.lang.IllegalArgumentException", snapshot.errorType(1))
+        );
+    }
+
+    @Test
+    public void shouldLabelErrorsWithDriver() {
+        scanner = new ErrorLogScanner("a");
+        errorLog.record(new IOException("io"));
+
+        scanner.scan(errorLogBuffer, snapshot);
+
+        assertAll(
+                () -> assertEquals(List.of("driver", "error_type"), snapshot.errorLabelNames(0)),
+                () -> assertEquals("{driver=\"a\",error_type=\"java.io.IOException\"}", new String(snapshot.errorLabelBytes(0)))
+        );
+    }
+
+    @Test
+    public void shouldStartOverAfterClear() {
+        errorLog.record(new IOException("io"));
+        scanner.scan(errorLogBuffer, snapshot);
+
+        errorLogBuffer.setMemory(0, errorLogBuffer.capacity(), (byte) 0);
+        errorLog = new DistinctErrorLog(errorLogBuffer, () -> nowMs);
+        errorLog.record(new IllegalStateException("restarted"));
+        scanner.clear();
+        snapshot.reset();
+        scanner.scan(errorLogBuffer, snapshot);
+
+        assertAll(
+                () -> assertEquals(1, snapshot.errorCount()),
+                () -> assertEquals("java.lang.IllegalStateException", snapshot.errorType(0))
+        );
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package aeron.prometheus.collector;
+
+import io.prometheus.client.Collector;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ExporterMetricsTest {
+
+    @Mock
+    CncFileReader cncFileReader;
+
+    @Test
+    public void shouldMeasureThreadAllocatedBytes() {
+        long before = ExporterMetrics.threadAllocatedBytes();
+        byte[][] allocated = new byte[16][];
+        for (int i = 0; i < allocated.length; i++) {
+            allocated[i] = new byte[1024];
+        }
+        long after = ExporterMetrics.threadAllocatedBytes();
+
+        assertAll(
+                () -> assertNotEquals(-1, before),
+                () -> assertTrue(after - before >= 16 * 1024, "allocated " + (after - before))
+        );
+    }
+
+    @Test
+    public void shouldCountCountersReadAndSnapshots() throws Exception {
+        CountersManager countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        countersManager.allocate("Bytes received", CounterTypes.SYSTEM);
+        when(cncFileReader.getCountersReader()).thenReturn(countersManager);
+        CounterFilter filter = new CounterFilter(Set.of(), Set.of(), Pattern.compile("sent"), null, null, null);
+        CounterSnapshotter snapshotter = new CounterSnapshotter(cncFileReader, CounterRegistry.driverCounters(), null, null, filter, 0);
+
+        double countersRead = ExporterMetrics.COUNTERS_READ.get();
+        double snapshots = snapshotCount();
+        CounterSnapshot snapshot = new CounterSnapshot();
+        snapshotter.fill(snapshot);
+
+        assertAll(
+                () -> assertEquals(1, snapshot.count()),
+                () -> assertEquals(countersRead + 2, ExporterMetrics.COUNTERS_READ.get()),
+                () -> assertEquals(snapshots + 1, snapshotCount())
+        );
+    }
+
+    private static double snapshotCount() {
+        for (Collector.MetricFamilySamples family : ExporterMetrics.SNAPSHOT_DURATION.collect()) {
+            for (Collector.MetricFamilySamples.Sample sample : family.samples) {
+                if (sample.name.equals("aeron_exporter_snapshot_duration_seconds_count")) {
+                    return sample.value;
+                }
+            }
+        }
+        throw new AssertionError("no snapshot duration count");
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import io.aeron.driver.reports.LossReport;
+import org.agrona.BitUtil;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.agrona.BitUtil.SIZE_OF_INT;
+import static org.junit.jupiter.api.Assertions.*;
+
+class LossReportScannerTest {
+
+    static final String CHANNEL = "aeron:udp?endpoint=localhost:40123";
+    static final String SOURCE = "127.0.0.1:53412";
+
+    UnsafeBuffer buffer;
+    LossReport lossReport;
+    LossReportScanner scanner;
+    CounterSnapshot snapshot;
+
+    @BeforeEach
+    public void init() {
+        buffer = new UnsafeBuffer(new byte[64 * 1024]);
+        lossReport = new LossReport(buffer);
+        scanner = new LossReportScanner();
+        snapshot = new CounterSnapshot();
+    }
+
+    @Test
+    public void shouldReportNothingForEmptyReport() {
+        scanner.scan(buffer, snapshot);
+
+        assertEquals(0, snapshot.lossCount());
+    }
+
+    @Test
+    public void shouldReportEntryWithStreamLabels() {
+        lossReport.createEntry(128, 1_000, 5, 7, CHANNEL, SOURCE);
+
+        scanner.scan(buffer, snapshot);
+
+        assertAll(
+                () -> assertEquals(1, snapshot.lossCount()),
+                () -> assertEquals(List.of("channel", "source", "stream_id", "session_id"), snapshot.lossLabelNames(0)),
+                () -> assertEquals(List.of(CHANNEL, SOURCE, "7", "5"), snapshot.lossLabelValues(0)),
+                () -> assertEquals(1, snapshot.lossObservations(0)),
+                () -> assertEquals(128, snapshot.lossBytes(0)),
+                () -> assertEquals(1_000, snapshot.lossLastObservationMs(0))
+        );
+    }
+
+    @Test
+    public void shouldStopAtEntryWithLengthPastTheEndOfTheReport() {
+        lossReport.createEntry(128, 1_000, 5, 7, CHANNEL, SOURCE);
+        int corrupt = BitUtil.align(LossReport.CHANNEL_OFFSET + BitUtil.align(SIZE_OF_INT + CHANNEL.length(), SIZE_OF_INT) + SIZE_OF_INT + SOURCE.length(),
+                LossReport.ENTRY_ALIGNMENT);
+        lossReport.createEntry(32, 2_000, 6, 7, CHANNEL, SOURCE);
+        buffer.putInt(corrupt + LossReport.CHANNEL_OFFSET, buffer.capacity());
+
+        scanner.scan(buffer, snapshot);
+
+        assertAll(
+                () -> assertEquals(1, snapshot.lossCount()),
+                () -> assertEquals(1, snapshot.lossObservations(0)),
+                () -> assertEquals(128, snapshot.lossBytes(0))
+        );
+    }
+
+    @Test
+    public void shouldApplyObservationsOfKnownEntries() {
+        LossReport.ReportEntry entry = lossReport.createEntry(128, 1_000, 5, 7, CHANNEL, SOURCE);
+        scanner.scan(buffer, snapshot);
+
+        entry.recordObservation(64, 2_000);
+        lossReport.createEntry(32, 3_000, 6, 7, CHANNEL, SOURCE);
+        snapshot.reset();
+        scanner.scan(buffer, snapshot);
+
+        assertAll(
+                () -> assertEquals(2, snapshot.lossCount()),
+                () -> assertEquals(2, snapshot.lossObservations(0)),
+                () -> assertEquals(192, snapshot.lossBytes(0)),
+                () -> assertEquals(2_000, snapshot.lossLastObservationMs(0)),
+                () -> assertEquals(List.of(CHANNEL, SOURCE, "7", "6"), snapshot.lossLabelValues(1)),
+                () -> assertEquals(32, snapshot.lossBytes(1))
+        );
+    }
+
+    @Test
+    public void shouldSumEntriesOfSameStream() {
+        lossReport.createEntry(128, 1_000, 5, 7, CHANNEL, SOURCE);
+        lossReport.createEntry(64, 2_000, 5, 7, CHANNEL, SOURCE);
+
+        scanner.scan(buffer, snapshot);
+
+        assertAll(
+                () -> assertEquals(1, snapshot.lossCount()),
+                () -> assertEquals(2, snapshot.lossObservations(0)),
+                () -> assertEquals(192, snapshot.lossBytes(0)),
+                () -> assertEquals(2_000, snapshot.lossLastObservationMs(0))
+        );
+    }
+
+    @Test
+    public void shouldLabelStreamsWithDriver() {
+        scanner = new LossReportScanner("a");
+        lossReport.createEntry(128, 1_000, 5, 7, CHANNEL, SOURCE);
+
+        scanner.scan(buffer, snapshot);
+
+        assertEquals("{driver=\"a\",channel=\"" + CHANNEL + "\",source=\"" + SOURCE + "\",stream_id=\"7\",session_id=\"5\"}",
+                new String(snapshot.lossLabelBytes(0)));
+    }
+}
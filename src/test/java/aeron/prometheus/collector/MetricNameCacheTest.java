@@ -0,0 +1,117 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricNameCacheTest {
+
+    CountersManager countersManager;
+    CounterScanner scanner;
+    MetricNameCache nameCache;
+
+    @BeforeEach
+    public void init() {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        scanner = new CounterScanner();
+        nameCache = new MetricNameCache("aeron_");
+    }
+
+    @Test
+    public void shouldSanitizeLabelBytes() {
+        int bytesSent = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        int backPressure = countersManager.allocate("Sender flow control limits, i.e. back-pressure events", CounterTypes.SYSTEM);
+
+        Map<Integer, String> names = scanNames();
+
+        assertAll(
+                () -> assertEquals("aeron_bytes_sent", names.get(bytesSent)),
+                () -> assertEquals("aeron_sender_flow_control_limits_ie_backpressure_events", names.get(backPressure))
+        );
+    }
+
+    @Test
+    public void shouldMatchStringSanitizer() {
+        assertAll(
+                () -> assertEquals("aeron_failed_offers_to_receiverproxy", MetricNameCache.sanitize("Failed offers to ReceiverProxy", "aeron_")),
+                () -> assertEquals("aeron_clientheartbeat_", MetricNameCache.sanitize("client-heartbeat: 1", "aeron_"))
+        );
+    }
+
+    @Test
+    public void shouldReturnCachedNameForUnchangedLabel() {
+        int counterId = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+
+        String first = scanNames().get(counterId);
+        String second = scanNames().get(counterId);
+
+        assertSame(first, second);
+    }
+
+    @Test
+    public void shouldDisambiguateCollidingNames() {
+        int first = countersManager.allocate("client-heartbeat: 1", CounterTypes.SYSTEM);
+        int second = countersManager.allocate("client-heartbeat: 2", CounterTypes.SYSTEM);
+
+        Map<Integer, String> names = scanNames();
+
+        assertAll(
+                () -> assertEquals("aeron_clientheartbeat_", names.get(first)),
+                () -> assertEquals("aeron_clientheartbeat__" + second, names.get(second))
+        );
+    }
+
+    @Test
+    public void shouldRenameWhenCounterIdIsReused() {
+        int counterId = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        scanNames();
+
+        countersManager.free(counterId);
+        assertEquals(counterId, countersManager.allocate("Bytes received", CounterTypes.SYSTEM));
+
+        assertEquals("aeron_bytes_received", scanNames().get(counterId));
+    }
+
+    @Test
+    public void shouldReleaseNameOfFreedCounter() {
+        int first = countersManager.allocate("client-heartbeat: 1", CounterTypes.SYSTEM);
+        scanNames();
+
+        countersManager.free(first);
+        countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        scanNames();
+        int second = countersManager.allocate("client-heartbeat: 2", CounterTypes.SYSTEM);
+
+        assertEquals("aeron_clientheartbeat_", scanNames().get(second));
+    }
+
+    private Map<Integer, String> scanNames() {
+        Map<Integer, String> names = new HashMap<>();
+        nameCache.beginScan();
+        scanner.scan(countersManager, (counterId, typeId, keyBuffer, labelBuffer) -> names.put(counterId, nameCache.name(counterId, labelBuffer)));
+        nameCache.endScan();
+        return names;
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class RateEngineTest {
+
+    static final long SECOND_NS = TimeUnit.SECONDS.toNanos(1);
+
+    @Mock
+    CncFileReader cncFileReader;
+
+    CountersManager countersManager;
+    CounterSnapshotter snapshotter;
+    RateEngine rateEngine;
+    CounterSnapshot snapshot;
+    int counterId;
+
+    @BeforeEach
+    public void init() throws Exception {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        when(cncFileReader.getCountersReader()).thenReturn(countersManager);
+        CounterRegistry registry = CounterRegistry.driverCounters();
+        snapshotter = new CounterSnapshotter(cncFileReader, registry);
+        rateEngine = new RateEngine(registry, 1, 15, TimeUnit.SECONDS);
+        snapshot = new CounterSnapshot();
+        counterId = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+    }
+
+    @Test
+    public void shouldHaveNoRateOnFirstSample() {
+        sample(100, 0);
+
+        assertAll(
+                () -> assertTrue(snapshot.hasRates()),
+                () -> assertTrue(Double.isNaN(snapshot.rate(0))),
+                () -> assertTrue(Double.isNaN(snapshot.peakRate(0)))
+        );
+    }
+
+    @Test
+    public void shouldComputeRateOncePerInterval() {
+        sample(0, 0);
+        sample(500, SECOND_NS / 2);
+        assertTrue(Double.isNaN(snapshot.rate(0)), "Rate interval has not elapsed yet");
+
+        sample(2000, SECOND_NS);
+        assertEquals(2000.0, snapshot.rate(0), 0.001);
+    }
+
+    @Test
+    public void shouldKeepPeakRateOverWindow() {
+        sample(0, 0);
+        sample(10_000, SECOND_NS);
+        sample(10_100, 2 * SECOND_NS);
+
+        assertAll(
+                () -> assertEquals(100.0, snapshot.rate(0), 0.001),
+                () -> assertEquals(10_000.0, snapshot.peakRate(0), 0.001)
+        );
+    }
+
+    @Test
+    public void shouldKeepPeakOfPreviousWindowUntilItRollsOff() {
+        sample(0, 0);
+        sample(10_000, SECOND_NS);
+        sample(10_100, 16 * SECOND_NS);
+        assertEquals(10_000.0, snapshot.peakRate(0), 0.001, "Peak of the previous window is still reported");
+
+        sample(10_200, 32 * SECOND_NS);
+        assertEquals(100.0 / 15, snapshot.peakRate(0), 0.001);
+    }
+
+    @Test
+    public void shouldTreatDecreasingValueAsReset() {
+        sample(1000, 0);
+        sample(300, SECOND_NS);
+
+        assertEquals(300.0, snapshot.rate(0), 0.001);
+    }
+
+    @Test
+    public void shouldStartOverWhenCounterIdIsReused() {
+        sample(0, 0);
+        sample(1000, SECOND_NS);
+
+        countersManager.free(counterId);
+        assertEquals(counterId, countersManager.allocate("Bytes received", CounterTypes.SYSTEM));
+        sample(5, 2 * SECOND_NS);
+
+        assertTrue(Double.isNaN(snapshot.rate(0)));
+    }
+
+    @Test
+    public void shouldNotRateNonMonotonicCounters() {
+        countersManager.free(counterId);
+        countersManager.allocate("pub-lmt", CounterTypes.PUBLISHER_LIMIT);
+
+        sample(0, 0);
+        sample(1000, SECOND_NS);
+
+        assertTrue(Double.isNaN(snapshot.rate(0)));
+    }
+
+    @Test
+    public void shouldNotRateSystemCountersWhichAreGauges() {
+        countersManager.free(counterId);
+        countersManager.allocate("Conductor max cycle time doing its work in ns: dedicated", CounterTypes.SYSTEM);
+
+        sample(0, 0);
+        sample(1000, SECOND_NS);
+        sample(500, 2 * SECOND_NS);
+
+        assertAll(
+                () -> assertTrue(Double.isNaN(snapshot.rate(0))),
+                () -> assertTrue(Double.isNaN(snapshot.peakRate(0)))
+        );
+    }
+
+    private void sample(long value, long nowNs) {
+        countersManager.setCounterValue(counterId, value);
+        snapshotter.fill(snapshot);
+        rateEngine.update(snapshot, nowNs);
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+package aeron.prometheus.collector;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class SeriesLimiterTest {
+
+    @Mock
+    CncFileReader cncFileReader;
+
+    CountersManager countersManager;
+    CounterSnapshotter snapshotter;
+    CounterSnapshot snapshot;
+
+    @BeforeEach
+    public void init() throws Exception {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        when(cncFileReader.getCountersReader()).thenReturn(countersManager);
+        snapshotter = new CounterSnapshotter(cncFileReader, CounterRegistry.driverCounters(), null, "a", CounterFilter.ACCEPT_ALL, 2);
+        snapshot = new CounterSnapshot();
+    }
+
+    @Test
+    public void shouldRetainTheHighestValuesOfAFamily() {
+        countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 5, 100);
+        allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 6, 300);
+        allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 7, 200);
+
+        snapshotter.fill(snapshot);
+
+        assertAll(
+                () -> assertEquals(List.of("aeron_bytes_sent", "aeron_publisher_position:6", "aeron_publisher_position:7"), series()),
+                () -> assertEquals(1, snapshot.droppedCount()),
+                () -> assertEquals(List.of("driver", "family"), snapshot.droppedLabelNames(0)),
+                () -> assertEquals(List.of("a", "aeron_publisher_position"), snapshot.droppedLabelValues(0)),
+                () -> assertEquals("{driver=\"a\",family=\"aeron_publisher_position\"}", new String(snapshot.droppedLabelBytes(0))),
+                () -> assertEquals(1, snapshot.droppedSeries(0))
+        );
+    }
+
+    @Test
+    public void shouldRetainTiesInCounterOrder() {
+        allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 5, 100);
+        allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 6, 200);
+        allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 7, 100);
+
+        snapshotter.fill(snapshot);
+
+        assertEquals(List.of("aeron_publisher_position:5", "aeron_publisher_position:6"), series());
+    }
+
+    @Test
+    public void shouldCountASeriesOnceWhileItStaysDropped() {
+        allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 5, 100);
+        allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 6, 200);
+        int counterId = allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 7, 50);
+
+        snapshotter.fill(snapshot);
+        snapshotter.fill(snapshot);
+        assertEquals(1, snapshot.droppedSeries(0));
+
+        countersManager.setCounterValue(counterId, 300);
+        snapshotter.fill(snapshot);
+        assertEquals(List.of("aeron_publisher_position:6", "aeron_publisher_position:7"), series());
+        assertEquals(2, snapshot.droppedSeries(0));
+
+        countersManager.free(counterId);
+        snapshotter.fill(snapshot);
+        assertAll(
+                () -> assertEquals(List.of("aeron_publisher_position:5", "aeron_publisher_position:6"), series()),
+                () -> assertEquals(2, snapshot.droppedSeries(0))
+        );
+    }
+
+    @Test
+    public void shouldNotExportDroppedSeriesBelowTheLimit() {
+        allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 5, 100);
+        allocateStreamCounter(CounterTypes.SUBSCRIBER_POSITION, 6, 200);
+
+        snapshotter.fill(snapshot);
+
+        assertAll(
+                () -> assertEquals(2, snapshot.count()),
+                () -> assertEquals(0, snapshot.droppedCount())
+        );
+    }
+
+    private List<String> series() {
+        List<String> series = new ArrayList<>();
+        for (int i = 0; i < snapshot.count(); i++) {
+            List<String> labelValues = snapshot.labelValues(i);
+            series.add(snapshot.name(i) + (labelValues.size() > 1 ? ":" + labelValues.get(1) : ""));
+        }
+        return series;
+    }
+
+    private int allocateStreamCounter(int typeId, long registrationId, long value) {
+        int counterId = countersManager.allocate("position", typeId, key -> {
+            key.putLong(0, registrationId);
+            key.putInt(8, (int) registrationId);
+            key.putInt(12, 7);
+            key.putStringAscii(16, "aeron:ipc");
+        });
+        countersManager.setCounterValue(counterId, value);
+        return counterId;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.collector;
+
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class StreamHealthTest {
+
+    @Mock
+    CncFileReader cncFileReader;
+
+    CountersManager countersManager;
+    CounterSnapshotter snapshotter;
+
+    @BeforeEach
+    public void init() throws Exception {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        when(cncFileReader.getCountersReader()).thenReturn(countersManager);
+        snapshotter = new CounterSnapshotter(cncFileReader, CounterRegistry.driverCounters());
+    }
+
+    @Test
+    public void shouldDerivePublisherHeadroomByRegistrationId() {
+        allocateStreamCounter(CounterTypes.PUBLISHER_LIMIT, 5, 6, 7, 4096);
+        allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 5, 6, 7, 1024);
+        allocateStreamCounter(CounterTypes.PUBLISHER_LIMIT, 8, 9, 7, 4096);
+
+        Map<String, Long> gauges = fill();
+
+        assertAll(
+                () -> assertEquals(3072L, gauges.get("aeron_publisher_headroom{registration_id=\"5\",session_id=\"6\",stream_id=\"7\",channel=\"aeron:udp\"}")),
+                () -> assertEquals(1, count(gauges, "aeron_publisher_headroom"))
+        );
+    }
+
+    @Test
+    public void shouldDeriveSenderReceiverGapAndSubscriberLagBySessionAndStream() {
+        allocateStreamCounter(CounterTypes.SENDER_POSITION, 5, 6, 7, 2048);
+        allocateStreamCounter(CounterTypes.RECEIVER_HWM, 11, 6, 7, 1536);
+        allocateStreamCounter(CounterTypes.SUBSCRIBER_POSITION, 12, 6, 7, 1024);
+        allocateStreamCounter(CounterTypes.SUBSCRIBER_POSITION, 13, 6, 7, 512);
+        allocateStreamCounter(CounterTypes.SUBSCRIBER_POSITION, 14, 16, 7, 512);
+
+        Map<String, Long> gauges = fill();
+
+        assertAll(
+                () -> assertEquals(512L, gauges.get("aeron_sender_receiver_gap{registration_id=\"11\",session_id=\"6\",stream_id=\"7\",channel=\"aeron:udp\"}")),
+                () -> assertEquals(1024L, gauges.get("aeron_subscriber_lag{registration_id=\"11\",session_id=\"6\",stream_id=\"7\",channel=\"aeron:udp\"}")),
+                () -> assertEquals(1, count(gauges, "aeron_subscriber_lag"))
+        );
+    }
+
+    @Test
+    public void shouldDeriveIpcSubscriberLagFromPublisherPosition() {
+        allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 5, 6, 7, 4096);
+        allocateStreamCounter(CounterTypes.SUBSCRIBER_POSITION, 12, 6, 7, 1024);
+
+        Map<String, Long> gauges = fill();
+
+        assertEquals(3072L, gauges.get("aeron_subscriber_lag{registration_id=\"5\",session_id=\"6\",stream_id=\"7\",channel=\"aeron:udp\"}"));
+    }
+
+    @Test
+    public void shouldForgetStreamsBetweenSnapshots() {
+        allocateStreamCounter(CounterTypes.PUBLISHER_LIMIT, 5, 6, 7, 4096);
+        int position = allocateStreamCounter(CounterTypes.PUBLISHER_POSITION, 5, 6, 7, 1024);
+        fill();
+
+        countersManager.free(position);
+        Map<String, Long> gauges = fill();
+
+        assertEquals(0, count(gauges, "aeron_publisher_headroom"));
+    }
+
+    private Map<String, Long> fill() {
+        CounterSnapshot snapshot = new CounterSnapshot();
+        snapshotter.fill(snapshot);
+
+        Map<String, Long> values = new HashMap<>();
+        for (int i = 0; i < snapshot.count(); i++) {
+            values.put(new String(snapshot.nameBytes(i)) + new String(snapshot.labelBytes(i)), snapshot.value(i));
+        }
+        return values;
+    }
+
+    private static long count(Map<String, Long> values, String name) {
+        return values.keySet().stream().filter(series -> series.startsWith(name + "{")).count();
+    }
+
+    private int allocateStreamCounter(int typeId, long registrationId, int sessionId, int streamId, long value) {
+        int counterId = countersManager.allocate("position", typeId, key -> {
+            key.putLong(0, registrationId);
+            key.putInt(8, sessionId);
+            key.putInt(12, streamId);
+            key.putStringAscii(16, "aeron:udp");
+        });
+        countersManager.setCounterValue(counterId, value);
+        return counterId;
+    }
+}
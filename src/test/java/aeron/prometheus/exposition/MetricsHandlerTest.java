@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.exposition;
+
+import aeron.prometheus.collector.CncFileReader;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterSnapshotter;
+import aeron.prometheus.collector.ExporterMetrics;
+import aeron.prometheus.collector.SynchronousSnapshotSource;
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MetricsHandlerTest {
+
+    HttpServer server;
+    URI uri;
+
+    @BeforeEach
+    public void init() throws Exception {
+        CollectorRegistry registry = new CollectorRegistry();
+        Gauge.build("test_gauge", "Test gauge").register(registry).set(3);
+        ExporterMetrics.register(registry);
+
+        MetricsHandler handler = new MetricsHandler(new SynchronousSnapshotSource(
+                new CounterSnapshotter(new CncFileReader(Paths.get("./temp")), CounterRegistry.driverCounters())), registry);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/metrics", handler);
+        server.start();
+        uri = new URI("http://localhost:" + server.getAddress().getPort() + "/metrics");
+    }
+
+    @AfterEach
+    public void close() {
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldServePlainText() throws Exception {
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+
+        assertAll(
+                () -> assertEquals(200, response.statusCode()),
+                () -> assertEquals(MetricsHandler.CONTENT_TYPE, response.headers().firstValue("Content-Type").orElse("")),
+                () -> assertTrue(response.body().contains("aeron_cncread_error 1.0\n")),
+                () -> assertTrue(response.body().contains("aeron_exporter_duration_seconds ")),
+                () -> assertTrue(response.body().contains("test_gauge 3.0\n"))
+        );
+    }
+
+    @Test
+    public void shouldNegotiateOpenMetrics() throws Exception {
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(uri).header("Accept", "application/openmetrics-text; version=1.0.0,text/plain;q=0.5").GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertAll(
+                () -> assertEquals(ExpositionFormat.OPENMETRICS.contentType(), response.headers().firstValue("Content-Type").orElse("")),
+                () -> assertTrue(response.body().contains("test_gauge 3.0\n")),
+                () -> assertTrue(response.body().endsWith("# EOF\n"))
+        );
+    }
+
+    @Test
+    public void shouldInstrumentScrapes() throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        client.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.discarding());
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+
+        assertAll(
+                () -> assertTrue(response.body().contains("aeron_exporter_collect_duration_seconds_bucket{le=\"0.001\",}")),
+                () -> assertTrue(response.body().contains("aeron_exporter_http_request_duration_seconds_count ")),
+                () -> assertTrue(response.body().contains("aeron_exporter_http_requests_in_flight ")),
+                () -> assertTrue(response.body().contains("aeron_exporter_mapped_bytes "))
+        );
+    }
+
+    @Test
+    public void shouldServeGzip() throws Exception {
+        HttpResponse<byte[]> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(uri).header("Accept-Encoding", "gzip").GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+
+        String body;
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(response.body()))) {
+            body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        assertAll(
+                () -> assertEquals("gzip", response.headers().firstValue("Content-Encoding").orElse("")),
+                () -> assertTrue(body.contains("aeron_cncread_error 1.0\n")),
+                () -> assertTrue(body.contains("test_gauge 3.0\n"))
+        );
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.exposition;
+
+import aeron.prometheus.collector.CncFileReader;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterSnapshotter;
+import aeron.prometheus.collector.DriverGroup;
+import aeron.prometheus.collector.ExporterMetrics;
+import aeron.prometheus.collector.SynchronousSnapshotSource;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SelectorHttpServerTest {
+
+    SelectorHttpServer server;
+    URI uri;
+
+    @BeforeEach
+    public void init() throws Exception {
+        CollectorRegistry registry = new CollectorRegistry();
+        Gauge.build("test_gauge", "Test gauge").register(registry).set(3);
+        ExporterMetrics.register(registry);
+
+        DriverGroup driverGroup = DriverGroup.single(new SynchronousSnapshotSource(
+                new CounterSnapshotter(new CncFileReader(Paths.get("./temp")), CounterRegistry.driverCounters())));
+
+        server = new SelectorHttpServer(new InetSocketAddress("localhost", 0), driverGroup, registry);
+        server.start();
+        uri = new URI("http://localhost:" + server.address().getPort() + "/metrics");
+    }
+
+    @AfterEach
+    public void close() {
+        server.close();
+    }
+
+    @Test
+    public void shouldServePlainText() throws Exception {
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+
+        assertAll(
+                () -> assertEquals(200, response.statusCode()),
+                () -> assertEquals(ExpositionFormat.PROMETHEUS.contentType(), response.headers().firstValue("Content-Type").orElse("")),
+                () -> assertTrue(response.body().contains("aeron_cncread_error 1.0\n")),
+                () -> assertTrue(response.body().contains("test_gauge 3.0\n"))
+        );
+    }
+
+    @Test
+    public void shouldKeepConnectionAlive() throws Exception {
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        client.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.discarding());
+        HttpResponse<String> response = client.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+
+        assertAll(
+                () -> assertEquals(200, response.statusCode()),
+                () -> assertTrue(response.body().contains("aeron_exporter_http_request_duration_seconds_count ")),
+                () -> assertTrue(response.body().contains("aeron_exporter_http_requests_in_flight "))
+        );
+    }
+
+    @Test
+    public void shouldNegotiateOpenMetrics() throws Exception {
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(uri).header("Accept", "application/openmetrics-text; version=1.0.0,text/plain;q=0.5").GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertAll(
+                () -> assertEquals(ExpositionFormat.OPENMETRICS.contentType(), response.headers().firstValue("Content-Type").orElse("")),
+                () -> assertTrue(response.body().contains("test_gauge 3.0\n")),
+                () -> assertTrue(response.body().endsWith("# EOF\n"))
+        );
+    }
+
+    @Test
+    public void shouldServeHealth() throws Exception {
+        HttpResponse<String> response = HttpClient.newHttpClient().send(
+                HttpRequest.newBuilder(uri.resolve("/-/healthy")).GET().build(), HttpResponse.BodyHandlers.ofString());
+
+        assertAll(
+                () -> assertEquals(200, response.statusCode()),
+                () -> assertEquals("Exporter is Healthy.", response.body())
+        );
+    }
+
+    @Test
+    public void shouldRejectUnknownPathAndMethod() throws Exception {
+        HttpClient client = HttpClient.newHttpClient();
+        HttpResponse<String> notFound = client.send(
+                HttpRequest.newBuilder(uri.resolve("/unknown")).GET().build(), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> notAllowed = client.send(
+                HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.ofString("body")).build(), HttpResponse.BodyHandlers.ofString());
+
+        assertAll(
+                () -> assertEquals(404, notFound.statusCode()),
+                () -> assertEquals(405, notAllowed.statusCode())
+        );
+    }
+
+    @Test
+    public void shouldAnswerPipelinedRequestsAndCloseHttp10() throws Exception {
+        String response;
+        try (Socket socket = new Socket("localhost", server.address().getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET /-/healthy HTTP/1.1\r\nHost: localhost\r\n\r\n"
+                    + "GET /metrics HTTP/1.0\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            InputStream in = socket.getInputStream();
+            response = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        assertAll(
+                () -> assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n")),
+                () -> assertTrue(response.contains("Exporter is Healthy.HTTP/1.1 200 OK\r\n")),
+                () -> assertTrue(response.contains("Connection: close\r\n")),
+                () -> assertTrue(response.contains("\ntest_gauge 3.0\n"))
+        );
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.exposition;
+
+import aeron.prometheus.collector.CncFileReader;
+import aeron.prometheus.collector.CounterFilter;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterSnapshot;
+import aeron.prometheus.collector.CounterSnapshotter;
+import aeron.prometheus.collector.CounterTypes;
+import org.agrona.ExpandableDirectByteBuffer;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TextExpositionWriterTest {
+
+    @Mock
+    CncFileReader cncFileReader;
+
+    CountersManager countersManager;
+    CounterRegistry registry;
+    CounterSnapshotter snapshotter;
+    TextExpositionWriter writer;
+
+    @BeforeEach
+    public void init() throws Exception {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        when(cncFileReader.getCountersReader()).thenReturn(countersManager);
+        registry = CounterRegistry.driverCounters();
+        snapshotter = new CounterSnapshotter(cncFileReader, registry);
+        writer = new TextExpositionWriter(registry);
+    }
+
+    @Test
+    public void shouldWriteCountersGroupedByFamily() {
+        int limit = countersManager.allocate("pub-lmt", CounterTypes.PUBLISHER_LIMIT, key -> {
+            key.putLong(0, 5);
+            key.putInt(8, 6);
+            key.putInt(12, 7);
+            key.putStringAscii(16, "aeron:ipc");
+        });
+        int bytesSent = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        countersManager.setCounterValue(limit, 1024);
+        countersManager.setCounterValue(bytesSent, 42);
+
+        assertEquals("# HELP aeron Aeron CNC system counters\n" +
+                "# TYPE aeron untyped\n" +
+                "aeron_bytes_sent 42\n" +
+                "# HELP aeron_publisher_limit Position a publication may be written up to\n" +
+                "# TYPE aeron_publisher_limit gauge\n" +
+                "aeron_publisher_limit{registration_id=\"5\",session_id=\"6\",stream_id=\"7\",channel=\"aeron:ipc\"} 1024\n",
+                write());
+    }
+
+    @Test
+    public void shouldEscapeLabelValues() {
+        countersManager.allocate("quote \" and \\ backslash", 1234);
+
+        assertEquals("# HELP aeron_counter Aeron counters of a type without a dedicated metric family\n" +
+                "# TYPE aeron_counter untyped\n" +
+                "aeron_counter{type_id=\"1234\",label=\"quote \\\" and \\\\ backslash\"} 0\n",
+                write());
+    }
+
+    @Test
+    public void shouldWriteNothingForEmptySnapshot() {
+        assertEquals("", write());
+    }
+
+    @Test
+    public void shouldWriteOpenMetricsWithFamilyPerSystemCounter() {
+        int limit = countersManager.allocate("pub-lmt", CounterTypes.PUBLISHER_LIMIT, key -> {
+            key.putLong(0, 5);
+            key.putInt(8, 6);
+            key.putInt(12, 7);
+            key.putStringAscii(16, "aeron:ipc");
+        });
+        int bytesSent = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        int bytesReceived = countersManager.allocate("Bytes received", CounterTypes.SYSTEM);
+        countersManager.setCounterValue(limit, 1024);
+        countersManager.setCounterValue(bytesSent, 42);
+        countersManager.setCounterValue(bytesReceived, 43);
+        writer = new TextExpositionWriter(registry, ExpositionFormat.OPENMETRICS, false);
+
+        assertEquals("# TYPE aeron_bytes_received unknown\n" +
+                "aeron_bytes_received 43\n" +
+                "# TYPE aeron_bytes_sent unknown\n" +
+                "aeron_bytes_sent 42\n" +
+                "# HELP aeron_publisher_limit Position a publication may be written up to\n" +
+                "# TYPE aeron_publisher_limit gauge\n" +
+                "aeron_publisher_limit{registration_id=\"5\",session_id=\"6\",stream_id=\"7\",channel=\"aeron:ipc\"} 1024\n" +
+                "# EOF\n",
+                write());
+    }
+
+    @Test
+    public void shouldWriteSnapshotTimestamps() {
+        int bytesSent = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        countersManager.setCounterValue(bytesSent, 42);
+        writer = new TextExpositionWriter(registry, ExpositionFormat.PROMETHEUS, true);
+
+        CounterSnapshot snapshot = new CounterSnapshot();
+        snapshotter.fill(snapshot);
+
+        assertEquals("# HELP aeron Aeron CNC system counters\n" +
+                "# TYPE aeron untyped\n" +
+                "aeron_bytes_sent 42 " + snapshot.epochMs() + "\n",
+                write(snapshot));
+    }
+
+    @Test
+    public void shouldWriteDroppedSeriesAsCounter() {
+        countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        countersManager.allocate("Bytes received", CounterTypes.SYSTEM);
+        snapshotter = new CounterSnapshotter(cncFileReader, registry, null, null, CounterFilter.ACCEPT_ALL, 1);
+        writer = new TextExpositionWriter(registry, ExpositionFormat.OPENMETRICS, false);
+
+        CounterSnapshot snapshot = new CounterSnapshot();
+        snapshotter.fill(snapshot);
+        ExpandableDirectByteBuffer buffer = new ExpandableDirectByteBuffer(16);
+        int length = writer.writeDropped(new CounterSnapshot[]{snapshot}, 1, buffer, 0);
+
+        assertEquals("# HELP aeron_exporter_dropped_series Number of times a series of a family was dropped by the series limit\n" +
+                "# TYPE aeron_exporter_dropped_series counter\n" +
+                "aeron_exporter_dropped_series_total{family=\"aeron\"} 1\n",
+                buffer.getStringWithoutLengthAscii(0, length));
+    }
+
+    private String write() {
+        CounterSnapshot snapshot = new CounterSnapshot();
+        snapshotter.fill(snapshot);
+        return write(snapshot);
+    }
+
+    private String write(CounterSnapshot snapshot) {
+        ExpandableDirectByteBuffer buffer = new ExpandableDirectByteBuffer(16);
+        int length = writer.writeCounters(snapshot, buffer, 0);
+        length = writer.writeEnd(buffer, length);
+        return buffer.getStringWithoutLengthAscii(0, length);
+    }
+}
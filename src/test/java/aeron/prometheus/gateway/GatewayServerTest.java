@@ -0,0 +1,239 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.gateway;
+
+import aeron.prometheus.collector.CncFileReader;
+import aeron.prometheus.collector.CounterFilter;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterSnapshot;
+import aeron.prometheus.collector.CounterTypes;
+import aeron.prometheus.collector.DriverGroup;
+import aeron.prometheus.collector.ExporterMetrics;
+import aeron.prometheus.exposition.ExpositionFormat;
+import aeron.prometheus.exposition.ExpositionRenderer;
+import io.prometheus.client.CollectorRegistry;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static aeron.prometheus.gateway.GatewayProtocol.*;
+import static org.agrona.BitUtil.SIZE_OF_INT;
+import static org.agrona.BitUtil.SIZE_OF_LONG;
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class GatewayServerTest {
+
+    @Mock
+    CncFileReader cncFileReaderA;
+
+    @Mock
+    CncFileReader cncFileReaderB;
+
+    CounterRegistry counterRegistry = CounterRegistry.driverCounters();
+    CountersManager countersA;
+    CountersManager countersB;
+    GatewayStore store;
+    GatewayServer server;
+    DriverGroup driverGroup;
+    ExpositionRenderer renderer;
+
+    @BeforeEach
+    public void init() throws Exception {
+        countersA = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        countersB = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+
+        store = new GatewayStore(counterRegistry, 4, CounterFilter.ACCEPT_ALL, 0, TimeUnit.MINUTES.toMillis(5));
+        server = new GatewayServer(new InetSocketAddress("localhost", 0), store);
+        server.start();
+        driverGroup = DriverGroup.supplied(counterRegistry, store::drivers);
+        renderer = new ExpositionRenderer(driverGroup, new CollectorRegistry(), ExpositionFormat.PROMETHEUS, false);
+    }
+
+    @AfterEach
+    public void close() {
+        server.close();
+        driverGroup.close();
+    }
+
+    @Test
+    public void shouldAggregateHostsWithHostLabel() throws Exception {
+        when(cncFileReaderA.getCountersReader()).thenReturn(countersA);
+        when(cncFileReaderB.getCountersReader()).thenReturn(countersB);
+        countersA.setCounterValue(countersA.allocate("Bytes sent", CounterTypes.SYSTEM), 42);
+        countersB.setCounterValue(countersB.allocate("Bytes sent", CounterTypes.SYSTEM), 7);
+
+        GatewayAgent agentA = agent(cncFileReaderA, "a", 1024 * 1024);
+        GatewayAgent agentB = agent(cncFileReaderB, "b", 1024 * 1024);
+        pump(() -> render().contains("aeron_bytes_sent{host=\"a\"} 42\n") && render().contains("aeron_bytes_sent{host=\"b\"} 7\n"), agentA, agentB);
+
+        assertAll(
+                () -> assertEquals(2, store.drivers().size()),
+                () -> assertEquals("a", store.drivers().get(0).name()),
+                () -> assertTrue(render().contains("aeron_exporter_snapshot_age_seconds{host=\"a\"} "), render()),
+                () -> assertFalse(render().contains("aeron_cncread_error"))
+        );
+    }
+
+    @Test
+    public void shouldApplyChangesAndFreedCounters() throws Exception {
+        when(cncFileReaderA.getCountersReader()).thenReturn(countersA);
+        int bytesSent = countersA.allocate("Bytes sent", CounterTypes.SYSTEM);
+        int errors = countersA.allocate("Errors", CounterTypes.SYSTEM);
+        countersA.setCounterValue(bytesSent, 42);
+
+        GatewayAgent agent = agent(cncFileReaderA, "a", 1024 * 1024);
+        pump(() -> render().contains("aeron_errors{host=\"a\"} 0\n"), agent);
+
+        countersA.setCounterValue(bytesSent, 4242);
+        countersA.free(errors);
+        pump(() -> render().contains("aeron_bytes_sent{host=\"a\"} 4242\n"), agent);
+
+        assertFalse(render().contains("aeron_errors"));
+    }
+
+    @Test
+    public void shouldResendAllCountersAfterReconnection() throws Exception {
+        when(cncFileReaderA.getCountersReader()).thenReturn(countersA);
+        countersA.setCounterValue(countersA.allocate("Bytes sent", CounterTypes.SYSTEM), 42);
+
+        InetSocketAddress address = server.address();
+        GatewayAgent agent = agent(cncFileReaderA, "a", 1024 * 1024);
+        pump(() -> render().contains("aeron_bytes_sent{host=\"a\"} 42\n"), agent);
+
+        server.close();
+        pump(() -> !agent.isConnected(), agent);
+
+        GatewayStore restarted = new GatewayStore(counterRegistry, 4, CounterFilter.ACCEPT_ALL, 0, TimeUnit.MINUTES.toMillis(5));
+        server = new GatewayServer(address, restarted);
+        server.start();
+        pump(() -> restarted.drivers().size() == 1 && sampleCount(restarted) > 0, agent);
+    }
+
+    @Test
+    public void shouldCloseConnectionSendingLargeMessageBeforeHello() throws Exception {
+        try (Socket socket = connect()) {
+            ByteBuffer message = message(SAMPLE, 1024 * 1024);
+            socket.getOutputStream().write(message.array(), 0, HEADER_LENGTH);
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+    }
+
+    @Test
+    public void shouldCloseConnectionDefiningCounterAboveMaximumAndKeepServingOthers() throws Exception {
+        try (Socket socket = connect()) {
+            byte[] host = "rogue".getBytes(StandardCharsets.US_ASCII);
+            ByteBuffer hello = message(HELLO, SIZE_OF_INT + host.length).putInt(GatewayProtocol.VERSION).put(host);
+            // DEFINE of counter id 2^28 with type id 0, an empty key and an empty label
+            byte[] define = {(byte) 0x82, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x04, 0, 0, 0};
+            ByteBuffer sample = message(SAMPLE, SIZE_OF_LONG + define.length).putLong(System.currentTimeMillis()).put(define);
+            socket.getOutputStream().write(hello.array(), 0, hello.position());
+            socket.getOutputStream().write(sample.array(), 0, sample.position());
+
+            assertEquals(-1, socket.getInputStream().read());
+        }
+
+        when(cncFileReaderA.getCountersReader()).thenReturn(countersA);
+        countersA.setCounterValue(countersA.allocate("Bytes sent", CounterTypes.SYSTEM), 42);
+        pump(() -> render().contains("aeron_bytes_sent{host=\"a\"} 42\n"), agent(cncFileReaderA, "a", 1024 * 1024));
+    }
+
+    @Test
+    public void shouldCoalesceSamplesWhenGatewayDoesNotRead() throws Exception {
+        CountersManager counters = new CountersManager(new UnsafeBuffer(new byte[4096 * 512]), new UnsafeBuffer(new byte[4096 * 128]));
+        when(cncFileReaderA.getCountersReader()).thenReturn(counters);
+        for (int i = 0; i < 4000; i++) {
+            counters.allocate("Counter " + i, CounterTypes.SYSTEM);
+        }
+
+        // bound but never started, the connection is accepted by the kernel and never read
+        GatewayServer stalled = new GatewayServer(new InetSocketAddress("localhost", 0), store);
+        try {
+            GatewayAgent agent = new GatewayAgent(cncFileReaderA, stalled.address(), "a", 1, TimeUnit.MILLISECONDS, 64 * 1024);
+            double coalesced = ExporterMetrics.GATEWAY_COALESCED_SAMPLES.get();
+            pump(() -> {
+                counters.forEach((counterId, typeId, keyBuffer, label) -> counters.setCounterValue(counterId, counters.getCounterValue(counterId) + 1));
+                return ExporterMetrics.GATEWAY_COALESCED_SAMPLES.get() > coalesced;
+            }, agent);
+
+            assertTrue(agent.samplesSent() > 0);
+        } finally {
+            stalled.close();
+        }
+    }
+
+    private GatewayAgent agent(CncFileReader cncFileReader, String host, int batchLength) throws Exception {
+        return new GatewayAgent(cncFileReader, server.address(), host, 1, TimeUnit.MILLISECONDS, batchLength);
+    }
+
+    private Socket connect() throws Exception {
+        Socket socket = new Socket(server.address().getAddress(), server.address().getPort());
+        socket.setSoTimeout(10_000);
+        return socket;
+    }
+
+    private static ByteBuffer message(int type, int payloadLength) {
+        return ByteBuffer.allocate(HEADER_LENGTH + payloadLength).order(BYTE_ORDER).putInt(payloadLength).putInt(type);
+    }
+
+    private static long sampleCount(GatewayStore store) {
+        return store.drivers().stream().filter(driver -> {
+            CounterSnapshot snapshot = driver.snapshotSource().acquire();
+            try {
+                return snapshot.count() > 0;
+            } finally {
+                driver.snapshotSource().release(snapshot);
+            }
+        }).count();
+    }
+
+    private String render() {
+        try {
+            int length = renderer.render();
+            return renderer.buffer().getStringWithoutLengthUtf8(0, length);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void pump(BooleanSupplier condition, GatewayAgent... agents) throws Exception {
+        long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() - deadlineNs > 0) {
+                fail("Condition not met in time");
+            }
+            for (GatewayAgent agent : agents) {
+                agent.doWork();
+            }
+            Thread.sleep(1);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.push;
+
+import aeron.prometheus.collector.CncFileReader;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterSnapshotter;
+import aeron.prometheus.collector.CounterTypes;
+import aeron.prometheus.collector.DriverGroup;
+import aeron.prometheus.collector.SynchronousSnapshotSource;
+import aeron.prometheus.exposition.ExpositionFormat;
+import aeron.prometheus.exposition.ExpositionRenderer;
+import com.sun.net.httpserver.HttpServer;
+import io.prometheus.client.CollectorRegistry;
+import io.prometheus.client.Gauge;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class MetricsPusherTest {
+
+    @Mock
+    CncFileReader cncFileReader;
+
+    HttpServer server;
+    URI uri;
+    List<String> bodies = new CopyOnWriteArrayList<>();
+    AtomicInteger status = new AtomicInteger(204);
+    CountersManager countersManager;
+    CollectorRegistry registry = new CollectorRegistry();
+    ExpositionRenderer renderer;
+
+    @BeforeEach
+    public void init() throws Exception {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+        when(cncFileReader.getCountersReader()).thenReturn(countersManager);
+        CounterRegistry counterRegistry = CounterRegistry.driverCounters();
+        renderer = new ExpositionRenderer(
+                DriverGroup.single(new SynchronousSnapshotSource(new CounterSnapshotter(cncFileReader, counterRegistry))),
+                registry, ExpositionFormat.PROMETHEUS, true);
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/import", exchange -> {
+            bodies.add(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            exchange.sendResponseHeaders(status.get(), -1);
+            exchange.close();
+        });
+        server.start();
+        uri = new URI("http://localhost:" + server.getAddress().getPort() + "/import");
+    }
+
+    @AfterEach
+    public void close() {
+        server.stop(0);
+    }
+
+    @Test
+    public void shouldPushFinalCountersOnClose() {
+        int bytesSent = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        countersManager.setCounterValue(bytesSent, 42);
+
+        MetricsPusher pusher = new MetricsPusher(renderer, uri, 4, 8, Duration.ofSeconds(5));
+        pusher.close();
+
+        assertAll(
+                () -> assertEquals(1, bodies.size()),
+                () -> assertTrue(bodies.get(0).matches("(?s).*\naeron_bytes_sent 42 \\d{13}\n.*"), bodies.get(0)),
+                () -> assertEquals(1, pusher.sent())
+        );
+    }
+
+    @Test
+    public void shouldSendQueuedRendersInBatches() throws Exception {
+        MetricsPusher pusher = new MetricsPusher(renderer, uri, 4, 2, Duration.ofSeconds(5));
+        pusher.render();
+        pusher.render();
+        pusher.render();
+
+        assertTrue(pusher.flush());
+        assertAll(
+                () -> assertEquals(2, bodies.size()),
+                () -> assertEquals(3, pusher.sent())
+        );
+    }
+
+    @Test
+    public void shouldSendRegistryOnlyWithNewestRenderOfABatch() throws Exception {
+        int bytesSent = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        Gauge.build("pusher_test_gauge", "Gauge of the registry").register(registry).set(1);
+
+        MetricsPusher pusher = new MetricsPusher(renderer, uri, 4, 8, Duration.ofSeconds(5));
+        pusher.render();
+        countersManager.setCounterValue(bytesSent, 42);
+        pusher.render();
+
+        assertTrue(pusher.flush());
+        String body = bodies.get(0);
+        assertAll(
+                () -> assertEquals(1, bodies.size()),
+                () -> assertTrue(body.matches("(?s).*\naeron_bytes_sent 0 \\d{13}\n.*\naeron_bytes_sent 42 \\d{13}\n.*"), body),
+                () -> assertEquals(1, body.split("\npusher_test_gauge ", -1).length - 1, body),
+                () -> assertEquals(1, body.split("\naeron_exporter_duration_seconds ", -1).length - 1, body),
+                () -> assertTrue(body.indexOf("\npusher_test_gauge ") > body.lastIndexOf("\naeron_bytes_sent "), body)
+        );
+    }
+
+    @Test
+    public void shouldDropOldestRendersWhenQueueIsFull() throws Exception {
+        MetricsPusher pusher = new MetricsPusher(renderer, uri, 2, 8, Duration.ofSeconds(5));
+        pusher.render();
+        pusher.render();
+        pusher.render();
+
+        assertEquals(1, pusher.dropped());
+    }
+
+    @Test
+    public void shouldKeepRendersWhenPushFails() throws Exception {
+        status.set(503);
+        MetricsPusher pusher = new MetricsPusher(renderer, uri, 4, 8, Duration.ofSeconds(5));
+        pusher.render();
+
+        assertFalse(pusher.flush());
+
+        status.set(204);
+        assertTrue(pusher.flush());
+        assertAll(
+                () -> assertEquals(2, bodies.size()),
+                () -> assertEquals(bodies.get(0), bodies.get(1)),
+                () -> assertEquals(1, pusher.sent())
+        );
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2020.
+ *   Licensed under the Apache License, Version 2.0 (the "License");
+ *   you may not use this file except in compliance with the License.
+ *   You may obtain a copy of the License at
+ *
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *   Unless required by applicable law or agreed to in writing, software
+ *   distributed under the License is distributed on an "AS IS" BASIS,
+ *   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *   See the License for the specific language governing permissions and
+ *   limitations under the License.
+ */
+
+
+package aeron.prometheus.recorder;
+
+import aeron.prometheus.collector.CncFileReader;
+import aeron.prometheus.collector.CounterRegistry;
+import aeron.prometheus.collector.CounterScanner;
+import aeron.prometheus.collector.CounterTypes;
+import org.agrona.concurrent.UnsafeBuffer;
+import org.agrona.concurrent.status.CountersManager;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class CounterRecorderTest {
+    static final long END_OF_TIME_MS = Long.MAX_VALUE / 1_000_000L - 1;
+
+    @Mock
+    CncFileReader cncFileReader;
+
+    @TempDir
+    Path directory;
+
+    CountersManager countersManager;
+
+    @BeforeEach
+    public void init() {
+        countersManager = new CountersManager(new UnsafeBuffer(new byte[64 * 512]), new UnsafeBuffer(new byte[64 * 128]));
+    }
+
+    @Test
+    public void shouldReplayRecordedChanges() throws Exception {
+        CounterRecorder recorder = recorder(1024 * 1024, Long.MAX_VALUE);
+        int bytesSent = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        int limit = countersManager.allocate("pub-lmt", CounterTypes.PUBLISHER_LIMIT, key -> key.putLong(0, 5));
+        countersManager.setCounterValue(bytesSent, 42);
+        countersManager.setCounterValue(limit, 1024);
+        recorder.doWork();
+
+        countersManager.setCounterValue(bytesSent, 40);
+        recorder.doWork();
+        recorder.doWork();
+
+        countersManager.free(limit);
+        recorder.doWork();
+        recorder.onClose();
+
+        List<Map<String, Long>> samples = replay();
+        assertEquals(List.of(
+                Map.of("Bytes sent", 42L, "pub-lmt", 1024L),
+                Map.of("Bytes sent", 40L, "pub-lmt", 1024L),
+                Map.of("Bytes sent", 40L)), samples);
+    }
+
+    @Test
+    public void shouldStartEverySegmentWithAllCountersAndApplyRetention() throws Exception {
+        CounterRecorder recorder = recorder(512, 1024);
+        int bytesSent = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        countersManager.allocate("Bytes received", CounterTypes.SYSTEM);
+        for (int i = 1; i <= 500; i++) {
+            countersManager.setCounterValue(bytesSent, i * 1000L);
+            recorder.doWork();
+        }
+        recorder.onClose();
+
+        assertEquals(2, RecordingWriter.segments(directory).size());
+
+        List<Map<String, Long>> samples = replay();
+        assertAll(
+                () -> assertEquals(Map.of("Bytes sent", 500_000L, "Bytes received", 0L), samples.get(samples.size() - 1)),
+                () -> assertTrue(samples.get(0).containsKey("Bytes received")),
+                () -> assertTrue(samples.size() < 500)
+        );
+    }
+
+    @Test
+    public void shouldCreateNextSegmentAheadAndDeleteItOnClose() throws Exception {
+        RecordingWriter writer = new RecordingWriter(directory, 1024, Long.MAX_VALUE);
+        writer.roll(System.nanoTime());
+
+        long deadlineNs = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (pendingSegments() == 0) {
+            assertTrue(System.nanoTime() - deadlineNs < 0, "Next segment not created in time");
+            Thread.sleep(1);
+        }
+        writer.close();
+
+        assertAll(
+                () -> assertEquals(0, pendingSegments()),
+                () -> assertEquals(1, RecordingWriter.segments(directory).size())
+        );
+    }
+
+    @Test
+    public void shouldReplayAsPrometheusText() throws Exception {
+        CounterRecorder recorder = recorder(1024 * 1024, Long.MAX_VALUE);
+        int bytesSent = countersManager.allocate("Bytes sent", CounterTypes.SYSTEM);
+        countersManager.setCounterValue(bytesSent, 42);
+        recorder.doWork();
+        recorder.onClose();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new RecordingReader(directory).replay(0, END_OF_TIME_MS, new RecordingTool.PrometheusText(CounterRegistry.driverCounters(), out));
+
+        assertTrue(out.toString(StandardCharsets.UTF_8).matches("(?s).*\naeron_bytes_sent 42 \\d{13}\n"), out.toString(StandardCharsets.UTF_8));
+    }
+
+    private long pendingSegments() throws Exception {
+        try (Stream<Path> paths = Files.list(directory)) {
+            return paths.filter(path -> path.getFileName().toString().endsWith(".pending")).count();
+        }
+    }
+
+    private CounterRecorder recorder(int segmentLength, long retentionBytes) throws Exception {
+        when(cncFileReader.getCountersReader()).thenReturn(countersManager);
+        return new CounterRecorder(cncFileReader, new RecordingWriter(directory, segmentLength, retentionBytes), 0, TimeUnit.NANOSECONDS);
+    }
+
+    private List<Map<String, Long>> replay() throws Exception {
+        List<Map<String, Long>> samples = new ArrayList<>();
+        new RecordingReader(directory).replay(0, END_OF_TIME_MS, (timestampNs, counters) -> {
+            Map<String, Long> values = new TreeMap<>();
+            new CounterScanner().scan(counters, (counterId, typeId, keyBuffer, labelBuffer) ->
+                    values.put(labelBuffer.getStringWithoutLengthAscii(0, labelBuffer.capacity()), counters.getCounterValue(counterId)));
+            samples.add(values);
+        });
+        return samples;
+    }
+}